@@ -1,19 +1,30 @@
 package es.biblioteca.cliente;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Scanner;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 import es.biblioteca.cliente.entidad.Libro;
+import es.biblioteca.cliente.entidad.ResumenImportacion;
+import es.biblioteca.cliente.http2.FactoriaPeticionesHttp2;
+import es.biblioteca.cliente.proteccion.FactoriaPeticionesProtegidas;
+import es.biblioteca.cliente.tiempos.FactoriaPeticionesMedidas;
+import es.biblioteca.cliente.tiempos.RegistroTiempos;
+import es.biblioteca.cliente.servicio.PaginadorLibros;
 import es.biblioteca.cliente.servicio.ServicioProxyLibro;
 
 @SpringBootApplication
@@ -27,6 +38,10 @@ public class ClientApplication implements CommandLineRunner{
 
 	@Autowired
 	private ServicioProxyLibro spp;
+	
+	//Cuantos libros se muestran en cada pagina de los listados
+	@Value("${biblioteca.cliente.tamano-pagina:20}")
+	private int tamanoPagina;
 
 	
 	//También necesitaremos acceder al contexto de Spring para parar
@@ -45,9 +60,68 @@ public class ClientApplication implements CommandLineRunner{
 	//@Bean para decirle a Spring que cuando arranque la app ejecute este 
 	//método y meta el objeto devuelto dentro del contexto de Spring con ID 
 	//"restTemplate" (el nombre del método)
+	//Le decimos que no guarde en memoria el cuerpo de las peticiones antes
+	//de enviarlo, para poder subir ficheros de catalogo de varios GB.
+	//Las peticiones tienen timeouts y pasan por la factoria protegida, que
+	//aplica a cada servidor un limite de concurrencia adaptativo y un
+	//cortacircuitos para fallar rapido cuando el servidor esta mal. Ademas
+	//se mide cada peticion y se guarda junto al desglose del servidor.
+	//Las peticiones van por HTTP/2 si esta activo, para que las de todos
+	//los hilos compartan una sola conexion con cada servidor
+	@Bean
+	private static RestTemplate restTemplate(RestTemplateBuilder builder, FactoriaPeticionesProtegidas factoriaProtegida,
+			RegistroTiempos registroTiempos) {
+		return builder.requestFactory(() -> new FactoriaPeticionesMedidas(factoriaProtegida, registroTiempos)).build();
+	}
+	
+	@Bean
+	private static RegistroTiempos registroTiempos(
+			@Value("${biblioteca.cliente.tiempos.guardadas:500}") int guardadas,
+			@Value("${biblioteca.cliente.tiempos.umbral-lenta-ms:1000}") double umbralLenta) {
+		return new RegistroTiempos(guardadas, umbralLenta);
+	}
+	
+	@Bean
+	private static FactoriaPeticionesProtegidas factoriaProtegida(
+			@Value("${biblioteca.cliente.timeout-conexion-ms:2000}") int timeoutConexion,
+			@Value("${biblioteca.cliente.timeout-lectura-ms:10000}") int timeoutLectura,
+			@Value("${biblioteca.cliente.limite.inicial:20}") int limiteInicial,
+			@Value("${biblioteca.cliente.limite.minimo:1}") int limiteMinimo,
+			@Value("${biblioteca.cliente.limite.maximo:200}") int limiteMaximo,
+			@Value("${biblioteca.cliente.limite.latencia-objetivo-ms:1000}") long latenciaObjetivo,
+			@Value("${biblioteca.cliente.limite.factor-bajada:0.9}") double factorBajada,
+			@Value("${biblioteca.cliente.circuito.fallos-para-abrir:5}") int fallosParaAbrir,
+			@Value("${biblioteca.cliente.circuito.espera-ms:5000}") long esperaCircuito,
+			@Value("${biblioteca.cliente.http2:false}") boolean http2) {
+		ClientHttpRequestFactory factoria;
+		if (http2) {
+			factoria = new FactoriaPeticionesHttp2(timeoutConexion, timeoutLectura);
+		} else {
+			SimpleClientHttpRequestFactory simple = new SimpleClientHttpRequestFactory();
+			simple.setBufferRequestBody(false);
+			simple.setConnectTimeout(timeoutConexion);
+			simple.setReadTimeout(timeoutLectura);
+			factoria = simple;
+		}
+		return new FactoriaPeticionesProtegidas(factoria, limiteInicial, limiteMinimo, limiteMaximo,
+				latenciaObjetivo, factorBajada, fallosParaAbrir, esperaCircuito);
+	}
+	
+	//RestTemplate para la importacion y exportacion masivas. Una importacion
+	//de millones de libros tarda minutos en responder, asi que tiene su
+	//propio timeout de lectura y no pasa por el limite adaptativo (su
+	//latencia no dice nada de si el servidor esta saturado)
 	@Bean
-	private static RestTemplate restTemplate(RestTemplateBuilder builder) {
-		return builder.build();
+	private static RestTemplate restTemplateMasivo(RestTemplateBuilder builder, RegistroTiempos registroTiempos,
+			@Value("${biblioteca.cliente.timeout-conexion-ms:2000}") int timeoutConexion,
+			@Value("${biblioteca.cliente.timeout-lectura-masiva-ms:600000}") int timeoutLectura) {
+		return builder.requestFactory(() -> {
+			SimpleClientHttpRequestFactory factoria = new SimpleClientHttpRequestFactory();
+			factoria.setBufferRequestBody(false);
+			factoria.setConnectTimeout(timeoutConexion);
+			factoria.setReadTimeout(timeoutLectura);
+			return new FactoriaPeticionesMedidas(factoria, registroTiempos);
+		}).build();
 	}
 	
 	//Método main que lanza la aplicación
@@ -127,7 +201,7 @@ public class ClientApplication implements CommandLineRunner{
 
 		int opcion = 0;
 		
-		while (opcion!=7) {
+		while (opcion!=10) {
 		
 			printMenu();
 			
@@ -155,17 +229,26 @@ public class ClientApplication implements CommandLineRunner{
 						listaLibrosFiltrada();
 						break;
 					case 7:
+						importarCatalogo();
+						break;
+					case 8:
+						exportarCatalogo();
+						break;
+					case 9:
+						anadirServidor();
+						break;
+					case 10:
 						//Mandamos parar nuestra aplicación Spring Boot
 						pararAplicacion();
 						break; //este break no estaba grabando el video!!!! resubo a git.
 					default:
-	                    System.out.println("Opción no válida. Por favor, introduce un número del 1 al 7.");	
+	                    System.out.println("Opción no válida. Por favor, introduce un número del 1 al 10.");	
 				}
 			}
 			
 			catch (InputMismatchException e) {
 	            // Captura la excepción si se ingresa un valor que no es un entero
-	            System.out.println("Entrada no válida. Por favor, introduce un número del 1 al 7.");
+	            System.out.println("Entrada no válida. Por favor, introduce un número del 1 al 10.");
 	            leer.next(); // Limpia la entrada incorrecta del Scanner   
 			}
 		
@@ -183,7 +266,10 @@ public class ClientApplication implements CommandLineRunner{
 		System.out.println("4. Obtener un libro por ID");
 		System.out.println("5. Listar todos los libros");
 		System.out.println("6. Listar libros filtrando por palabra");	
-		System.out.println("7. Salir");	
+		System.out.println("7. Importar un catalogo desde fichero (CSV o JSON Lines)");
+		System.out.println("8. Exportar el catalogo a fichero");
+		System.out.println("9. Añadir un servidor y repartir los libros");
+		System.out.println("10. Salir");	
 		System.out.println("Introduce Opción: ");
 	}
 	
@@ -272,11 +358,10 @@ public class ClientApplication implements CommandLineRunner{
 		
 		System.out.println("");
 		System.out.println("********** LISTAR LIBROS ***************");
-		List<Libro> libros = spp.listar(null);
-		//Recorremos la lista y la imprimimos con funciones lambda
-		//Tambien podríamos haber usado un for-each clásico de java
-		libros.forEach((v) -> System.out.println(v));  // ESTE ESTÁ FENOMENAL.
-		
+		leer.nextLine();
+		//Los libros se piden por paginas segun se van viendo, asi no hace
+		//falta traerse el catalogo entero para ver los primeros
+		mostrarPaginas(spp.paginar(null, tamanoPagina));
 
 	}
 
@@ -287,16 +372,87 @@ public class ClientApplication implements CommandLineRunner{
 		leer.nextLine();
 		System.out.println("Introduce filtro para el título: ");
 		String filtro = leer.nextLine();
-		List<Libro> libros = spp.listar(filtro);
-		if (!libros.isEmpty()) {
-			System.out.println("ClientApplication -> Coincidencias encontradas: ");
-			libros.forEach((v) -> System.out.println(v));
-		}
-		else
+		if (!mostrarPaginas(spp.paginar(filtro, tamanoPagina)))
 			System.out.println("ClientApplication -> Ningún resultado encontrado");
 		
 	}
 	
+	//Muestra las paginas una a una hasta que no quedan mas o el usuario
+	//escribe q. Devuelve si se ha mostrado algun libro
+	private boolean mostrarPaginas(PaginadorLibros paginador) {
+		
+		int numero = 0;
+		while (paginador.hayMas()) {
+			List<Libro> pagina = paginador.siguientePagina();
+			if (pagina == null || pagina.isEmpty()) {
+				break;
+			}
+			numero++;
+			long primero = paginador.getLibrosLeidos() - pagina.size() + 1;
+			long total = paginador.getTotal();
+			System.out.println("");
+			System.out.println("ClientApplication -> Pagina " + numero + " (libros " + primero + "-"
+					+ paginador.getLibrosLeidos() + (total >= 0 ? " de " + total : "") + ")");
+			//Recorremos la lista y la imprimimos con funciones lambda
+			pagina.forEach((v) -> System.out.println(v));
+			if (!paginador.hayMas()) {
+				break;
+			}
+			System.out.println("Pulsa Intro para ver la siguiente pagina o escribe q para volver al menu");
+			if (leer.nextLine().trim().equalsIgnoreCase("q")) {
+				break;
+			}
+		}
+		return numero > 0;
+	}
+	
+	private void importarCatalogo() {
+
+		System.out.println("");
+		System.out.println("******* IMPORTAR CATALOGO *******");
+		leer.nextLine();
+		System.out.println("Introduce la ruta del fichero (.csv o .ndjson): ");
+		Path fichero = Paths.get(leer.nextLine().trim());
+		ResumenImportacion resumen = spp.importar(fichero);
+		if (resumen != null) {
+			System.out.println("ClientApplication -> Libros importados: " + resumen.getImportados()
+					+ " de " + resumen.getLeidas() + " en " + resumen.getMilisegundos() + " ms ("
+					+ resumen.getLibrosPorSegundo() + " libros/s)");
+			System.out.println("ClientApplication -> Duplicados: " + resumen.getDuplicados()
+					+ ", rechazados: " + resumen.getRechazados());
+			resumen.getErrores().forEach((v) -> System.out.println(v));
+		}
+	}
+
+	private void exportarCatalogo() {
+
+		System.out.println("");
+		System.out.println("******* EXPORTAR CATALOGO *******");
+		leer.nextLine();
+		System.out.println("Introduce la ruta del fichero (.csv o .ndjson): ");
+		Path fichero = Paths.get(leer.nextLine().trim());
+		String formato = fichero.toString().toLowerCase().endsWith(".csv") ? "csv" : "ndjson";
+		boolean exportado = spp.exportar(fichero, formato);
+		System.out.println("ClientApplication -> Catalogo exportado? " + exportado);
+	}
+	
+	private void anadirServidor() {
+
+		System.out.println("");
+		System.out.println("******* AÑADIR SERVIDOR *******");
+		System.out.println("ClientApplication -> Servidores actuales: " + spp.getServidores());
+		System.out.println("ClientApplication -> Lecturas: " + spp.getEstadisticasLectura());
+		leer.nextLine();
+		System.out.println("Introduce la URL del servidor nuevo (ej http://localhost:8083/libros/)");
+		System.out.println("o las de sus replicas separadas por | (ej http://localhost:8083/libros/|http://localhost:8084/libros/): ");
+		String servidor = leer.nextLine();
+		int movidos = spp.rebalancear(servidor);
+		if (movidos >= 0) {
+			System.out.println("ClientApplication -> Libros movidos al servidor nuevo: " + movidos);
+			System.out.println("ClientApplication -> Servidores actuales: " + spp.getServidores());
+		}
+	}
+	
 	public void pararAplicacion() {
 		//Esta aplicacion levanta un servidor web, por lo que tenemos que dar 
 		//la orden de pararlo cuando acabemos. Para ello usamos el método exit, 
@@ -0,0 +1,49 @@
+package es.biblioteca.cliente.controlador;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import es.biblioteca.cliente.proteccion.FactoriaPeticionesProtegidas;
+import es.biblioteca.cliente.servicio.ServicioProxyLibro;
+import es.biblioteca.cliente.tiempos.TiempoPeticion;
+
+//Controlador que expone las metricas de la proteccion del cliente: el
+//limite de concurrencia y el estado del circuito de cada servidor, los
+//reintentos y las lecturas cubiertas con una segunda replica. Tambien los
+//tiempos de las ultimas peticiones.
+@RestController
+public class ControladorMetricas {
+
+	@Autowired
+	private FactoriaPeticionesProtegidas factoriaProtegida;
+
+	@Autowired
+	private ServicioProxyLibro spp;
+
+	//La URL para acceder a este metodo sería:
+	//"http://localhost:8081/cliente/metricas" y el metodo a usar seria GET
+	@GetMapping(path="cliente/metricas",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		metricas.put("servidores", factoriaProtegida.getMetricas());
+		metricas.putAll(spp.getMetricas());
+		return new ResponseEntity<Map<String, Object>>(metricas,HttpStatus.OK);
+	}
+	
+	//Las ultimas peticiones hechas a los servidores, cada una con su id de
+	//traza, el tiempo total en el cliente y el desglose del servidor
+	//La URL para acceder a este metodo sería:
+	//"http://localhost:8081/cliente/tiempos" y el metodo a usar seria GET
+	@GetMapping(path="cliente/tiempos",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<TiempoPeticion>> getTiempos() {
+		return new ResponseEntity<List<TiempoPeticion>>(spp.getTiempos(),HttpStatus.OK);
+	}
+}
@@ -0,0 +1,154 @@
+package es.biblioteca.cliente.entidad;
+
+import java.io.IOException;
+
+import org.springframework.boot.jackson.JsonComponent;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Conversion de Libro a JSON y de JSON a Libro escrita a mano con el API de
+ * streaming de Jackson, sin reflexion ni arboles intermedios. Libro se
+ * convierte en cada peticion (altas, modificaciones, busquedas y sobre todo
+ * la exportacion), y el serializador generico de Jackson, que va por reflexion
+ * campo a campo, era de lo que mas tiempo se llevaba.
+ *
+ * - Los nombres de los campos estan precalculados (SerializedString guarda
+ * ya sus bytes en UTF-8 y entre comillas), asi que escribirlos es copiar
+ * bytes.
+ * - Al leer se espera el orden habitual (id, titulo, editorial, nota), que
+ * Jackson comprueba comparando directamente con esos bytes. Si los campos
+ * vienen en otro orden se pasa a leerlos uno a uno por nombre.
+ * - Los buffers de lectura y escritura son los del JsonFactory de Jackson,
+ * que ya los reutiliza entre peticiones.
+ *
+ * Se comporta igual que la conversion generica: los campos desconocidos se
+ * ignoran, los null se respetan y se aceptan numeros donde se espera texto
+ * y texto numerico donde se espera el id.
+ *
+ * Con @JsonComponent Spring Boot lo registra en el ObjectMapper de los
+ * RestTemplate y de los controladores del cliente.
+ */
+@JsonComponent
+public class LibroJson {
+
+	static final SerializedString ID = new SerializedString("id");
+	static final SerializedString TITULO = new SerializedString("titulo");
+	static final SerializedString EDITORIAL = new SerializedString("editorial");
+	static final SerializedString NOTA = new SerializedString("nota");
+
+	public static class Serializador extends StdSerializer<Libro> {
+
+		private static final long serialVersionUID = 1L;
+
+		public Serializador() {
+			super(Libro.class);
+		}
+
+		@Override
+		public void serialize(Libro l, JsonGenerator gen, SerializerProvider provider) throws IOException {
+			gen.writeStartObject(l);
+			gen.writeFieldName(ID);
+			gen.writeNumber(l.getId());
+			gen.writeFieldName(TITULO);
+			gen.writeString(l.getTitulo());
+			gen.writeFieldName(EDITORIAL);
+			gen.writeString(l.getEditorial());
+			gen.writeFieldName(NOTA);
+			gen.writeString(l.getNota());
+			gen.writeEndObject();
+		}
+	}
+
+	public static class Deserializador extends StdDeserializer<Libro> {
+
+		private static final long serialVersionUID = 1L;
+
+		public Deserializador() {
+			super(Libro.class);
+		}
+
+		@Override
+		public Libro deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+			JsonToken t = p.currentToken();
+			if (t == JsonToken.START_OBJECT) {
+				t = p.nextToken();
+			} else if (t != JsonToken.FIELD_NAME && t != JsonToken.END_OBJECT) {
+				return (Libro) ctxt.handleUnexpectedToken(Libro.class, p);
+			}
+			Libro l = new Libro();
+			//Camino rapido: los campos en el orden en que los escribimos
+			if (t == JsonToken.FIELD_NAME && ID.getValue().equals(p.currentName())) {
+				p.nextToken();
+				l.setId(leerId(p, ctxt));
+				if (p.nextFieldName(TITULO)) {
+					p.nextToken();
+					l.setTitulo(leerTexto(p, ctxt));
+					if (p.nextFieldName(EDITORIAL)) {
+						p.nextToken();
+						l.setEditorial(leerTexto(p, ctxt));
+						if (p.nextFieldName(NOTA)) {
+							p.nextToken();
+							l.setNota(leerTexto(p, ctxt));
+							p.nextToken();
+						}
+					}
+				}
+				t = p.currentToken();
+			}
+			//Camino general: cualquier orden y campos desconocidos
+			for (; t == JsonToken.FIELD_NAME; t = p.nextToken()) {
+				String campo = p.currentName();
+				p.nextToken();
+				switch (campo) {
+					case "id":
+						l.setId(leerId(p, ctxt));
+						break;
+					case "titulo":
+						l.setTitulo(leerTexto(p, ctxt));
+						break;
+					case "editorial":
+						l.setEditorial(leerTexto(p, ctxt));
+						break;
+					case "nota":
+						l.setNota(leerTexto(p, ctxt));
+						break;
+					default:
+						p.skipChildren();
+				}
+			}
+			if (t != JsonToken.END_OBJECT) {
+				return (Libro) ctxt.handleUnexpectedToken(Libro.class, p);
+			}
+			return l;
+		}
+
+		private int leerId(JsonParser p, DeserializationContext ctxt) throws IOException {
+			if (p.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+				return p.getIntValue();
+			}
+			return _parseIntPrimitive(p, ctxt);
+		}
+
+		private String leerTexto(JsonParser p, DeserializationContext ctxt) throws IOException {
+			JsonToken t = p.currentToken();
+			if (t == JsonToken.VALUE_STRING) {
+				return p.getText();
+			}
+			if (t == JsonToken.VALUE_NULL) {
+				return null;
+			}
+			if (t.isScalarValue()) {
+				return p.getValueAsString();
+			}
+			return (String) ctxt.handleUnexpectedToken(String.class, p);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package es.biblioteca.cliente.entidad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado de pedir varios libros por id de una sola vez: los libros que
+ * existen, en el orden en que se han pedido, y los ids que no existen.
+ */
+public class ResultadoMultiple {
+
+	private List<Libro> libros = new ArrayList<Libro>();
+	private List<Integer> idsNoEncontrados = new ArrayList<Integer>();
+
+	public ResultadoMultiple() {
+		super();
+	}
+
+	public ResultadoMultiple(List<Libro> libros, List<Integer> idsNoEncontrados) {
+		super();
+		this.libros = libros;
+		this.idsNoEncontrados = idsNoEncontrados;
+	}
+
+	public List<Libro> getLibros() {
+		return libros;
+	}
+
+	public void setLibros(List<Libro> libros) {
+		this.libros = libros;
+	}
+
+	public List<Integer> getIdsNoEncontrados() {
+		return idsNoEncontrados;
+	}
+
+	public void setIdsNoEncontrados(List<Integer> idsNoEncontrados) {
+		this.idsNoEncontrados = idsNoEncontrados;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultadoMultiple [libros=" + libros + ", idsNoEncontrados=" + idsNoEncontrados + "]";
+	}
+}
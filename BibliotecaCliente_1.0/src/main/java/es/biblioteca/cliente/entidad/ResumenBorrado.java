@@ -0,0 +1,61 @@
+package es.biblioteca.cliente.entidad;
+
+/**
+ * Resumen de un borrado masivo devuelto por el servicio REST: cuantos ids
+ * se han leido, cuantos libros se han borrado, cuantos ids no existian y
+ * cuantas lineas no eran un id, junto con el tiempo que ha llevado.
+ */
+public class ResumenBorrado {
+	
+	private long leidos;
+	private long borrados;
+	private long noEncontrados;
+	private long rechazados;
+	private long milisegundos;
+
+	public long getLeidos() {
+		return leidos;
+	}
+
+	public void setLeidos(long leidos) {
+		this.leidos = leidos;
+	}
+
+	public long getBorrados() {
+		return borrados;
+	}
+
+	public void setBorrados(long borrados) {
+		this.borrados = borrados;
+	}
+
+	public long getNoEncontrados() {
+		return noEncontrados;
+	}
+
+	public void setNoEncontrados(long noEncontrados) {
+		this.noEncontrados = noEncontrados;
+	}
+
+	public long getRechazados() {
+		return rechazados;
+	}
+
+	public void setRechazados(long rechazados) {
+		this.rechazados = rechazados;
+	}
+
+	public long getMilisegundos() {
+		return milisegundos;
+	}
+
+	public void setMilisegundos(long milisegundos) {
+		this.milisegundos = milisegundos;
+	}
+
+	@Override
+	public String toString() {
+		return "ResumenBorrado [leidos=" + leidos + ", borrados=" + borrados + ", noEncontrados=" + noEncontrados
+				+ ", rechazados=" + rechazados + ", milisegundos=" + milisegundos + "]";
+	}
+}
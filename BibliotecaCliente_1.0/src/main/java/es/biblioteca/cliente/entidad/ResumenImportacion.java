@@ -0,0 +1,84 @@
+package es.biblioteca.cliente.entidad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resumen de una carga masiva devuelto por el servicio REST: cuantas lineas
+ * se han leido, cuantos libros se han importado, cuantos estaban repetidos
+ * (por id o por titulo) y cuantas lineas no eran validas, junto con el
+ * tiempo que ha llevado y la velocidad de importacion.
+ */
+public class ResumenImportacion {
+	
+	private long leidas;
+	private long importados;
+	private long duplicados;
+	private long rechazados;
+	private List<String> errores = new ArrayList<String>();
+	private long milisegundos;
+	private long librosPorSegundo;
+
+	public long getLeidas() {
+		return leidas;
+	}
+
+	public void setLeidas(long leidas) {
+		this.leidas = leidas;
+	}
+
+	public long getImportados() {
+		return importados;
+	}
+
+	public void setImportados(long importados) {
+		this.importados = importados;
+	}
+
+	public long getDuplicados() {
+		return duplicados;
+	}
+
+	public void setDuplicados(long duplicados) {
+		this.duplicados = duplicados;
+	}
+
+	public long getRechazados() {
+		return rechazados;
+	}
+
+	public void setRechazados(long rechazados) {
+		this.rechazados = rechazados;
+	}
+
+	public List<String> getErrores() {
+		return errores;
+	}
+
+	public void setErrores(List<String> errores) {
+		this.errores = errores;
+	}
+
+	public long getMilisegundos() {
+		return milisegundos;
+	}
+
+	public void setMilisegundos(long milisegundos) {
+		this.milisegundos = milisegundos;
+	}
+
+	public long getLibrosPorSegundo() {
+		return librosPorSegundo;
+	}
+
+	public void setLibrosPorSegundo(long librosPorSegundo) {
+		this.librosPorSegundo = librosPorSegundo;
+	}
+
+	@Override
+	public String toString() {
+		return "ResumenImportacion [leidas=" + leidas + ", importados=" + importados + ", duplicados=" + duplicados
+				+ ", rechazados=" + rechazados + ", milisegundos=" + milisegundos + ", librosPorSegundo="
+				+ librosPorSegundo + ", errores=" + errores + "]";
+	}
+}
@@ -0,0 +1,42 @@
+package es.biblioteca.cliente.entidad;
+
+/**
+ * Sugerencia de titulo devuelta por el autocompletado del servicio REST.
+ * Solo lleva el id y el titulo del libro.
+ */
+public class Sugerencia {
+	
+	private int id;
+	private String titulo;
+
+	public Sugerencia() {
+		super();
+	}
+
+	public Sugerencia(int id, String titulo) {
+		super();
+		this.id = id;
+		this.titulo = titulo;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getTitulo() {
+		return titulo;
+	}
+
+	public void setTitulo(String titulo) {
+		this.titulo = titulo;
+	}
+
+	@Override
+	public String toString() {
+		return "Sugerencia [id=" + id + ", titulo=" + titulo + "]";
+	}
+}
@@ -0,0 +1,171 @@
+package es.biblioteca.cliente.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Factoria de peticiones HTTP sobre el HttpClient del JDK, que habla HTTP/2.
+ *
+ * Con HttpURLConnection cada peticion en curso necesita su propia conexion,
+ * asi que cientos de hilos pidiendo libros a la vez abren cientos de
+ * conexiones con el servidor. Con HTTP/2 todas las peticiones a un servidor
+ * van multiplexadas por una sola conexion, cada una en su stream.
+ *
+ * Como el servidor no usa TLS la primera peticion va en HTTP/1.1 con
+ * "Upgrade: h2c", y a partir de ahi el HttpClient reutiliza la conexion
+ * HTTP/2. Si el servidor no sabe HTTP/2 todo sigue en HTTP/1.1.
+ *
+ * Si el hilo que espera la respuesta se interrumpe (una lectura cubierta que
+ * ha perdido), el HttpClient cancela la peticion. En HTTP/2 eso cierra solo
+ * su stream y la conexion sigue sirviendo al resto.
+ *
+ * El cuerpo de la peticion se guarda en memoria antes de mandarlo, asi que
+ * no vale para las subidas masivas, que siguen con HttpURLConnection.
+ */
+public class FactoriaPeticionesHttp2 implements ClientHttpRequestFactory {
+
+	//Cabeceras que pone el propio HttpClient y no deja poner a mano
+	private static final Set<String> CABECERAS_RESTRINGIDAS = Set.of("connection", "content-length", "expect", "host",
+			"upgrade");
+
+	private final HttpClient cliente;
+	private final Duration timeoutLectura;
+
+	/**
+	 * @param timeoutConexionMs lo maximo que se espera a conectar
+	 * @param timeoutLecturaMs lo maximo que se espera a que lleguen las
+	 * cabeceras de la respuesta
+	 */
+	public FactoriaPeticionesHttp2(int timeoutConexionMs, int timeoutLecturaMs) {
+		this.cliente = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(timeoutConexionMs))
+				.build();
+		this.timeoutLectura = Duration.ofMillis(timeoutLecturaMs);
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		return new PeticionHttp2(uri, httpMethod);
+	}
+
+	private final class PeticionHttp2 extends AbstractClientHttpRequest {
+
+		private final URI uri;
+		private final HttpMethod metodo;
+		private final ByteArrayOutputStream cuerpo = new ByteArrayOutputStream(256);
+
+		PeticionHttp2(URI uri, HttpMethod metodo) {
+			this.uri = uri;
+			this.metodo = metodo;
+		}
+
+		@Override
+		public String getMethodValue() {
+			return metodo.name();
+		}
+
+		@Override
+		public URI getURI() {
+			return uri;
+		}
+
+		@Override
+		protected OutputStream getBodyInternal(HttpHeaders headers) {
+			return cuerpo;
+		}
+
+		@Override
+		protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+			HttpRequest.Builder peticion = HttpRequest.newBuilder(uri).timeout(timeoutLectura);
+			for (Map.Entry<String, List<String>> cabecera : headers.entrySet()) {
+				if (!CABECERAS_RESTRINGIDAS.contains(cabecera.getKey().toLowerCase(Locale.ROOT))) {
+					for (String valor : cabecera.getValue()) {
+						peticion.header(cabecera.getKey(), valor);
+					}
+				}
+			}
+			peticion.method(metodo.name(), cuerpo.size() == 0 ? HttpRequest.BodyPublishers.noBody()
+					: HttpRequest.BodyPublishers.ofByteArray(cuerpo.toByteArray()));
+			try {
+				return new RespuestaHttp2(cliente.send(peticion.build(), HttpResponse.BodyHandlers.ofInputStream()));
+			} catch (InterruptedException e) {
+				//Se deja la marca de interrumpido para que quien llama sepa
+				//que ha sido una cancelacion y no un fallo del servidor
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Peticion cancelada: " + metodo + " " + uri);
+			}
+		}
+	}
+
+	private static final class RespuestaHttp2 implements ClientHttpResponse {
+
+		private final HttpResponse<InputStream> respuesta;
+		private HttpHeaders cabeceras;
+
+		RespuestaHttp2(HttpResponse<InputStream> respuesta) {
+			this.respuesta = respuesta;
+		}
+
+		@Override
+		public HttpStatus getStatusCode() {
+			return HttpStatus.valueOf(respuesta.statusCode());
+		}
+
+		@Override
+		public int getRawStatusCode() {
+			return respuesta.statusCode();
+		}
+
+		//HTTP/2 no manda el texto del estado, se pone el estandar
+		@Override
+		public String getStatusText() {
+			HttpStatus estado = HttpStatus.resolve(respuesta.statusCode());
+			return estado != null ? estado.getReasonPhrase() : "";
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			if (cabeceras == null) {
+				HttpHeaders h = new HttpHeaders();
+				respuesta.headers().map().forEach(h::addAll);
+				cabeceras = HttpHeaders.readOnlyHttpHeaders(h);
+			}
+			return cabeceras;
+		}
+
+		@Override
+		public InputStream getBody() {
+			return respuesta.body();
+		}
+
+		@Override
+		public void close() {
+			try {
+				respuesta.body().close();
+			} catch (IOException e) {
+				//Nada que hacer, la respuesta ya no se va a leer
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package es.biblioteca.cliente.proteccion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cortacircuitos ("circuit breaker") de un servidor. Mientras el servidor
+ * responde bien esta CERRADO y deja pasar todo. Tras varios fallos seguidos
+ * (errores de conexion, timeouts o respuestas 5XX) se ABRE y durante un
+ * tiempo rechaza todas las peticiones sin llegar a mandarlas, asi el
+ * cliente falla rapido y no carga mas a un servidor que ya esta mal.
+ *
+ * Pasado ese tiempo queda SEMIABIERTO y deja pasar una sola peticion de
+ * prueba: si va bien se cierra y si falla se vuelve a abrir.
+ */
+public class CircuitoServidor {
+
+	public enum Estado {
+		CERRADO, ABIERTO, SEMIABIERTO
+	}
+
+	private final int fallosParaAbrir;
+	private final long esperaNanos;
+
+	private Estado estado = Estado.CERRADO;
+	private int fallosSeguidos;
+	private long abiertoDesde;
+	private long pruebaDesde;
+	private boolean pruebaEnCurso;
+
+	private final LongAdder rechazadas = new LongAdder();
+	private final LongAdder aperturas = new LongAdder();
+
+	/**
+	 * @param fallosParaAbrir fallos seguidos que abren el circuito
+	 * @param esperaMs tiempo que el circuito esta abierto antes de probar
+	 */
+	public CircuitoServidor(int fallosParaAbrir, long esperaMs) {
+		this.fallosParaAbrir = fallosParaAbrir;
+		this.esperaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMs);
+	}
+
+	/**
+	 * @return true si se puede mandar la peticion, false si hay que fallar
+	 * sin mandarla
+	 */
+	public synchronized boolean permitir() {
+		long ahora = System.nanoTime();
+		switch (estado) {
+			case CERRADO:
+				return true;
+			case ABIERTO:
+				if (ahora - abiertoDesde < esperaNanos) {
+					rechazadas.increment();
+					return false;
+				}
+				estado = Estado.SEMIABIERTO;
+				break;
+			default:
+				//Si la peticion de prueba no ha terminado (no ha llegado a
+				//mandarse, por ejemplo) dejamos pasar otra
+				if (pruebaEnCurso && ahora - pruebaDesde < esperaNanos) {
+					rechazadas.increment();
+					return false;
+				}
+		}
+		pruebaEnCurso = true;
+		pruebaDesde = ahora;
+		return true;
+	}
+
+	public synchronized void exito() {
+		fallosSeguidos = 0;
+		pruebaEnCurso = false;
+		if (estado != Estado.CERRADO) {
+			estado = Estado.CERRADO;
+			System.out.println("CircuitoServidor -> Circuito cerrado, el servidor vuelve a responder");
+		}
+	}
+
+	public synchronized void fallo() {
+		fallosSeguidos++;
+		pruebaEnCurso = false;
+		if (estado == Estado.SEMIABIERTO || (estado == Estado.CERRADO && fallosSeguidos >= fallosParaAbrir)) {
+			estado = Estado.ABIERTO;
+			abiertoDesde = System.nanoTime();
+			aperturas.increment();
+			System.out.println("CircuitoServidor -> Circuito abierto tras " + fallosSeguidos + " fallos seguidos");
+		}
+	}
+
+	public synchronized Estado getEstado() {
+		return estado;
+	}
+
+	/**
+	 * @return una foto de las metricas de este circuito
+	 */
+	public synchronized Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		metricas.put("estado", estado);
+		metricas.put("fallosSeguidos", fallosSeguidos);
+		metricas.put("aperturas", aperturas.sum());
+		metricas.put("rechazadas", rechazadas.sum());
+		return metricas;
+	}
+}
@@ -0,0 +1,150 @@
+package es.biblioteca.cliente.proteccion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Factoria de peticiones HTTP que protege a cada servidor (host y puerto)
+ * con un cortacircuitos y un limite de concurrencia adaptativo. Envuelve a
+ * otra factoria, que es la que hace de verdad las peticiones.
+ *
+ * Se hace en la factoria y no con un interceptor de RestTemplate porque los
+ * interceptores guardan en memoria el cuerpo de la peticion, y la
+ * importacion masiva lo manda en streaming.
+ *
+ * - El circuito se mira al crear la peticion, antes de mandar nada.
+ * - El hueco del limite se coge al ejecutarla (cuando ya se ha escrito el
+ * cuerpo) y se devuelve al recibir la respuesta, con su latencia.
+ * - Cuentan como fallo los errores de conexion, los timeouts y los 5XX, y
+ * como sobrecarga para el limite ademas los 429. Las peticiones canceladas
+ * (el hilo se ha interrumpido) no cuentan ni como fallo ni como exito.
+ */
+public class FactoriaPeticionesProtegidas implements ClientHttpRequestFactory {
+
+	private final ClientHttpRequestFactory factoria;
+	private final Map<String, Proteccion> servidores = new ConcurrentHashMap<String, Proteccion>();
+
+	private final int limiteInicial;
+	private final int limiteMinimo;
+	private final int limiteMaximo;
+	private final long latenciaObjetivoMs;
+	private final double factorBajada;
+	private final int fallosParaAbrir;
+	private final long esperaCircuitoMs;
+
+	public FactoriaPeticionesProtegidas(ClientHttpRequestFactory factoria, int limiteInicial, int limiteMinimo,
+			int limiteMaximo, long latenciaObjetivoMs, double factorBajada, int fallosParaAbrir, long esperaCircuitoMs) {
+		this.factoria = factoria;
+		this.limiteInicial = limiteInicial;
+		this.limiteMinimo = limiteMinimo;
+		this.limiteMaximo = limiteMaximo;
+		this.latenciaObjetivoMs = latenciaObjetivoMs;
+		this.factorBajada = factorBajada;
+		this.fallosParaAbrir = fallosParaAbrir;
+		this.esperaCircuitoMs = esperaCircuitoMs;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		String servidor = uri.getScheme() + "://" + uri.getAuthority();
+		Proteccion proteccion = servidores.computeIfAbsent(servidor, s -> new Proteccion());
+		if (!proteccion.circuito.permitir()) {
+			throw new ServidorNoDisponibleException("Circuito abierto para " + servidor);
+		}
+		return new PeticionProtegida(factoria.createRequest(uri, httpMethod), servidor, proteccion);
+	}
+
+	/**
+	 * @return el limite y el estado del circuito de cada servidor
+	 */
+	public Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new TreeMap<String, Object>();
+		for (Map.Entry<String, Proteccion> e : servidores.entrySet()) {
+			Map<String, Object> servidor = new TreeMap<String, Object>();
+			servidor.put("limite", e.getValue().limite.getMetricas());
+			servidor.put("circuito", e.getValue().circuito.getMetricas());
+			metricas.put(e.getKey(), servidor);
+		}
+		return metricas;
+	}
+
+	private final class Proteccion {
+
+		private final LimiteAdaptativo limite = new LimiteAdaptativo(limiteInicial, limiteMinimo, limiteMaximo,
+				latenciaObjetivoMs, factorBajada);
+		private final CircuitoServidor circuito = new CircuitoServidor(fallosParaAbrir, esperaCircuitoMs);
+	}
+
+	private static final class PeticionProtegida implements ClientHttpRequest {
+
+		private final ClientHttpRequest peticion;
+		private final String servidor;
+		private final Proteccion proteccion;
+
+		PeticionProtegida(ClientHttpRequest peticion, String servidor, Proteccion proteccion) {
+			this.peticion = peticion;
+			this.servidor = servidor;
+			this.proteccion = proteccion;
+		}
+
+		@Override
+		public ClientHttpResponse execute() throws IOException {
+			if (!proteccion.limite.adquirir()) {
+				throw new ServidorNoDisponibleException("Limite de concurrencia (" + proteccion.limite.getLimite()
+						+ ") alcanzado en " + servidor);
+			}
+			long inicio = System.nanoTime();
+			boolean fallo = true;
+			boolean sobrecarga = true;
+			try {
+				ClientHttpResponse respuesta = peticion.execute();
+				int codigo = respuesta.getRawStatusCode();
+				fallo = codigo >= 500;
+				sobrecarga = fallo || codigo == 429;
+				return respuesta;
+			} finally {
+				//Una peticion cancelada (la que pierde en una lectura cubierta)
+				//no dice nada de como esta el servidor
+				boolean cancelada = fallo && Thread.currentThread().isInterrupted();
+				proteccion.limite.liberar(System.nanoTime() - inicio, sobrecarga && !cancelada);
+				if (!cancelada) {
+					if (fallo) {
+						proteccion.circuito.fallo();
+					} else {
+						proteccion.circuito.exito();
+					}
+				}
+			}
+		}
+
+		@Override
+		public OutputStream getBody() throws IOException {
+			return peticion.getBody();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return peticion.getHeaders();
+		}
+
+		@Override
+		public String getMethodValue() {
+			return peticion.getMethodValue();
+		}
+
+		@Override
+		public URI getURI() {
+			return peticion.getURI();
+		}
+	}
+}
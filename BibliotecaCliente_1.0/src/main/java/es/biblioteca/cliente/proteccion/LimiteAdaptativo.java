@@ -0,0 +1,100 @@
+package es.biblioteca.cliente.proteccion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limite de concurrencia adaptativo (AIMD) para las peticiones a un
+ * servidor. Como mucho deja "limite" peticiones en curso a la vez y rechaza
+ * el resto en el momento, sin esperar, para no acumular hilos bloqueados
+ * cuando el servidor va lento.
+ *
+ * El limite se ajusta con lo que se observa en cada respuesta:
+ * - Si la respuesta llega bien y por debajo de la latencia objetivo, sube
+ * en 1/limite (mas o menos 1 por cada "ronda" de peticiones), pero solo si
+ * se esta usando, para que no crezca sin fin cuando hay poco trafico.
+ * - Si la respuesta es un error, un 503/429 o tarda mas que la latencia
+ * objetivo, se multiplica por el factor de bajada. Solo se baja una vez por
+ * cada latencia de respuesta, para que una rafaga de errores de peticiones
+ * que ya estaban en curso no lo hunda de golpe.
+ */
+public class LimiteAdaptativo {
+
+	private final int limiteMinimo;
+	private final int limiteMaximo;
+	private final long latenciaObjetivoNanos;
+	private final double factorBajada;
+
+	private double limite;
+	private int enCurso;
+	private long ultimaBajada;
+
+	private final LongAdder admitidas = new LongAdder();
+	private final LongAdder rechazadas = new LongAdder();
+	private final LongAdder bajadas = new LongAdder();
+
+	public LimiteAdaptativo(int limiteInicial, int limiteMinimo, int limiteMaximo, long latenciaObjetivoMs,
+			double factorBajada) {
+		this.limite = limiteInicial;
+		this.limiteMinimo = limiteMinimo;
+		this.limiteMaximo = limiteMaximo;
+		this.latenciaObjetivoNanos = TimeUnit.MILLISECONDS.toNanos(latenciaObjetivoMs);
+		this.factorBajada = factorBajada;
+		this.ultimaBajada = System.nanoTime();
+	}
+
+	/**
+	 * Intenta obtener un hueco para hacer la peticion
+	 * @return true si la peticion se puede hacer (y por tanto hay que llamar
+	 * a liberar() al terminar), false si hay que rechazarla
+	 */
+	public synchronized boolean adquirir() {
+		if (enCurso >= (int) limite) {
+			rechazadas.increment();
+			return false;
+		}
+		enCurso++;
+		admitidas.increment();
+		return true;
+	}
+
+	/**
+	 * Devuelve el hueco y ajusta el limite con el resultado de la peticion
+	 * @param nanos lo que ha tardado la peticion
+	 * @param sobrecarga true si la peticion ha fallado o el servidor ha
+	 * dicho que esta saturado
+	 */
+	public synchronized void liberar(long nanos, boolean sobrecarga) {
+		boolean usado = enCurso * 2 >= (int) limite;
+		enCurso--;
+		if (sobrecarga || nanos > latenciaObjetivoNanos) {
+			long ahora = System.nanoTime();
+			if (ahora - ultimaBajada > nanos) {
+				limite = Math.max(limiteMinimo, limite * factorBajada);
+				ultimaBajada = ahora;
+				bajadas.increment();
+			}
+		} else if (usado) {
+			limite = Math.min(limiteMaximo, limite + 1 / limite);
+		}
+	}
+
+	public synchronized int getLimite() {
+		return (int) limite;
+	}
+
+	/**
+	 * @return una foto de las metricas de este limite
+	 */
+	public synchronized Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		metricas.put("limite", (int) limite);
+		metricas.put("enCurso", enCurso);
+		metricas.put("admitidas", admitidas.sum());
+		metricas.put("rechazadas", rechazadas.sum());
+		metricas.put("bajadas", bajadas.sum());
+		return metricas;
+	}
+}
@@ -0,0 +1,124 @@
+package es.biblioteca.cliente.proteccion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Reintentos de peticiones idempotentes con espera exponencial y jitter, y
+ * con un presupuesto que limita cuantos reintentos se pueden hacer.
+ *
+ * Solo se reintentan los errores que pueden ser pasajeros: errores de
+ * conexion o timeouts y las respuestas 502, 503 y 504. No se reintenta
+ * cuando la peticion ni se ha mandado porque el circuito esta abierto o
+ * se ha llegado al limite de concurrencia, ya que volveria a fallar igual.
+ *
+ * La espera antes de cada reintento es un valor al azar entre 0 y
+ * base * 2^(intento-1), con un maximo ("full jitter"), para que los clientes
+ * que han fallado a la vez no vuelvan a llegar todos a la vez.
+ *
+ * El presupuesto es una cubeta: cada peticion nueva añade "proporcion"
+ * tokens (hasta un maximo) y cada reintento gasta uno. Asi los reintentos
+ * nunca pasan de esa proporcion de las peticiones (un 10% por defecto) y,
+ * si el servidor cae, los reintentos no multiplican la carga que le llega.
+ */
+public class Reintentos {
+
+	private final int intentosMaximos;
+	private final long esperaBaseMs;
+	private final long esperaMaximaMs;
+	private final double proporcion;
+	private final double tokensMaximos;
+	private double tokens;
+
+	private final LongAdder peticiones = new LongAdder();
+	private final LongAdder reintentos = new LongAdder();
+	private final LongAdder sinPresupuesto = new LongAdder();
+
+	/**
+	 * @param intentosMaximos intentos en total, contando el primero
+	 * @param esperaBaseMs espera maxima antes del primer reintento
+	 * @param esperaMaximaMs espera maxima antes de cualquier reintento
+	 * @param proporcion reintentos por cada peticion, entre 0 y 1
+	 * @param tokensMaximos reintentos que se pueden acumular para una rafaga
+	 */
+	public Reintentos(int intentosMaximos, long esperaBaseMs, long esperaMaximaMs, double proporcion,
+			double tokensMaximos) {
+		this.intentosMaximos = intentosMaximos;
+		this.esperaBaseMs = esperaBaseMs;
+		this.esperaMaximaMs = esperaMaximaMs;
+		this.proporcion = proporcion;
+		this.tokensMaximos = tokensMaximos;
+		this.tokens = tokensMaximos;
+	}
+
+	/**
+	 * Hace la peticion, reintentandola si falla por un error pasajero y
+	 * queda presupuesto. La peticion tiene que ser idempotente
+	 * @return la respuesta de la peticion
+	 */
+	public <T> T ejecutar(Supplier<T> peticion) {
+		depositar();
+		int intento = 1;
+		while (true) {
+			try {
+				return peticion.get();
+			} catch (HttpServerErrorException | ResourceAccessException e) {
+				if (intento >= intentosMaximos || !reintentable(e)) {
+					throw e;
+				}
+				if (!retirar()) {
+					sinPresupuesto.increment();
+					throw e;
+				}
+				long tope = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(intento - 1, 20));
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(tope + 1));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				reintentos.increment();
+				intento++;
+			}
+		}
+	}
+
+	private static boolean reintentable(RuntimeException e) {
+		if (e instanceof HttpServerErrorException) {
+			int codigo = ((HttpServerErrorException) e).getRawStatusCode();
+			return codigo == 502 || codigo == 503 || codigo == 504;
+		}
+		return !(e.getCause() instanceof ServidorNoDisponibleException);
+	}
+
+	private synchronized void depositar() {
+		peticiones.increment();
+		tokens = Math.min(tokensMaximos, tokens + proporcion);
+	}
+
+	private synchronized boolean retirar() {
+		if (tokens < 1) {
+			return false;
+		}
+		tokens -= 1;
+		return true;
+	}
+
+	/**
+	 * @return una foto de las metricas de los reintentos
+	 */
+	public synchronized Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		metricas.put("peticiones", peticiones.sum());
+		metricas.put("reintentos", reintentos.sum());
+		metricas.put("sinPresupuesto", sinPresupuesto.sum());
+		metricas.put("presupuesto", Math.floor(tokens * 10) / 10);
+		return metricas;
+	}
+}
@@ -0,0 +1,18 @@
+package es.biblioteca.cliente.proteccion;
+
+import java.io.IOException;
+
+/**
+ * La peticion no se ha mandado porque el circuito del servidor esta abierto
+ * o porque ya hay demasiadas peticiones en curso. Es una IOException para
+ * que RestTemplate la envuelva en una ResourceAccessException, igual que un
+ * error de conexion, y se trate en los mismos catch.
+ */
+public class ServidorNoDisponibleException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ServidorNoDisponibleException(String mensaje) {
+		super(mensaje);
+	}
+}
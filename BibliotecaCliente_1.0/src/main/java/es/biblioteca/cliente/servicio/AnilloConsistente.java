@@ -0,0 +1,108 @@
+package es.biblioteca.cliente.servicio;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente para repartir los ids de los libros entre
+ * varios servidores. Cada servidor se coloca en el anillo muchas veces
+ * (nodos virtuales) y un id pertenece al primer nodo virtual que hay a
+ * partir de su hash, dando la vuelta al final del anillo.
+ *
+ * Con los nodos virtuales cada servidor se queda con una parte parecida de
+ * los ids, y al añadir un servidor solo cambian de dueño los ids que pasan
+ * a ser suyos (mas o menos 1/n del total), no todos como pasaria con un
+ * simple "id % n".
+ *
+ * Se modifica muy poco (al añadir o quitar servidores) y se consulta en
+ * cada peticion, asi que cada cambio construye un mapa nuevo y las
+ * consultas leen el ultimo sin bloquearse.
+ */
+public class AnilloConsistente {
+
+	private final int nodosVirtuales;
+	private volatile TreeMap<Long, String> anillo = new TreeMap<Long, String>();
+	private volatile List<String> nodos = new ArrayList<String>();
+
+	/**
+	 * @param nodos las URL base de los servidores
+	 * @param nodosVirtuales cuantas veces se pone cada servidor en el anillo
+	 */
+	public AnilloConsistente(List<String> nodos, int nodosVirtuales) {
+		this.nodosVirtuales = nodosVirtuales;
+		for (String nodo : nodos) {
+			anadirNodo(nodo);
+		}
+	}
+
+	/**
+	 * @param id el id del libro
+	 * @return la URL base del servidor dueño del id
+	 */
+	public String nodoPara(int id) {
+		TreeMap<Long, String> actual = anillo;
+		if (actual.isEmpty()) {
+			throw new IllegalStateException("No hay ningun servidor configurado");
+		}
+		Map.Entry<Long, String> e = actual.ceilingEntry(hash("libro-" + id));
+		return e != null ? e.getValue() : actual.firstEntry().getValue();
+	}
+
+	/**
+	 * Añade un servidor al anillo. A partir de ese momento las peticiones de
+	 * los ids que le tocan van a el, asi que antes hay que copiarle sus libros
+	 */
+	public synchronized void anadirNodo(String nodo) {
+		if (nodos.contains(nodo)) {
+			return;
+		}
+		TreeMap<Long, String> nuevo = new TreeMap<Long, String>(anillo);
+		for (int i = 0; i < nodosVirtuales; i++) {
+			nuevo.put(hash(nodo + "#" + i), nodo);
+		}
+		List<String> nuevosNodos = new ArrayList<String>(nodos);
+		nuevosNodos.add(nodo);
+		anillo = nuevo;
+		nodos = nuevosNodos;
+	}
+
+	/**
+	 * Quita un servidor del anillo, sus ids pasan a los servidores siguientes
+	 */
+	public synchronized void quitarNodo(String nodo) {
+		TreeMap<Long, String> nuevo = new TreeMap<Long, String>(anillo);
+		nuevo.values().removeIf(nodo::equals);
+		List<String> nuevosNodos = new ArrayList<String>(nodos);
+		nuevosNodos.remove(nodo);
+		anillo = nuevo;
+		nodos = nuevosNodos;
+	}
+
+	/**
+	 * @return los servidores del anillo, en el orden en que se añadieron
+	 */
+	public List<String> getNodos() {
+		return nodos;
+	}
+
+	//Los 64 primeros bits del MD5, que reparte bien aunque las claves se
+	//parezcan mucho (como "libro-1", "libro-2"...)
+	private static long hash(String clave) {
+		try {
+			byte[] md5 = MessageDigest.getInstance("MD5").digest(clave.getBytes(StandardCharsets.UTF_8));
+			long h = 0;
+			for (int i = 0; i < 8; i++) {
+				h = (h << 8) | (md5[i] & 0xFF);
+			}
+			return h;
+		} catch (NoSuchAlgorithmException e) {
+			//Todas las JVM tienen que traer MD5
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package es.biblioteca.cliente.servicio;
+
+import java.util.Arrays;
+
+/**
+ * Ultimas latencias observadas, para calcular percentiles sobre una ventana
+ * deslizante. El percentil se recalcula cada cierto numero de muestras y se
+ * guarda, de manera que consultarlo en cada peticion no cuesta nada.
+ */
+public class EstadisticaLatencias {
+
+	private static final int RECALCULAR_CADA = 16;
+
+	private final long[] muestras;
+	private final double percentil;
+	private int siguiente;
+	private int tamano;
+	private volatile long valorPercentil;
+
+	/**
+	 * @param ventana cuantas muestras recientes se tienen en cuenta
+	 * @param percentil el percentil a calcular, entre 0 y 1 (0.95 es el p95)
+	 * @param valorInicial el valor a devolver mientras no haya muestras suficientes
+	 */
+	public EstadisticaLatencias(int ventana, double percentil, long valorInicial) {
+		this.muestras = new long[ventana];
+		this.percentil = percentil;
+		this.valorPercentil = valorInicial;
+	}
+
+	public synchronized void registrar(long nanos) {
+		muestras[siguiente] = nanos;
+		siguiente = (siguiente + 1) % muestras.length;
+		if (tamano < muestras.length) {
+			tamano++;
+		}
+		if (siguiente % RECALCULAR_CADA == 0 && tamano >= RECALCULAR_CADA) {
+			long[] ordenadas = Arrays.copyOf(muestras, tamano);
+			Arrays.sort(ordenadas);
+			valorPercentil = ordenadas[(int) Math.min(tamano - 1, Math.ceil(percentil * tamano) - 1)];
+		}
+	}
+
+	/**
+	 * @return el percentil de las ultimas muestras, en nanosegundos
+	 */
+	public long getPercentil() {
+		return valorPercentil;
+	}
+}
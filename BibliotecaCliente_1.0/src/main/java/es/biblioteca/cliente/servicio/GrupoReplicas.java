@@ -0,0 +1,183 @@
+package es.biblioteca.cliente.servicio;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servidores que guardan los mismos libros (replicas de una misma parte de
+ * los ids). Las lecturas pueden ir a cualquiera de ellos y las escrituras
+ * van a todos.
+ *
+ * Cuando una replica falla (no contesta o devuelve un 5XX) se expulsa
+ * durante un tiempo y no se le mandan lecturas. Cada fallo seguido dobla el
+ * tiempo de expulsion, hasta un maximo, y la primera peticion que acaba bien
+ * la vuelve a dejar como nueva.
+ *
+ * Una escritura solo se da por buena si la confirman al menos el quorum de
+ * replicas (la mayoria por defecto). Las replicas que no la confirman se
+ * quedan distintas de las demas, y se lleva la cuenta de cuantas escrituras
+ * le faltan a cada una para saber cuales hay que volver a copiar.
+ */
+public class GrupoReplicas {
+
+	private final String clave;
+	private final List<Replica> replicas = new ArrayList<Replica>();
+	private final long expulsionMinimaMs;
+	private final long expulsionMaximaMs;
+	private final int quorumEscritura;
+	//Para repartir las lecturas entre las replicas por turnos
+	private final AtomicInteger turno = new AtomicInteger();
+
+	/**
+	 * @param clave el grupo tal y como se configura, las URL separadas por "|"
+	 * @param expulsionMinimaMs tiempo de expulsion tras el primer fallo
+	 * @param expulsionMaximaMs tiempo de expulsion maximo
+	 * @param quorumEscritura cuantas replicas tienen que confirmar una
+	 * escritura, 0 o menos para la mayoria
+	 */
+	public GrupoReplicas(String clave, long expulsionMinimaMs, long expulsionMaximaMs, int quorumEscritura) {
+		this.clave = clave;
+		this.expulsionMinimaMs = expulsionMinimaMs;
+		this.expulsionMaximaMs = expulsionMaximaMs;
+		for (String url : clave.split("\\|")) {
+			if (!url.isBlank()) {
+				replicas.add(new Replica(url.trim()));
+			}
+		}
+		if (replicas.isEmpty()) {
+			throw new IllegalArgumentException("Grupo de replicas sin servidores: " + clave);
+		}
+		this.quorumEscritura = quorumEscritura > 0 ? Math.min(quorumEscritura, replicas.size())
+				: replicas.size() / 2 + 1;
+	}
+
+	public String getClave() {
+		return clave;
+	}
+
+	/**
+	 * @return las URL de todas las replicas, en el orden configurado
+	 */
+	public List<String> getUrls() {
+		List<String> urls = new ArrayList<String>(replicas.size());
+		for (Replica r : replicas) {
+			urls.add(r.url);
+		}
+		return urls;
+	}
+
+	/**
+	 * Las replicas a las que mandar una lectura, en el orden en que probarlas:
+	 * primero las no expulsadas empezando cada vez por una distinta, y al
+	 * final las expulsadas por si no queda otra
+	 * @return las URL en orden de preferencia
+	 */
+	public List<String> ordenLectura() {
+		long ahora = System.currentTimeMillis();
+		int n = replicas.size();
+		int inicio = Math.floorMod(turno.getAndIncrement(), n);
+		List<String> vivas = new ArrayList<String>(n);
+		List<String> expulsadas = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			Replica r = replicas.get((inicio + i) % n);
+			(r.expulsadaHasta > ahora ? expulsadas : vivas).add(r.url);
+		}
+		vivas.addAll(expulsadas);
+		return vivas;
+	}
+
+	/**
+	 * @return true si la replica esta expulsada en este momento
+	 */
+	public boolean expulsada(String url) {
+		Replica r = buscar(url);
+		return r != null && r.expulsadaHasta > System.currentTimeMillis();
+	}
+
+	/**
+	 * Apunta un fallo de la replica y la expulsa
+	 */
+	public void fallo(String url) {
+		Replica r = buscar(url);
+		if (r != null) {
+			synchronized (r) {
+				long expulsion = Math.min(expulsionMaximaMs, expulsionMinimaMs << Math.min(r.fallosSeguidos, 20));
+				r.fallosSeguidos++;
+				r.expulsadaHasta = System.currentTimeMillis() + expulsion;
+			}
+			System.out.println("GrupoReplicas -> Replica " + url + " expulsada tras " + r.fallosSeguidos + " fallos seguidos");
+		}
+	}
+
+	/**
+	 * Apunta que la replica ha contestado bien, lo que anula su expulsion
+	 */
+	public void exito(String url) {
+		Replica r = buscar(url);
+		if (r != null && r.fallosSeguidos > 0) {
+			synchronized (r) {
+				r.fallosSeguidos = 0;
+				r.expulsadaHasta = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return cuantas replicas tienen que confirmar una escritura
+	 */
+	public int getQuorumEscritura() {
+		return quorumEscritura;
+	}
+
+	/**
+	 * Apunta que la replica no tiene una escritura que si tienen otras
+	 */
+	public void escrituraPerdida(String url) {
+		Replica r = buscar(url);
+		if (r != null) {
+			r.escriturasPerdidas.increment();
+		}
+	}
+
+	/**
+	 * @return cuantas escrituras le faltan a cada replica, en el orden
+	 * configurado
+	 */
+	public Map<String, Long> getEscriturasPerdidas() {
+		Map<String, Long> perdidas = new LinkedHashMap<String, Long>();
+		for (Replica r : replicas) {
+			perdidas.put(r.url, r.escriturasPerdidas.sum());
+		}
+		return perdidas;
+	}
+
+	private Replica buscar(String url) {
+		for (Replica r : replicas) {
+			if (r.url.equals(url)) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return clave;
+	}
+
+	private static final class Replica {
+
+		private final String url;
+		private volatile long expulsadaHasta;
+		private volatile int fallosSeguidos;
+		private final LongAdder escriturasPerdidas = new LongAdder();
+
+		Replica(String url) {
+			this.url = url;
+		}
+	}
+}
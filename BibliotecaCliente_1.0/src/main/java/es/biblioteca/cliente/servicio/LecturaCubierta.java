@@ -0,0 +1,359 @@
+package es.biblioteca.cliente.servicio;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Lecturas cubiertas ("hedged requests") contra un grupo de replicas. La
+ * lectura se manda a una replica y, si no ha contestado cuando ya ha pasado
+ * el percentil configurado de las latencias recientes (el p95 por defecto),
+ * se manda la misma lectura a otra replica. Se usa la primera respuesta que
+ * llega y la otra peticion se cancela.
+ *
+ * Asi una replica lenta en un momento dado (una pausa del GC, un disco
+ * ocupado...) casi no se nota en la cola de latencias, a cambio de repetir
+ * mas o menos un 5% de las lecturas. Solo vale para peticiones idempotentes,
+ * las escrituras nunca se cubren.
+ *
+ * Cada tipo de lectura (obtener un libro, una pagina del listado, las
+ * estadisticas...) tarda cosas muy distintas, asi que las latencias se
+ * guardan por separado para cada una. Solo se cubren las operaciones
+ * configuradas, normalmente la lectura de un libro por id: cubrir un
+ * listado o una busqueda que recorre todo el catalogo duplicaria justo las
+ * peticiones mas caras. Las demas solo pasan a otra replica si la primera
+ * falla.
+ *
+ * Si una replica falla (no se puede conectar o devuelve un 5XX) se expulsa
+ * del grupo un tiempo y la lectura pasa en el momento a la siguiente, sin
+ * esperar al retraso. Un 4XX es una respuesta valida (el libro no existe) y
+ * se devuelve tal cual.
+ *
+ * Cancelar la peticion que pierde no la para: con HTTP/1.1 el hilo se queda
+ * esperando la respuesta hasta el timeout de lectura, y la replica lenta
+ * sigue atendiendola. Para que las lecturas cubiertas no multipliquen la
+ * carga justo cuando las replicas van mal, tienen un presupuesto como el de
+ * los reintentos (cada lectura añade "proporcion" tokens y cada cobertura
+ * gasta uno) y los hilos tienen un maximo: si no queda presupuesto o no
+ * hay hilos libres la lectura simplemente no se cubre.
+ *
+ * Las lecturas que pierden o fallan tambien cuentan para el percentil, con
+ * lo que llevaban tardado, para que la cola lenta no desaparezca de las
+ * latencias y el retraso no se vaya haciendo cada vez mas corto.
+ */
+public class LecturaCubierta {
+
+	//Retraso antes de tener muestras suficientes para calcular el percentil
+	private static final long RETRASO_INICIAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final boolean activa;
+	private final Set<String> operacionesCubiertas;
+	private final double percentil;
+	private final long retrasoMinimoNanos;
+	//Las latencias recientes de cada operacion
+	private final Map<String, EstadisticaLatencias> latencias = new ConcurrentHashMap<String, EstadisticaLatencias>();
+	private final ThreadPoolExecutor hilos;
+	private final double proporcion;
+	private final double tokensMaximos;
+	private double tokens;
+	private final LongAdder lecturas = new LongAdder();
+	private final LongAdder cubiertas = new LongAdder();
+	private final LongAdder ganadasPorCubierta = new LongAdder();
+	private final LongAdder sinPresupuesto = new LongAdder();
+	private final LongAdder sinHilos = new LongAdder();
+
+	/**
+	 * @param activa false para no mandar nunca la segunda peticion (solo se
+	 * pasa a otra replica cuando la primera falla)
+	 * @param operacionesCubiertas las operaciones cuyas lecturas se cubren
+	 * @param percentil percentil de las latencias recientes que hay que
+	 * esperar antes de cubrir la lectura, entre 0 y 1
+	 * @param retrasoMinimoMs lo minimo que se espera antes de cubrir la lectura
+	 * @param proporcion lecturas cubiertas por cada lectura, entre 0 y 1
+	 * @param hilosMaximos peticiones a replicas en curso como mucho
+	 */
+	public LecturaCubierta(boolean activa, Set<String> operacionesCubiertas, double percentil, long retrasoMinimoMs,
+			double proporcion, int hilosMaximos) {
+		this.activa = activa;
+		this.operacionesCubiertas = operacionesCubiertas;
+		this.percentil = percentil;
+		this.retrasoMinimoNanos = TimeUnit.MILLISECONDS.toNanos(retrasoMinimoMs);
+		this.proporcion = proporcion;
+		this.tokensMaximos = 10;
+		this.tokens = tokensMaximos;
+		AtomicInteger numero = new AtomicInteger();
+		//Sin cola: si no hay hilo libre la peticion se rechaza en el momento
+		this.hilos = new ThreadPoolExecutor(0, hilosMaximos, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				tarea -> {
+					Thread hilo = new Thread(tarea, "lectura-cubierta-" + numero.incrementAndGet());
+					hilo.setDaemon(true);
+					return hilo;
+				});
+	}
+
+	/**
+	 * Para los hilos de las lecturas
+	 */
+	public void cerrar() {
+		hilos.shutdownNow();
+	}
+
+	/**
+	 * Hace la lectura en alguna replica del grupo
+	 * @param grupo las replicas que tienen el dato
+	 * @param operacion el tipo de lectura, para llevar sus latencias aparte
+	 * y saber si se cubre
+	 * @param peticion la peticion a hacer, recibe la URL base de la replica
+	 * @return la primera respuesta que llegue
+	 * @throws HttpClientErrorException si la replica que contesta devuelve un 4XX
+	 * @throws HttpServerErrorException o ResourceAccessException si fallan todas
+	 */
+	public <T> T leer(GrupoReplicas grupo, String operacion, Function<String, T> peticion) {
+		depositar();
+		lecturas.increment();
+		EstadisticaLatencias estadistica = latencias(operacion);
+		boolean cubrir = activa && operacionesCubiertas.contains(operacion);
+		List<String> orden = grupo.ordenLectura();
+		ExecutorCompletionService<T> respuestas = new ExecutorCompletionService<T>(hilos);
+		Map<Future<T>, Intento> enCurso = new HashMap<Future<T>, Intento>();
+		String primera = orden.get(0);
+		int siguiente = 1;
+		boolean cubierta = false;
+		//Se ha pasado el retraso pero no habia presupuesto o hilos
+		boolean descartada = false;
+		RuntimeException ultimoFallo = null;
+		Intento intentoPrimera = new Intento(primera);
+		try {
+			enCurso.put(respuestas.submit(() -> medir(grupo, estadistica, intentoPrimera, peticion)), intentoPrimera);
+		} catch (RejectedExecutionException e) {
+			//Sin hilos libres: la lectura se hace en este hilo y sin cubrir
+			sinHilos.increment();
+			return sinCubrir(grupo, estadistica, orden, peticion);
+		}
+		try {
+			while (!enCurso.isEmpty()) {
+				Future<T> hecha;
+				//Solo se cubre con replicas no expulsadas, las expulsadas quedan
+				//para cuando fallan todas las demas
+				if (cubrir && !cubierta && !descartada && siguiente < orden.size() && !grupo.expulsada(orden.get(siguiente))) {
+					long retraso = Math.max(retrasoMinimoNanos, estadistica.getPercentil());
+					hecha = respuestas.poll(retraso, TimeUnit.NANOSECONDS);
+					if (hecha == null) {
+						//Ha pasado el retraso sin respuesta, cubrimos la lectura
+						//si hay presupuesto y hilos. Si no, ya no se intenta mas
+						if (!retirar()) {
+							sinPresupuesto.increment();
+							descartada = true;
+							continue;
+						}
+						Intento otra = new Intento(orden.get(siguiente));
+						try {
+							enCurso.put(respuestas.submit(() -> medir(grupo, estadistica, otra, peticion)), otra);
+						} catch (RejectedExecutionException e) {
+							devolver();
+							sinHilos.increment();
+							descartada = true;
+							continue;
+						}
+						siguiente++;
+						cubierta = true;
+						cubiertas.increment();
+						continue;
+					}
+				} else {
+					hecha = respuestas.take();
+				}
+				Intento intento = enCurso.remove(hecha);
+				try {
+					T resultado = hecha.get();
+					if (cubierta && !intento.url.equals(primera)) {
+						ganadasPorCubierta.increment();
+					}
+					return resultado;
+				} catch (ExecutionException e) {
+					Throwable causa = e.getCause();
+					if (causa instanceof HttpServerErrorException || causa instanceof ResourceAccessException) {
+						//La replica ha fallado, si no queda nada en curso
+						//pasamos ya a la siguiente
+						ultimoFallo = (RuntimeException) causa;
+						if (enCurso.isEmpty() && siguiente < orden.size()) {
+							Intento otra = new Intento(orden.get(siguiente++));
+							try {
+								enCurso.put(respuestas.submit(() -> medir(grupo, estadistica, otra, peticion)), otra);
+							} catch (RejectedExecutionException r) {
+								sinHilos.increment();
+								return sinCubrir(grupo, estadistica, orden.subList(siguiente - 1, orden.size()), peticion);
+							}
+						}
+					} else if (causa instanceof RuntimeException) {
+						throw (RuntimeException) causa;
+					} else {
+						throw new IllegalStateException(causa);
+					}
+				}
+			}
+			throw ultimoFallo;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceAccessException("Lectura interrumpida");
+		} finally {
+			//La peticion que ha perdido ya no hace falta. Cuenta para las
+			//latencias con lo que llevaba, que es lo minimo que habria tardado
+			for (Map.Entry<Future<T>, Intento> perdedora : enCurso.entrySet()) {
+				perdedora.getKey().cancel(true);
+				perdedora.getValue().registrar(estadistica);
+			}
+		}
+	}
+
+	//La lectura en el hilo que llama, probando las replicas una detras de
+	//otra hasta que una conteste
+	private <T> T sinCubrir(GrupoReplicas grupo, EstadisticaLatencias estadistica, List<String> orden,
+			Function<String, T> peticion) {
+		RuntimeException ultimoFallo = null;
+		for (String url : orden) {
+			try {
+				return medir(grupo, estadistica, new Intento(url), peticion);
+			} catch (HttpServerErrorException | ResourceAccessException e) {
+				ultimoFallo = e;
+			}
+		}
+		throw ultimoFallo;
+	}
+
+	//Hace la peticion y apunta su latencia y si la replica esta bien o no.
+	//Un 4XX es una respuesta normal del servidor, asi que tambien cuenta
+	private <T> T medir(GrupoReplicas grupo, EstadisticaLatencias estadistica, Intento intento,
+			Function<String, T> peticion) {
+		try {
+			T resultado = peticion.apply(intento.url);
+			intento.registrar(estadistica);
+			grupo.exito(intento.url);
+			return resultado;
+		} catch (HttpClientErrorException e) {
+			intento.registrar(estadistica);
+			grupo.exito(intento.url);
+			throw e;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			intento.registrar(estadistica);
+			if (!Thread.currentThread().isInterrupted()) {
+				grupo.fallo(intento.url);
+			}
+			throw e;
+		}
+	}
+
+	private synchronized void depositar() {
+		tokens = Math.min(tokensMaximos, tokens + proporcion);
+	}
+
+	private synchronized boolean retirar() {
+		if (tokens < 1) {
+			return false;
+		}
+		tokens -= 1;
+		return true;
+	}
+
+	private synchronized void devolver() {
+		tokens += 1;
+	}
+
+	private EstadisticaLatencias latencias(String operacion) {
+		return latencias.computeIfAbsent(operacion,
+				o -> new EstadisticaLatencias(1024, percentil, RETRASO_INICIAL_NANOS));
+	}
+
+	/**
+	 * @param operacion el tipo de lectura
+	 * @return el retraso actual antes de cubrir una lectura de esa
+	 * operacion, en milisegundos
+	 */
+	public double getRetrasoMs(String operacion) {
+		return Math.max(retrasoMinimoNanos, latencias(operacion).getPercentil()) / 1_000_000.0;
+	}
+
+	/**
+	 * @return el percentil de las latencias recientes de cada operacion que
+	 * se ha hecho alguna vez, en milisegundos y ordenadas por nombre
+	 */
+	public Map<String, Double> getPercentilesMs() {
+		Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+		for (Map.Entry<String, EstadisticaLatencias> e : new TreeMap<String, EstadisticaLatencias>(latencias).entrySet()) {
+			percentiles.put(e.getKey(), e.getValue().getPercentil() / 1_000_000.0);
+		}
+		return percentiles;
+	}
+
+	public long getLecturas() {
+		return lecturas.sum();
+	}
+
+	/**
+	 * @return cuantas lecturas se han mandado tambien a una segunda replica
+	 */
+	public long getCubiertas() {
+		return cubiertas.sum();
+	}
+
+	/**
+	 * @return cuantas lecturas cubiertas ha contestado antes la segunda replica
+	 */
+	public long getGanadasPorCubierta() {
+		return ganadasPorCubierta.sum();
+	}
+
+	/**
+	 * @return cuantas lecturas no se han cubierto por falta de presupuesto
+	 */
+	public long getSinPresupuesto() {
+		return sinPresupuesto.sum();
+	}
+
+	/**
+	 * @return cuantas peticiones no han tenido hilo libre
+	 */
+	public long getSinHilos() {
+		return sinHilos.sum();
+	}
+
+	/**
+	 * Una peticion a una replica. Su latencia se apunta una sola vez, cuando
+	 * termina o cuando pierde contra otra, lo que pase antes
+	 */
+	private static final class Intento {
+
+		private final String url;
+		private final long inicio = System.nanoTime();
+		private final AtomicBoolean registrado = new AtomicBoolean();
+
+		Intento(String url) {
+			this.url = url;
+		}
+
+		void registrar(EstadisticaLatencias estadistica) {
+			if (registrado.compareAndSet(false, true)) {
+				estadistica.registrar(System.nanoTime() - inicio);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package es.biblioteca.cliente.servicio;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import es.biblioteca.cliente.entidad.Libro;
+
+/**
+ * Recorre el listado de libros pagina a pagina, ordenado por id, sin
+ * traerse nunca el catalogo entero.
+ *
+ * Cada servidor tiene sus propios ids, asi que por cada uno se lleva un
+ * cursor (el id por el que va) y los libros que ha mandado y todavia no se
+ * han mostrado. Cada pagina se forma cogiendo el id mas bajo de entre los
+ * cursores. Cuando a un cursor le quedan menos libros que una pagina se le
+ * pide la siguiente en segundo plano, mientras el usuario lee la actual, de
+ * manera que al pasar de pagina normalmente ya esta aqui.
+ *
+ * En memoria hay como mucho dos paginas por servidor, sea cual sea el
+ * tamaño del catalogo. El total de libros sale de la cabecera X-Total-Count
+ * que mandan los servidores en su primera pagina.
+ */
+public class PaginadorLibros {
+
+	private static final String CABECERA_TOTAL = "X-Total-Count";
+
+	private final int tamanoPagina;
+	private final BiFunction<GrupoReplicas, Integer, ResponseEntity<Libro[]>> lectura;
+	private final Executor hilos;
+	private final List<Cursor> cursores = new ArrayList<Cursor>();
+	private long total;
+	private int totalesRecibidos;
+	private boolean totalDesconocido;
+	private long librosLeidos;
+
+	/**
+	 * @param grupos los servidores del anillo
+	 * @param tamanoPagina cuantos libros tiene cada pagina
+	 * @param lectura pide a un servidor la pagina que empieza en un id (null
+	 * para la primera) y devuelve la respuesta con sus cabeceras
+	 * @param hilos donde se piden las paginas en segundo plano
+	 */
+	public PaginadorLibros(List<GrupoReplicas> grupos, int tamanoPagina,
+			BiFunction<GrupoReplicas, Integer, ResponseEntity<Libro[]>> lectura, Executor hilos) {
+		this.tamanoPagina = tamanoPagina;
+		this.lectura = lectura;
+		this.hilos = hilos;
+		for (GrupoReplicas grupo : grupos) {
+			cursores.add(new Cursor(grupo));
+		}
+	}
+
+	/**
+	 * @return los libros de la siguiente pagina, una lista vacia si ya no
+	 * quedan o null en caso de algun error con el servicio REST
+	 */
+	public List<Libro> siguientePagina() {
+		try {
+			//Lo que falte se pide a todos los servidores a la vez
+			for (Cursor cursor : cursores) {
+				if (cursor.pendientes.isEmpty()) {
+					cursor.pedir();
+				}
+			}
+			List<Libro> pagina = new ArrayList<Libro>(tamanoPagina);
+			while (pagina.size() < tamanoPagina) {
+				Cursor menor = null;
+				for (Cursor cursor : cursores) {
+					Libro cabeza = cursor.cabeza();
+					if (cabeza != null && (menor == null || cabeza.getId() < menor.cabeza().getId())) {
+						menor = cursor;
+					}
+				}
+				if (menor == null) {
+					break;
+				}
+				pagina.add(menor.pendientes.pollFirst());
+			}
+			librosLeidos += pagina.size();
+			//Mientras se lee esta pagina se va pidiendo la siguiente
+			for (Cursor cursor : cursores) {
+				if (cursor.pendientes.size() < tamanoPagina) {
+					cursor.pedir();
+				}
+			}
+			return pagina;
+		} catch (HttpClientErrorException e) {
+			System.out.println("");
+			System.out.println("PaginadorLibros -> Error al obtener la pagina de libros");
+			System.out.println("PaginadorLibros -> Codigo de respuesta: " + e.getStatusCode());
+			return null;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			System.out.println("");
+			System.out.println("PaginadorLibros -> El servidor no ha podido devolver la pagina: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return true si puede quedar alguna pagina por leer
+	 */
+	public boolean hayMas() {
+		for (Cursor cursor : cursores) {
+			if (!cursor.pendientes.isEmpty() || !cursor.agotado) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return el numero de libros que cumplen el filtro en todos los
+	 * servidores, -1 si todavia no se ha leido la primera pagina o algun
+	 * servidor no lo ha mandado
+	 */
+	public long getTotal() {
+		return totalDesconocido || totalesRecibidos < cursores.size() ? -1 : total;
+	}
+
+	/**
+	 * @return cuantos libros se han devuelto ya en las paginas leidas
+	 */
+	public long getLibrosLeidos() {
+		return librosLeidos;
+	}
+
+	//Lo que se lleva leido de un servidor
+	private final class Cursor {
+
+		private final GrupoReplicas grupo;
+		private final ArrayDeque<Libro> pendientes = new ArrayDeque<Libro>();
+		private Integer desde;
+		private boolean primera = true;
+		private boolean agotado;
+		private CompletableFuture<ResponseEntity<Libro[]>> enCamino;
+
+		Cursor(GrupoReplicas grupo) {
+			this.grupo = grupo;
+		}
+
+		//Pide la siguiente pagina en segundo plano si no esta ya pedida
+		void pedir() {
+			if (enCamino == null && !agotado) {
+				Integer inicio = desde;
+				enCamino = CompletableFuture.supplyAsync(() -> lectura.apply(grupo, inicio), hilos);
+			}
+		}
+
+		//El libro de id mas bajo que queda de este servidor, esperando a la
+		//pagina pedida si no queda ninguno. Null si el servidor ya no tiene mas
+		Libro cabeza() {
+			while (pendientes.isEmpty() && !agotado) {
+				pedir();
+				recoger();
+			}
+			return pendientes.peekFirst();
+		}
+
+		private void recoger() {
+			ResponseEntity<Libro[]> respuesta;
+			try {
+				respuesta = enCamino.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			} finally {
+				enCamino = null;
+			}
+			Libro[] libros = respuesta.getBody() != null ? respuesta.getBody() : new Libro[0];
+			for (Libro l : libros) {
+				pendientes.addLast(l);
+			}
+			if (primera) {
+				primera = false;
+				String cabecera = respuesta.getHeaders().getFirst(CABECERA_TOTAL);
+				if (cabecera != null) {
+					total += Long.parseLong(cabecera);
+					totalesRecibidos++;
+				} else {
+					totalDesconocido = true;
+				}
+			}
+			if (libros.length < tamanoPagina) {
+				agotado = true;
+			} else {
+				desde = libros[libros.length - 1].getId() + 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package es.biblioteca.cliente.servicio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.biblioteca.cliente.entidad.ResumenImportacion;
+
+/**
+ * Reparte un fichero de catalogo (CSV o JSON Lines) en un fichero temporal
+ * por servidor, segun el dueño del id de cada libro en el anillo. Se lee y
+ * se escribe en streaming, asi que vale para ficheros de cualquier tamaño.
+ *
+ * Las lineas de las que no se puede sacar el id se mandan al primer
+ * servidor, que las rechazara y las contara en su resumen. Los registros
+ * CSV con unas comillas que no se cierran se descartan aqui mismo.
+ *
+ * Tambien aparta, de un catalogo exportado, los libros que cambian de
+ * servidor al añadir uno nuevo al anillo.
+ */
+class RepartoCatalogo {
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+	private static final int MAXIMO_LINEAS = 100;
+	private static final int MAXIMO_CARACTERES = 1 << 20;
+	private static final int MAXIMO_ERRORES = 20;
+
+	private RepartoCatalogo() {
+	}
+
+	/**
+	 * @param fichero el fichero a repartir
+	 * @param csv true si es CSV, false si es JSON Lines
+	 * @param anillo el anillo que dice el dueño de cada id
+	 * @param resumen donde contar los registros CSV que se descartan aqui
+	 * por tener unas comillas que no se cierran
+	 * @return un fichero temporal por servidor, hay que borrarlos al acabar
+	 */
+	static Map<String, Path> repartir(Path fichero, boolean csv, AnilloConsistente anillo,
+			ResumenImportacion resumen) throws IOException {
+
+		Map<String, Path> partes = new LinkedHashMap<String, Path>();
+		Map<String, BufferedWriter> escritores = new LinkedHashMap<String, BufferedWriter>();
+		String primero = anillo.getNodos().get(0);
+		try (BufferedReader lector = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+			LectorRegistros registros = new LectorRegistros(lector, csv);
+			String linea;
+			long numero = 0;
+			boolean primeraLinea = true;
+			while ((linea = registros.siguiente()) != null) {
+				numero++;
+				if (registros.isCortado()) {
+					//Se descarta aqui: si se mandase, el servidor le volveria a
+					//juntar las lineas siguientes, que van a otros servidores
+					resumen.setLeidas(resumen.getLeidas() + 1);
+					resumen.setRechazados(resumen.getRechazados() + 1);
+					if (resumen.getErrores().size() < MAXIMO_ERRORES) {
+						resumen.getErrores().add("registro " + numero + ": comillas sin cerrar");
+					}
+					primeraLinea = false;
+					continue;
+				}
+				if (linea.isBlank()) {
+					continue;
+				}
+				Integer id = csv ? idCsv(linea) : idJson(linea);
+				if (primeraLinea && csv && id == null) {
+					//Cabecera, la ponemos al principio de todas las partes
+					for (String nodo : anillo.getNodos()) {
+						escritor(nodo, partes, escritores).write(linea + "\n");
+					}
+				} else {
+					String nodo = id == null ? primero : anillo.nodoPara(id);
+					escritor(nodo, partes, escritores).write(linea + "\n");
+				}
+				primeraLinea = false;
+			}
+		} finally {
+			for (BufferedWriter escritor : escritores.values()) {
+				escritor.close();
+			}
+		}
+		return partes;
+	}
+
+	/**
+	 * Lee un catalogo exportado en JSON Lines y escribe aparte los libros que
+	 * el anillo futuro asigna al servidor nuevo, para subirlos a ese servidor,
+	 * y sus ids, uno por linea, para borrarlos despues del servidor de origen.
+	 * Los demas libros no se guardan en ningun sitio
+	 *
+	 * @param catalogo el catalogo exportado por un servidor
+	 * @param futuro el anillo con el servidor nuevo ya añadido
+	 * @param nuevo la clave del servidor nuevo en el anillo
+	 * @param libros donde escribir las lineas de los libros que se mueven
+	 * @param ids donde escribir los ids de los libros que se mueven
+	 * @return cuantos libros se mueven
+	 */
+	static long apartarMovidos(InputStream catalogo, AnilloConsistente futuro, String nuevo,
+			Writer libros, Writer ids) throws IOException {
+
+		BufferedReader lector = new BufferedReader(new InputStreamReader(catalogo, StandardCharsets.UTF_8));
+		long movidos = 0;
+		String linea;
+		while ((linea = lector.readLine()) != null) {
+			Integer id = linea.isBlank() ? null : idJson(linea);
+			if (id != null && futuro.nodoPara(id).equals(nuevo)) {
+				libros.write(linea);
+				libros.write('\n');
+				ids.write(id + "\n");
+				movidos++;
+			}
+		}
+		return movidos;
+	}
+
+	private static BufferedWriter escritor(String nodo, Map<String, Path> partes,
+			Map<String, BufferedWriter> escritores) throws IOException {
+		BufferedWriter escritor = escritores.get(nodo);
+		if (escritor == null) {
+			Path parte = Files.createTempFile("catalogo-", ".parte");
+			partes.put(nodo, parte);
+			escritor = Files.newBufferedWriter(parte, StandardCharsets.UTF_8);
+			escritores.put(nodo, escritor);
+		}
+		return escritor;
+	}
+
+	private static Integer idCsv(String linea) {
+		int coma = linea.indexOf(',');
+		String id = (coma < 0 ? linea : linea.substring(0, coma)).trim().replace("\"", "");
+		try {
+			return Integer.valueOf(id);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Integer idJson(String linea) {
+		try {
+			JsonNode id = JSON.readTree(linea).get("id");
+			return id != null && id.canConvertToInt() ? id.intValue() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Lee el fichero registro a registro. En CSV un campo entre comillas
+	 * puede seguir en la linea siguiente, asi que se juntan lineas hasta
+	 * cerrar las comillas, como mucho MAXIMO_LINEAS lineas y
+	 * MAXIMO_CARACTERES caracteres. Si se pasa, el registro queda cortado y
+	 * las lineas que se habian juntado se vuelven a leer como registros nuevos
+	 */
+	private static final class LectorRegistros {
+
+		private final BufferedReader lector;
+		private final boolean csv;
+		private final Deque<String> devueltas = new ArrayDeque<String>();
+		private boolean cortado;
+
+		LectorRegistros(BufferedReader lector, boolean csv) {
+			this.lector = lector;
+			this.csv = csv;
+		}
+
+		String siguiente() throws IOException {
+			cortado = false;
+			String linea = leerLinea();
+			if (!csv || linea == null || !comillasImpares(linea)) {
+				return linea;
+			}
+			List<String> juntadas = new ArrayList<String>();
+			StringBuilder registro = new StringBuilder(linea);
+			boolean abiertas = true;
+			String siguiente;
+			while (abiertas && juntadas.size() < MAXIMO_LINEAS - 1 && registro.length() <= MAXIMO_CARACTERES
+					&& (siguiente = leerLinea()) != null) {
+				juntadas.add(siguiente);
+				registro.append('\n').append(siguiente);
+				abiertas ^= comillasImpares(siguiente);
+			}
+			if (!abiertas) {
+				return registro.toString();
+			}
+			for (int i = juntadas.size() - 1; i >= 0; i--) {
+				devueltas.push(juntadas.get(i));
+			}
+			cortado = true;
+			return linea;
+		}
+
+		//Si el ultimo registro devuelto tenia unas comillas sin cerrar
+		boolean isCortado() {
+			return cortado;
+		}
+
+		private String leerLinea() throws IOException {
+			return devueltas.isEmpty() ? lector.readLine() : devueltas.pop();
+		}
+
+		private static boolean comillasImpares(String linea) {
+			int comillas = 0;
+			for (int i = 0; i < linea.length(); i++) {
+				if (linea.charAt(i) == '"') {
+					comillas++;
+				}
+			}
+			return comillas % 2 != 0;
+		}
+	}
+}
@@ -1,31 +1,203 @@
 package es.biblioteca.cliente.servicio;
 
 
-import java.util.Arrays;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import es.biblioteca.cliente.entidad.EstadisticasCatalogo;
 import es.biblioteca.cliente.entidad.Libro;
+import es.biblioteca.cliente.entidad.ResultadoMultiple;
+import es.biblioteca.cliente.entidad.ResumenBorrado;
+import es.biblioteca.cliente.entidad.ResumenImportacion;
+import es.biblioteca.cliente.entidad.Sugerencia;
+import es.biblioteca.cliente.proteccion.Reintentos;
+import es.biblioteca.cliente.tiempos.RegistroTiempos;
+import es.biblioteca.cliente.tiempos.TiempoPeticion;
 
 //Con esta anotación damos de alta un objeto de tipo
 //ServicioProxyLibro dentro del contexto de Spring
 @Service
 public class ServicioProxyLibro {
 
-	//La URL base del servicio REST de libros
+	//La URL base del servicio REST de libros cuando solo hay un servidor
 	public static final String URL = "http://localhost:8080/libros/";
 	
+	//Nombres de las lecturas, cada una lleva sus latencias aparte para
+	//decidir cuando se cubre
+	private static final String OBTENER = "obtener";
+	private static final String OBTENER_VARIOS = "obtenerVarios";
+	private static final String LISTAR = "listar";
+	private static final String PAGINA = "pagina";
+	private static final String SUGERENCIAS = "sugerencias";
+	private static final String ESTADISTICAS = "estadisticas";
+	
 	//Inyectamos el objeto de tipo RestTemplate que nos ayudará
 	//a hacer las peticiones HTTP al servicio REST
 	@Autowired
 	private RestTemplate restTemplate;
 	
+	//Para importar y exportar el catalogo, con un timeout de lectura mucho
+	//mas largo y sin el limite de concurrencia adaptativo
+	@Autowired
+	@Qualifier("restTemplateMasivo")
+	private RestTemplate restTemplateMasivo;
+	
+	//Cada peticion que hacen los RestTemplate queda apuntada aqui, con lo
+	//que ha tardado en el cliente y el desglose que manda el servidor
+	@Autowired
+	private RegistroTiempos registroTiempos;
+	
+	//Los libros pueden estar repartidos entre varios servidores, cada uno
+	//dueño de una parte de los ids. La lista de servidores se configura en
+	//"biblioteca.servidores" (separados por comas) y el anillo de hash
+	//consistente nos dice a que servidor mandar cada id. Cada servidor del
+	//anillo puede ser un grupo de replicas con los mismos libros, con sus
+	//URL separadas por "|"
+	@Value("${biblioteca.servidores:" + URL + "}")
+	private List<String> servidores;
+	
+	@Value("${biblioteca.nodos-virtuales:160}")
+	private int nodosVirtuales;
+	
+	//Las lecturas se cubren con una segunda peticion a otra replica cuando
+	//la primera tarda mas que este percentil de las latencias recientes de
+	//esa operacion. Solo se cubren las operaciones indicadas
+	@Value("${biblioteca.lectura-cubierta.activa:true}")
+	private boolean lecturaCubiertaActiva;
+	
+	@Value("${biblioteca.lectura-cubierta.operaciones:" + OBTENER + "}")
+	private Set<String> lecturaCubiertaOperaciones;
+	
+	@Value("${biblioteca.lectura-cubierta.percentil:0.95}")
+	private double lecturaCubiertaPercentil;
+	
+	@Value("${biblioteca.lectura-cubierta.retraso-minimo-ms:2}")
+	private long lecturaCubiertaRetrasoMinimo;
+	
+	//Lecturas cubiertas por cada lectura como mucho, y peticiones de
+	//lectura en curso como mucho, para que cubrir no multiplique la carga
+	//cuando las replicas van lentas
+	@Value("${biblioteca.lectura-cubierta.proporcion:0.1}")
+	private double lecturaCubiertaProporcion;
+	
+	@Value("${biblioteca.lectura-cubierta.hilos-maximos:64}")
+	private int lecturaCubiertaHilosMaximos;
+	
+	//Tiempo que se deja sin lecturas a una replica que ha fallado, se
+	//dobla con cada fallo seguido hasta el maximo
+	@Value("${biblioteca.replicas.expulsion-ms:5000}")
+	private long expulsionMinima;
+	
+	@Value("${biblioteca.replicas.expulsion-maxima-ms:60000}")
+	private long expulsionMaxima;
+	
+	//Cuantas replicas de un grupo tienen que confirmar una escritura para
+	//darla por buena, 0 para la mayoria
+	@Value("${biblioteca.replicas.quorum-escritura:0}")
+	private int quorumEscritura;
+	
+	//Las peticiones idempotentes que fallan por un error pasajero se
+	//reintentan, con espera exponencial con jitter y sin pasar de una
+	//proporcion de las peticiones hechas
+	@Value("${biblioteca.cliente.reintentos.intentos:3}")
+	private int intentosMaximos;
+	
+	@Value("${biblioteca.cliente.reintentos.espera-base-ms:50}")
+	private long esperaBaseReintento;
+	
+	@Value("${biblioteca.cliente.reintentos.espera-maxima-ms:1000}")
+	private long esperaMaximaReintento;
+	
+	@Value("${biblioteca.cliente.reintentos.proporcion:0.1}")
+	private double proporcionReintentos;
+	
+	//Cuantos ids se piden como mucho en cada peticion de obtenerVarios (el
+	//servidor admite hasta 500 por GET)
+	@Value("${biblioteca.cliente.ids-por-peticion:100}")
+	private int idsPorPeticion;
+	
+	private Reintentos reintentos;
+	
+	private AnilloConsistente anillo;
+	
+	//Los grupos de replicas, por su clave en el anillo
+	private final Map<String, GrupoReplicas> grupos = new ConcurrentHashMap<String, GrupoReplicas>();
+	
+	private LecturaCubierta lector;
+	
+	//Hilos para las peticiones que se hacen a la vez a varios servidores o
+	//replicas. Se quedan bloqueados esperando la respuesta, asi que no pueden
+	//ir al pool comun, que tiene un hilo por procesador. No tiene limite
+	//porque enReplicas se llama desde tareas de este mismo pool y podria
+	//quedarse esperando a un hilo que no llega. Las peticiones normales ya
+	//las limita el limite de concurrencia adaptativo, y las masivas son una
+	//por replica
+	private ExecutorService hilosPeticiones;
+	
+	@PostConstruct
+	public void crearAnillo() {
+		List<String> claves = new ArrayList<String>();
+		for (String servidor : servidores) {
+			claves.add(registrarGrupo(servidor).getClave());
+		}
+		anillo = new AnilloConsistente(claves, nodosVirtuales);
+		lector = new LecturaCubierta(lecturaCubiertaActiva, lecturaCubiertaOperaciones, lecturaCubiertaPercentil,
+				lecturaCubiertaRetrasoMinimo, lecturaCubiertaProporcion, lecturaCubiertaHilosMaximos);
+		reintentos = new Reintentos(intentosMaximos, esperaBaseReintento, esperaMaximaReintento, proporcionReintentos, 10);
+		AtomicInteger numero = new AtomicInteger();
+		hilosPeticiones = Executors.newCachedThreadPool(tarea -> {
+			Thread hilo = new Thread(tarea, "peticiones-" + numero.incrementAndGet());
+			hilo.setDaemon(true);
+			return hilo;
+		});
+		System.out.println("ServicioProxyLibro -> Servidores: " + anillo.getNodos());
+	}
+	
+	@PreDestroy
+	public void cerrar() {
+		hilosPeticiones.shutdown();
+		lector.cerrar();
+	}
+	
 	/**
 	 * Método que obtiene un libro del servicio REST a partir de un id
 	 * En caso de que el id no exita arrojaria una expcepción que se captura
@@ -41,7 +213,9 @@ public class ServicioProxyLibro {
 			//Como el servicio trabaja con objetos ResponseEntity, nosotros 
 			//tambien podemos hacerlo en el cliente
 			//Ej http://localhost:8080/personas/1 GET
-			ResponseEntity<Libro> re = restTemplate.getForEntity(URL + id, Libro.class);
+			//Si el grupo tiene varias replicas la lectura se cubre con otra
+			ResponseEntity<Libro> re = reintentos.ejecutar(() ->
+					lector.leer(grupo(id), OBTENER, url -> restTemplate.getForEntity(url + id, Libro.class)));
 			HttpStatus hs= re.getStatusCode();
 			if(hs == HttpStatus.OK) {	
 				//Si el libro existe, el libro viene en formato JSON en el body
@@ -61,6 +235,77 @@ public class ServicioProxyLibro {
 			System.out.println("ServicioProxyLibro => No existe ningún libre con id: " + id);
 		    System.out.println("ServicioProxyLibro => Codigo de respuesta: " + e.getStatusCode());
 		    return null;
+		}catch (HttpServerErrorException | ResourceAccessException e) {//Errores 5XX, timeouts o circuito abierto
+			System.out.println("");
+			System.out.println("ServicioProxyLibro => El servidor no ha podido devolver el libro: " + e.getMessage());
+		    return null;
+		}
+	}
+	
+	/**
+	 * Método que obtiene varios libros a la vez a partir de sus ids, en vez
+	 * de hacer una peticion por libro. Los ids se reparten por el servidor
+	 * que tiene cada uno, y a cada servidor se le piden en trozos de como
+	 * mucho "biblioteca.cliente.ids-por-peticion" ids. Todos los trozos se
+	 * piden a la vez, y cada uno es una lectura normal: se cubre con otra
+	 * replica si tarda y se reintenta si falla.
+	 * 
+	 * @param ids los ids de los libros que queremos obtener. Los null se
+	 * ignoran
+	 * @return los libros encontrados, en el orden en que se han pedido (sin
+	 * repetidos), y los ids que no existen. Null si algun servidor no ha
+	 * podido contestar
+	 */
+	public ResultadoMultiple obtenerVarios(Collection<Integer> ids){
+		//Quitamos los repetidos y los null, como hace el servidor, y
+		//repartimos los ids por servidor
+		Set<Integer> unicos = new LinkedHashSet<Integer>(ids);
+		unicos.remove(null);
+		Map<GrupoReplicas, List<Integer>> porGrupo = new LinkedHashMap<GrupoReplicas, List<Integer>>();
+		for (Integer id : unicos) {
+			porGrupo.computeIfAbsent(grupo(id), g -> new ArrayList<Integer>()).add(id);
+		}
+		int tamanoTrozo = Math.max(1, Math.min(idsPorPeticion, 500));
+		List<CompletableFuture<ResultadoMultiple>> respuestas = new ArrayList<CompletableFuture<ResultadoMultiple>>();
+		for (Map.Entry<GrupoReplicas, List<Integer>> entrada : porGrupo.entrySet()) {
+			List<Integer> idsGrupo = entrada.getValue();
+			for (int i = 0; i < idsGrupo.size(); i += tamanoTrozo) {
+				//Ej http://localhost:8080/libros/?ids=1,2,3 GET
+				String trozo = idsGrupo.subList(i, Math.min(i + tamanoTrozo, idsGrupo.size())).stream()
+						.map(String::valueOf).collect(Collectors.joining(","));
+				respuestas.add(CompletableFuture.supplyAsync(() -> reintentos.ejecutar(() -> lector.leer(entrada.getKey(), OBTENER_VARIOS,
+						url -> restTemplate.getForObject(url + "?ids={ids}", ResultadoMultiple.class, trozo))), hilosPeticiones));
+			}
+		}
+		try {
+			Map<Integer, Libro> encontrados = new HashMap<Integer, Libro>(unicos.size() * 2);
+			for (ResultadoMultiple respuesta : esperar(respuestas)) {
+				for (Libro l : respuesta.getLibros()) {
+					encontrados.put(l.getId(), l);
+				}
+			}
+			ResultadoMultiple resultado = new ResultadoMultiple();
+			for (Integer id : unicos) {
+				Libro l = encontrados.get(id);
+				if (l != null) {
+					resultado.getLibros().add(l);
+				} else {
+					resultado.getIdsNoEncontrados().add(id);
+				}
+			}
+			System.out.println("");
+			System.out.println("ServicioProxyLibro -> Pedidos " + unicos.size() + " libros en " + respuestas.size()
+					+ " peticiones, no encontrados: " + resultado.getIdsNoEncontrados());
+			return resultado;
+		} catch (HttpClientErrorException e) {
+			System.out.println("");
+			System.out.println("ServicioProxyLibro -> Error al obtener los libros");
+		    System.out.println("ServicioProxyLibro -> Codigo de respuesta: " + e.getStatusCode());
+		    return null;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			System.out.println("");
+			System.out.println("ServicioProxyLibro -> El servidor no ha podido devolver los libros: " + e.getMessage());
+		    return null;
 		}
 	}
 	
@@ -77,7 +322,8 @@ public class ServicioProxyLibro {
 			//El primer parametro la URL
 			//El segundo parametros la libro que ira en body
 			//El tercer parametro el objeto que esperamos que nos envie el servidor
-			ResponseEntity<Libro> re = restTemplate.postForEntity(URL, l, Libro.class);
+			//Las escrituras van a todas las replicas del grupo
+			ResponseEntity<Libro> re = enReplicas(grupo(l.getId()), url -> restTemplate.postForEntity(url, l, Libro.class));
 			System.out.println("");
 			System.out.println("ServicioProxyLibro -> Libro dado de alta: ");
 			System.out.println(l);
@@ -88,6 +334,12 @@ public class ServicioProxyLibro {
 			System.out.println("ServicioProxyLibro -> El libro no se ha dado de alta (id o titulo ya existen)");
 		    System.out.println("ServicioProxyLibro -> Codigo de respuesta: " + e.getStatusCode());
 		    return null;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			//El alta no se reintenta, si el servidor la hubiera hecho un
+			//segundo intento daria error de id repetido
+			System.out.println("");
+			System.out.println("ServicioProxyLibro -> El servidor no ha podido dar de alta el libro: " + e.getMessage());
+		    return null;
 		}
 	}
 	
@@ -105,13 +357,19 @@ public class ServicioProxyLibro {
 			//El metodo put de Spring no devuelve nada
 			//si no da error se ha dado de alta y si no daria una 
 			//excepcion
-			restTemplate.put(URL + p.getId(), p, Libro.class);
-			return true;
+			return enReplicas(grupo(p.getId()), url -> reintentos.ejecutar(() -> {
+				restTemplate.put(url + p.getId(), p, Libro.class);
+				return true;
+			}));
 		} catch (HttpClientErrorException e) {
 			System.out.println("");
 			System.out.println("ServicioProxyLibro => No existe ningún libre con id: " + p.getId());
 		    System.out.println("ServicioProxyLibro =>  Codigo de respuesta: " + e.getStatusCode());
 		    return false;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			System.out.println("");
+			System.out.println("ServicioProxyLibro => El servidor no ha podido modificar el libro: " + e.getMessage());
+		    return false;
 		}
 	}
 	
@@ -128,13 +386,32 @@ public class ServicioProxyLibro {
 			//El metodo delete tampoco devuelve nada, por lo que si no 
 			//ha podido borrar el id, daría un excepcion
 			//Ej http://localhost:8080/personas/1 DELETE
-			restTemplate.delete(URL + id);
-			return true;
+			return enReplicas(grupo(id), url -> {
+				AtomicInteger intentos = new AtomicInteger();
+				return reintentos.ejecutar(() -> {
+					int intento = intentos.incrementAndGet();
+					try {
+						restTemplate.delete(url + id);
+					} catch (HttpClientErrorException.NotFound e) {
+						//Un intento anterior pudo borrarlo y perder la
+						//respuesta por el camino: en un reintento el 404
+						//quiere decir que el libro ya esta borrado
+						if (intento == 1) {
+							throw e;
+						}
+					}
+					return true;
+				});
+			});
 		} catch (HttpClientErrorException e) {
 			System.out.println("");
 			System.out.println("ServicioProxyLibro -> El libro no se ha borrado, id no existe: " + id);
 		    System.out.println("ServicioProxyLibro -> Codigo de respuesta: " + e.getStatusCode());
 		    return false;
+		} catch (HttpServerErrorException | ResourceAccessException e) {
+			System.out.println("");
+			System.out.println("ServicioProxyLibro -> El servidor no ha podido borrar el libro: " + e.getMessage());
+		    return false;
 		}
 	}
 	
@@ -154,17 +431,539 @@ public class ServicioProxyLibro {
 				queryParams += "?filtroTitulo=" + aux;
 			}
 			
+			String parametros = queryParams;
 			try {
+				//Preguntamos a todos los servidores a la vez y juntamos las
+				//respuestas ordenadas por id
 				//Ej http://localhost:8080/personas?nombre=harry GET
-				ResponseEntity<Libro[]> response =
-						  restTemplate.getForEntity(URL + queryParams,Libro[].class);
-				Libro[] arrayPersonas = response.getBody();
-				return Arrays.asList(arrayPersonas);//convertimos el array en un ArrayList
+				List<Libro> libros = new ArrayList<Libro>();
+				for (Libro[] arrayPersonas : enTodos(LISTAR, nodo -> 
+						restTemplate.getForEntity(nodo + parametros,Libro[].class).getBody())) {
+					libros.addAll(List.of(arrayPersonas));
+				}
+				libros.sort(Comparator.comparingInt(Libro::getId));
+				return libros;
 			} catch (HttpClientErrorException e) {
 				System.out.println("");
 				System.out.println("listar -> Error al obtener la lista de personas");
 			    System.out.println("listar -> Codigo de respuesta: " + e.getStatusCode());
 			    return null;
+			} catch (HttpServerErrorException | ResourceAccessException e) {
+				System.out.println("");
+				System.out.println("listar -> El servidor no ha podido devolver la lista: " + e.getMessage());
+			    return null;
+			}
+		}
+	
+		/**
+		 * Metodo que prepara el listado de libros por paginas, ordenado por
+		 * id. Cada pagina se pide cuando hace falta (y la siguiente se va
+		 * pidiendo mientras tanto), asi que no se trae el catalogo entero
+		 * 
+		 * @param filtroTitulo texto a buscar en el titulo, null para listar
+		 * todos los libros
+		 * @param tamanoPagina cuantos libros tiene cada pagina (1 a 1000)
+		 * @return el paginador, que pide las paginas segun se van leyendo
+		 */
+		public PaginadorLibros paginar(String filtroTitulo, int tamanoPagina){
+			List<GrupoReplicas> nodos = new ArrayList<GrupoReplicas>();
+			for (String clave : anillo.getNodos()) {
+				nodos.add(grupos.get(clave));
+			}
+			return new PaginadorLibros(nodos, tamanoPagina, (grupo, desde) -> leerPagina(grupo, filtroTitulo, desde, tamanoPagina),
+					hilosPeticiones);
+		}
+		
+		//Pide a un servidor una pagina del listado ordenado por id. Es una
+		//lectura normal: se cubre con otra replica si tarda y se reintenta
+		//Ej http://localhost:8080/libros/?sort=id&desde=21&limite=20 GET
+		private ResponseEntity<Libro[]> leerPagina(GrupoReplicas grupo, String filtroTitulo, Integer desde, int limite) {
+			Map<String, Object> variables = new LinkedHashMap<String, Object>();
+			String parametros = "?sort=id&limite={limite}";
+			variables.put("limite", limite);
+			if (desde != null) {
+				parametros += "&desde={desde}";
+				variables.put("desde", desde);
+			}
+			if (filtroTitulo != null) {
+				parametros += "&filtroTitulo={filtroTitulo}";
+				variables.put("filtroTitulo", filtroTitulo);
+			}
+			String consulta = parametros;
+			return reintentos.ejecutar(() -> lector.leer(grupo, PAGINA,
+					url -> restTemplate.getForEntity(url + consulta, Libro[].class, variables)));
+		}
+
+		/**
+		 * Metodo que obtiene sugerencias de titulos para autocompletar lo que
+		 * el usuario lleva escrito en el buscador
+		 * 
+		 * @param prefijo lo que el usuario lleva escrito, la ultima palabra
+		 * puede estar incompleta
+		 * @param limite numero maximo de sugerencias (entre 1 y 100)
+		 * @return la lista de sugerencias con el id y el titulo de cada libro,
+		 * ordenadas por titulo, o null en caso de algun error con el servicio REST
+		 */
+		public List<Sugerencia> sugerencias(String prefijo, int limite){
+			try {
+				//Usamos variables en la plantilla de la URL para que RestTemplate
+				//codifique el prefijo (espacios, acentos...). Cada servidor nos
+				//da sus mejores sugerencias y nos quedamos con las primeras
+				//Ej http://localhost:8080/libros/sugerencias?prefijo=jav&limit=10 GET
+				List<Sugerencia> sugerencias = new ArrayList<Sugerencia>();
+				for (Sugerencia[] response : enTodos(SUGERENCIAS, nodo -> restTemplate.getForEntity(
+						nodo + "sugerencias?prefijo={prefijo}&limit={limit}", Sugerencia[].class, prefijo, limite).getBody())) {
+					sugerencias.addAll(List.of(response));
+				}
+				sugerencias.sort(Comparator.comparing((Sugerencia su) -> su.getTitulo().toLowerCase())
+						.thenComparingInt(Sugerencia::getId));
+				return sugerencias.size() > limite ? sugerencias.subList(0, limite) : sugerencias;
+			} catch (HttpClientErrorException e) {
+				System.out.println("");
+				System.out.println("sugerencias -> Error al obtener las sugerencias de titulos");
+			    System.out.println("sugerencias -> Codigo de respuesta: " + e.getStatusCode());
+			    return null;
+			} catch (HttpServerErrorException | ResourceAccessException e) {
+				System.out.println("");
+				System.out.println("sugerencias -> El servidor no ha podido devolver las sugerencias: " + e.getMessage());
+			    return null;
+			}
+		}
+
+		/**
+		 * Metodo que obtiene las estadisticas del catalogo (total de libros,
+		 * libros por editorial y reparto de longitudes de los titulos) sin
+		 * descargar los libros. Cada servidor las calcula con sus contadores
+		 * y aqui se suman las de todos
+		 * 
+		 * @return las estadisticas de todo el catalogo, o null en caso de
+		 * algun error con el servicio REST
+		 */
+		public EstadisticasCatalogo estadisticas(){
+			try {
+				//Ej http://localhost:8080/libros/estadisticas GET
+				EstadisticasCatalogo total = new EstadisticasCatalogo();
+				double sumaLongitudes = 0;
+				for (EstadisticasCatalogo e : enTodos(ESTADISTICAS, nodo -> restTemplate.getForObject(
+						nodo + "estadisticas", EstadisticasCatalogo.class))) {
+					total.setTotal(total.getTotal() + e.getTotal());
+					sumaLongitudes += e.getLongitudMediaTitulo() * e.getTotal();
+					e.getPorEditorial().forEach((editorial, n) -> total.getPorEditorial().merge(editorial, n, Long::sum));
+					e.getLongitudTitulo().forEach((tramo, n) -> total.getLongitudTitulo().merge(tramo, n, Long::sum));
+				}
+				total.setLongitudMediaTitulo(total.getTotal() > 0 ? sumaLongitudes / total.getTotal() : 0);
+				return total;
+			} catch (HttpClientErrorException e) {
+				System.out.println("");
+				System.out.println("estadisticas -> Error al obtener las estadisticas del catalogo");
+			    System.out.println("estadisticas -> Codigo de respuesta: " + e.getStatusCode());
+			    return null;
+			} catch (HttpServerErrorException | ResourceAccessException e) {
+				System.out.println("");
+				System.out.println("estadisticas -> El servidor no ha podido devolver las estadisticas: " + e.getMessage());
+			    return null;
+			}
+		}
+
+		/**
+		 * Metodo que importa un fichero de catalogo completo de una sola vez.
+		 * El fichero se envia en streaming, sin cargarlo en memoria, asi que
+		 * sirve para catalogos de millones de libros. Si hay varios servidores
+		 * primero se reparte en un fichero por servidor segun el dueño de cada
+		 * id, se suben todos a la vez y se suman los resumenes. Cada fichero se
+	 * sube a todas las replicas de su servidor
+		 * 
+		 * @param fichero el fichero a importar, en CSV (id,titulo,editorial,nota)
+		 * o JSON Lines (un libro por linea) segun su extension (.csv, .ndjson o .jsonl)
+		 * @return el resumen de la importacion o null en caso de algun error
+		 * con el servicio REST o al leer el fichero
+		 */
+		public ResumenImportacion importar(Path fichero){
+			String nombre = fichero.getFileName().toString().toLowerCase();
+			boolean csv = nombre.endsWith(".csv");
+			MediaType tipo = csv ? MediaType.valueOf("text/csv")
+					: MediaType.valueOf("application/x-ndjson");
+			Map<String, Path> partes = null;
+			try {
+				if (anillo.getNodos().size() == 1) {
+					return subirGrupo(anillo.getNodos().get(0), fichero, tipo);
+				}
+				ResumenImportacion total = new ResumenImportacion();
+				partes = RepartoCatalogo.repartir(fichero, csv, anillo, total);
+				long inicio = System.nanoTime();
+				List<CompletableFuture<ResumenImportacion>> subidas = new ArrayList<CompletableFuture<ResumenImportacion>>();
+				for (Map.Entry<String, Path> parte : partes.entrySet()) {
+					subidas.add(CompletableFuture.supplyAsync(() -> subirGrupo(parte.getKey(), parte.getValue(), tipo),
+							hilosPeticiones));
+				}
+				for (ResumenImportacion r : esperar(subidas)) {
+					total.setLeidas(total.getLeidas() + r.getLeidas());
+					total.setImportados(total.getImportados() + r.getImportados());
+					total.setDuplicados(total.getDuplicados() + r.getDuplicados());
+					total.setRechazados(total.getRechazados() + r.getRechazados());
+					total.getErrores().addAll(r.getErrores());
+				}
+				long nanos = System.nanoTime() - inicio;
+				total.setMilisegundos(nanos / 1_000_000);
+				total.setLibrosPorSegundo(nanos == 0 ? 0 : total.getImportados() * 1_000_000_000L / nanos);
+				return total;
+			} catch (IOException e) {
+				System.out.println("");
+				System.out.println("importar -> No se ha podido repartir el fichero: " + e.getMessage());
+			    return null;
+			} catch (HttpClientErrorException e) {
+				System.out.println("");
+				System.out.println("importar -> Error al importar el fichero " + fichero);
+			    System.out.println("importar -> Codigo de respuesta: " + e.getStatusCode());
+			    return null;
+			} catch (ResourceAccessException e) {
+				System.out.println("");
+				System.out.println("importar -> No se ha podido leer o enviar el fichero: " + e.getMessage());
+			    return null;
+			} finally {
+				borrarPartes(partes);
+			}
+		}
+		
+		//Con execute escribimos nosotros el cuerpo de la peticion, copiando
+		//el fichero directamente al socket
+		//Ej http://localhost:8080/libros/importacion POST
+		private ResumenImportacion subir(String nodo, Path fichero, MediaType tipo) {
+			ResponseEntity<ResumenImportacion> re = restTemplateMasivo.execute(nodo + "importacion", HttpMethod.POST,
+					peticion -> {
+						peticion.getHeaders().setContentType(tipo);
+						Files.copy(fichero, peticion.getBody());
+					},
+					restTemplateMasivo.responseEntityExtractor(ResumenImportacion.class));
+			return re.getBody();
+		}
+		
+		//Sube el fichero a todas las replicas del grupo, el resumen es el de
+		//la primera que acaba bien
+		private ResumenImportacion subirGrupo(String clave, Path fichero, MediaType tipo) {
+			return enReplicas(grupos.get(clave), url -> subir(url, fichero, tipo));
+		}
+		
+		private static void borrarPartes(Map<String, Path> partes) {
+			if (partes != null) {
+				for (Path parte : partes.values()) {
+					parte.toFile().delete();
+				}
+			}
+		}
+	
+		/**
+		 * Metodo que descarga el catalogo completo a un fichero. La respuesta
+		 * se va escribiendo en el fichero segun llega, sin cargarla en memoria.
+		 * Con varios servidores se descargan uno detras de otro en el mismo
+		 * fichero (en CSV solo se deja la cabecera del primero). De cada grupo
+	 * de replicas se descarga la primera que no este expulsada
+		 * 
+		 * @param fichero el fichero donde guardar el catalogo, se sobrescribe
+		 * @param formato "csv" o "ndjson"
+		 * @return true si se ha descargado el catalogo, false en caso contrario
+		 */
+		public boolean exportar(Path fichero, String formato){
+			try (OutputStream salida = Files.newOutputStream(fichero, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				boolean primero = true;
+				for (String clave : anillo.getNodos()) {
+					String nodo = grupos.get(clave).ordenLectura().get(0);
+					boolean saltarCabecera = !primero && "csv".equalsIgnoreCase(formato);
+					//Ej http://localhost:8080/libros/exportacion?formato=csv GET
+					restTemplateMasivo.execute(nodo + "exportacion?formato={formato}", HttpMethod.GET, null,
+							respuesta -> {
+								try (InputStream cuerpo = respuesta.getBody()) {
+									if (saltarCabecera) {
+										int c;
+										while ((c = cuerpo.read()) != -1 && c != '\n') {
+										}
+									}
+									return cuerpo.transferTo(salida);
+								}
+							}, formato);
+					primero = false;
+				}
+				return true;
+			} catch (IOException e) {
+				System.out.println("");
+				System.out.println("exportar -> No se ha podido escribir el fichero: " + e.getMessage());
+			    return false;
+			} catch (HttpClientErrorException e) {
+				System.out.println("");
+				System.out.println("exportar -> Error al exportar el catalogo");
+			    System.out.println("exportar -> Codigo de respuesta: " + e.getStatusCode());
+			    return false;
+			} catch (ResourceAccessException e) {
+				System.out.println("");
+				System.out.println("exportar -> No se ha podido escribir el fichero: " + e.getMessage());
+			    return false;
+			}
+		}
+
+		/**
+		 * Metodo que añade un servidor nuevo y le pasa los libros que le tocan.
+		 * Solo cambian de servidor los ids que el anillo asigna ahora al nuevo
+		 * (mas o menos 1/n del catalogo). Se hace en tres pasos para que los
+		 * libros no dejen de estar disponibles en ningun momento:
+		 * 1. Se exporta cada servidor en streaming y los libros que pasan al
+		 * nuevo se apartan a un fichero temporal, con sus ids en otro fichero
+		 * por servidor de origen. Se copian al nuevo con la importacion masiva
+		 * (el anillo todavia no lo conoce).
+		 * 2. Se añade el servidor al anillo, las peticiones ya van a el.
+		 * 3. Se borran de cada servidor de origen con un solo borrado masivo.
+		 * Nunca se tiene en memoria mas que la linea que se esta leyendo.
+		 * Las escrituras de otros clientes durante el proceso se pueden perder,
+		 * asi que hay que hacerlo sin trafico de escritura.
+		 * 
+		 * @param servidor la URL base del servidor nuevo, ya arrancado y vacio,
+		 * o las URL de sus replicas separadas por "|"
+		 * @return el numero de libros que se han movido, -1 en caso de error
+		 */
+		public int rebalancear(String servidor){
+			GrupoReplicas grupoNuevo = registrarGrupo(servidor);
+			String nuevo = grupoNuevo.getClave();
+			if (anillo.getNodos().contains(nuevo)) {
+				return 0;
+			}
+			List<String> antiguos = anillo.getNodos();
+			List<String> nodosConNuevo = new ArrayList<String>(antiguos);
+			nodosConNuevo.add(nuevo);
+			AnilloConsistente futuro = new AnilloConsistente(nodosConNuevo, nodosVirtuales);
+			Path movidos = null;
+			Map<String, Path> idsPorOrigen = new LinkedHashMap<String, Path>();
+			try {
+				//1. Apartamos de cada servidor los libros que pasan a ser del
+				//nuevo y se los copiamos de golpe con la importacion masiva
+				movidos = Files.createTempFile("rebalanceo-", ".ndjson");
+				long total = 0;
+				try (BufferedWriter libros = Files.newBufferedWriter(movidos, StandardCharsets.UTF_8)) {
+					for (String clave : antiguos) {
+						Path ids = Files.createTempFile("rebalanceo-", ".ids");
+						idsPorOrigen.put(clave, ids);
+						String nodo = grupos.get(clave).ordenLectura().get(0);
+						//Ej http://localhost:8080/libros/exportacion?formato=ndjson GET
+						total += restTemplateMasivo.execute(nodo + "exportacion?formato=ndjson", HttpMethod.GET, null,
+								respuesta -> {
+									try (InputStream cuerpo = respuesta.getBody();
+											BufferedWriter escritorIds = Files.newBufferedWriter(ids, StandardCharsets.UTF_8)) {
+										return RepartoCatalogo.apartarMovidos(cuerpo, futuro, nuevo, libros, escritorIds);
+									}
+								});
+					}
+				}
+				if (total > 0) {
+					Path copiar = movidos;
+					ResumenImportacion copia = enReplicas(grupoNuevo,
+							url -> subir(url, copiar, MediaType.valueOf("application/x-ndjson")));
+					System.out.println("rebalancear -> Copiados a " + nuevo + ": " + copia);
+				}
+				//2. A partir de aqui las peticiones de esos ids van al nuevo
+				anillo.anadirNodo(nuevo);
+				//3. Los borramos de donde estaban
+				for (Map.Entry<String, Path> origen : idsPorOrigen.entrySet()) {
+					if (Files.size(origen.getValue()) == 0) {
+						continue;
+					}
+					ResumenBorrado borrado = enReplicas(grupos.get(origen.getKey()), url -> borrar(url, origen.getValue()));
+					System.out.println("rebalancear -> Borrados de " + origen.getKey() + ": " + borrado);
+				}
+				return (int) total;
+			} catch (IOException e) {
+				System.out.println("");
+				System.out.println("rebalancear -> No se han podido apartar los libros a mover: " + e.getMessage());
+			    return -1;
+			} catch (HttpClientErrorException e) {
+				System.out.println("");
+				System.out.println("rebalancear -> Error al mover los libros a " + nuevo);
+			    System.out.println("rebalancear -> Codigo de respuesta: " + e.getStatusCode());
+			    return -1;
+			} catch (ResourceAccessException | HttpServerErrorException e) {
+				System.out.println("");
+				System.out.println("rebalancear -> No se ha podido conectar: " + e.getMessage());
+			    return -1;
+			} finally {
+				if (movidos != null) {
+					movidos.toFile().delete();
+				}
+				borrarPartes(idsPorOrigen);
+			}
+		}
+		
+		//Manda los ids del fichero, uno por linea, al borrado masivo
+		//Ej http://localhost:8080/libros/borrado POST
+		private ResumenBorrado borrar(String nodo, Path ids) {
+			ResponseEntity<ResumenBorrado> re = restTemplateMasivo.execute(nodo + "borrado", HttpMethod.POST,
+					peticion -> {
+						peticion.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+						Files.copy(ids, peticion.getBody());
+					},
+					restTemplateMasivo.responseEntityExtractor(ResumenBorrado.class));
+			return re.getBody();
+		}
+		
+		/**
+		 * @return las URL base de los servidores entre los que se reparten los
+		 * libros (las replicas de un mismo servidor separadas por "|")
+		 */
+		public List<String> getServidores(){
+			return anillo.getNodos();
+		}
+		
+		/**
+		 * @return las lecturas hechas, cuantas se han cubierto con una segunda
+		 * peticion y cuantas de esas ha ganado la segunda
+		 */
+		public String getEstadisticasLectura(){
+			return "lecturas=" + lector.getLecturas() + ", cubiertas=" + lector.getCubiertas()
+					+ ", ganadas por la cubierta=" + lector.getGanadasPorCubierta()
+					+ String.format(", retraso actual de " + OBTENER + "=%.1f ms", lector.getRetrasoMs(OBTENER));
+		}
+		
+		/**
+		 * @return las metricas de las lecturas cubiertas y de los reintentos
+		 */
+		public Map<String, Object> getMetricas(){
+			Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+			Map<String, Object> lecturas = new LinkedHashMap<String, Object>();
+			lecturas.put("lecturas", lector.getLecturas());
+			lecturas.put("cubiertas", lector.getCubiertas());
+			lecturas.put("ganadasPorCubierta", lector.getGanadasPorCubierta());
+			lecturas.put("sinPresupuesto", lector.getSinPresupuesto());
+			lecturas.put("sinHilos", lector.getSinHilos());
+			lecturas.put("retrasoMs", lector.getRetrasoMs(OBTENER));
+			lecturas.put("percentilesMs", lector.getPercentilesMs());
+			metricas.put("lecturas", lecturas);
+			//Escrituras que le faltan a cada replica por no haberlas confirmado
+			Map<String, Object> replicas = new LinkedHashMap<String, Object>();
+			for (String clave : anillo.getNodos()) {
+				GrupoReplicas grupo = grupos.get(clave);
+				if (grupo.getUrls().size() > 1) {
+					replicas.put(clave, grupo.getEscriturasPerdidas());
+				}
 			}
+			metricas.put("escriturasPerdidas", replicas);
+			metricas.put("reintentos", reintentos.getMetricas());
+			return metricas;
+		}
+		
+		/**
+		 * @return las ultimas peticiones hechas a los servidores, con el tiempo
+		 * total en el cliente y el desglose de tiempos de cada servidor
+		 * (cabecera Server-Timing), de la mas antigua a la mas reciente
+		 */
+		public List<TiempoPeticion> getTiempos(){
+			return registroTiempos.getUltimas();
+		}
+		
+		//Hace la misma lectura a todos los servidores a la vez y devuelve las
+		//respuestas en el orden de los servidores. En cada grupo de replicas
+		//la lectura pasa a otra replica si falla (y se cubre si tarda, cuando
+		//la operacion se cubre), y si fallan todas se reintenta
+		private <T> List<T> enTodos(String operacion, Function<String, T> peticion) {
+			List<CompletableFuture<T>> respuestas = new ArrayList<CompletableFuture<T>>();
+			for (String clave : anillo.getNodos()) {
+				GrupoReplicas grupo = grupos.get(clave);
+				respuestas.add(CompletableFuture.supplyAsync(() -> reintentos.ejecutar(() -> lector.leer(grupo, operacion, peticion)),
+					hilosPeticiones));
+			}
+			return esperar(respuestas);
+		}
+		
+		//Hace la misma escritura en todas las replicas del grupo a la vez y
+		//devuelve la respuesta de la primera. Si una replica no contesta o da
+		//un 5XX se expulsa y se apunta que le falta esa escritura. La
+		//escritura solo vale si la confirma el quorum del grupo, si no se
+		//lanza un error aunque alguna replica ya la tenga, y el grupo queda
+		//distinto hasta que se vuelvan a copiar las que les falta. Un 4XX de
+		//cualquiera se relanza, para que lo traten los catch de cada metodo
+		private <T> T enReplicas(GrupoReplicas grupo, Function<String, T> peticion) {
+			List<String> urls = grupo.getUrls();
+			if (urls.size() == 1) {
+				return peticion.apply(urls.get(0));
+			}
+			List<CompletableFuture<T>> respuestas = new ArrayList<CompletableFuture<T>>();
+			for (String url : urls) {
+				respuestas.add(CompletableFuture.supplyAsync(() -> peticion.apply(url), hilosPeticiones));
+			}
+			T resultado = null;
+			List<String> confirmadas = new ArrayList<String>();
+			List<String> perdidas = new ArrayList<String>();
+			RuntimeException errorCliente = null;
+			for (int i = 0; i < urls.size(); i++) {
+				try {
+					T respuesta = respuestas.get(i).join();
+					grupo.exito(urls.get(i));
+					if (confirmadas.isEmpty()) {
+						resultado = respuesta;
+					}
+					confirmadas.add(urls.get(i));
+				} catch (CompletionException e) {
+					Throwable causa = e.getCause();
+					if (causa instanceof HttpServerErrorException || causa instanceof ResourceAccessException) {
+						grupo.fallo(urls.get(i));
+						perdidas.add(urls.get(i));
+						System.out.println("ServicioProxyLibro -> La replica " + urls.get(i) + " no tiene la escritura: " + causa.getMessage());
+					} else if (causa instanceof RuntimeException) {
+						errorCliente = errorCliente == null ? (RuntimeException) causa : errorCliente;
+					} else {
+						throw e;
+					}
+				}
+			}
+			if (errorCliente != null) {
+				throw errorCliente;
+			}
+			//Solo cuentan como perdidas si alguna replica si la tiene
+			if (!confirmadas.isEmpty()) {
+				for (String url : perdidas) {
+					grupo.escrituraPerdida(url);
+				}
+			}
+			if (confirmadas.size() < grupo.getQuorumEscritura()) {
+				throw new ResourceAccessException("Escritura confirmada por " + confirmadas.size() + " de " + urls.size()
+						+ " replicas y hacen falta " + grupo.getQuorumEscritura()
+						+ (confirmadas.isEmpty() ? "" : ", la tienen " + confirmadas + " y no " + perdidas));
+			}
+			return resultado;
+		}
+		
+		private GrupoReplicas grupo(int id) {
+			return grupos.get(anillo.nodoPara(id));
+		}
+		
+		//Crea el grupo de replicas de un servidor del anillo (o devuelve el que
+		//ya habia), la clave es la lista de URL normalizadas
+		private GrupoReplicas registrarGrupo(String servidor) {
+			List<String> urls = new ArrayList<String>();
+			for (String url : servidor.split("\\|")) {
+				if (!url.isBlank()) {
+					urls.add(normalizar(url));
+				}
+			}
+			String clave = String.join("|", urls);
+			return grupos.computeIfAbsent(clave, c -> new GrupoReplicas(c, expulsionMinima, expulsionMaxima, quorumEscritura));
+		}
+		
+		//Espera a todas las respuestas. Si alguna falla se relanza su excepcion
+		//original, para que la traten los catch de cada metodo
+		private static <T> List<T> esperar(List<CompletableFuture<T>> respuestas) {
+			List<T> resultado = new ArrayList<T>();
+			try {
+				for (CompletableFuture<T> respuesta : respuestas) {
+					resultado.add(respuesta.join());
+				}
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+			return resultado;
+		}
+		
+		private static String normalizar(String servidor) {
+			String url = servidor.trim();
+			return url.endsWith("/") ? url : url + "/";
 		}
 	}
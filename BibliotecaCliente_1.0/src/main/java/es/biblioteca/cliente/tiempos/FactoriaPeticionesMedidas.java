@@ -0,0 +1,191 @@
+package es.biblioteca.cliente.tiempos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Factoria de peticiones HTTP que mide cada peticion y la apunta en el
+ * registro de tiempos. Envuelve a otra factoria, que es la que hace de
+ * verdad las peticiones.
+ *
+ * A cada peticion le pone una cabecera traceparent (W3C Trace Context) con
+ * un id de traza nuevo, que el servidor mantiene en su respuesta. El tiempo
+ * en el cliente va desde que se ejecuta la peticion hasta que se cierra la
+ * respuesta, es decir, hasta que RestTemplate ha leido y convertido todo el
+ * cuerpo. Del servidor se guarda lo que manda en la cabecera Server-Timing.
+ */
+public class FactoriaPeticionesMedidas implements ClientHttpRequestFactory {
+
+	private static final String TRACEPARENT = "traceparent";
+	private static final String SERVER_TIMING = "Server-Timing";
+
+	private final ClientHttpRequestFactory factoria;
+	private final RegistroTiempos registro;
+
+	public FactoriaPeticionesMedidas(ClientHttpRequestFactory factoria, RegistroTiempos registro) {
+		this.factoria = factoria;
+		this.registro = registro;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		return new PeticionMedida(factoria.createRequest(uri, httpMethod), registro);
+	}
+
+	//Lee la cabecera Server-Timing, por ejemplo
+	//"admision;dur=0.03, dao-get;dur=0.05, json-salida;dur=0.21, total;dur=0.60"
+	private static void leerServerTiming(String cabecera, TiempoPeticion tiempo) {
+		for (String metrica : cabecera.split(",")) {
+			String[] partes = metrica.trim().split(";");
+			for (int i = 1; i < partes.length; i++) {
+				String parametro = partes[i].trim();
+				if (parametro.startsWith("dur=")) {
+					try {
+						double ms = Double.parseDouble(parametro.substring(4));
+						if ("total".equals(partes[0])) {
+							tiempo.setServidorMs(ms);
+						} else {
+							tiempo.getFasesServidor().put(partes[0], ms);
+						}
+					} catch (NumberFormatException e) {
+						//Metrica mal formada, la ignoramos
+					}
+				}
+			}
+		}
+	}
+
+	private static String hex(int digitos) {
+		StringBuilder sb = new StringBuilder(digitos);
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		while (sb.length() < digitos) {
+			sb.append(Character.forDigit(r.nextInt(16), 16));
+		}
+		return sb.toString();
+	}
+
+	private static final class PeticionMedida implements ClientHttpRequest {
+
+		private final ClientHttpRequest peticion;
+		private final RegistroTiempos registro;
+		private final TiempoPeticion tiempo = new TiempoPeticion();
+
+		PeticionMedida(ClientHttpRequest peticion, RegistroTiempos registro) {
+			this.peticion = peticion;
+			this.registro = registro;
+			String traceparent = peticion.getHeaders().getFirst(TRACEPARENT);
+			if (traceparent == null) {
+				String traza = hex(32);
+				peticion.getHeaders().set(TRACEPARENT, "00-" + traza + "-" + hex(16) + "-01");
+				tiempo.setTraza(traza);
+			} else if (traceparent.length() >= 35) {
+				tiempo.setTraza(traceparent.substring(3, 35));
+			}
+			tiempo.setMetodo(peticion.getMethodValue());
+			tiempo.setUrl(peticion.getURI().toString());
+		}
+
+		@Override
+		public ClientHttpResponse execute() throws IOException {
+			tiempo.setInstante(System.currentTimeMillis());
+			long inicio = System.nanoTime();
+			ClientHttpResponse respuesta;
+			try {
+				respuesta = peticion.execute();
+			} catch (IOException | RuntimeException e) {
+				tiempo.setClienteMs((System.nanoTime() - inicio) / 1_000_000.0);
+				tiempo.setHastaCabecerasMs(tiempo.getClienteMs());
+				registro.registrar(tiempo);
+				throw e;
+			}
+			tiempo.setHastaCabecerasMs((System.nanoTime() - inicio) / 1_000_000.0);
+			tiempo.setEstado(respuesta.getRawStatusCode());
+			String serverTiming = respuesta.getHeaders().getFirst(SERVER_TIMING);
+			if (serverTiming != null) {
+				leerServerTiming(serverTiming, tiempo);
+			}
+			return new RespuestaMedida(respuesta, inicio, tiempo, registro);
+		}
+
+		@Override
+		public OutputStream getBody() throws IOException {
+			return peticion.getBody();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return peticion.getHeaders();
+		}
+
+		@Override
+		public String getMethodValue() {
+			return peticion.getMethodValue();
+		}
+
+		@Override
+		public URI getURI() {
+			return peticion.getURI();
+		}
+	}
+
+	private static final class RespuestaMedida implements ClientHttpResponse {
+
+		private final ClientHttpResponse respuesta;
+		private final long inicio;
+		private final TiempoPeticion tiempo;
+		private final RegistroTiempos registro;
+		private boolean cerrada;
+
+		RespuestaMedida(ClientHttpResponse respuesta, long inicio, TiempoPeticion tiempo, RegistroTiempos registro) {
+			this.respuesta = respuesta;
+			this.inicio = inicio;
+			this.tiempo = tiempo;
+			this.registro = registro;
+		}
+
+		@Override
+		public void close() {
+			respuesta.close();
+			if (!cerrada) {
+				cerrada = true;
+				tiempo.setClienteMs((System.nanoTime() - inicio) / 1_000_000.0);
+				registro.registrar(tiempo);
+			}
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return respuesta.getBody();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return respuesta.getHeaders();
+		}
+
+		@Override
+		public HttpStatus getStatusCode() throws IOException {
+			return respuesta.getStatusCode();
+		}
+
+		@Override
+		public int getRawStatusCode() throws IOException {
+			return respuesta.getRawStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return respuesta.getStatusText();
+		}
+	}
+}
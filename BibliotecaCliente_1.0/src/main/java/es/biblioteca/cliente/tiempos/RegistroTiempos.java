@@ -0,0 +1,47 @@
+package es.biblioteca.cliente.tiempos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Las ultimas peticiones hechas a los servidores con sus tiempos en el
+ * cliente y en el servidor. Las que tardan mas que el umbral se escriben
+ * ademas por consola, para ver en el momento a donde se ha ido el tiempo.
+ */
+public class RegistroTiempos {
+
+	private final int maximo;
+	private final double umbralLentaMs;
+	private final ArrayDeque<TiempoPeticion> ultimas = new ArrayDeque<TiempoPeticion>();
+
+	/**
+	 * @param maximo cuantas peticiones se guardan como mucho
+	 * @param umbralLentaMs a partir de cuantos milisegundos se avisa por consola
+	 */
+	public RegistroTiempos(int maximo, double umbralLentaMs) {
+		this.maximo = maximo;
+		this.umbralLentaMs = umbralLentaMs;
+	}
+
+	public void registrar(TiempoPeticion tiempo) {
+		synchronized (ultimas) {
+			if (ultimas.size() == maximo) {
+				ultimas.removeFirst();
+			}
+			ultimas.addLast(tiempo);
+		}
+		if (tiempo.getClienteMs() >= umbralLentaMs) {
+			System.out.println("RegistroTiempos -> Peticion lenta: " + tiempo);
+		}
+	}
+
+	/**
+	 * @return las ultimas peticiones, de la mas antigua a la mas reciente
+	 */
+	public List<TiempoPeticion> getUltimas() {
+		synchronized (ultimas) {
+			return new ArrayList<TiempoPeticion>(ultimas);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package es.biblioteca.cliente.tiempos;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lo que ha tardado una peticion al servidor visto desde el cliente, junto
+ * con el desglose que manda el servidor en la cabecera Server-Timing. La
+ * diferencia entre lo que ve el cliente hasta las cabeceras y el total del
+ * servidor es la red y las colas de Tomcat, y lo que va de las cabeceras al
+ * final es la descarga y la conversion del JSON en el cliente.
+ */
+public class TiempoPeticion {
+
+	private long instante;
+	private String traza;
+	private String metodo;
+	private String url;
+	private int estado;
+	private double clienteMs;
+	private double hastaCabecerasMs;
+	private Double servidorMs;
+	private Map<String, Double> fasesServidor = new LinkedHashMap<String, Double>();
+
+	/**
+	 * @return la hora a la que se mando la peticion (System.currentTimeMillis)
+	 */
+	public long getInstante() {
+		return instante;
+	}
+
+	public void setInstante(long instante) {
+		this.instante = instante;
+	}
+
+	/**
+	 * @return el id de traza W3C que se ha mandado en la cabecera traceparent
+	 */
+	public String getTraza() {
+		return traza;
+	}
+
+	public void setTraza(String traza) {
+		this.traza = traza;
+	}
+
+	public String getMetodo() {
+		return metodo;
+	}
+
+	public void setMetodo(String metodo) {
+		this.metodo = metodo;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * @return el codigo de respuesta, 0 si no ha llegado respuesta
+	 */
+	public int getEstado() {
+		return estado;
+	}
+
+	public void setEstado(int estado) {
+		this.estado = estado;
+	}
+
+	/**
+	 * @return el tiempo total en el cliente, desde que se manda la peticion
+	 * hasta que se ha leido toda la respuesta
+	 */
+	public double getClienteMs() {
+		return clienteMs;
+	}
+
+	public void setClienteMs(double clienteMs) {
+		this.clienteMs = clienteMs;
+	}
+
+	public double getHastaCabecerasMs() {
+		return hastaCabecerasMs;
+	}
+
+	public void setHastaCabecerasMs(double hastaCabecerasMs) {
+		this.hastaCabecerasMs = hastaCabecerasMs;
+	}
+
+	/**
+	 * @return el total que dice el servidor, null si no ha mandado Server-Timing
+	 */
+	public Double getServidorMs() {
+		return servidorMs;
+	}
+
+	public void setServidorMs(Double servidorMs) {
+		this.servidorMs = servidorMs;
+	}
+
+	/**
+	 * @return el tiempo de cada fase en el servidor (dao-get, json-salida...)
+	 */
+	public Map<String, Double> getFasesServidor() {
+		return fasesServidor;
+	}
+
+	public void setFasesServidor(Map<String, Double> fasesServidor) {
+		this.fasesServidor = fasesServidor;
+	}
+
+	@Override
+	public String toString() {
+		return metodo + " " + url + " -> " + estado + String.format(" cliente=%.2f ms", clienteMs)
+				+ (servidorMs != null ? String.format(" servidor=%.2f ms %s red=%.2f ms", servidorMs, fasesServidor,
+						hastaCabecerasMs - servidorMs) : "")
+				+ " traza=" + traza;
+	}
+}
@@ -0,0 +1,161 @@
+package es.biblioteca.cliente.http2;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import es.biblioteca.cliente.entidad.Libro;
+
+/**
+ * Prueba de carga que compara HTTP/1.1 y HTTP/2 (h2c) contra un servidor
+ * de verdad: muchos hilos piden libros por id a la vez y se mide cuantas
+ * peticiones por segundo salen, la latencia, y cuantas conexiones TCP se
+ * abren y cuantas llega a haber a la vez contra el servidor.
+ *
+ * Las conexiones se cuentan con /proc/net/snmp y /proc/net/tcp, asi que
+ * solo salen en Linux (en otros sistemas se ve -1).
+ *
+ * No se ejecuta con el resto de pruebas. Hace falta un servidor arrancado
+ * con h2c (server.http2.enabled=true) y con los libros de ejemplo, y se
+ * lanza con
+ * mvn test -Dtest=ConexionesHttp2CargaTests -Dbiblioteca.http2.carga=true
+ * La URL del servidor se cambia con -Dbiblioteca.http2.servidor=... y la
+ * carga con -Dbiblioteca.http2.hilos=... y -Dbiblioteca.http2.peticiones-por-hilo=...
+ */
+@EnabledIfSystemProperty(named = "biblioteca.http2.carga", matches = "true")
+class ConexionesHttp2CargaTests {
+
+	private static final String SERVIDOR = System.getProperty("biblioteca.http2.servidor", "http://localhost:8080/libros/");
+	private static final int HILOS = Integer.getInteger("biblioteca.http2.hilos", 256);
+	private static final int PETICIONES_POR_HILO = Integer.getInteger("biblioteca.http2.peticiones-por-hilo", 200);
+	//Ids de los libros de ejemplo
+	private static final int IDS = 5;
+
+	@Test
+	void http11FrenteAHttp2() throws Exception {
+		SimpleClientHttpRequestFactory simple = new SimpleClientHttpRequestFactory();
+		simple.setConnectTimeout(2000);
+		simple.setReadTimeout(10000);
+		medir("HTTP/1.1", simple);
+		medir("HTTP/2", new FactoriaPeticionesHttp2(2000, 10000));
+	}
+
+	//Hace dos rondas y saca la segunda, la primera es de calentamiento
+	private static void medir(String nombre, ClientHttpRequestFactory factoria) throws Exception {
+		RestTemplate restTemplate = new RestTemplate(factoria);
+		restTemplate.getForObject(SERVIDOR + 1, Libro.class);
+		int puerto = URI.create(SERVIDOR).getPort();
+		for (int ronda = 0; ronda < 2; ronda++) {
+			long abiertasAntes = conexionesAbiertas();
+			AtomicInteger maximoSimultaneas = new AtomicInteger();
+			AtomicInteger errores = new AtomicInteger();
+			AtomicBoolean fin = new AtomicBoolean();
+			Thread muestreo = new Thread(() -> {
+				while (!fin.get()) {
+					maximoSimultaneas.accumulateAndGet(establecidas(puerto), Math::max);
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+			muestreo.start();
+			ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+			CountDownLatch salida = new CountDownLatch(1);
+			long[] nanos = new long[HILOS * PETICIONES_POR_HILO];
+			List<Future<?>> tareas = new ArrayList<Future<?>>();
+			for (int h = 0; h < HILOS; h++) {
+				int hilo = h;
+				tareas.add(hilos.submit(() -> {
+					salida.await();
+					for (int i = 0; i < PETICIONES_POR_HILO; i++) {
+						long inicio = System.nanoTime();
+						try {
+							restTemplate.getForObject(SERVIDOR + (1 + i % IDS), Libro.class);
+						} catch (RuntimeException e) {
+							errores.incrementAndGet();
+						}
+						nanos[hilo * PETICIONES_POR_HILO + i] = System.nanoTime() - inicio;
+					}
+					return null;
+				}));
+			}
+			long inicio = System.nanoTime();
+			salida.countDown();
+			for (Future<?> tarea : tareas) {
+				tarea.get();
+			}
+			double segundos = (System.nanoTime() - inicio) / 1e9;
+			fin.set(true);
+			muestreo.join();
+			hilos.shutdown();
+			if (ronda == 1) {
+				Arrays.sort(nanos);
+				long abiertas = abiertasAntes < 0 ? -1 : conexionesAbiertas() - abiertasAntes;
+				System.out.printf(Locale.ROOT, "CargaHttp2 -> %-8s %d hilos: %.0f pet/s, p50 %.1f ms, p99 %.1f ms,"
+						+ " errores %d, conexiones abiertas %d, maximo a la vez %d%n", nombre, HILOS,
+						nanos.length / segundos, nanos[nanos.length / 2] / 1e6, nanos[(int) (nanos.length * 0.99)] / 1e6,
+						errores.get(), abiertas, maximoSimultaneas.get());
+			}
+		}
+	}
+
+	//Conexiones TCP abiertas desde esta maquina desde el arranque
+	private static long conexionesAbiertas() {
+		try {
+			List<String> lineas = Files.readAllLines(Paths.get("/proc/net/snmp"));
+			for (int i = 0; i + 1 < lineas.size(); i++) {
+				if (lineas.get(i).startsWith("Tcp:") && lineas.get(i + 1).startsWith("Tcp:")) {
+					String[] claves = lineas.get(i).split("\\s+");
+					String[] valores = lineas.get(i + 1).split("\\s+");
+					for (int j = 0; j < claves.length; j++) {
+						if (claves[j].equals("ActiveOpens")) {
+							return Long.parseLong(valores[j]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			//No es Linux
+		}
+		return -1;
+	}
+
+	//Conexiones establecidas ahora mismo hacia el puerto del servidor
+	private static int establecidas(int puerto) {
+		String destino = String.format(":%04X", puerto);
+		int n = 0;
+		for (String fichero : new String[] { "/proc/net/tcp", "/proc/net/tcp6" }) {
+			try {
+				for (String linea : Files.readAllLines(Paths.get(fichero))) {
+					String[] columnas = linea.trim().split("\\s+");
+					//Estado 01 = ESTABLISHED
+					if (columnas.length > 3 && columnas[2].endsWith(destino) && columnas[3].equals("01")) {
+						n++;
+					}
+				}
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,80 @@
+package es.biblioteca.cliente.proteccion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import es.biblioteca.cliente.proteccion.CircuitoServidor.Estado;
+
+class CircuitoServidorTests {
+
+	private static final long ESPERA_MS = 100;
+
+	private static CircuitoServidor abierto() {
+		CircuitoServidor circuito = new CircuitoServidor(3, ESPERA_MS);
+		for (int i = 0; i < 3; i++) {
+			circuito.fallo();
+		}
+		assertEquals(Estado.ABIERTO, circuito.getEstado());
+		return circuito;
+	}
+
+	//Solo lo abren los fallos seguidos, un exito vuelve a empezar la cuenta
+	@Test
+	void seAbreTrasVariosFallosSeguidos() {
+		CircuitoServidor circuito = new CircuitoServidor(3, ESPERA_MS);
+		circuito.fallo();
+		circuito.fallo();
+		circuito.exito();
+		circuito.fallo();
+		circuito.fallo();
+		assertEquals(Estado.CERRADO, circuito.getEstado());
+		assertTrue(circuito.permitir());
+		circuito.fallo();
+		assertEquals(Estado.ABIERTO, circuito.getEstado());
+		assertFalse(circuito.permitir());
+		assertEquals(1L, circuito.getMetricas().get("aperturas"));
+		assertEquals(1L, circuito.getMetricas().get("rechazadas"));
+	}
+
+	//Pasada la espera deja pasar una sola peticion de prueba, y si va bien
+	//se cierra
+	@Test
+	void semiabiertoCierraSiLaPruebaVaBien() throws InterruptedException {
+		CircuitoServidor circuito = abierto();
+		Thread.sleep(ESPERA_MS + 20);
+		assertTrue(circuito.permitir());
+		assertEquals(Estado.SEMIABIERTO, circuito.getEstado());
+		assertFalse(circuito.permitir());
+		circuito.exito();
+		assertEquals(Estado.CERRADO, circuito.getEstado());
+		assertTrue(circuito.permitir());
+		assertTrue(circuito.permitir());
+	}
+
+	@Test
+	void semiabiertoVuelveAAbrirSiLaPruebaFalla() throws InterruptedException {
+		CircuitoServidor circuito = abierto();
+		Thread.sleep(ESPERA_MS + 20);
+		assertTrue(circuito.permitir());
+		circuito.fallo();
+		assertEquals(Estado.ABIERTO, circuito.getEstado());
+		assertFalse(circuito.permitir());
+		assertEquals(2L, circuito.getMetricas().get("aperturas"));
+	}
+
+	//Si la peticion de prueba no llega a terminar, pasada otra espera se
+	//deja pasar otra en vez de quedarse cerrado para siempre
+	@Test
+	void unaPruebaSinTerminarNoLoBloquea() throws InterruptedException {
+		CircuitoServidor circuito = abierto();
+		Thread.sleep(ESPERA_MS + 20);
+		assertTrue(circuito.permitir());
+		assertFalse(circuito.permitir());
+		Thread.sleep(ESPERA_MS + 20);
+		assertTrue(circuito.permitir());
+		assertEquals(Estado.SEMIABIERTO, circuito.getEstado());
+	}
+}
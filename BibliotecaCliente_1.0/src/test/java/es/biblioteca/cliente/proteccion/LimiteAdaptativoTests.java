@@ -0,0 +1,86 @@
+package es.biblioteca.cliente.proteccion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LimiteAdaptativoTests {
+
+	private static final long RAPIDA = TimeUnit.MILLISECONDS.toNanos(1);
+
+	//Ocupa todos los huecos del limite y los libera como respuestas rapidas
+	private static void ronda(LimiteAdaptativo limite) {
+		int huecos = limite.getLimite();
+		for (int i = 0; i < huecos; i++) {
+			assertTrue(limite.adquirir());
+		}
+		for (int i = 0; i < huecos; i++) {
+			limite.liberar(RAPIDA, false);
+		}
+	}
+
+	@Test
+	void rechazaLoQuePasaDelLimiteSinEsperar() {
+		LimiteAdaptativo limite = new LimiteAdaptativo(2, 1, 10, 1000, 0.5);
+		assertTrue(limite.adquirir());
+		assertTrue(limite.adquirir());
+		assertFalse(limite.adquirir());
+		limite.liberar(RAPIDA, false);
+		assertTrue(limite.adquirir());
+		assertEquals(1L, limite.getMetricas().get("rechazadas"));
+		assertEquals(3L, limite.getMetricas().get("admitidas"));
+	}
+
+	//Sube mas o menos uno por ronda mientras se usa, sin pasar del maximo,
+	//y no sube con poco trafico
+	@Test
+	void subeDeUnoEnUnoSoloSiSeUsa() {
+		LimiteAdaptativo limite = new LimiteAdaptativo(4, 1, 8, 1000, 0.5);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limite.adquirir());
+			limite.liberar(RAPIDA, false);
+		}
+		assertEquals(4, limite.getLimite());
+
+		ronda(limite);
+		ronda(limite);
+		assertEquals(5, limite.getLimite());
+		for (int i = 0; i < 50; i++) {
+			ronda(limite);
+		}
+		assertEquals(8, limite.getLimite());
+	}
+
+	//Un error o una respuesta lenta lo multiplica por el factor, una sola
+	//vez por cada latencia de respuesta y sin bajar del minimo
+	@Test
+	void bajaMultiplicandoUnaVezPorLatencia() throws InterruptedException {
+		LimiteAdaptativo limite = new LimiteAdaptativo(20, 3, 40, 10, 0.5);
+		Thread.sleep(5);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limite.adquirir());
+		}
+		limite.liberar(RAPIDA, true);
+		assertEquals(10, limite.getLimite());
+		//Las que ya estaban en curso no lo vuelven a bajar
+		limite.liberar(RAPIDA, true);
+		limite.liberar(RAPIDA, true);
+		assertEquals(10, limite.getLimite());
+
+		//Una respuesta por encima de la latencia objetivo cuenta como error
+		Thread.sleep(30);
+		assertTrue(limite.adquirir());
+		limite.liberar(TimeUnit.MILLISECONDS.toNanos(20), false);
+		assertEquals(5, limite.getLimite());
+
+		Thread.sleep(5);
+		assertTrue(limite.adquirir());
+		limite.liberar(RAPIDA, true);
+		assertEquals(3, limite.getLimite());
+		assertEquals(3L, limite.getMetricas().get("bajadas"));
+	}
+}
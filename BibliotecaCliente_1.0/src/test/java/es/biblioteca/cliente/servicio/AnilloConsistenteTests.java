@@ -0,0 +1,71 @@
+package es.biblioteca.cliente.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class AnilloConsistenteTests {
+
+	private static final int IDS = 100_000;
+
+	private static Map<String, Integer> reparto(AnilloConsistente anillo) {
+		Map<String, Integer> reparto = new HashMap<String, Integer>();
+		for (int id = 1; id <= IDS; id++) {
+			reparto.merge(anillo.nodoPara(id), 1, Integer::sum);
+		}
+		return reparto;
+	}
+
+	//Con 160 nodos virtuales cada servidor se queda con una parte parecida
+	@Test
+	void repartePorIgualEntreLosServidores() {
+		AnilloConsistente anillo = new AnilloConsistente(List.of("a/", "b/", "c/", "d/"), 160);
+		Map<String, Integer> reparto = reparto(anillo);
+		assertEquals(4, reparto.size());
+		for (Map.Entry<String, Integer> e : reparto.entrySet()) {
+			assertTrue(Math.abs(e.getValue() - IDS / 4) < IDS / 4 * 0.15, e.toString());
+		}
+	}
+
+	//Al añadir un servidor solo cambian de dueño los ids que pasan a ser
+	//suyos, mas o menos 1/n del total, y los demas se quedan donde estaban
+	@Test
+	void alAnadirUnServidorSoloSeMuevenLosQuePasanAlNuevo() {
+		AnilloConsistente anillo = new AnilloConsistente(List.of("a/", "b/", "c/"), 160);
+		List<String> antes = new ArrayList<String>(IDS);
+		for (int id = 1; id <= IDS; id++) {
+			antes.add(anillo.nodoPara(id));
+		}
+		anillo.anadirNodo("d/");
+		anillo.anadirNodo("d/");
+		assertEquals(List.of("a/", "b/", "c/", "d/"), anillo.getNodos());
+		int movidos = 0;
+		for (int id = 1; id <= IDS; id++) {
+			String ahora = anillo.nodoPara(id);
+			if (!ahora.equals(antes.get(id - 1))) {
+				assertEquals("d/", ahora);
+				movidos++;
+			}
+		}
+		assertTrue(Math.abs(movidos - IDS / 4) < IDS / 4 * 0.15, "movidos " + movidos);
+
+		//Al quitarlo cada id vuelve a su dueño de antes
+		anillo.quitarNodo("d/");
+		for (int id = 1; id <= IDS; id++) {
+			assertEquals(antes.get(id - 1), anillo.nodoPara(id));
+		}
+	}
+
+	@Test
+	void sinServidoresNoHayDueno() {
+		AnilloConsistente anillo = new AnilloConsistente(new ArrayList<String>(), 160);
+		assertThrows(IllegalStateException.class, () -> anillo.nodoPara(1));
+	}
+}
@@ -0,0 +1,67 @@
+package es.biblioteca.cliente.servicio;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import es.biblioteca.cliente.entidad.Libro;
+
+/**
+ * Prueba de carga de las lecturas cubiertas contra dos replicas de mentira
+ * (ServidorLatencias) en las que una parte de las peticiones se queda
+ * parada un rato. Hace las mismas lecturas sin cubrir y cubriendolas, dos
+ * veces cada una, y saca por consola los percentiles de latencia, cuantas
+ * lecturas se han cubierto y cuantas ha ganado la segunda peticion.
+ *
+ * No se ejecuta con el resto de pruebas. Se lanza con
+ * mvn test -Dtest=LecturaCubiertaCargaTests -Dbiblioteca.cubierta.carga=true
+ * y la carga se cambia con -Dbiblioteca.cubierta.lecturas=... (cuantas
+ * lecturas se miden), -Dbiblioteca.cubierta.probabilidad-lenta=... y
+ * -Dbiblioteca.cubierta.lenta-ms=...
+ */
+@EnabledIfSystemProperty(named = "biblioteca.cubierta.carga", matches = "true")
+class LecturaCubiertaCargaTests {
+
+	private static final int LECTURAS = Integer.getInteger("biblioteca.cubierta.lecturas", 5_000);
+	private static final double PROBABILIDAD_LENTA = Double
+			.parseDouble(System.getProperty("biblioteca.cubierta.probabilidad-lenta", "0.02"));
+	private static final long LENTA_MS = Long.getLong("biblioteca.cubierta.lenta-ms", 50);
+	private static final int CALENTAMIENTO = 300;
+
+	@Test
+	void latenciasConYSinCubrir() throws Exception {
+		RestTemplate restTemplate = new RestTemplate(new SimpleClientHttpRequestFactory());
+		try (ServidorLatencias primera = new ServidorLatencias(PROBABILIDAD_LENTA, LENTA_MS);
+				ServidorLatencias segunda = new ServidorLatencias(PROBABILIDAD_LENTA, LENTA_MS)) {
+			System.out.printf("CargaCubierta -> %d lecturas, %.1f%% lentas de %d ms%n", LECTURAS,
+					PROBABILIDAD_LENTA * 100, LENTA_MS);
+			for (boolean activa : new boolean[] { false, true, false, true }) {
+				GrupoReplicas grupo = new GrupoReplicas(primera.getUrl() + "|" + segunda.getUrl(), 5000, 60000, 0);
+				LecturaCubierta lector = new LecturaCubierta(activa, Set.of("obtener"), 0.95, 2, 0.1, 64);
+				for (int i = 0; i < CALENTAMIENTO; i++) {
+					lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + 1, Libro.class));
+				}
+				long[] nanos = new long[LECTURAS];
+				for (int i = 0; i < LECTURAS; i++) {
+					int id = i;
+					long inicio = System.nanoTime();
+					lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + id, Libro.class));
+					nanos[i] = System.nanoTime() - inicio;
+				}
+				Arrays.sort(nanos);
+				System.out.printf("CargaCubierta -> cubierta=%s p50=%.1f p95=%.1f p99=%.1f p99.9=%.1f max=%.1f ms"
+						+ " cubiertas=%d ganadas=%d retraso=%.1f ms%n", activa, ms(nanos, 0.50), ms(nanos, 0.95),
+						ms(nanos, 0.99), ms(nanos, 0.999), nanos[LECTURAS - 1] / 1e6, lector.getCubiertas(),
+						lector.getGanadasPorCubierta(), lector.getRetrasoMs("obtener"));
+			}
+		}
+	}
+
+	private static double ms(long[] ordenadas, double percentil) {
+		return ordenadas[(int) Math.min(ordenadas.length - 1, ordenadas.length * percentil)] / 1e6;
+	}
+}
@@ -0,0 +1,111 @@
+package es.biblioteca.cliente.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import es.biblioteca.cliente.entidad.Libro;
+
+class LecturaCubiertaTests {
+
+	private final RestTemplate restTemplate = new RestTemplate(new SimpleClientHttpRequestFactory());
+
+	//Con una replica siempre lenta y otra rapida, solo se manda la segunda
+	//peticion en las operaciones configuradas
+	@Test
+	void soloSeCubrenLasOperacionesConfiguradas() throws IOException {
+		try (ServidorLatencias lenta = new ServidorLatencias(1, 300);
+				ServidorLatencias rapida = new ServidorLatencias(0, 0)) {
+			GrupoReplicas grupo = new GrupoReplicas(lenta.getUrl() + "|" + rapida.getUrl(), 5000, 60000, 0);
+			LecturaCubierta lector = new LecturaCubierta(true, Set.of("obtener"), 0.95, 2, 0.1, 64);
+
+			//Las lecturas empiezan cada vez por una replica, esta por la lenta
+			assertEquals(1, lector.leer(grupo, "listar", url -> restTemplate.getForObject(url + 1, Libro.class)).getId());
+			assertEquals(0, lector.getCubiertas());
+			assertEquals(0, rapida.getPeticiones());
+
+			//Esta empieza por la rapida (y puede cubrirse si la primera conexion
+			//tarda) y la siguiente otra vez por la lenta
+			lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + 2, Libro.class));
+			long cubiertas = lector.getCubiertas();
+			long ganadas = lector.getGanadasPorCubierta();
+			long inicio = System.nanoTime();
+			assertEquals(3, lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + 3, Libro.class)).getId());
+			assertTrue(System.nanoTime() - inicio < 250_000_000L);
+			assertEquals(cubiertas + 1, lector.getCubiertas());
+			assertEquals(ganadas + 1, lector.getGanadasPorCubierta());
+		}
+	}
+
+	//Con las dos replicas lentas todas las lecturas pasan del retraso, pero
+	//solo se cubren las que permite el presupuesto
+	@Test
+	void noSeCubreMasQueElPresupuesto() throws IOException {
+		try (ServidorLatencias lenta = new ServidorLatencias(1, 30);
+				ServidorLatencias otraLenta = new ServidorLatencias(1, 30)) {
+			GrupoReplicas grupo = new GrupoReplicas(lenta.getUrl() + "|" + otraLenta.getUrl(), 5000, 60000, 0);
+			//Sin proporcion solo quedan los 10 tokens iniciales. Cada lectura
+			//es de una operacion distinta para que todas esperen el retraso
+			//inicial, sin que las latencias de las anteriores lo cambien
+			Set<String> operaciones = new HashSet<String>();
+			for (int i = 1; i <= 20; i++) {
+				operaciones.add("operacion" + i);
+			}
+			LecturaCubierta lector = new LecturaCubierta(true, operaciones, 0.95, 2, 0, 64);
+			try {
+				for (int i = 1; i <= 20; i++) {
+					int id = i;
+					assertEquals(id, lector.leer(grupo, "operacion" + i, url -> restTemplate.getForObject(url + id, Libro.class)).getId());
+				}
+				assertEquals(10, lector.getCubiertas());
+				assertEquals(10, lector.getSinPresupuesto());
+			} finally {
+				lector.cerrar();
+			}
+		}
+	}
+
+	//Con un solo hilo la primera peticion lo ocupa y no se puede cubrir, y
+	//otra lectura a la vez se hace en el hilo que llama
+	@Test
+	void sinHilosLibresNoSeCubre() throws Exception {
+		try (ServidorLatencias lenta = new ServidorLatencias(1, 100);
+				ServidorLatencias otraLenta = new ServidorLatencias(1, 100)) {
+			GrupoReplicas grupo = new GrupoReplicas(lenta.getUrl() + "|" + otraLenta.getUrl(), 5000, 60000, 0);
+			LecturaCubierta lector = new LecturaCubierta(true, Set.of("obtener"), 0.95, 2, 0.1, 1);
+			try {
+				Thread otra = new Thread(() -> lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + 2, Libro.class)));
+				otra.start();
+				assertEquals(1, lector.leer(grupo, "obtener", url -> restTemplate.getForObject(url + 1, Libro.class)).getId());
+				otra.join();
+				assertEquals(0, lector.getCubiertas());
+				assertTrue(lector.getSinHilos() >= 2, "sin hilos " + lector.getSinHilos());
+				assertEquals(2, lenta.getPeticiones() + otraLenta.getPeticiones());
+			} finally {
+				lector.cerrar();
+			}
+		}
+	}
+
+	//Las lecturas lentas de una operacion no retrasan la cobertura de otra
+	@Test
+	void cadaOperacionLlevaSusLatencias() throws IOException {
+		try (ServidorLatencias lenta = new ServidorLatencias(1, 40)) {
+			GrupoReplicas grupo = new GrupoReplicas(lenta.getUrl(), 5000, 60000, 0);
+			LecturaCubierta lector = new LecturaCubierta(true, Set.of("obtener"), 0.95, 2, 0.1, 64);
+			for (int i = 0; i < 32; i++) {
+				lector.leer(grupo, "listar", url -> restTemplate.getForObject(url + 1, Libro.class));
+			}
+			assertTrue(lector.getRetrasoMs("listar") >= 40, "listar " + lector.getRetrasoMs("listar"));
+			assertEquals(10, lector.getRetrasoMs("obtener"), 0.001);
+			assertEquals(Set.of("listar", "obtener"), lector.getPercentilesMs().keySet());
+		}
+	}
+}
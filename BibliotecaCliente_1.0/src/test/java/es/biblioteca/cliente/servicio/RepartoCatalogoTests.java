@@ -0,0 +1,45 @@
+package es.biblioteca.cliente.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RepartoCatalogoTests {
+
+	//De un catalogo exportado solo se apartan los libros que el anillo
+	//futuro le da al servidor nuevo, con la linea tal cual y su id aparte
+	@Test
+	void apartarMovidosSoloSacaLosDelNuevo() throws IOException {
+		AnilloConsistente futuro = new AnilloConsistente(List.of("a/", "b/", "c/"), 160);
+		StringBuilder catalogo = new StringBuilder();
+		StringBuilder librosEsperados = new StringBuilder();
+		StringBuilder idsEsperados = new StringBuilder();
+		List<Integer> movidos = new ArrayList<Integer>();
+		for (int id = 1; id <= 3000; id++) {
+			String linea = "{\"id\":" + id + ",\"titulo\":\"Libro " + id + ", con coma\",\"editorial\":null}";
+			catalogo.append(linea).append('\n');
+			if (futuro.nodoPara(id).equals("c/")) {
+				librosEsperados.append(linea).append('\n');
+				idsEsperados.append(id).append('\n');
+				movidos.add(id);
+			}
+		}
+		catalogo.append("\n").append("no es json\n").append("{\"titulo\":\"Sin id\"}\n");
+
+		StringWriter libros = new StringWriter();
+		StringWriter ids = new StringWriter();
+		long n = RepartoCatalogo.apartarMovidos(
+				new ByteArrayInputStream(catalogo.toString().getBytes(StandardCharsets.UTF_8)),
+				futuro, "c/", libros, ids);
+		assertEquals(movidos.size(), n);
+		assertEquals(librosEsperados.toString(), libros.toString());
+		assertEquals(idsEsperados.toString(), ids.toString());
+	}
+}
@@ -0,0 +1,81 @@
+package es.biblioteca.cliente.servicio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor de libros de mentira para probar el cliente contra replicas con
+ * latencias conocidas. Contesta a GET /libros/{id} con un libro inventado
+ * despues de esperar entre 1 y 3 ms, salvo una proporcion de las
+ * peticiones, que tardan lo que se le diga (una replica en una pausa del GC,
+ * por ejemplo). Escucha en un puerto libre de localhost.
+ */
+class ServidorLatencias implements AutoCloseable {
+
+	static {
+		//Sin esto el HttpServer del JDK manda la cabecera y el cuerpo en dos
+		//paquetes y el ACK retrasado del cliente añade 40 ms a cada respuesta
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer servidor;
+	private final ExecutorService hilos = Executors.newCachedThreadPool();
+	private final AtomicInteger peticiones = new AtomicInteger();
+
+	/**
+	 * @param probabilidadLenta la proporcion de peticiones lentas, entre 0 y 1
+	 * @param lentaMs lo que tarda una peticion lenta
+	 */
+	ServidorLatencias(double probabilidadLenta, long lentaMs) throws IOException {
+		servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 200);
+		servidor.setExecutor(hilos);
+		servidor.createContext("/libros/", intercambio -> {
+			try {
+				peticiones.incrementAndGet();
+				String id = intercambio.getRequestURI().getPath().substring("/libros/".length());
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+				Thread.sleep(r.nextDouble() < probabilidadLenta ? lentaMs : 1 + r.nextInt(3));
+				byte[] cuerpo = ("{\"id\":" + id + ",\"titulo\":\"Libro " + id + "\",\"editorial\":\"Editorial\",\"nota\":\"\"}")
+						.getBytes(StandardCharsets.UTF_8);
+				intercambio.getResponseHeaders().add("Content-Type", "application/json");
+				intercambio.sendResponseHeaders(200, cuerpo.length);
+				try (OutputStream salida = intercambio.getResponseBody()) {
+					salida.write(cuerpo);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				intercambio.close();
+			}
+		});
+		servidor.start();
+	}
+
+	/**
+	 * @return la URL base de los libros, como se configura en el cliente
+	 */
+	String getUrl() {
+		return "http://127.0.0.1:" + servidor.getAddress().getPort() + "/libros/";
+	}
+
+	/**
+	 * @return cuantas peticiones han llegado
+	 */
+	int getPeticiones() {
+		return peticiones.get();
+	}
+
+	@Override
+	public void close() {
+		servidor.stop(0);
+		hilos.shutdownNow();
+	}
+}
@@ -0,0 +1,21 @@
+package es.biblioteca.admision;
+
+/**
+ * Clases de peticion que distingue el control de admision. Cada clase tiene
+ * su propio limite de concurrencia, de manera que las peticiones caras
+ * (listados filtrados que recorren todo el catalogo) no puedan acaparar
+ * todos los hilos y dejar sin servicio a las baratas (busqueda por id).
+ */
+public enum ClaseEndpoint {
+
+	/** GET libros/{id}, GET libros?ids= y POST libros/consulta */
+	CONSULTA_ID,
+	/** GET libros sin filtro */
+	LISTADO,
+	/** GET libros con filtro, recorre todo el catalogo */
+	LISTADO_FILTRADO,
+	/** POST, PUT y DELETE */
+	ESCRITURA,
+	/** Cualquier otra peticion */
+	GENERAL
+}
@@ -0,0 +1,41 @@
+package es.biblioteca.admision;
+
+/**
+ * Cubeta de tokens (token bucket) para limitar la tasa de peticiones de un
+ * cliente. La cubeta se rellena a razon de "tokensPorSegundo" hasta un maximo
+ * de "capacidad", y cada peticion consume un token. Si no quedan tokens la
+ * peticion debe rechazarse.
+ *
+ * El rellenado se calcula de forma perezosa en cada consumo a partir del
+ * tiempo transcurrido, por lo que no hace falta ningun hilo en segundo plano.
+ */
+public class CubetaTokens {
+
+	private final double capacidad;
+	private final double tokensPorNano;
+	private double tokens;
+	private long ultimoRelleno;
+
+	public CubetaTokens(double capacidad, double tokensPorSegundo) {
+		this.capacidad = capacidad;
+		this.tokensPorNano = tokensPorSegundo / 1_000_000_000d;
+		this.tokens = capacidad;
+		this.ultimoRelleno = System.nanoTime();
+	}
+
+	/**
+	 * Intenta consumir un token
+	 * @return 0 si se ha podido consumir, o en caso contrario los
+	 * nanosegundos que faltan para que haya un token disponible
+	 */
+	public synchronized long consumir() {
+		long ahora = System.nanoTime();
+		tokens = Math.min(capacidad, tokens + (ahora - ultimoRelleno) * tokensPorNano);
+		ultimoRelleno = ahora;
+		if (tokens >= 1) {
+			tokens -= 1;
+			return 0;
+		}
+		return (long) Math.ceil((1 - tokens) / tokensPorNano);
+	}
+}
@@ -0,0 +1,173 @@
+package es.biblioteca.admision;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import es.biblioteca.tiempos.TiemposPeticion;
+
+/**
+ * Control de admision que se ejecuta delante de ControladorLibro.
+ *
+ * Cada peticion pasa por dos comprobaciones:
+ * 1. Limite de tasa por cliente (cubeta de tokens por direccion IP). Si el
+ *    cliente se ha quedado sin tokens se responde 429 TOO MANY REQUESTS.
+ * 2. Limite de concurrencia por clase de endpoint. Si no hay hueco y la espera
+ *    en cola supera el objetivo se responde 503 SERVICE UNAVAILABLE.
+ *
+ * En ambos casos se envia la cabecera Retry-After para que el cliente sepa
+ * cuando volver a intentarlo. Al ser un @Component que extiende de Filter,
+ * Spring Boot lo registra automaticamente en Tomcat.
+ *
+ * Se guardan como mucho "biblioteca.admision.maximo-clientes" cubetas. Al
+ * pasar de ahi se quita la del cliente que lleva mas tiempo sin pedir nada,
+ * asi que la memoria no crece con el numero de clientes distintos. Si ese
+ * cliente vuelve empieza con la cubeta llena.
+ */
+@Component
+public class FiltroAdmision extends OncePerRequestFilter {
+
+	private static final Pattern PATRON_LIBRO_ID = Pattern.compile("/libros/\\d+/?");
+
+	private final Map<ClaseEndpoint, LimiteEndpoint> limites = new EnumMap<ClaseEndpoint, LimiteEndpoint>(ClaseEndpoint.class);
+	//Cubetas por cliente en orden de uso, la primera es la que lleva mas
+	//tiempo sin usarse
+	private final Map<String, CubetaTokens> cubetas;
+
+	private final double tasaPorCliente;
+	private final double rafagaPorCliente;
+	private final int retryAfterSegundos;
+
+	public FiltroAdmision(
+			@Value("${biblioteca.admision.concurrencia.consulta-id:64}") int concurrenciaConsultaId,
+			@Value("${biblioteca.admision.concurrencia.listado:16}") int concurrenciaListado,
+			@Value("${biblioteca.admision.concurrencia.listado-filtrado:4}") int concurrenciaListadoFiltrado,
+			@Value("${biblioteca.admision.concurrencia.escritura:16}") int concurrenciaEscritura,
+			@Value("${biblioteca.admision.concurrencia.general:16}") int concurrenciaGeneral,
+			@Value("${biblioteca.admision.cola-maxima:100}") int colaMaxima,
+			@Value("${biblioteca.admision.espera-objetivo-ms:50}") long esperaObjetivoMs,
+			@Value("${biblioteca.admision.tasa-por-cliente:200}") double tasaPorCliente,
+			@Value("${biblioteca.admision.rafaga-por-cliente:400}") double rafagaPorCliente,
+			@Value("${biblioteca.admision.retry-after-segundos:1}") int retryAfterSegundos,
+			@Value("${biblioteca.admision.maximo-clientes:10000}") int maximoClientes) {
+		limites.put(ClaseEndpoint.CONSULTA_ID, new LimiteEndpoint(concurrenciaConsultaId, colaMaxima, esperaObjetivoMs));
+		limites.put(ClaseEndpoint.LISTADO, new LimiteEndpoint(concurrenciaListado, colaMaxima, esperaObjetivoMs));
+		limites.put(ClaseEndpoint.LISTADO_FILTRADO, new LimiteEndpoint(concurrenciaListadoFiltrado, colaMaxima, esperaObjetivoMs));
+		limites.put(ClaseEndpoint.ESCRITURA, new LimiteEndpoint(concurrenciaEscritura, colaMaxima, esperaObjetivoMs));
+		limites.put(ClaseEndpoint.GENERAL, new LimiteEndpoint(concurrenciaGeneral, colaMaxima, esperaObjetivoMs));
+		this.tasaPorCliente = tasaPorCliente;
+		this.rafagaPorCliente = rafagaPorCliente;
+		this.retryAfterSegundos = retryAfterSegundos;
+		this.cubetas = Collections.synchronizedMap(new LinkedHashMap<String, CubetaTokens>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CubetaTokens> mayor) {
+				return size() > maximoClientes;
+			}
+		});
+	}
+
+	//Las metricas del propio control de admision no se limitan, para
+	//poder consultarlas precisamente cuando el servicio esta saturado
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return request.getServletPath().startsWith("/admision");
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+
+		LimiteEndpoint limite = limites.get(clasificar(request));
+		long inicio = System.nanoTime();
+
+		long esperaTasa = cubeta(request.getRemoteAddr()).consumir();
+		if (esperaTasa > 0) {
+			limite.registrarDescarteTasa();
+			rechazar(response, HttpStatus.TOO_MANY_REQUESTS,
+					Math.max(1, TimeUnit.NANOSECONDS.toSeconds(esperaTasa + 999_999_999)));
+			return;
+		}
+
+		boolean admitida;
+		try {
+			admitida = limite.entrar();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			admitida = false;
+		}
+		//El tiempo de espera en la cola sale en la cabecera Server-Timing
+		TiemposPeticion.registrar("admision", System.nanoTime() - inicio);
+		if (!admitida) {
+			rechazar(response, HttpStatus.SERVICE_UNAVAILABLE, retryAfterSegundos);
+			return;
+		}
+
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			limite.salir();
+		}
+	}
+
+	/**
+	 * @return las metricas de admitidas y descartadas por cada clase de endpoint
+	 */
+	public Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		for (Map.Entry<ClaseEndpoint, LimiteEndpoint> e : limites.entrySet()) {
+			metricas.put(e.getKey().name(), e.getValue().getMetricas());
+		}
+		metricas.put("clientesConCubeta", cubetas.size());
+		return metricas;
+	}
+
+	private ClaseEndpoint clasificar(HttpServletRequest request) {
+		String ruta = request.getServletPath();
+		if (!"GET".equals(request.getMethod())) {
+			if ("/libros/consulta".equals(ruta)) {
+				return ClaseEndpoint.CONSULTA_ID;
+			}
+			return ruta.startsWith("/libros") ? ClaseEndpoint.ESCRITURA : ClaseEndpoint.GENERAL;
+		}
+		if (PATRON_LIBRO_ID.matcher(ruta).matches()) {
+			return ClaseEndpoint.CONSULTA_ID;
+		}
+		if ("/libros".equals(ruta) || "/libros/".equals(ruta)) {
+			if (request.getParameter("ids") != null) {
+				return ClaseEndpoint.CONSULTA_ID;
+			}
+			return request.getParameter("filtroTitulo") != null || request.getParameter("filtroEditorial") != null
+					? ClaseEndpoint.LISTADO_FILTRADO : ClaseEndpoint.LISTADO;
+		}
+		return ClaseEndpoint.GENERAL;
+	}
+
+	//Buscarla la pasa al final del orden de uso, y crearla puede quitar
+	//la que lleva mas tiempo sin usarse
+	private CubetaTokens cubeta(String cliente) {
+		return cubetas.computeIfAbsent(cliente, c -> new CubetaTokens(rafagaPorCliente, tasaPorCliente));
+	}
+
+	private void rechazar(HttpServletResponse response, HttpStatus estado, long retryAfter) {
+		response.setStatus(estado.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+	}
+}
@@ -0,0 +1,86 @@
+package es.biblioteca.admision;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limite de concurrencia de una clase de peticion. Como mucho deja pasar
+ * "concurrencia" peticiones a la vez; el resto esperan en cola, por orden
+ * de llegada. Si la cola
+ * esta llena o la espera supera el objetivo de retraso en cola, la
+ * peticion se descarta para responder rapido en lugar de acumular latencia.
+ *
+ * Tambien lleva las metricas de peticiones admitidas y descartadas.
+ */
+public class LimiteEndpoint {
+
+	private final int concurrencia;
+	private final Semaphore permisos;
+	private final int colaMaxima;
+	private final long esperaObjetivoNanos;
+
+	private final LongAdder admitidas = new LongAdder();
+	private final LongAdder descartadasSaturacion = new LongAdder();
+	private final LongAdder descartadasTasa = new LongAdder();
+	private final LongAdder esperaTotalNanos = new LongAdder();
+
+	public LimiteEndpoint(int concurrencia, int colaMaxima, long esperaObjetivoMs) {
+		this.concurrencia = concurrencia;
+		this.permisos = new Semaphore(concurrencia, true);
+		this.colaMaxima = colaMaxima;
+		this.esperaObjetivoNanos = TimeUnit.MILLISECONDS.toNanos(esperaObjetivoMs);
+	}
+
+	/**
+	 * Intenta obtener un hueco para ejecutar la peticion
+	 * @return true si la peticion ha sido admitida (y por tanto hay que
+	 * llamar a salir() al terminar), false si se ha descartado
+	 */
+	public boolean entrar() throws InterruptedException {
+		//tryAcquire() sin espera se salta la cola aunque el semaforo sea
+		//justo, asi que solo se usa si no hay nadie esperando
+		if (!permisos.hasQueuedThreads() && permisos.tryAcquire()) {
+			admitidas.increment();
+			return true;
+		}
+		if (permisos.getQueueLength() >= colaMaxima) {
+			descartadasSaturacion.increment();
+			return false;
+		}
+		long inicio = System.nanoTime();
+		boolean admitida = permisos.tryAcquire(esperaObjetivoNanos, TimeUnit.NANOSECONDS);
+		esperaTotalNanos.add(System.nanoTime() - inicio);
+		if (admitida) {
+			admitidas.increment();
+		} else {
+			descartadasSaturacion.increment();
+		}
+		return admitida;
+	}
+
+	public void salir() {
+		permisos.release();
+	}
+
+	public void registrarDescarteTasa() {
+		descartadasTasa.increment();
+	}
+
+	/**
+	 * @return una foto de las metricas de este limite
+	 */
+	public Map<String, Object> getMetricas() {
+		Map<String, Object> metricas = new LinkedHashMap<String, Object>();
+		metricas.put("concurrenciaMaxima", concurrencia);
+		metricas.put("enCurso", concurrencia - permisos.availablePermits());
+		metricas.put("enCola", permisos.getQueueLength());
+		metricas.put("admitidas", admitidas.sum());
+		metricas.put("descartadasSaturacion", descartadasSaturacion.sum());
+		metricas.put("descartadasTasa", descartadasTasa.sum());
+		metricas.put("esperaTotalMs", TimeUnit.NANOSECONDS.toMillis(esperaTotalNanos.sum()));
+		return metricas;
+	}
+}
@@ -0,0 +1,29 @@
+package es.biblioteca.controlador;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import es.biblioteca.admision.FiltroAdmision;
+
+//Controlador que expone las metricas del control de admision, es decir,
+//cuantas peticiones se han admitido y cuantas se han descartado (503 por
+//saturacion o 429 por exceso de tasa) en cada clase de endpoint.
+@RestController
+public class ControladorAdmision {
+
+	@Autowired
+	private FiltroAdmision filtroAdmision;
+
+	//La URL para acceder a este metodo sería:
+	//"http://localhost:8080/admision/metricas" y el metodo a usar seria GET
+	@GetMapping(path="admision/metricas",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> getMetricas() {
+		return new ResponseEntity<Map<String, Object>>(filtroAdmision.getMetricas(),HttpStatus.OK);
+	}
+}
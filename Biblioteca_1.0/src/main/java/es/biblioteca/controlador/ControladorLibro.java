@@ -1,9 +1,13 @@
 package es.biblioteca.controlador;
 
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -13,11 +17,25 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import es.biblioteca.modelo.entidad.EstadisticasCatalogo;
 import es.biblioteca.modelo.entidad.Libro;
+import es.biblioteca.modelo.entidad.LibroJson;
+import es.biblioteca.modelo.entidad.ResultadoBusqueda;
+import es.biblioteca.modelo.entidad.ResultadoMultiple;
+import es.biblioteca.modelo.entidad.ResumenBorrado;
+import es.biblioteca.modelo.entidad.ResumenImportacion;
+import es.biblioteca.modelo.entidad.ResumenInstantanea;
+import es.biblioteca.modelo.entidad.Sugerencia;
+import es.biblioteca.modelo.persistencia.CargaMasivaCatalogo;
 import es.biblioteca.modelo.persistencia.DaoLibro;
+import es.biblioteca.modelo.persistencia.FormatoCatalogo;
+import es.biblioteca.modelo.persistencia.OrdenLibro;
+import es.biblioteca.tiempos.TiemposPeticion;
 
 //En este ejemplo vamos a realizar un CRUD completo contra la entidad
 //Libro. La bbdd esta simulado en memoria.
@@ -40,6 +58,37 @@ public class ControladorLibro {
 	@Autowired
 	private DaoLibro daoLibro;
 	
+	//Importacion y exportacion masiva del catalogo
+	@Autowired
+	private CargaMasivaCatalogo cargaMasiva;
+	
+	//Campos de Libro que se pueden pedir en el parametro "fields"
+	private static final List<String> CAMPOS_LIBRO = List.of("id", "titulo", "editorial", "nota");
+	
+	//Distancia de edicion maxima admitida en la busqueda aproximada. Por
+	//encima de 3 casi cualquier palabra corta se parece a cualquier otra
+	private static final int DISTANCIA_MAXIMA = 3;
+	
+	//Numero maximo de resultados que se pueden pedir a la busqueda
+	//aproximada. Con palabras cortas y distancia 2 o 3 casan muchisimos libros
+	private static final int LIMITE_APROXIMADOS = 100;
+	
+	//Numero maximo de sugerencias que se pueden pedir al autocompletado
+	private static final int LIMITE_SUGERENCIAS = 100;
+	
+	//Numero maximo de resultados que se pueden pedir a la busqueda de texto
+	private static final int LIMITE_BUSQUEDA = 100;
+	
+	//Numero maximo de libros por pagina en el listado, y la cabecera con el
+	//total de libros que se manda en la primera pagina
+	private static final int LIMITE_PAGINA = 1000;
+	private static final String CABECERA_TOTAL = "X-Total-Count";
+	
+	//Numero maximo de ids que se pueden pedir de una vez, por GET (van en la
+	//URL) y por POST
+	private static final int MAXIMO_IDS_GET = 500;
+	private static final int MAXIMO_IDS_CONSULTA = 10_000;
+	
 	//GET LIBRO POR ID
 	//En este primer ejemplo vamos a configurar endpoint(punto de acceso) para
 	//devolver un libro por ID. Como nos marca REST, al ser una busqueda
@@ -67,7 +116,8 @@ public class ControladorLibro {
 	public ResponseEntity<Libro> getLibro(@PathVariable("id") int id) {
 		System.out.println("");
 		System.out.println("ControladorLibro => Buscando libro con id: " + id);
-		Libro l = daoLibro.get(id);
+		//Cada llamada al DAO se mide y sale en la cabecera Server-Timing
+		Libro l = TiemposPeticion.medir("dao-get", () -> daoLibro.get(id));
 		if(l != null) {
 			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
 			System.out.println(l);
@@ -79,6 +129,60 @@ public class ControladorLibro {
 		}
 	}
 	
+	//GET VARIOS LIBROS POR ID
+	//Cuando se necesitan muchos libros concretos (por ejemplo los de un
+	//pedido) es mucho mas barato pedirlos todos en una peticion que hacer
+	//una peticion por libro. Los ids van separados por comas en el
+	//parametro "ids" y se buscan todos con una sola llamada al DAO.
+	//Siempre se responde 200 OK con los libros encontrados, en el orden en
+	//que se han pedido, y la lista de ids que no existen. Como la URL tiene
+	//un tamaño maximo, por GET se admiten como mucho MAXIMO_IDS_GET ids; para
+	//mas esta la consulta por POST. Si hay demasiados se devuelve 400
+	
+	//Al llevar el parametro "ids" (params="ids") Spring elige este metodo en
+	//vez del listado de libros, que tiene la misma URL
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros?ids=1,2,3" y el metodo a usar seria GET
+	@GetMapping(path="libros",params="ids",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ResultadoMultiple> getVariosLibros(@RequestParam("ids") List<Integer> ids) {
+		return consultarVarios(ids, MAXIMO_IDS_GET);
+	}
+	
+	//POST CONSULTA DE VARIOS LIBROS POR ID
+	//Lo mismo que el GET anterior pero con los ids en el body, como un array
+	//JSON ([1,2,3]), para cuando son demasiados para ir en la URL. No
+	//modifica nada, se usa POST solo para poder mandar el body
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/consulta" y el metodo a usar seria POST
+	@PostMapping(path="libros/consulta",consumes=MediaType.APPLICATION_JSON_VALUE,
+			produces=MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ResultadoMultiple> consultarLibros(@RequestBody List<Integer> ids) {
+		return consultarVarios(ids, MAXIMO_IDS_CONSULTA);
+	}
+	
+	private ResponseEntity<ResultadoMultiple> consultarVarios(List<Integer> ids, int maximo) {
+		System.out.println("");
+		//Un body "null" llega aqui como null
+		if (ids == null) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => No se ha enviado la lista de ids");
+			return new ResponseEntity<ResultadoMultiple>(HttpStatus.BAD_REQUEST);
+		}
+		System.out.println("ControladorLibro => Buscando " + ids.size() + " libros por id");
+		if (ids.size() > maximo) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => Se admiten como mucho " + maximo + " ids");
+			return new ResponseEntity<ResultadoMultiple>(HttpStatus.BAD_REQUEST);
+		}
+		ResultadoMultiple resultado = TiemposPeticion.medir("dao-getVarios", () -> daoLibro.getVarios(ids));
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		System.out.println("ControladorLibro => Encontrados " + resultado.getLibros().size() 
+				+ ", no encontrados: " + resultado.getIdsNoEncontrados());
+		return new ResponseEntity<ResultadoMultiple>(resultado,HttpStatus.OK);
+	}
+	
 	//POST 
 	//En este caso vamos a dar de alta un libro, para ello usaremos
 	//el metodo POST, vamos a producir tambien JSON (produces) y el 
@@ -100,7 +204,7 @@ public class ControladorLibro {
 	@PostMapping(path="libros",consumes=MediaType.APPLICATION_JSON_VALUE,
 			produces=MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<Libro> altaLibro(@RequestBody Libro l) {
-		int creado = daoLibro.add(l);
+		int creado = TiemposPeticion.medir("dao-add", () -> daoLibro.add(l));
 		System.out.println("");
 		System.out.println("ControladorLibro => Dando de alta libro...");
 		if (creado==1) {
@@ -134,29 +238,302 @@ public class ControladorLibro {
 	//"http://localhost:8080/libros" y el metodo a usar seria GET
 	//Si queremos filtrar por nombre entonces deberemos usar:
 	//"http://localhost:8080/libros?filtroTitulo=TITULO_A_FILTRAR"
+	
+	//Ademas admite los siguientes parametros opcionales:
+	//"filtroEditorial=TEXTO" para filtrar tambien por editorial
+	//"sort=titulo|editorial|id" para ordenar el resultado
+	//"desde=ID&hasta=ID" para acotar por rango de id (ambos incluidos)
+	//"fields=id,titulo" para devolver solo esos campos de cada libro
+	//"limite=N" para devolver como mucho N libros (entre 1 y LIMITE_PAGINA)
+	//Por ejemplo:
+	//"http://localhost:8080/libros?sort=titulo&desde=10&hasta=50&fields=id,titulo"
+	//Para ir por paginas se ordena por id y cada pagina empieza en el id
+	//siguiente al ultimo de la anterior, asi cada pagina cuesta lo mismo
+	//sea cual sea el tamaño del catalogo. La primera pagina (con limite y
+	//sin desde ni hasta) lleva ademas la cabecera X-Total-Count con el
+	//numero total de libros que cumplen los filtros:
+	//"http://localhost:8080/libros?sort=id&limite=20" y las siguientes
+	//"http://localhost:8080/libros?sort=id&desde=ULTIMO_ID+1&limite=20"
+	//El orden y los rangos se resuelven con los indices ordenados del DAO, 
+	//por lo que no se ordena todo el catalogo en cada peticion. Si algun
+	//parametro no es valido se devuelve 400 BAD REQUEST
 	@GetMapping(path="libros",produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<List<Libro>> listarLibros(
-			@RequestParam(name="filtroTitulo",required=false) String filtroTitulo) {
+	public ResponseEntity<?> listarLibros(
+			@RequestParam(name="filtroTitulo",required=false) String filtroTitulo,
+			@RequestParam(name="filtroEditorial",required=false) String filtroEditorial,
+			@RequestParam(name="sort",required=false) String sort,
+			@RequestParam(name="desde",required=false) Integer desde,
+			@RequestParam(name="hasta",required=false) Integer hasta,
+			@RequestParam(name="fields",required=false) String fields,
+			@RequestParam(name="limite",required=false) Integer limite) {
+		OrdenLibro orden = null;
+		List<String> campos = null;
+		try {
+			if (limite != null && (limite < 1 || limite > LIMITE_PAGINA)) {
+				throw new IllegalArgumentException("el limite debe estar entre 1 y " + LIMITE_PAGINA);
+			}
+			if (sort != null) {
+				orden = OrdenLibro.valueOf(sort.trim().toUpperCase());
+			}
+			if (fields != null) {
+				campos = parsearCampos(fields);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("");
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => Parametro de listado no valido: " + e.getMessage());
+			return new ResponseEntity<Void>(HttpStatus.BAD_REQUEST);
+		}
+		
 		List<Libro> listaLibros = null;
-		//Si no me viene el titulo, devolvemos toda la lista
-		if(filtroTitulo == null) {
+		if(orden != null || desde != null || hasta != null || limite != null) {
+			System.out.println("");
+			System.out.println("ControladorLibro => Listado ordenado de los libros (orden=" + orden 
+					+ ", desde=" + desde + ", hasta=" + hasta + ", filtroTitulo=" + filtroTitulo 
+					+ ", filtroEditorial=" + filtroEditorial + ", limite=" + limite + ")");
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+			OrdenLibro criterio = orden;
+			listaLibros = TiemposPeticion.medir("dao-listOrdenado",
+					() -> daoLibro.listOrdenado(criterio, desde, hasta, filtroTitulo, filtroEditorial, limite));
+		//Si no me viene ningun filtro, devolvemos toda la lista
+		}else if(filtroTitulo == null && filtroEditorial == null) {
 			System.out.println("");
 			System.out.println("ControladorLibro => Listado de los libros. ");
 			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
-			listaLibros = daoLibro.list();			
+			listaLibros = TiemposPeticion.medir("dao-list", () -> daoLibro.list());			
 		}else {
 			System.out.println("");
-			System.out.println("ControladorLibro => Filtrado de libros por titulo (" + filtroTitulo + "): ");
+			System.out.println("ControladorLibro => Filtrado de libros por titulo (" + filtroTitulo 
+					+ ") y editorial (" + filtroEditorial + "): ");
 			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
 			System.out.println("Coincidencias encontradas: ");
-			listaLibros = daoLibro.listByTitulo(filtroTitulo);
+			listaLibros = TiemposPeticion.medir("dao-listFiltrado", () -> daoLibro.listFiltrado(filtroTitulo, filtroEditorial));
 			if (listaLibros.isEmpty()) { System.out.println("Ninguna coincidencia encontrada");}
 				
 		}
 		System.out.println(listaLibros);
+		//En la primera pagina mandamos cuantos libros hay en total
+		HttpHeaders cabeceras = new HttpHeaders();
+		if (limite != null && desde == null && hasta == null) {
+			long total = TiemposPeticion.medir("dao-contar", () -> daoLibro.contar(filtroTitulo, filtroEditorial));
+			cabeceras.set(CABECERA_TOTAL, String.valueOf(total));
+		}
+		//Con "fields" se escriben solo esos campos de cada libro, sin la
+		//nota u otros campos largos que no se han pedido
+		if (campos != null) {
+			return new ResponseEntity<LibroJson.Proyeccion>(new LibroJson.Proyeccion(listaLibros, campos),cabeceras,HttpStatus.OK);
+		}
+		return new ResponseEntity<List<Libro>>(listaLibros,cabeceras,HttpStatus.OK);
+	}
+	
+	//GET BUSQUEDA APROXIMADA POR TITULO
+	//Busqueda tolerante a errores de escritura. Por ejemplo "Jva Saga"
+	//encontrara "The Java Saga". Con el parametro "distancia" indicamos
+	//cuantas letras cambiadas, añadidas o quitadas toleramos en cada palabra
+	//(por defecto 1, como mucho 3). Los resultados vienen ordenados de mas
+	//parecido a menos, y se devuelven como mucho "limit" (por defecto 20,
+	//como mucho 100).
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/aproximados?titulo=Jva Saga&distancia=1&limit=20"
+	//y el metodo a usar seria GET
+	@GetMapping(path="libros/aproximados",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<Libro>> listarLibrosAproximados(
+			@RequestParam(name="titulo") String titulo,
+			@RequestParam(name="distancia",required=false,defaultValue="1") int distancia,
+			@RequestParam(name="limit",required=false,defaultValue="20") int limit) {
+		System.out.println("");
+		System.out.println("ControladorLibro => Busqueda aproximada por titulo (" + titulo + ", distancia " + distancia + "): ");
+		if (distancia < 0 || distancia > DISTANCIA_MAXIMA) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => La distancia debe estar entre 0 y " + DISTANCIA_MAXIMA);
+			return new ResponseEntity<List<Libro>>(HttpStatus.BAD_REQUEST);
+		}
+		if (limit < 1 || limit > LIMITE_APROXIMADOS) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => El limite de resultados debe estar entre 1 y " + LIMITE_APROXIMADOS);
+			return new ResponseEntity<List<Libro>>(HttpStatus.BAD_REQUEST);
+		}
+		List<Libro> listaLibros = TiemposPeticion.medir("dao-listByTituloAproximado", () -> daoLibro.listByTituloAproximado(titulo, distancia, limit));
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		//Solo el numero de resultados, que pueden ser bastantes
+		System.out.println("ControladorLibro => Libros encontrados: " + listaLibros.size());
 		return new ResponseEntity<List<Libro>>(listaLibros,HttpStatus.OK);
 	}
 	
+	//GET SUGERENCIAS DE TITULOS
+	//Autocompletado para el buscador, que lanza una peticion por cada tecla.
+	//Devuelve como mucho "limit" titulos (por defecto 10, como mucho 100)
+	//con alguna palabra que empiece por el prefijo. Solo se devuelve el id y
+	//el titulo de cada libro para que la respuesta sea lo mas ligera posible.
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/sugerencias?prefijo=jav&limit=5"
+	//y el metodo a usar seria GET
+	@GetMapping(path="libros/sugerencias",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<Sugerencia>> sugerirTitulos(
+			@RequestParam(name="prefijo") String prefijo,
+			@RequestParam(name="limit",required=false,defaultValue="10") int limit) {
+		if (limit < 1 || limit > LIMITE_SUGERENCIAS) {
+			System.out.println("");
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => El limite de sugerencias debe estar entre 1 y " + LIMITE_SUGERENCIAS);
+			return new ResponseEntity<List<Sugerencia>>(HttpStatus.BAD_REQUEST);
+		}
+		//No escribimos nada por consola en el caso normal, ya que este
+		//endpoint recibe una peticion por cada pulsacion de tecla
+		List<Sugerencia> sugerencias = TiemposPeticion.medir("dao-sugerencias", () -> daoLibro.sugerencias(prefijo, limit));
+		return new ResponseEntity<List<Sugerencia>>(sugerencias,HttpStatus.OK);
+	}
+	
+	//GET BUSQUEDA DE TEXTO COMPLETO
+	//Busqueda por relevancia en el titulo, la editorial y la nota de los
+	//libros. No distingue mayusculas ni acentos, y devuelve como mucho
+	//"limit" resultados (por defecto 10, como mucho 100) con su puntuacion,
+	//de mas relevante a menos.
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/busqueda?q=java programming&limit=5"
+	//y el metodo a usar seria GET
+	@GetMapping(path="libros/busqueda",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<ResultadoBusqueda>> buscarLibros(
+			@RequestParam(name="q") String q,
+			@RequestParam(name="limit",required=false,defaultValue="10") int limit) {
+		System.out.println("");
+		System.out.println("ControladorLibro => Busqueda de texto completo (" + q + "): ");
+		if (limit < 1 || limit > LIMITE_BUSQUEDA) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => El limite de resultados debe estar entre 1 y " + LIMITE_BUSQUEDA);
+			return new ResponseEntity<List<ResultadoBusqueda>>(HttpStatus.BAD_REQUEST);
+		}
+		List<ResultadoBusqueda> resultados = TiemposPeticion.medir("dao-buscar", () -> daoLibro.buscar(q, limit));
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		System.out.println(resultados);
+		return new ResponseEntity<List<ResultadoBusqueda>>(resultados,HttpStatus.OK);
+	}
+	
+	//GET ESTADISTICAS DEL CATALOGO
+	//Devuelve el total de libros, cuantos hay de cada editorial y como se
+	//reparten las longitudes de los titulos. El DAO mantiene unos contadores
+	//en cada alta, modificacion y baja, asi que no hace falta descargar ni
+	//recorrer todo el catalogo para calcularlas
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/estadisticas" y el metodo a usar seria GET
+	@GetMapping(path="libros/estadisticas",produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<EstadisticasCatalogo> getEstadisticas() {
+		System.out.println("");
+		System.out.println("ControladorLibro => Estadisticas del catalogo");
+		EstadisticasCatalogo estadisticas = TiemposPeticion.medir("dao-estadisticas", () -> daoLibro.estadisticas());
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		System.out.println("ControladorLibro => " + estadisticas.getTotal() + " libros de "
+				+ estadisticas.getPorEditorial().size() + " editoriales");
+		return new ResponseEntity<EstadisticasCatalogo>(estadisticas,HttpStatus.OK);
+	}
+	
+	//POST IMPORTACION MASIVA
+	//Carga de catalogos completos de editoriales (millones de libros) en una
+	//sola peticion. El fichero viaja en el body en streaming, en formato CSV
+	//("Content-Type: text/csv", columnas id,titulo,editorial,nota con o sin
+	//cabecera) o JSON Lines ("Content-Type: application/x-ndjson", un libro
+	//por linea). Se descartan los libros cuyo id o titulo ya existan y las
+	//lineas no validas, y se devuelve un resumen con lo importado, lo
+	//descartado y la velocidad de importacion (200 OK)
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/importacion" y el metodo a usar seria POST
+	//Por ejemplo con curl:
+	//curl -X POST -H "Content-Type: text/csv" --data-binary @catalogo.csv http://localhost:8080/libros/importacion
+	@PostMapping(path="libros/importacion",consumes={"text/csv","application/x-ndjson"},
+			produces=MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ResumenImportacion> importarLibros(
+			@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType tipo,
+			InputStream cuerpo) throws IOException {
+		System.out.println("");
+		System.out.println("ControladorLibro => Importando catalogo en formato " + tipo + "...");
+		long inicio = System.nanoTime();
+		ResumenImportacion resumen = cargaMasiva.importar(cuerpo, FormatoCatalogo.desdeTipo(tipo));
+		TiemposPeticion.registrar("importacion", System.nanoTime() - inicio);
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		System.out.println(resumen);
+		return new ResponseEntity<ResumenImportacion>(resumen,HttpStatus.OK);
+	}
+	
+	//POST BORRADO MASIVO
+	//Borra de una vez todos los libros cuyos ids vengan en el body, uno por
+	//linea ("Content-Type: text/plain"). El body se lee en streaming y se
+	//borra por lotes, asi que vale para cientos de miles de ids, por ejemplo
+	//los que se llevan a otro servidor al rebalancear. Se devuelve un
+	//resumen con los borrados y los ids que no existian (200 OK)
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/borrado" y el metodo a usar seria POST
+	@PostMapping(path="libros/borrado",consumes=MediaType.TEXT_PLAIN_VALUE,
+			produces=MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ResumenBorrado> borrarLibros(InputStream cuerpo) throws IOException {
+		System.out.println("");
+		System.out.println("ControladorLibro => Borrando libros por id...");
+		long inicio = System.nanoTime();
+		ResumenBorrado resumen = cargaMasiva.borrar(cuerpo);
+		TiemposPeticion.registrar("borrado", System.nanoTime() - inicio);
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		System.out.println(resumen);
+		return new ResponseEntity<ResumenBorrado>(resumen,HttpStatus.OK);
+	}
+	
+	//GET EXPORTACION MASIVA
+	//Descarga de todo el catalogo en CSV o JSON Lines (parametro "formato",
+	//por defecto csv). La respuesta se va escribiendo segun se recorren los
+	//libros, sin montar el fichero entero en memoria
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/exportacion?formato=ndjson" y el metodo 
+	//a usar seria GET
+	@GetMapping(path="libros/exportacion")
+	public ResponseEntity<StreamingResponseBody> exportarLibros(
+			@RequestParam(name="formato",required=false,defaultValue="csv") String formato) {
+		System.out.println("");
+		System.out.println("ControladorLibro => Exportando catalogo en formato " + formato);
+		FormatoCatalogo f;
+		try {
+			f = FormatoCatalogo.desdeNombre(formato);
+		} catch (IllegalArgumentException e) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 400 BAD REQUEST");
+			System.out.println("ControladorLibro => Formato no soportado, debe ser csv o ndjson");
+			return new ResponseEntity<StreamingResponseBody>(HttpStatus.BAD_REQUEST);
+		}
+		System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+		return ResponseEntity.ok()
+				.contentType(f.getTipo())
+				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=catalogo." + formato.toLowerCase())
+				.body(salida -> cargaMasiva.exportar(salida, f));
+	}
+	
+	//POST INSTANTANEA
+	//Escribe una instantanea de todo el catalogo en el fichero configurado en
+	//"biblioteca.instantanea.fichero". En el siguiente arranque el catalogo
+	//se abre desde ella con memoria mapeada, sin tener que volver a crear
+	//los libros antes de atender peticiones. Devuelve el resumen (200 OK) o
+	//409 CONFLICT si no hay fichero configurado
+	
+	//La URL para acceder a este metodo sería: 
+	//"http://localhost:8080/libros/instantanea" y el metodo a usar seria POST
+	@PostMapping(path="libros/instantanea",produces=MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ResumenInstantanea> escribirInstantanea() throws IOException {
+		System.out.println("");
+		System.out.println("ControladorLibro => Escribiendo instantanea del catalogo...");
+		try {
+			ResumenInstantanea resumen = daoLibro.escribirInstantanea();
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
+			System.out.println(resumen);
+			return new ResponseEntity<ResumenInstantanea>(resumen,HttpStatus.OK);
+		} catch (IllegalStateException e) {
+			System.out.println("ControladorLibro => ENVIADO HttpStatus: 409 CONFLICT");
+			System.out.println("ControladorLibro => " + e.getMessage());
+			return new ResponseEntity<ResumenInstantanea>(HttpStatus.CONFLICT);
+		}
+	}
+	
 	//PUT
 	//En este caso vamos a hacer una modificación de libro por ID
 	//Para seguir lo que nos marca REST, el ID lo recibiremos en el PATH
@@ -175,7 +552,7 @@ public class ControladorLibro {
 		System.out.println("");
 		System.out.println("ControladorLibro => Id de libro a modificar: " + id);
 		l.setId(id);
-		Libro lUpdate = daoLibro.update(l);
+		Libro lUpdate = TiemposPeticion.medir("dao-update", () -> daoLibro.update(l));
 		if(lUpdate != null) {
 			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
             System.out.println("ControladorLibro => Libro modificado correctamente");
@@ -201,7 +578,7 @@ public class ControladorLibro {
 	public ResponseEntity<Libro> borrarLibro(@PathVariable("id") int id) {
 		System.out.println("");
 		System.out.println("ControladorLibro => Libro a borrar con ID: " + id);
-		Libro l = daoLibro.delete(id);
+		Libro l = TiemposPeticion.medir("dao-delete", () -> daoLibro.delete(id));
 		if(l != null) {
 			System.out.println("ControladorLibro => ENVIADO HttpStatus: 200 OK");
 			System.out.println("ControladorLibro => Libro borrado");
@@ -213,4 +590,20 @@ public class ControladorLibro {
 			return new ResponseEntity<Libro>(HttpStatus.NOT_FOUND);//404 NOT FOUND
 		}
 	}
+	
+	//Convierte el parametro "fields" en la lista de campos a devolver,
+	//comprobando que todos existen en el libro
+	private static List<String> parsearCampos(String fields) {
+		List<String> campos = new ArrayList<String>();
+		for (String campo : fields.split(",")) {
+			campo = campo.trim();
+			if (!CAMPOS_LIBRO.contains(campo)) {
+				throw new IllegalArgumentException("campo desconocido '" + campo + "'");
+			}
+			if (!campos.contains(campo)) {
+				campos.add(campo);
+			}
+		}
+		return campos;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package es.biblioteca.http2;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ajustes de HTTP/2 en Tomcat.
+ *
+ * Con server.http2.enabled Spring Boot añade HTTP/2 al conector, y como no
+ * hay TLS es h2c: el cliente empieza en HTTP/1.1 con la cabecera
+ * "Upgrade: h2c" o manda directamente el prefacio de HTTP/2. Asi todas las
+ * peticiones de un cliente van multiplexadas por una sola conexion.
+ *
+ * Por defecto Tomcat solo deja 100 peticiones abiertas por conexion y solo
+ * ejecuta 20 a la vez, que se quedan cortas para un cliente con cientos de
+ * hilos. Aqui se suben ambos limites. La concurrencia real la sigue
+ * limitando el control de admision.
+ */
+@Component
+public class ConfiguracionHttp2 implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+	private final int streamsMaximos;
+	private final int streamsEnEjecucion;
+
+	public ConfiguracionHttp2(
+			@Value("${biblioteca.http2.streams-por-conexion:512}") int streamsMaximos,
+			@Value("${biblioteca.http2.streams-en-ejecucion:256}") int streamsEnEjecucion) {
+		this.streamsMaximos = streamsMaximos;
+		this.streamsEnEjecucion = streamsEnEjecucion;
+	}
+
+	@Override
+	public void customize(TomcatServletWebServerFactory factory) {
+		factory.addConnectorCustomizers(connector -> {
+			for (UpgradeProtocol protocolo : connector.findUpgradeProtocols()) {
+				if (protocolo instanceof Http2Protocol) {
+					Http2Protocol http2 = (Http2Protocol) protocolo;
+					http2.setMaxConcurrentStreams(streamsMaximos);
+					http2.setMaxConcurrentStreamExecution(streamsEnEjecucion);
+					System.out.println("ConfiguracionHttp2 -> HTTP/2 (h2c) activo, " + streamsMaximos
+							+ " streams por conexion, " + streamsEnEjecucion + " en ejecucion");
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,80 @@
+package es.biblioteca.jfr;
+
+import es.biblioteca.tiempos.TiemposPeticion;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Evento de Java Flight Recorder con cada operacion de DaoLibro: que
+ * operacion es, el id del libro si lo hay, cuantos libros ha tenido que
+ * mirar y cuantos devuelve. La duracion la pone el propio JFR.
+ *
+ * Por defecto solo se graban las operaciones que pasan del umbral, y los
+ * campos solo se rellenan cuando el evento se va a grabar, asi que con JFR
+ * apagado o con operaciones rapidas el coste es crear el objeto y leer el
+ * reloj. El umbral se cambia con la configuracion de la grabacion (ver
+ * jfr/biblioteca.jfc).
+ *
+ * Sin pila de llamadas: todas vienen del controlador y solo ocuparian sitio.
+ */
+@Name("es.biblioteca.Dao")
+@Label("Operacion del DAO")
+@Category({ "Biblioteca", "DAO" })
+@Description("Operacion de DaoLibro con los libros recorridos y devueltos")
+@Threshold("10 ms")
+@StackTrace(false)
+public class EventoDao extends Event {
+
+	/** Valor del campo id en las operaciones que no son sobre un libro */
+	public static final int SIN_ID = -1;
+
+	@Label("Operacion")
+	String operacion;
+
+	@Label("Id")
+	int id;
+
+	@Label("Libros recorridos")
+	long librosRecorridos;
+
+	@Label("Libros devueltos")
+	long librosDevueltos;
+
+	@Label("Id de traza")
+	String idTraza;
+
+	/**
+	 * Empieza a medir una operacion
+	 */
+	public static EventoDao empezar() {
+		EventoDao evento = new EventoDao();
+		evento.begin();
+		return evento;
+	}
+
+	/**
+	 * Termina la medida y graba el evento si JFR lo tiene activo y la
+	 * operacion ha pasado del umbral
+	 * @param operacion el nombre del metodo del DAO, como en Server-Timing
+	 * @param id el id del libro, o SIN_ID
+	 * @param librosRecorridos cuantos libros se han mirado
+	 * @param librosDevueltos cuantos libros se devuelven o se han cambiado
+	 */
+	public void terminar(String operacion, int id, long librosRecorridos, long librosDevueltos) {
+		end();
+		if (shouldCommit()) {
+			this.operacion = operacion;
+			this.id = id;
+			this.librosRecorridos = librosRecorridos;
+			this.librosDevueltos = librosDevueltos;
+			TiemposPeticion tiempos = TiemposPeticion.actual();
+			this.idTraza = tiempos != null ? tiempos.getIdTraza() : null;
+			commit();
+		}
+	}
+}
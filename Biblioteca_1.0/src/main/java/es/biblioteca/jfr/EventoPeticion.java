@@ -0,0 +1,45 @@
+package es.biblioteca.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Evento de Java Flight Recorder con cada peticion HTTP atendida, desde
+ * que entra hasta que se ha escrito la respuesta (incluida la espera en el
+ * control de admision). Lleva la ruta del controlador ("/libros/{id}") para
+ * poder agrupar, los parametros, el codigo de respuesta, el id de traza y el
+ * desglose de Server-Timing, que dice en que fase se ha ido el tiempo.
+ *
+ * Igual que EventoDao, solo se graban las que pasan del umbral.
+ */
+@Name("es.biblioteca.Peticion")
+@Label("Peticion HTTP")
+@Category({ "Biblioteca", "HTTP" })
+@Description("Peticion atendida por los controladores, con su desglose de tiempos")
+@Threshold("50 ms")
+@StackTrace(false)
+public class EventoPeticion extends Event {
+
+	@Label("Metodo")
+	String metodo;
+
+	@Label("Ruta")
+	String ruta;
+
+	@Label("Parametros")
+	String parametros;
+
+	@Label("Codigo de respuesta")
+	int estado;
+
+	@Label("Id de traza")
+	String idTraza;
+
+	@Label("Desglose")
+	String desglose;
+}
@@ -0,0 +1,70 @@
+package es.biblioteca.jfr;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import es.biblioteca.tiempos.TiemposPeticion;
+
+/**
+ * Filtro que genera un EventoPeticion de JFR por cada peticion.
+ *
+ * Va justo despues de FiltroTiempos, asi que la duracion incluye la espera
+ * en el control de admision y el evento puede llevar el id de traza y el
+ * desglose de Server-Timing de la peticion. La escritura del JSON solo la
+ * mide FiltroTiempos, que la suma al terminar, asi que el desglose del
+ * evento no lleva json-salida.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class FiltroEventosJfr extends OncePerRequestFilter {
+
+	private final boolean activo;
+
+	public FiltroEventosJfr(@Value("${biblioteca.jfr.activo:true}") boolean activo) {
+		this.activo = activo;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !activo;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+
+		EventoPeticion evento = new EventoPeticion();
+		evento.begin();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			evento.end();
+			if (evento.shouldCommit()) {
+				//La ruta del controlador si ha llegado a alguno, para que
+				//todas las peticiones de /libros/{id} salgan juntas
+				Object patron = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+				evento.metodo = request.getMethod();
+				evento.ruta = patron != null ? patron.toString() : request.getServletPath();
+				evento.parametros = request.getQueryString();
+				evento.estado = response.getStatus();
+				TiemposPeticion tiempos = TiemposPeticion.actual();
+				if (tiempos != null) {
+					evento.idTraza = tiempos.getIdTraza();
+					evento.desglose = tiempos.getServerTiming();
+				}
+				evento.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package es.biblioteca.modelo.entidad;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Estadisticas del catalogo: cuantos libros hay, cuantos de cada editorial
+ * y como se reparten las longitudes de los titulos (cuantos titulos tienen
+ * de 0 a 9 caracteres, de 10 a 19... y de 100 en adelante).
+ */
+public class EstadisticasCatalogo {
+
+	private long total;
+	private Map<String, Long> porEditorial = new TreeMap<String, Long>();
+	private double longitudMediaTitulo;
+	private Map<String, Long> longitudTitulo = new LinkedHashMap<String, Long>();
+
+	public EstadisticasCatalogo() {
+		super();
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return el numero de libros de cada editorial, ordenado por editorial.
+	 * Los libros sin editorial cuentan en la clave ""
+	 */
+	public Map<String, Long> getPorEditorial() {
+		return porEditorial;
+	}
+
+	public void setPorEditorial(Map<String, Long> porEditorial) {
+		this.porEditorial = porEditorial;
+	}
+
+	public double getLongitudMediaTitulo() {
+		return longitudMediaTitulo;
+	}
+
+	public void setLongitudMediaTitulo(double longitudMediaTitulo) {
+		this.longitudMediaTitulo = longitudMediaTitulo;
+	}
+
+	/**
+	 * @return el numero de titulos en cada tramo de longitud ("0-9",
+	 * "10-19"... "100+"), en orden de longitud
+	 */
+	public Map<String, Long> getLongitudTitulo() {
+		return longitudTitulo;
+	}
+
+	public void setLongitudTitulo(Map<String, Long> longitudTitulo) {
+		this.longitudTitulo = longitudTitulo;
+	}
+
+	@Override
+	public String toString() {
+		return "EstadisticasCatalogo [total=" + total + ", porEditorial=" + porEditorial + ", longitudMediaTitulo="
+				+ longitudMediaTitulo + ", longitudTitulo=" + longitudTitulo + "]";
+	}
+}
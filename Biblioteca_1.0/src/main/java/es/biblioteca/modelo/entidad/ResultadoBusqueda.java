@@ -0,0 +1,43 @@
+package es.biblioteca.modelo.entidad;
+
+/**
+ * Resultado de la busqueda de texto completo: el libro encontrado y su
+ * puntuacion de relevancia (BM25). Cuanto mayor es la puntuacion, mas
+ * relevante es el libro para la busqueda.
+ */
+public class ResultadoBusqueda {
+	
+	private Libro libro;
+	private double puntuacion;
+
+	public ResultadoBusqueda() {
+		super();
+	}
+
+	public ResultadoBusqueda(Libro libro, double puntuacion) {
+		super();
+		this.libro = libro;
+		this.puntuacion = puntuacion;
+	}
+
+	public Libro getLibro() {
+		return libro;
+	}
+
+	public void setLibro(Libro libro) {
+		this.libro = libro;
+	}
+
+	public double getPuntuacion() {
+		return puntuacion;
+	}
+
+	public void setPuntuacion(double puntuacion) {
+		this.puntuacion = puntuacion;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultadoBusqueda [libro=" + libro + ", puntuacion=" + puntuacion + "]";
+	}
+}
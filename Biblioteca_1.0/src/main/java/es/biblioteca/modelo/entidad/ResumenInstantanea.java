@@ -0,0 +1,63 @@
+package es.biblioteca.modelo.entidad;
+
+/**
+ * Resumen de la escritura de una instantanea del catalogo: en que fichero se
+ * ha escrito, cuantos libros lleva, cuanto ocupa y cuanto ha tardado.
+ */
+public class ResumenInstantanea {
+	
+	private String fichero;
+	private long libros;
+	private long bytes;
+	private long milisegundos;
+
+	public ResumenInstantanea() {
+		super();
+	}
+
+	public ResumenInstantanea(String fichero, long libros, long bytes, long milisegundos) {
+		super();
+		this.fichero = fichero;
+		this.libros = libros;
+		this.bytes = bytes;
+		this.milisegundos = milisegundos;
+	}
+
+	public String getFichero() {
+		return fichero;
+	}
+
+	public void setFichero(String fichero) {
+		this.fichero = fichero;
+	}
+
+	public long getLibros() {
+		return libros;
+	}
+
+	public void setLibros(long libros) {
+		this.libros = libros;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public long getMilisegundos() {
+		return milisegundos;
+	}
+
+	public void setMilisegundos(long milisegundos) {
+		this.milisegundos = milisegundos;
+	}
+
+	@Override
+	public String toString() {
+		return "ResumenInstantanea [fichero=" + fichero + ", libros=" + libros + ", bytes=" + bytes
+				+ ", milisegundos=" + milisegundos + "]";
+	}
+}
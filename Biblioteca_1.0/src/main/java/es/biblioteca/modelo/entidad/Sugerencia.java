@@ -0,0 +1,43 @@
+package es.biblioteca.modelo.entidad;
+
+/**
+ * Resultado del autocompletado de titulos. Solo lleva el id y el titulo del
+ * libro, que es lo que necesita el buscador, para que la respuesta sea lo
+ * mas ligera posible.
+ */
+public class Sugerencia {
+	
+	private int id;
+	private String titulo;
+
+	public Sugerencia() {
+		super();
+	}
+
+	public Sugerencia(int id, String titulo) {
+		super();
+		this.id = id;
+		this.titulo = titulo;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getTitulo() {
+		return titulo;
+	}
+
+	public void setTitulo(String titulo) {
+		this.titulo = titulo;
+	}
+
+	@Override
+	public String toString() {
+		return "Sugerencia [id=" + id + ", titulo=" + titulo + "]";
+	}
+}
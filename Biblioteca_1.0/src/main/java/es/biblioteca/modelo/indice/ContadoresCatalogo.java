@@ -0,0 +1,92 @@
+package es.biblioteca.modelo.indice;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import es.biblioteca.modelo.entidad.EstadisticasCatalogo;
+
+/**
+ * Contadores del catalogo que el DAO mantiene en cada alta, modificacion y
+ * baja: el total de libros, los libros de cada editorial y un histograma de
+ * la longitud de los titulos. Asi las estadisticas se leen sumando unos
+ * pocos contadores, sin recorrer el catalogo.
+ *
+ * Los contadores son LongAdder, que reparten las sumas entre varias celdas
+ * para que las escrituras de distintas particiones no compitan por la misma
+ * variable. La lectura no coge ningun cerrojo, asi que durante una carga
+ * masiva puede ver unos contadores un poco mas avanzados que otros.
+ *
+ * Las editoriales que se quedan sin libros no se borran del mapa (con
+ * LongAdder no se puede borrar sin perder sumas concurrentes), solo se dejan
+ * de mostrar. El mapa crece con el numero de editoriales distintas y no con
+ * el de libros.
+ */
+public class ContadoresCatalogo {
+
+	private static final int ANCHO_TRAMO = 10;
+	private static final int TRAMOS = 11;
+
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sumaLongitudes = new LongAdder();
+	private final LongAdder[] tramosLongitud = new LongAdder[TRAMOS];
+	private final ConcurrentHashMap<String, LongAdder> porEditorial = new ConcurrentHashMap<String, LongAdder>();
+
+	public ContadoresCatalogo() {
+		for (int i = 0; i < TRAMOS; i++) {
+			tramosLongitud[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Cuenta un libro que entra en el catalogo
+	 */
+	public void sumar(String titulo, String editorial) {
+		cambiar(titulo, editorial, 1);
+	}
+
+	/**
+	 * Descuenta un libro que sale del catalogo (o sus valores antiguos antes
+	 * de una modificacion)
+	 */
+	public void restar(String titulo, String editorial) {
+		cambiar(titulo, editorial, -1);
+	}
+
+	private void cambiar(String titulo, String editorial, int signo) {
+		int longitud = titulo == null ? 0 : titulo.length();
+		total.add(signo);
+		sumaLongitudes.add(signo * longitud);
+		tramosLongitud[Math.min(longitud / ANCHO_TRAMO, TRAMOS - 1)].add(signo);
+		porEditorial.computeIfAbsent(editorial == null ? "" : editorial, e -> new LongAdder()).add(signo);
+	}
+
+	/**
+	 * @return el numero de libros del catalogo
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * @return las estadisticas actuales, en tiempo proporcional al numero de
+	 * editoriales
+	 */
+	public EstadisticasCatalogo getEstadisticas() {
+		EstadisticasCatalogo estadisticas = new EstadisticasCatalogo();
+		long n = total.sum();
+		estadisticas.setTotal(n);
+		estadisticas.setLongitudMediaTitulo(n > 0 ? (double) sumaLongitudes.sum() / n : 0);
+		for (int i = 0; i < TRAMOS; i++) {
+			String tramo = i == TRAMOS - 1 ? (i * ANCHO_TRAMO) + "+" : (i * ANCHO_TRAMO) + "-" + (i * ANCHO_TRAMO + ANCHO_TRAMO - 1);
+			estadisticas.getLongitudTitulo().put(tramo, tramosLongitud[i].sum());
+		}
+		for (Map.Entry<String, LongAdder> editorial : porEditorial.entrySet()) {
+			long libros = editorial.getValue().sum();
+			if (libros > 0) {
+				estadisticas.getPorEditorial().put(editorial.getKey(), libros);
+			}
+		}
+		return estadisticas;
+	}
+}
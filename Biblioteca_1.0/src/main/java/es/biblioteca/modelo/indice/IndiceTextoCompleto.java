@@ -0,0 +1,360 @@
+package es.biblioteca.modelo.indice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Indice invertido para busqueda de texto completo por relevancia sobre el
+ * titulo, la editorial y la nota de los libros.
+ *
+ * Para cada termino (palabra normalizada, sin acentos) guarda los libros que
+ * lo contienen y su frecuencia ponderada: una aparicion en el titulo vale mas
+ * que en la editorial, y esta mas que en la nota. Los resultados se puntuan
+ * con BM25, que premia los terminos poco frecuentes en el catalogo y penaliza
+ * los documentos largos. Las listas de cada termino se guardan en arrays de
+ * tipos primitivos ordenados por id (junto con la longitud del documento,
+ * para no tener que buscarla al puntuar), que ocupan mucho menos que mapas
+ * de objetos y no generan basura al cargar millones de libros.
+ *
+ * La busqueda procesa los terminos de mayor a menor aportacion maxima posible
+ * (estrategia MaxScore). En cuanto el k-esimo mejor resultado supera lo que
+ * podrian sumar los terminos que quedan, ningun libro nuevo puede entrar en
+ * los k primeros, asi que de ahi en adelante solo se actualizan los
+ * candidatos que ya se tienen y no se recorren las listas largas enteras.
+ */
+public class IndiceTextoCompleto {
+
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	private static final float PESO_TITULO = 3f;
+	private static final float PESO_EDITORIAL = 1.5f;
+	private static final float PESO_NOTA = 1f;
+
+	//Palabras vacias en español e ingles que no aportan nada a la relevancia
+	private static final Set<String> PALABRAS_VACIAS = Set.of(
+			"a", "al", "con", "de", "del", "el", "en", "es", "la", "las", "lo", "los",
+			"o", "para", "por", "que", "se", "su", "un", "una", "y",
+			"an", "and", "as", "at", "by", "for", "from", "in", "into", "is", "it",
+			"of", "on", "or", "the", "to", "with");
+
+	private final Map<String, Lista> listas = new HashMap<String, Lista>();
+	private int numeroDocumentos;
+	private double longitudTotal;
+	private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+	/**
+	 * Añade un libro al indice
+	 */
+	public void insertar(int id, String titulo, String editorial, String nota) {
+		Documento d = analizar(titulo, editorial, nota);
+		cerrojo.writeLock().lock();
+		try {
+			for (Map.Entry<String, Float> e : d.frecuencias.entrySet()) {
+				listas.computeIfAbsent(e.getKey(), t -> new Lista()).add(id, e.getValue(), d.longitud);
+			}
+			numeroDocumentos++;
+			longitudTotal += d.longitud;
+		} finally {
+			cerrojo.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Añade varios libros de una vez. Los textos se analizan en paralelo
+	 * (en el pool fork-join del hilo que llama si es uno de sus hilos) fuera
+	 * del cerrojo y las listas se actualizan despues en una sola
+	 * seccion critica, que en las cargas masivas es mucho mas barato que
+	 * pelearse por el cerrojo libro a libro
+	 * @param ids los ids de los libros
+	 * @param titulos los titulos, en el mismo orden que los ids
+	 * @param editoriales las editoriales, en el mismo orden
+	 * @param notas las notas, en el mismo orden
+	 */
+	public void insertarLote(int[] ids, String[] titulos, String[] editoriales, String[] notas) {
+		Documento[] documentos = new Documento[ids.length];
+		IntStream.range(0, ids.length).parallel()
+				.forEach(i -> documentos[i] = analizar(titulos[i], editoriales[i], notas[i]));
+		cerrojo.writeLock().lock();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				Documento d = documentos[i];
+				for (Map.Entry<String, Float> e : d.frecuencias.entrySet()) {
+					listas.computeIfAbsent(e.getKey(), t -> new Lista()).add(ids[i], e.getValue(), d.longitud);
+				}
+				numeroDocumentos++;
+				longitudTotal += d.longitud;
+			}
+		} finally {
+			cerrojo.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Quita un libro del indice. Hay que pasarle los mismos textos con los
+	 * que se inserto, ya que el indice no guarda los terminos de cada libro,
+	 * y solo se puede llamar para libros que esten insertados
+	 */
+	public void eliminar(int id, String titulo, String editorial, String nota) {
+		Documento d = analizar(titulo, editorial, nota);
+		cerrojo.writeLock().lock();
+		try {
+			for (String termino : d.frecuencias.keySet()) {
+				Lista lista = listas.get(termino);
+				if (lista != null) {
+					lista.remove(id);
+					if (lista.tamano == 0) {
+						listas.remove(termino);
+					}
+				}
+			}
+			numeroDocumentos--;
+			longitudTotal -= d.longitud;
+		} finally {
+			cerrojo.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Busca los k libros mas relevantes para el texto
+	 * @param texto las palabras buscadas
+	 * @param k numero maximo de resultados
+	 * @return los ids con su puntuacion, de mayor a menor puntuacion
+	 */
+	public List<Puntuacion> buscar(String texto, int k) {
+		Set<String> terminos = new LinkedHashSet<String>(Normalizador.tokenizar(texto));
+		terminos.removeAll(PALABRAS_VACIAS);
+
+		cerrojo.readLock().lock();
+		try {
+			int n = numeroDocumentos;
+			if (n == 0 || k <= 0) {
+				return new ArrayList<Puntuacion>();
+			}
+			double longitudMedia = longitudTotal / n;
+
+			//Terminos de la consulta ordenados de mayor a menor aportacion maxima.
+			//Como BM25 satura con la frecuencia, un termino nunca aporta mas de
+			//idf * (K1 + 1)
+			List<TerminoConsulta> consulta = new ArrayList<TerminoConsulta>();
+			for (String termino : terminos) {
+				Lista lista = listas.get(termino);
+				if (lista != null) {
+					double idf = Math.log(1 + (n - lista.tamano + 0.5) / (lista.tamano + 0.5));
+					consulta.add(new TerminoConsulta(lista, idf, idf * (K1 + 1)));
+				}
+			}
+			consulta.sort((a, b) -> Double.compare(b.maximo, a.maximo));
+			//Lo que pueden sumar como mucho los terminos que quedan despues de
+			//cada uno. Se suma desde el final en vez de ir restando para que
+			//tras el ultimo sea 0 exacto: con un resto negativo por redondeo
+			//se podaria el propio k-esimo candidato
+			double[] restantes = new double[consulta.size()];
+			for (int i = consulta.size() - 2; i >= 0; i--) {
+				restantes[i] = restantes[i + 1] + consulta.get(i + 1).maximo;
+			}
+
+			Map<Integer, Double> acumulados = new HashMap<Integer, Double>();
+			boolean admitirNuevos = true;
+			for (int j = 0; j < consulta.size(); j++) {
+				TerminoConsulta t = consulta.get(j);
+				Lista lista = t.lista;
+				if (admitirNuevos || lista.tamano <= acumulados.size()) {
+					for (int i = 0; i < lista.tamano; i++) {
+						Double acumulado = acumulados.get(lista.ids[i]);
+						if (acumulado != null || admitirNuevos) {
+							double s = t.puntuar(lista.frecuencias[i], lista.longitudes[i], longitudMedia);
+							acumulados.put(lista.ids[i], acumulado == null ? s : acumulado + s);
+						}
+					}
+				} else {
+					//Recorremos los candidatos en vez de la lista del termino
+					for (Map.Entry<Integer, Double> e : acumulados.entrySet()) {
+						int i = lista.posicion(e.getKey());
+						if (i >= 0) {
+							e.setValue(e.getValue() + t.puntuar(lista.frecuencias[i], lista.longitudes[i], longitudMedia));
+						}
+					}
+				}
+				double restante = restantes[j];
+
+				if (admitirNuevos && acumulados.size() >= k) {
+					double umbral = umbral(acumulados, k);
+					if (umbral > restante) {
+						admitirNuevos = false;
+					}
+					//Los candidatos que ni con todo lo que falta llegan al umbral
+					//ya no pueden entrar en los k primeros
+					Iterator<Double> it = acumulados.values().iterator();
+					while (it.hasNext()) {
+						if (it.next() + restante < umbral) {
+							it.remove();
+						}
+					}
+				}
+			}
+			return mejores(acumulados, k);
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+	}
+
+	//k-esima mejor puntuacion usando un monticulo de minimos de tamaño k
+	private static double umbral(Map<Integer, Double> acumulados, int k) {
+		PriorityQueue<Double> monticulo = new PriorityQueue<Double>(k);
+		for (Double s : acumulados.values()) {
+			if (monticulo.size() < k) {
+				monticulo.add(s);
+			} else if (s > monticulo.peek()) {
+				monticulo.poll();
+				monticulo.add(s);
+			}
+		}
+		return monticulo.peek();
+	}
+
+	private static List<Puntuacion> mejores(Map<Integer, Double> acumulados, int k) {
+		PriorityQueue<Puntuacion> monticulo = new PriorityQueue<Puntuacion>(Math.min(k, acumulados.size()) + 1);
+		for (Map.Entry<Integer, Double> e : acumulados.entrySet()) {
+			Puntuacion p = new Puntuacion(e.getKey(), e.getValue());
+			if (monticulo.size() < k) {
+				monticulo.add(p);
+			} else if (p.compareTo(monticulo.peek()) > 0) {
+				monticulo.poll();
+				monticulo.add(p);
+			}
+		}
+		List<Puntuacion> resultado = new ArrayList<Puntuacion>(monticulo);
+		Collections.sort(resultado, Collections.reverseOrder());
+		return resultado;
+	}
+
+	//Calcula la frecuencia ponderada de cada termino y la longitud ponderada
+	//del libro en una sola pasada por los textos
+	private static Documento analizar(String titulo, String editorial, String nota) {
+		Documento d = new Documento();
+		sumar(d, titulo, PESO_TITULO);
+		sumar(d, editorial, PESO_EDITORIAL);
+		sumar(d, nota, PESO_NOTA);
+		return d;
+	}
+
+	private static void sumar(Documento d, String texto, float peso) {
+		List<String> terminos = Normalizador.tokenizar(texto);
+		d.longitud += peso * terminos.size();
+		for (String termino : terminos) {
+			if (!PALABRAS_VACIAS.contains(termino)) {
+				d.frecuencias.merge(termino, peso, Float::sum);
+			}
+		}
+	}
+
+	private static final class Documento {
+
+		private final Map<String, Float> frecuencias = new HashMap<String, Float>();
+		private float longitud;
+	}
+
+	/**
+	 * Lista de un termino: ids de los libros que lo contienen en orden
+	 * creciente, con su frecuencia ponderada y la longitud del libro
+	 */
+	private static final class Lista {
+
+		private int[] ids = new int[2];
+		private float[] frecuencias = new float[2];
+		private float[] longitudes = new float[2];
+		private int tamano;
+
+		void add(int id, float frecuencia, float longitud) {
+			int posicion = tamano;
+			if (tamano > 0 && id <= ids[tamano - 1]) {
+				posicion = -Arrays.binarySearch(ids, 0, tamano, id) - 1;
+			}
+			if (tamano == ids.length) {
+				int capacidad = tamano + (tamano >> 1) + 1;
+				ids = Arrays.copyOf(ids, capacidad);
+				frecuencias = Arrays.copyOf(frecuencias, capacidad);
+				longitudes = Arrays.copyOf(longitudes, capacidad);
+			}
+			System.arraycopy(ids, posicion, ids, posicion + 1, tamano - posicion);
+			System.arraycopy(frecuencias, posicion, frecuencias, posicion + 1, tamano - posicion);
+			System.arraycopy(longitudes, posicion, longitudes, posicion + 1, tamano - posicion);
+			ids[posicion] = id;
+			frecuencias[posicion] = frecuencia;
+			longitudes[posicion] = longitud;
+			tamano++;
+		}
+
+		void remove(int id) {
+			int i = posicion(id);
+			if (i >= 0) {
+				System.arraycopy(ids, i + 1, ids, i, tamano - i - 1);
+				System.arraycopy(frecuencias, i + 1, frecuencias, i, tamano - i - 1);
+				System.arraycopy(longitudes, i + 1, longitudes, i, tamano - i - 1);
+				tamano--;
+			}
+		}
+
+		int posicion(int id) {
+			return Arrays.binarySearch(ids, 0, tamano, id);
+		}
+	}
+
+	private static final class TerminoConsulta {
+
+		private final Lista lista;
+		private final double idf;
+		private final double maximo;
+
+		TerminoConsulta(Lista lista, double idf, double maximo) {
+			this.lista = lista;
+			this.idf = idf;
+			this.maximo = maximo;
+		}
+
+		double puntuar(float frecuencia, float longitud, double longitudMedia) {
+			return idf * frecuencia * (K1 + 1) / (frecuencia + K1 * (1 - B + B * longitud / longitudMedia));
+		}
+	}
+
+	/**
+	 * Id de un libro y su puntuacion para una busqueda. A igualdad de
+	 * puntuacion se considera mejor el id mas bajo, para que el orden de los
+	 * resultados sea estable.
+	 */
+	public static final class Puntuacion implements Comparable<Puntuacion> {
+
+		private final int id;
+		private final double valor;
+
+		Puntuacion(int id, double valor) {
+			this.id = id;
+			this.valor = valor;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public double getValor() {
+			return valor;
+		}
+
+		@Override
+		public int compareTo(Puntuacion otra) {
+			int c = Double.compare(valor, otra.valor);
+			return c != 0 ? c : Integer.compare(otra.id, id);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package es.biblioteca.modelo.indice;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizacion de textos compartida por los indices de busqueda. Pasa el
+ * texto a minusculas, quita los acentos y diacriticos (asi "Programación"
+ * y "programacion" son el mismo termino) y lo trocea en palabras.
+ */
+public final class Normalizador {
+
+	private static final Pattern DIACRITICOS = Pattern.compile("\\p{M}+");
+	//Palabras tan comunes en los titulos, en español y en ingles, que no
+	//sirven para distinguir unos libros de otros. Ya normalizadas
+	private static final Set<String> PALABRAS_VACIAS = Set.of(
+			"a", "al", "con", "de", "del", "e", "el", "en", "la", "las", "lo", "los", "o", "para", "por",
+			"que", "se", "su", "sus", "u", "un", "una", "unas", "uno", "unos", "y",
+			"an", "and", "as", "at", "by", "for", "from", "in", "is", "it", "of", "on", "or", "the", "to", "with");
+
+	private Normalizador() {
+	}
+
+	/**
+	 * @param texto el texto a normalizar, puede ser null
+	 * @return el texto en minusculas y sin acentos, cadena vacia si era null
+	 */
+	public static String normalizar(String texto) {
+		if (texto == null) {
+			return "";
+		}
+		//La mayoria de textos son ASCII y no tienen nada que descomponer,
+		//lo que nos ahorra la normalizacion y la expresion regular
+		if (esAscii(texto)) {
+			return texto.toLowerCase();
+		}
+		String descompuesto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+		return DIACRITICOS.matcher(descompuesto).replaceAll("").toLowerCase();
+	}
+
+	private static boolean esAscii(String texto) {
+		for (int i = 0; i < texto.length(); i++) {
+			if (texto.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param palabra una palabra ya normalizada
+	 * @return true si es una palabra vacia (articulos, preposiciones...)
+	 */
+	public static boolean esPalabraVacia(String palabra) {
+		return PALABRAS_VACIAS.contains(palabra);
+	}
+
+	/**
+	 * Trocea el texto en palabras normalizadas. Se considera separador todo
+	 * lo que no sea letra o digito.
+	 * @param texto el texto a trocear, puede ser null
+	 * @return la lista de palabras en el orden en que aparecen
+	 */
+	public static List<String> tokenizar(String texto) {
+		String normalizado = normalizar(texto);
+		List<String> tokens = new ArrayList<String>();
+		int inicio = -1;
+		for (int i = 0; i < normalizado.length(); i++) {
+			if (Character.isLetterOrDigit(normalizado.charAt(i))) {
+				if (inicio < 0) {
+					inicio = i;
+				}
+			} else if (inicio >= 0) {
+				tokens.add(normalizado.substring(inicio, i));
+				inicio = -1;
+			}
+		}
+		if (inicio >= 0) {
+			tokens.add(normalizado.substring(inicio));
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,467 @@
+package es.biblioteca.modelo.indice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trie sobre las palabras normalizadas de los titulos. Cada nodo terminal
+ * guarda los ids de los libros cuyo titulo contiene esa palabra. Se mantiene
+ * de forma incremental en las altas, modificaciones y bajas del DAO.
+ *
+ * Se usa para dos cosas:
+ *
+ * 1. Autocompletar: todas las palabras que empiezan por un prefijo cuelgan
+ * del mismo nodo, asi que basta con bajar por el prefijo y recorrer ese
+ * subarbol hasta reunir los resultados pedidos, sin tocar el resto.
+ *
+ * 2. La busqueda tolerante a errores de escritura: en lugar de
+ * calcular la distancia de Levenshtein contra cada titulo, se recorre el trie
+ * calculando una fila de la matriz de Levenshtein por cada nodo (como haria un
+ * automata de Levenshtein). Las palabras con un prefijo comun comparten el
+ * calculo, y en cuanto el minimo de la fila supera la distancia maxima se
+ * poda toda la rama, asi que solo se visita una pequeña parte del vocabulario.
+ * Ademas el trie crece con el vocabulario y no con el numero de libros.
+ *
+ * Al borrar un libro solo se quita su id de los nodos; las ramas sin ids se
+ * quedan en el trie y simplemente no aportan resultados.
+ */
+public class TrieTitulos {
+
+	private final Nodo raiz = new Nodo();
+	private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+	/**
+	 * Añade al indice las palabras del titulo de un libro
+	 */
+	public void insertar(String titulo, int id) {
+		cerrojo.writeLock().lock();
+		try {
+			for (String token : Normalizador.tokenizar(titulo)) {
+				Nodo n = raiz;
+				for (int i = 0; i < token.length(); i++) {
+					n = n.hijoOCrear(token.charAt(i));
+				}
+				if (n.ids == null) {
+					n.ids = new ConjuntoIds();
+				}
+				n.ids.add(id);
+			}
+		} finally {
+			cerrojo.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Quita del indice las palabras del titulo de un libro
+	 */
+	public void eliminar(String titulo, int id) {
+		cerrojo.writeLock().lock();
+		try {
+			for (String token : Normalizador.tokenizar(titulo)) {
+				Nodo n = buscarNodo(token);
+				if (n != null && n.ids != null) {
+					n.ids.remove(id);
+				}
+			}
+		} finally {
+			cerrojo.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Busca los libros cuyo titulo contiene, para cada palabra del texto
+	 * buscado, alguna palabra a distancia de edicion como mucho distanciaMaxima.
+	 *
+	 * Las palabras vacias ("the", "de", "la"...) no se buscan, salvo que no
+	 * haya otras: a distancia 2 o 3 casan con casi todo el catalogo. Del
+	 * trie solo se sacan las palabras parecidas a cada palabra buscada, sin
+	 * juntar sus ids. Se recorren los ids de la palabra buscada mas rara, de
+	 * menos a mas distancia y por id, y para cada uno se mira si esta en las
+	 * palabras parecidas a las demas. Los mejores se guardan en un monticulo
+	 * de tamaño limite y el recorrido se para en cuanto ningun id que quede
+	 * puede entrar en el, asi que nunca se ordena ni se guarda el conjunto
+	 * entero de candidatos.
+	 * @param texto las palabras buscadas, posiblemente con errores
+	 * @param distanciaMaxima numero maximo de ediciones por palabra
+	 * @param limite numero maximo de ids a devolver
+	 * @return los ids encontrados, ordenados de mas parecido a menos (suma de
+	 * distancias de cada palabra) y a igualdad por id
+	 */
+	public List<Integer> buscarAproximado(String texto, int distanciaMaxima, int limite) {
+		Set<String> tokens = new LinkedHashSet<String>();
+		for (String token : Normalizador.tokenizar(texto)) {
+			if (!Normalizador.esPalabraVacia(token)) {
+				tokens.add(token);
+			}
+		}
+		if (tokens.isEmpty()) {
+			tokens.addAll(Normalizador.tokenizar(texto));
+		}
+		if (tokens.isEmpty() || limite <= 0) {
+			return new ArrayList<Integer>();
+		}
+
+		//Los peores de los mejores arriba, para sacarlos al encontrar uno mejor
+		PriorityQueue<Candidato> mejores = new PriorityQueue<Candidato>(limite + 1, Collections.reverseOrder());
+		cerrojo.readLock().lock();
+		try {
+			//Las palabras parecidas a cada palabra buscada, de menos a mas
+			//distancia, y la palabra buscada que menos libros tiene
+			List<List<Palabra>> parecidas = new ArrayList<List<Palabra>>(tokens.size());
+			int masRara = 0;
+			long librosMasRara = Long.MAX_VALUE;
+			for (String token : tokens) {
+				List<Palabra> palabras = buscarToken(token, distanciaMaxima);
+				if (palabras.isEmpty()) {
+					return new ArrayList<Integer>();
+				}
+				palabras.sort(null);
+				long libros = 0;
+				for (Palabra palabra : palabras) {
+					libros += palabra.ids.size();
+				}
+				if (libros < librosMasRara) {
+					librosMasRara = libros;
+					masRara = parecidas.size();
+				}
+				parecidas.add(palabras);
+			}
+			List<Palabra> guia = parecidas.remove(masRara);
+			recorrerCandidatos(guia, parecidas, limite, mejores);
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+
+		Candidato[] orden = mejores.toArray(new Candidato[0]);
+		Arrays.sort(orden);
+		List<Integer> ids = new ArrayList<Integer>(orden.length);
+		for (Candidato c : orden) {
+			ids.add(c.id);
+		}
+		return ids;
+	}
+
+	//Recorre los ids de las palabras de la guia distancia a distancia, y en
+	//cada distancia por id mezclando las palabras, y prueba cada uno contra
+	//el resto de palabras buscadas. Un id de la guia a distancia d suma como
+	//poco d mas la distancia de la palabra mas parecida de cada una de las
+	//demas, y con eso se sabe cuando ya no puede entrar ninguno
+	private static void recorrerCandidatos(List<Palabra> guia, List<List<Palabra>> resto, int limite,
+			PriorityQueue<Candidato> mejores) {
+		int minimoResto = 0;
+		for (List<Palabra> palabras : resto) {
+			minimoResto += palabras.get(0).distancia;
+		}
+		int inicioNivel = 0;
+		while (inicioNivel < guia.size()) {
+			int distancia = guia.get(inicioNivel).distancia;
+			int minimo = distancia + minimoResto;
+			int finNivel = inicioNivel;
+			PriorityQueue<Cursor> cursores = new PriorityQueue<Cursor>();
+			while (finNivel < guia.size() && guia.get(finNivel).distancia == distancia) {
+				if (!guia.get(finNivel).ids.isEmpty()) {
+					cursores.add(new Cursor(guia.get(finNivel).ids));
+				}
+				finNivel++;
+			}
+			int anterior = -1;
+			boolean hayAnterior = false;
+			while (!cursores.isEmpty()) {
+				Cursor cursor = cursores.poll();
+				int id = cursor.actual();
+				if (cursor.avanzar()) {
+					cursores.add(cursor);
+				}
+				//Ni este id ni ninguno de los que quedan puede entrar
+				if (mejores.size() >= limite && mejores.peek().compareTo(minimo, id) < 0) {
+					break;
+				}
+				if (hayAnterior && id == anterior) {
+					continue;
+				}
+				anterior = id;
+				hayAnterior = true;
+				//Si ya salio a menos distancia en la guia ya se ha probado
+				if (contenidoAntes(guia, inicioNivel, id)) {
+					continue;
+				}
+				int total = distancia;
+				for (List<Palabra> palabras : resto) {
+					int d = distanciaMinima(palabras, id);
+					if (d < 0) {
+						total = -1;
+						break;
+					}
+					total += d;
+				}
+				if (total >= 0) {
+					mejores.add(new Candidato(id, total));
+					if (mejores.size() > limite) {
+						mejores.poll();
+					}
+				}
+			}
+			//Las distancias siguientes no pueden mejorar a los que ya hay
+			if (mejores.size() >= limite && mejores.peek().distancia <= minimo) {
+				return;
+			}
+			inicioNivel = finNivel;
+		}
+	}
+
+	private static boolean contenidoAntes(List<Palabra> guia, int hasta, int id) {
+		for (int i = 0; i < hasta; i++) {
+			if (guia.get(i).ids.contains(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//La distancia de la palabra mas parecida que contiene el id, -1 si
+	//ninguna. Las palabras vienen ordenadas por distancia
+	private static int distanciaMinima(List<Palabra> palabras, int id) {
+		for (Palabra palabra : palabras) {
+			if (palabra.ids.contains(id)) {
+				return palabra.distancia;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Busca los libros cuyo titulo tiene alguna palabra que empieza por la
+	 * ultima palabra del texto y ademas contiene el resto de palabras completas.
+	 * Por ejemplo "java sa" encuentra "The Java Saga".
+	 * @param texto lo que el usuario lleva escrito
+	 * @param limite numero maximo de ids a devolver
+	 * @return los ids encontrados, primero los de las palabras mas cortas y
+	 * en orden alfabetico, sin repetidos
+	 */
+	public List<Integer> buscarPorPrefijo(String texto, int limite) {
+		List<String> tokens = Normalizador.tokenizar(texto);
+		Set<Integer> ids = new LinkedHashSet<Integer>();
+		if (tokens.isEmpty() || limite <= 0) {
+			return new ArrayList<Integer>(ids);
+		}
+
+		cerrojo.readLock().lock();
+		try {
+			List<ConjuntoIds> palabrasCompletas = new ArrayList<ConjuntoIds>();
+			for (String token : tokens.subList(0, tokens.size() - 1)) {
+				Nodo n = buscarNodo(token);
+				if (n == null || n.ids == null) {
+					return new ArrayList<Integer>(ids);
+				}
+				palabrasCompletas.add(n.ids);
+			}
+			Nodo n = buscarNodo(tokens.get(tokens.size() - 1));
+			if (n != null) {
+				recogerPorPrefijo(n, palabrasCompletas, limite, ids);
+			}
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+		return new ArrayList<Integer>(ids);
+	}
+
+	//Recorrido en anchura del subarbol del prefijo: todas las palabras de
+	//una longitud salen antes que las de la siguiente, y dentro de cada
+	//longitud por orden alfabetico porque los hijos estan ordenados por
+	//letra. Se para en cuanto se tienen suficientes resultados
+	private void recogerPorPrefijo(Nodo inicio, List<ConjuntoIds> palabrasCompletas,
+			int limite, Set<Integer> ids) {
+		ArrayDeque<Nodo> pendientes = new ArrayDeque<Nodo>();
+		pendientes.add(inicio);
+		while (!pendientes.isEmpty()) {
+			Nodo n = pendientes.poll();
+			if (n.ids != null) {
+				for (int i = 0; i < n.ids.size(); i++) {
+					int id = n.ids.get(i);
+					if (contieneTodas(palabrasCompletas, id) && ids.add(id) && ids.size() >= limite) {
+						return;
+					}
+				}
+			}
+			Collections.addAll(pendientes, n.hijos);
+		}
+	}
+
+	private static boolean contieneTodas(List<ConjuntoIds> conjuntos, int id) {
+		for (ConjuntoIds conjunto : conjuntos) {
+			if (!conjunto.contains(id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//Devuelve las palabras del trie a distancia como mucho distanciaMaxima
+	//del token, con su distancia. La primera fila de la matriz es la
+	//distancia desde la cadena vacia: 0, 1, 2...
+	private List<Palabra> buscarToken(String token, int distanciaMaxima) {
+		List<Palabra> resultado = new ArrayList<Palabra>();
+		//Una fila por nivel del trie. Como la rama se poda en cuanto la
+		//distancia se pasa, nunca se baja mas de token.length() + distanciaMaxima
+		//niveles, asi que las filas se reservan una vez por busqueda
+		int[][] filas = new int[token.length() + distanciaMaxima + 2][token.length() + 1];
+		for (int j = 0; j <= token.length(); j++) {
+			filas[0][j] = j;
+		}
+		for (int i = 0; i < raiz.letras.length; i++) {
+			recorrer(raiz.hijos[i], raiz.letras[i], token, filas, 1, distanciaMaxima, resultado);
+		}
+		return resultado;
+	}
+
+	private void recorrer(Nodo n, char letra, String token, int[][] filas, int nivel,
+			int distanciaMaxima, List<Palabra> resultado) {
+		int[] filaAnterior = filas[nivel - 1];
+		int[] fila = filas[nivel];
+		fila[0] = filaAnterior[0] + 1;
+		int minimo = fila[0];
+		for (int j = 1; j < fila.length; j++) {
+			int coste = token.charAt(j - 1) == letra ? 0 : 1;
+			fila[j] = Math.min(Math.min(fila[j - 1] + 1, filaAnterior[j] + 1), filaAnterior[j - 1] + coste);
+			minimo = Math.min(minimo, fila[j]);
+		}
+
+		int distancia = fila[fila.length - 1];
+		if (distancia <= distanciaMaxima && n.ids != null && !n.ids.isEmpty()) {
+			resultado.add(new Palabra(n.ids, distancia));
+		}
+		//Si ninguna celda de la fila esta dentro de la distancia, ninguna
+		//palabra de esta rama puede estarlo
+		if (minimo <= distanciaMaxima) {
+			for (int i = 0; i < n.letras.length; i++) {
+				recorrer(n.hijos[i], n.letras[i], token, filas, nivel + 1, distanciaMaxima, resultado);
+			}
+		}
+	}
+
+	private Nodo buscarNodo(String token) {
+		Nodo n = raiz;
+		for (int i = 0; i < token.length() && n != null; i++) {
+			n = n.hijo(token.charAt(i));
+		}
+		return n;
+	}
+
+	/**
+	 * Palabra del trie parecida a la buscada: sus ids y a que distancia esta
+	 */
+	private static final class Palabra implements Comparable<Palabra> {
+
+		private final ConjuntoIds ids;
+		private final int distancia;
+
+		Palabra(ConjuntoIds ids, int distancia) {
+			this.ids = ids;
+			this.distancia = distancia;
+		}
+
+		@Override
+		public int compareTo(Palabra otra) {
+			return Integer.compare(distancia, otra.distancia);
+		}
+	}
+
+	/**
+	 * Posicion dentro de los ids (ordenados) de una palabra, para mezclar
+	 * varias palabras por id
+	 */
+	private static final class Cursor implements Comparable<Cursor> {
+
+		private final ConjuntoIds ids;
+		private int posicion;
+
+		Cursor(ConjuntoIds ids) {
+			this.ids = ids;
+		}
+
+		int actual() {
+			return ids.get(posicion);
+		}
+
+		boolean avanzar() {
+			return ++posicion < ids.size();
+		}
+
+		@Override
+		public int compareTo(Cursor otro) {
+			return Integer.compare(actual(), otro.actual());
+		}
+	}
+
+	/**
+	 * Libro encontrado con la suma de distancias de sus palabras. Se ordena
+	 * por distancia y a igualdad por id
+	 */
+	private static final class Candidato implements Comparable<Candidato> {
+
+		private final int id;
+		private final int distancia;
+
+		Candidato(int id, int distancia) {
+			this.id = id;
+			this.distancia = distancia;
+		}
+
+		int compareTo(int otraDistancia, int otroId) {
+			int c = Integer.compare(distancia, otraDistancia);
+			return c != 0 ? c : Integer.compare(id, otroId);
+		}
+
+		@Override
+		public int compareTo(Candidato otro) {
+			return compareTo(otro.distancia, otro.id);
+		}
+	}
+
+	/**
+	 * Nodo del trie. Los hijos se guardan en dos arrays ordenados por letra,
+	 * que ocupan mucho menos que un mapa para los pocos hijos que suele tener
+	 * cada nodo.
+	 */
+	private static final class Nodo {
+
+		private static final char[] SIN_LETRAS = new char[0];
+		private static final Nodo[] SIN_HIJOS = new Nodo[0];
+
+		private char[] letras = SIN_LETRAS;
+		private Nodo[] hijos = SIN_HIJOS;
+		private ConjuntoIds ids;
+
+		Nodo hijo(char letra) {
+			int i = Arrays.binarySearch(letras, letra);
+			return i >= 0 ? hijos[i] : null;
+		}
+
+		Nodo hijoOCrear(char letra) {
+			int i = Arrays.binarySearch(letras, letra);
+			if (i >= 0) {
+				return hijos[i];
+			}
+			int posicion = -i - 1;
+			char[] nuevasLetras = new char[letras.length + 1];
+			Nodo[] nuevosHijos = new Nodo[hijos.length + 1];
+			System.arraycopy(letras, 0, nuevasLetras, 0, posicion);
+			System.arraycopy(hijos, 0, nuevosHijos, 0, posicion);
+			System.arraycopy(letras, posicion, nuevasLetras, posicion + 1, letras.length - posicion);
+			System.arraycopy(hijos, posicion, nuevosHijos, posicion + 1, hijos.length - posicion);
+			Nodo nuevo = new Nodo();
+			nuevasLetras[posicion] = letra;
+			nuevosHijos[posicion] = nuevo;
+			letras = nuevasLetras;
+			hijos = nuevosHijos;
+			return nuevo;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package es.biblioteca.modelo.persistencia;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import es.biblioteca.modelo.entidad.Libro;
+import es.biblioteca.modelo.entidad.ResumenBorrado;
+import es.biblioteca.modelo.entidad.ResumenImportacion;
+
+/**
+ * Importacion y exportacion masiva del catalogo en CSV o JSON Lines, y
+ * borrado masivo por ids.
+ *
+ * La importacion lee el fichero en streaming (nunca esta entero en memoria),
+ * lo trocea en lotes de lineas y los analiza en paralelo. Los lotes ya
+ * analizados se aplican al DAO en el mismo orden del fichero, de uno en uno
+ * y con una sola llamada a DaoLibro.addAll por lote, que es quien descarta
+ * los titulos e ids repetidos. Como mucho hay unos pocos lotes en vuelo, de
+ * manera que la memoria usada no depende del tamaño del fichero.
+ *
+ * En CSV un campo entre comillas puede contener saltos de linea; en ese caso
+ * LectorRegistrosCsv junta las lineas fisicas hasta cerrar las comillas (con
+ * un maximo de lineas y caracteres por registro) y los numeros de linea de
+ * los errores pasan a contar registros.
+ */
+@Component
+public class CargaMasivaCatalogo {
+
+	private static final int TAMANO_LOTE = 50_000;
+	private static final int LOTES_EN_VUELO = Runtime.getRuntime().availableProcessors() * 2;
+	private static final int MAXIMO_ERRORES = 20;
+	private static final String CABECERA_CSV = "id,titulo,editorial,nota";
+
+	@Autowired
+	private DaoLibro daoLibro;
+
+	private final ObjectReader lectorJson;
+	private final ObjectMapper objectMapper;
+
+	public CargaMasivaCatalogo(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		this.lectorJson = objectMapper.readerFor(Libro.class);
+	}
+
+	/**
+	 * Importa todos los libros que vengan en la entrada
+	 * @param entrada el contenido del fichero, se lee hasta el final
+	 * @param formato el formato del fichero
+	 * @return el resumen de la importacion
+	 */
+	public ResumenImportacion importar(InputStream entrada, FormatoCatalogo formato) throws IOException {
+
+		long inicio = System.nanoTime();
+		ResumenImportacion resumen = new ResumenImportacion();
+		Deque<CompletableFuture<Lote>> pendientes = new ArrayDeque<CompletableFuture<Lote>>();
+		BufferedReader lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8), 1 << 20);
+
+		List<String> lineas = new ArrayList<String>(TAMANO_LOTE);
+		long primeraLinea = 1;
+		LectorRegistrosCsv registros = formato == FormatoCatalogo.CSV ? new LectorRegistrosCsv(lector) : null;
+		String linea;
+		while ((linea = registros != null ? registros.siguiente() : lector.readLine()) != null) {
+			lineas.add(linea);
+			if (lineas.size() == TAMANO_LOTE) {
+				pendientes.add(analizarEnParalelo(lineas, primeraLinea, formato));
+				primeraLinea += lineas.size();
+				lineas = new ArrayList<String>(TAMANO_LOTE);
+				if (pendientes.size() >= LOTES_EN_VUELO) {
+					aplicar(pendientes.poll().join(), resumen);
+				}
+			}
+		}
+		if (!lineas.isEmpty()) {
+			pendientes.add(analizarEnParalelo(lineas, primeraLinea, formato));
+		}
+		while (!pendientes.isEmpty()) {
+			aplicar(pendientes.poll().join(), resumen);
+		}
+
+		long nanos = System.nanoTime() - inicio;
+		resumen.setMilisegundos(TimeUnit.NANOSECONDS.toMillis(nanos));
+		resumen.setLibrosPorSegundo(nanos == 0 ? 0 : resumen.getImportados() * 1_000_000_000L / nanos);
+		return resumen;
+	}
+
+	/**
+	 * Escribe todo el catalogo en la salida. Los libros se van sacando del
+	 * DAO por trozos, sin copiar el catalogo entero, asi que salen en orden
+	 * de insercion dentro de cada particion pero no entre particiones
+	 * @param salida donde escribir, no se cierra
+	 * @param formato el formato en el que escribir
+	 */
+	public void exportar(OutputStream salida, FormatoCatalogo formato) throws IOException {
+
+		Iterator<Libro> libros = daoLibro.iterarPorTrozos();
+		Writer escritor = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), 1 << 16);
+		if (formato == FormatoCatalogo.CSV) {
+			escritor.write(CABECERA_CSV);
+			escritor.write('\n');
+			while (libros.hasNext()) {
+				Libro l = libros.next();
+				escritor.write(Integer.toString(l.getId()));
+				escritor.write(',');
+				escribirCampoCsv(escritor, l.getTitulo());
+				escritor.write(',');
+				escribirCampoCsv(escritor, l.getEditorial());
+				escritor.write(',');
+				escribirCampoCsv(escritor, l.getNota());
+				escritor.write('\n');
+			}
+		} else {
+			SequenceWriter secuencia = objectMapper.writerFor(Libro.class)
+					.withRootValueSeparator("\n").writeValues(escritor);
+			while (libros.hasNext()) {
+				secuencia.write(libros.next());
+			}
+			secuencia.flush();
+			escritor.write('\n');
+		}
+		escritor.flush();
+	}
+
+	/**
+	 * Borra los libros cuyos ids vengan en la entrada, uno por linea. Se lee
+	 * en streaming y se borra por lotes, con una llamada a DaoLibro.deleteAll
+	 * por lote
+	 * @param entrada los ids, se lee hasta el final
+	 * @return el resumen del borrado
+	 */
+	public ResumenBorrado borrar(InputStream entrada) throws IOException {
+
+		long inicio = System.nanoTime();
+		ResumenBorrado resumen = new ResumenBorrado();
+		BufferedReader lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8), 1 << 16);
+		List<Integer> lote = new ArrayList<Integer>(TAMANO_LOTE);
+		String linea;
+		while ((linea = lector.readLine()) != null) {
+			if (linea.isBlank()) {
+				continue;
+			}
+			try {
+				lote.add(Integer.valueOf(linea.trim()));
+			} catch (NumberFormatException e) {
+				resumen.setRechazados(resumen.getRechazados() + 1);
+				continue;
+			}
+			if (lote.size() == TAMANO_LOTE) {
+				borrarLote(lote, resumen);
+				lote.clear();
+			}
+		}
+		borrarLote(lote, resumen);
+		resumen.setMilisegundos(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+		return resumen;
+	}
+
+	private void borrarLote(List<Integer> lote, ResumenBorrado resumen) {
+		if (lote.isEmpty()) {
+			return;
+		}
+		int borrados = daoLibro.deleteAll(lote);
+		resumen.setLeidos(resumen.getLeidos() + lote.size());
+		resumen.setBorrados(resumen.getBorrados() + borrados);
+		resumen.setNoEncontrados(resumen.getNoEncontrados() + lote.size() - borrados);
+	}
+
+	private CompletableFuture<Lote> analizarEnParalelo(List<String> lineas, long primeraLinea, FormatoCatalogo formato) {
+		return CompletableFuture.supplyAsync(() -> analizar(lineas, primeraLinea, formato));
+	}
+
+	private Lote analizar(List<String> lineas, long primeraLinea, FormatoCatalogo formato) {
+
+		Lote lote = new Lote(lineas.size());
+		for (int i = 0; i < lineas.size(); i++) {
+			String linea = lineas.get(i);
+			long numero = primeraLinea + i;
+			if (linea.isBlank() || (numero == 1 && formato == FormatoCatalogo.CSV && esCabecera(linea))) {
+				continue;
+			}
+			lote.leidas++;
+			try {
+				Libro l = formato == FormatoCatalogo.CSV ? libroCsv(linea) : lectorJson.readValue(linea);
+				if (l.getId() <= 0 || l.getTitulo() == null || l.getTitulo().isBlank()) {
+					throw new IllegalArgumentException("id y titulo son obligatorios");
+				}
+				lote.libros.add(l);
+			} catch (Exception e) {
+				lote.rechazados++;
+				if (lote.errores.size() < MAXIMO_ERRORES) {
+					lote.errores.add("linea " + numero + ": " + e.getMessage());
+				}
+			}
+		}
+		return lote;
+	}
+
+	private void aplicar(Lote lote, ResumenImportacion resumen) {
+
+		int importados = daoLibro.addAll(lote.libros);
+		resumen.setLeidas(resumen.getLeidas() + lote.leidas);
+		resumen.setImportados(resumen.getImportados() + importados);
+		resumen.setDuplicados(resumen.getDuplicados() + lote.libros.size() - importados);
+		resumen.setRechazados(resumen.getRechazados() + lote.rechazados);
+		for (String error : lote.errores) {
+			if (resumen.getErrores().size() < MAXIMO_ERRORES) {
+				resumen.getErrores().add(error);
+			}
+		}
+	}
+
+	//Convierte una linea "id,titulo,editorial,nota" en un libro. Los campos
+	//pueden ir entre comillas dobles, y dentro de ellas "" es una comilla.
+	//Un campo vacio sin comillas es null y "" es el texto vacio, igual que
+	//los escribe la exportacion
+	private static Libro libroCsv(String linea) {
+
+		List<String> campos = new ArrayList<String>(4);
+		StringBuilder campo = new StringBuilder();
+		boolean entreComillas = false;
+		boolean conComillas = false;
+		for (int i = 0; i < linea.length(); i++) {
+			char c = linea.charAt(i);
+			if (entreComillas) {
+				if (c == '"' && i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+					campo.append('"');
+					i++;
+				} else if (c == '"') {
+					entreComillas = false;
+				} else {
+					campo.append(c);
+				}
+			} else if (c == '"') {
+				entreComillas = true;
+				conComillas = true;
+			} else if (c == ',') {
+				campos.add(valorCsv(campo, conComillas));
+				campo.setLength(0);
+				conComillas = false;
+			} else {
+				campo.append(c);
+			}
+		}
+		if (entreComillas) {
+			throw new IllegalArgumentException("comillas sin cerrar");
+		}
+		campos.add(valorCsv(campo, conComillas));
+		if (campos.size() < 2 || campos.size() > 4) {
+			throw new IllegalArgumentException("se esperaban entre 2 y 4 campos y hay " + campos.size());
+		}
+		if (campos.get(0) == null) {
+			throw new IllegalArgumentException("falta el id");
+		}
+		return new Libro(Integer.parseInt(campos.get(0).trim()), campos.get(1),
+				campos.size() > 2 ? campos.get(2) : null,
+				campos.size() > 3 ? campos.get(3) : null);
+	}
+
+	private static String valorCsv(StringBuilder campo, boolean conComillas) {
+		return campo.length() == 0 && !conComillas ? null : campo.toString();
+	}
+
+	//La cabecera es opcional y puede traer solo las primeras columnas
+	private static boolean esCabecera(String linea) {
+		String cabecera = linea.trim().toLowerCase();
+		return cabecera.startsWith("id,") && CABECERA_CSV.startsWith(cabecera);
+	}
+
+	//null se escribe como un campo vacio y el texto vacio como "", para
+	//distinguirlos al importar
+	private static void escribirCampoCsv(Writer escritor, String valor) throws IOException {
+		if (valor == null) {
+			return;
+		}
+		boolean comillas = valor.isEmpty();
+		for (int i = 0; i < valor.length() && !comillas; i++) {
+			char c = valor.charAt(i);
+			comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!comillas) {
+			escritor.write(valor);
+			return;
+		}
+		escritor.write('"');
+		escritor.write(valor.replace("\"", "\"\""));
+		escritor.write('"');
+	}
+
+	/**
+	 * Resultado de analizar un trozo del fichero
+	 */
+	private static final class Lote {
+
+		private final List<Libro> libros;
+		private final List<String> errores = new ArrayList<String>();
+		private long leidas;
+		private long rechazados;
+
+		Lote(int lineas) {
+			this.libros = new ArrayList<Libro>(lineas);
+		}
+	}
+}
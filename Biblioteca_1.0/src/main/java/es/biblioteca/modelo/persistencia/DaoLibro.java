@@ -1,11 +1,51 @@
 package es.biblioteca.modelo.persistencia;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import es.biblioteca.jfr.EventoDao;
+import es.biblioteca.modelo.entidad.EstadisticasCatalogo;
 import es.biblioteca.modelo.entidad.Libro;
+import es.biblioteca.modelo.entidad.ResultadoBusqueda;
+import es.biblioteca.modelo.entidad.ResultadoMultiple;
+import es.biblioteca.modelo.entidad.ResumenInstantanea;
+import es.biblioteca.modelo.entidad.Sugerencia;
+import es.biblioteca.modelo.indice.ContadoresCatalogo;
+import es.biblioteca.modelo.indice.IndiceTextoCompleto;
+import es.biblioteca.modelo.indice.TrieTitulos;
 
 
 /**
@@ -22,36 +62,218 @@ import es.biblioteca.modelo.entidad.Libro;
  * dentro del contexto de Spring, su ID sera el nombre de la case en notacion
  * lowerCamelCase
  * 
+ * Los libros se reparten por id entre varias particiones (tantas como
+ * nucleos, o las indicadas en "biblioteca.dao.particiones"), cada una con su
+ * propio cerrojo y conservando el orden de insercion. Las altas, bajas y
+ * modificaciones solo bloquean la particion del libro, y los recorridos
+ * completos o filtrados se hacen en paralelo, una particion por hilo, y se
+ * mezclan de nuevo en orden de insercion. Los titulos e ids repetidos se
+ * detectan reservandolos de forma atomica en mapas concurrentes.
+ * 
+ * Ademas se mantienen unos indices ordenados (por id, por titulo y por
+ * editorial) que se actualizan de forma incremental en cada alta,
+ * modificacion y baja. Asi los listados ordenados o por rango de id no
+ * necesitan ordenar todo el catalogo en cada peticion. Las lecturas por
+ * indice no necesitan bloqueo al ser mapas concurrentes.
+ * 
+ * Si al arrancar existe el fichero de instantanea configurado, el catalogo
+ * se abre desde el con memoria mapeada en vez de crear los libros de
+ * ejemplo. La lista y los indices se construyen a partir de ella en un hilo
+ * aparte, nada mas arrancar o con la primera operacion que los necesite, y
+ * sin bloquear el DAO: mientras tanto las consultas por id se sirven de la
+ * instantanea y las altas, bajas y modificaciones se guardan en un mapa de
+ * cambios por id que se aplica al terminar. Solo esperan a que termine las
+ * operaciones que necesitan los indices (listados, busquedas y cargas
+ * masivas) y, durante el primer recorrido que cuenta los titulos, las
+ * escrituras.
+ * 
+ * Cada operacion genera un EventoDao de Java Flight Recorder con los libros
+ * recorridos y devueltos, que solo se graba si pasa del umbral configurado.
+ * 
  */
 @Component
 public class DaoLibro {
 	
-	public List<Libro> libros;
+	private static final int TAMANO_LOTE_INSTANTANEA = 50_000;
+	private static final int TAMANO_TROZO = 10_000;
+	
+	//Los libros repartidos por id, y la secuencia global de altas con la
+	//que se recupera el orden de insercion al recorrerlas
+	private final ParticionLibros[] particiones;
+	private final AtomicLong secuencia = new AtomicLong();
+	//Hilos para recorrer las particiones en paralelo. Son solo del DAO
+	//porque se quedan esperando a los cerrojos durante las cargas masivas
+	private final ForkJoinPool hilosRecorrido;
+	//Hilos para actualizar los indices de un lote, que se esperan con los
+	//cerrojos cogidos. Tampoco pueden ser del pool comun: si sus hilos
+	//estuvieran esperando a esos cerrojos no acabaria nunca. Aqui solo se
+	//indexa, asi que nunca esperan a las particiones
+	private final ForkJoinPool hilosIndices;
+	
+	private final ConcurrentSkipListMap<Integer, Libro> indicePorId = new ConcurrentSkipListMap<Integer, Libro>();
+	private final ConcurrentSkipListMap<ClaveOrden, Libro> indicePorTitulo = new ConcurrentSkipListMap<ClaveOrden, Libro>();
+	private final ConcurrentSkipListMap<ClaveOrden, Libro> indicePorEditorial = new ConcurrentSkipListMap<ClaveOrden, Libro>();
+	private final TrieTitulos trieTitulos = new TrieTitulos();
+	private final IndiceTextoCompleto indiceTextoCompleto = new IndiceTextoCompleto();
+	//Total, libros por editorial y longitudes de titulo, para las estadisticas
+	private final ContadoresCatalogo contadores = new ContadoresCatalogo();
+	//Numero de libros con cada titulo, para comprobar duplicados sin recorrer la lista
+	private final ConcurrentHashMap<String, Integer> titulos = new ConcurrentHashMap<String, Integer>();
+	//Instantanea de la que todavia no se han cargado los libros, con los
+	//cambios hechos mientras se carga. null cuando la lista y los indices ya
+	//estan construidos
+	private volatile CargaInstantanea cargaPendiente;
+	//Para que dos escrituras de la instantanea no se pisen el fichero
+	private final Object escrituraInstantanea = new Object();
+	
+	@Value("${biblioteca.instantanea.fichero:}")
+	private String ficheroInstantanea;
+	
+	@Value("${biblioteca.instantanea.precargar:true}")
+	private boolean precargarInstantanea;
 	
 	/**
 	 * Cuando se cree el objeto dentro del contexto de Spring, se ejecutara
 	 * su constructor, que creara las personas y las metera en una lista
 	 * para que puedan ser consumidas por nuestros clientes
+	 * @param numeroParticiones en cuantas particiones repartir los libros,
+	 * 0 para usar una por nucleo
+	 * @param librosEjemplo si se crean los cinco libros de ejemplo. Cuando
+	 * hay varios servidores repartiendose los ids, solo tienen que estar en
+	 * el servidor dueño de cada id, asi que se arrancan vacios
+	 * @param hilosRecorrido cuantos hilos recorren las particiones a la vez,
+	 * 0 para usar uno por nucleo
 	 */
-	public DaoLibro() {
+	@Autowired
+	public DaoLibro(@Value("${biblioteca.dao.particiones:0}") int numeroParticiones,
+			@Value("${biblioteca.dao.libros-ejemplo:true}") boolean librosEjemplo,
+			@Value("${biblioteca.dao.hilos-recorrido:0}") int hilosRecorrido) {
 		
 		System.out.println("");
 		System.out.println("DaoPersona -> Creando la lista de libros!");
-		libros = new ArrayList<Libro>();
+		if (numeroParticiones <= 0) {
+			numeroParticiones = Runtime.getRuntime().availableProcessors();
+		}
+		if (hilosRecorrido <= 0) {
+			hilosRecorrido = Runtime.getRuntime().availableProcessors();
+		}
+		this.hilosRecorrido = crearHilos("recorrido-particiones-", hilosRecorrido);
+		this.hilosIndices = crearHilos("indices-lote-", hilosRecorrido);
+		particiones = new ParticionLibros[numeroParticiones];
+		for (int i = 0; i < numeroParticiones; i++) {
+			particiones[i] = new ParticionLibros();
+		}
+		if (!librosEjemplo) {
+			System.out.println("DaoPersona -> Lista de libros vacia");
+			return;
+		}
 		Libro l1 = new Libro(1, "The Adventures of Java", "Coding House", "A classic in programming");
 		Libro l2 = new Libro(2, "Programming in the Rain", "Tech World", "An inspiring journey into coding");
 		Libro l3 = new Libro(3, "Code Chronicles", "Geeky Publications", "Unveiling the secrets of programming");
 		Libro l4 = new Libro(4, "The Java Saga", "Code Masters", "A thrilling tale of software development");
 		Libro l5 = new Libro(5, "Mastering SQL", "Database Wizards", "Unlocking the power of databases");
-		libros.add(l1);
-		libros.add(l2);
-		libros.add(l3);
-		libros.add(l4);
-		libros.add(l5);
+		add(l1);
+		add(l2);
+		add(l3);
+		add(l4);
+		add(l5);
 		System.out.println("DaoPersona -> Lista de libros creada");
 		System.out.println("");
 	}
 	
+	/**
+	 * Crea el DAO con un hilo de recorrido por nucleo
+	 */
+	public DaoLibro(int numeroParticiones, boolean librosEjemplo) {
+		this(numeroParticiones, librosEjemplo, 0);
+	}
+	
+	private static ForkJoinPool crearHilos(String nombre, int numero) {
+		return new ForkJoinPool(numero, pool -> {
+			ForkJoinWorkerThread hilo = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			hilo.setName(nombre + hilo.getPoolIndex());
+			hilo.setDaemon(true);
+			return hilo;
+		}, null, false);
+	}
+	
+	/**
+	 * Para los hilos del DAO al cerrar la aplicacion
+	 */
+	@PreDestroy
+	public void cerrar() {
+		hilosRecorrido.shutdown();
+		hilosIndices.shutdown();
+	}
+	
+	/**
+	 * Si existe la instantanea configurada, sustituye a los libros de ejemplo.
+	 * Solo se mapea el fichero, los libros se leen cuando hacen falta
+	 */
+	@PostConstruct
+	public void abrirInstantanea() throws IOException {
+		
+		if (ficheroInstantanea == null || ficheroInstantanea.isBlank()) {
+			return;
+		}
+		Path fichero = Paths.get(ficheroInstantanea);
+		if (!Files.exists(fichero)) {
+			System.out.println("DaoLibro -> No hay instantanea en " + fichero.toAbsolutePath());
+			return;
+		}
+		long inicio = System.nanoTime();
+		InstantaneaCatalogo abierta = InstantaneaCatalogo.abrir(fichero);
+		for (Libro l : list()) {
+			delete(l.getId());
+		}
+		cargaPendiente = new CargaInstantanea(abierta);
+		System.out.println("DaoLibro -> Instantanea " + fichero.toAbsolutePath() + " abierta con "
+				+ abierta.getNumeroLibros() + " libros en " + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+	}
+	
+	/**
+	 * Cuando la aplicacion ya atiende peticiones, construye los indices de la
+	 * instantanea en segundo plano si asi se ha configurado. No se hace antes
+	 * para no retrasar el arranque
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void precargarInstantanea() {
+		
+		CargaInstantanea carga = cargaPendiente;
+		if (precargarInstantanea && carga != null) {
+			iniciarCarga(carga);
+		}
+	}
+	
+	/**
+	 * Escribe una instantanea del catalogo en el fichero configurado, que se
+	 * usara en el siguiente arranque
+	 * @return el resumen de la instantanea escrita
+	 * @throws IllegalStateException si no hay fichero de instantanea configurado
+	 */
+	public ResumenInstantanea escribirInstantanea() throws IOException {
+		
+		if (ficheroInstantanea == null || ficheroInstantanea.isBlank()) {
+			throw new IllegalStateException("No hay fichero de instantanea configurado");
+		}
+		EventoDao evento = EventoDao.empezar();
+		long inicio = System.nanoTime();
+		Path fichero = Paths.get(ficheroInstantanea);
+		//La copia de la lista se hace con los cerrojos de las particiones
+		//cogidos, pero el fichero se escribe sin ellos para no parar las
+		//escrituras mientras tanto. Dos peticiones a la vez se hacen una
+		//detras de otra, asi la ultima en escribir tiene la copia mas nueva
+		List<Libro> copia;
+		long bytes;
+		synchronized (escrituraInstantanea) {
+			copia = list();
+			bytes = InstantaneaCatalogo.escribir(fichero, copia);
+		}
+		evento.terminar("escribirInstantanea", EventoDao.SIN_ID, copia.size(), copia.size());
+		return new ResumenInstantanea(fichero.toAbsolutePath().toString(), copia.size(), bytes,
+				(System.nanoTime() - inicio) / 1_000_000);
+	}
+	
 	/**
 	 * 
 	 * Devuelve un libro a partir de su id
@@ -60,13 +282,53 @@ public class DaoLibro {
 	 * que no exista
 	 */
 	public Libro get (int id) {
-		
-		try {
-			int position = libros.indexOf(new Libro(id));
-			return libros.get(position);
-		} catch (IndexOutOfBoundsException iobe) {
-			return null;
+		EventoDao evento = EventoDao.empezar();
+		CargaInstantanea carga = cargaPendiente;
+		Libro l = carga != null ? carga.leer(id) : indicePorId.get(id);
+		evento.terminar("get", id, 1, l != null ? 1 : 0);
+		return l;
+	}
+	
+	/**
+	 * Devuelve varios libros a partir de sus ids con una sola llamada. Si
+	 * un id se repite se busca una sola vez
+	 * @param ids los ids de los libros
+	 * @return los libros que existen, en el orden en que se han pedido, y
+	 * los ids que no existen
+	 */
+	public ResultadoMultiple getVarios(List<Integer> ids) {
+		EventoDao evento = EventoDao.empezar();
+		CargaInstantanea carga = cargaPendiente;
+		List<Libro> libros = new ArrayList<Libro>(ids.size());
+		List<Integer> noEncontrados = new ArrayList<Integer>();
+		Set<Integer> vistos = new HashSet<Integer>(ids.size() * 2);
+		for (Integer id : ids) {
+			if (id == null || !vistos.add(id)) {
+				continue;
+			}
+			Libro l = carga != null ? carga.leer(id) : indicePorId.get(id);
+			if (l != null) {
+				libros.add(l);
+			} else {
+				noEncontrados.add(id);
+			}
 		}
+		evento.terminar("getVarios", EventoDao.SIN_ID, vistos.size(), libros.size());
+		return new ResultadoMultiple(libros, noEncontrados);
+	}
+	
+	/**
+	 * Devuelve las estadisticas del catalogo a partir de los contadores que
+	 * se mantienen en cada escritura, sin recorrer los libros
+	 * @return el total de libros, los libros por editorial y el reparto de
+	 * longitudes de los titulos
+	 */
+	public EstadisticasCatalogo estadisticas() {
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		EstadisticasCatalogo estadisticas = contadores.getEstadisticas();
+		evento.terminar("estadisticas", EventoDao.SIN_ID, 0, 0);
+		return estadisticas;
 	}
 	
 	/**
@@ -74,22 +336,233 @@ public class DaoLibro {
 	 * @return una lista con todos los libros del array
 	 */
 	public List<Libro> list() {
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		List<Libro> libros = ParticionLibros.recorrer(particiones, null, hilosRecorrido);
+		evento.terminar("list", EventoDao.SIN_ID, libros.size(), libros.size());
 		return libros;
 	}
 	
+	/**
+	 * Recorre todo el catalogo sin copiarlo entero: va particion a particion
+	 * copiando trozos de TAMANO_TROZO libros con el cerrojo de lectura, y lo
+	 * suelta entre trozo y trozo para no parar las escrituras. Los libros de
+	 * cada particion salen en orden de insercion, pero las particiones van
+	 * una detras de otra. Lo que se de de alta o de baja durante el recorrido
+	 * puede salir o no
+	 * @return un iterador sobre todos los libros
+	 */
+	public Iterator<Libro> iterarPorTrozos() {
+		asegurarCargado();
+		return new IteradorPorTrozos();
+	}
+	
+	/**
+	 * Metodo que devuelve los libros recorriendo el indice ordenado que
+	 * corresponda, sin ordenar nada en la peticion.
+	 * @param orden el campo por el que ordenar. Si es null y hay rango se
+	 * ordena por id, y si no se respeta el orden de insercion
+	 * @param desde id minimo (incluido), null para no acotar
+	 * @param hasta id maximo (incluido), null para no acotar
+	 * @param titulo si es distinto de null, solo se devuelven los libros que
+	 * contienen ese texto en el titulo
+	 * @param editorial si es distinto de null, solo se devuelven los libros
+	 * que contienen ese texto en la editorial
+	 * @param limite numero maximo de libros a devolver, null para devolver
+	 * todos. El recorrido se para en cuanto se llega al limite, asi que una
+	 * pagina por id (orden ID y desde el siguiente al ultimo id de la pagina
+	 * anterior) cuesta lo mismo sea cual sea el tamaño del catalogo
+	 * @return la lista de libros que cumplen las condiciones
+	 */
+	public List<Libro> listOrdenado(OrdenLibro orden, Integer desde, Integer hasta, String titulo, String editorial,
+			Integer limite) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		Collection<Libro> recorrido;
+		if (orden == OrdenLibro.TITULO) {
+			recorrido = indicePorTitulo.values();
+		} else if (orden == OrdenLibro.EDITORIAL) {
+			recorrido = indicePorEditorial.values();
+		} else if (orden == OrdenLibro.ID || desde != null || hasta != null) {
+			recorrido = rangoPorId(desde, hasta).values();
+			desde = null;
+			hasta = null;
+		} else {
+			//Sin orden ni rango se respeta el orden de insercion, como en el
+			//listado completo. Con limite cada particion deja de recorrerse
+			//al llegar a el, asi que tampoco se copia el catalogo entero
+			List<Libro> libros = ParticionLibros.recorrer(particiones, filtroTexto(titulo, editorial),
+					limite == null ? Integer.MAX_VALUE : limite, hilosRecorrido);
+			evento.terminar("listOrdenado", EventoDao.SIN_ID, libros.size(), libros.size());
+			return libros;
+		}
+		
+		Predicate<Libro> filtro = filtroTexto(titulo, editorial);
+		List<Libro> librosAux = new ArrayList<Libro>(limite == null ? 10 : limite);
+		long recorridos = 0;
+		for (Libro l : recorrido) {
+			recorridos++;
+			if ((desde == null || l.getId() >= desde)
+					&& (hasta == null || l.getId() <= hasta)
+					&& (filtro == null || filtro.test(l))) {
+				librosAux.add(l);
+				if (limite != null && librosAux.size() >= limite) {
+					break;
+				}
+			}
+		}
+		evento.terminar("listOrdenado", EventoDao.SIN_ID, recorridos, librosAux.size());
+		return librosAux;
+	}
+	
+	/**
+	 * Cuenta los libros que contienen los textos buscados en el titulo y en
+	 * la editorial. Sin filtros sale de los contadores del catalogo, sin
+	 * recorrer nada
+	 * @param titulo el texto a buscar en el titulo, null para no filtrar
+	 * @param editorial el texto a buscar en la editorial, null para no filtrar
+	 * @return el numero de libros que cumplen los filtros
+	 */
+	public long contar(String titulo, String editorial) {
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		Predicate<Libro> filtro = filtroTexto(titulo, editorial);
+		long total = contadores.getTotal();
+		if (filtro == null) {
+			evento.terminar("contar", EventoDao.SIN_ID, 0, total);
+			return total;
+		}
+		long encontrados = ParticionLibros.contar(particiones, filtro, hilosRecorrido);
+		evento.terminar("contar", EventoDao.SIN_ID, total, encontrados);
+		return encontrados;
+	}
+	
 	/**
 	 * Metodo que introduce un libro
 	 * @param l el libro que queremos introducir
 	 */
 	public int add(Libro l) {
 		
-        if (!tituloLibroExiste(l) && libros.indexOf(l)==-1) {
-            libros.add(l);
-            return 1;
-        }        
-        else {
-            return -1;
-        }
+		EventoDao evento = EventoDao.empezar();
+		CargaInstantanea carga = cargaPendiente;
+		int resultado = carga != null ? carga.anadir(l) : anadir(l);
+		evento.terminar("add", l.getId(), 1, resultado == 1 ? 1 : 0);
+		return resultado;
+	}
+	
+	private int anadir(Libro l) {
+		
+		ParticionLibros particion = particion(l.getId());
+		particion.getCerrojo().writeLock().lock();
+		try {
+			if (!reservar(l)) {
+				return -1;
+			}
+			particion.add(secuencia.incrementAndGet(), l);
+			indexarSecundarios(l);
+			return 1;
+		} finally {
+			particion.getCerrojo().writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Metodo que introduce un lote de libros de una sola vez, pensado para
+	 * las cargas masivas. Se descartan los libros cuyo titulo o id ya existen
+	 * (tambien los repetidos dentro del propio lote, gana el primero). Los
+	 * cerrojos de las particiones se cogen una sola vez para todo el lote y
+	 * los indices secundarios se actualizan en paralelo.
+	 * @param lote los libros que queremos introducir
+	 * @return el numero de libros introducidos
+	 */
+	public int addAll(List<Libro> lote) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		int anadidos = anadirLote(lote);
+		evento.terminar("addAll", EventoDao.SIN_ID, lote.size(), anadidos);
+		return anadidos;
+	}
+	
+	private int anadirLote(List<Libro> lote) {
+		
+		//Se bloquean todas las particiones, siempre en el mismo orden, para
+		//que ninguna otra escritura vea el lote a medias
+		for (ParticionLibros particion : particiones) {
+			particion.getCerrojo().writeLock().lock();
+		}
+		try {
+			List<Libro> nuevos = new ArrayList<Libro>(lote.size());
+			for (Libro l : lote) {
+				if (reservar(l)) {
+					particion(l.getId()).add(secuencia.incrementAndGet(), l);
+					nuevos.add(l);
+				}
+			}
+			indexarLote(nuevos);
+			return nuevos.size();
+		} finally {
+			for (int i = particiones.length - 1; i >= 0; i--) {
+				particiones[i].getCerrojo().writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Como anadirLote pero para los libros de la instantanea, que ya tienen
+	 * los titulos contados y no pueden estar repetidos. Si un libro se ha
+	 * modificado o borrado mientras se carga, se carga ya como esta ahora
+	 */
+	private void cargarLote(List<Libro> lote, CargaInstantanea carga) {
+		
+		for (ParticionLibros particion : particiones) {
+			particion.getCerrojo().writeLock().lock();
+		}
+		try {
+			List<Libro> nuevos = new ArrayList<Libro>(lote.size());
+			for (Libro l : lote) {
+				Cambio cambio = carga.cambios.get(l.getId());
+				Libro actual = cambio != null ? cambio.libro : l;
+				if (actual != null) {
+					particion(l.getId()).add(secuencia.incrementAndGet(), actual);
+					indicePorId.put(actual.getId(), actual);
+					nuevos.add(actual);
+				}
+			}
+			indexarLote(nuevos);
+		} finally {
+			for (int i = particiones.length - 1; i >= 0; i--) {
+				particiones[i].getCerrojo().writeLock().unlock();
+			}
+		}
+	}
+	
+	//Los indices secundarios de un lote, uno por hilo, en hilosIndices. El
+	//analisis en paralelo del texto completo tambien va en esos hilos
+	private void indexarLote(List<Libro> nuevos) {
+		ForkJoinTask<?> orden = hilosIndices.submit(() -> nuevos.forEach(this::indexarOrden));
+		ForkJoinTask<?> trie = hilosIndices.submit(() -> nuevos.forEach(l -> trieTitulos.insertar(l.getTitulo(), l.getId())));
+		ForkJoinTask<?> texto = hilosIndices.submit(() -> indexarTextoCompleto(nuevos));
+		orden.join();
+		trie.join();
+		texto.join();
+	}
+	
+	private void indexarTextoCompleto(List<Libro> nuevos) {
+		int n = nuevos.size();
+		int[] ids = new int[n];
+		String[] titulos = new String[n];
+		String[] editoriales = new String[n];
+		String[] notas = new String[n];
+		for (int i = 0; i < n; i++) {
+			Libro l = nuevos.get(i);
+			ids[i] = l.getId();
+			titulos[i] = l.getTitulo();
+			editoriales[i] = l.getEditorial();
+			notas[i] = l.getNota();
+		}
+		indiceTextoCompleto.insertarLote(ids, titulos, editoriales, notas);
 	}
 	
 	/**
@@ -100,11 +573,74 @@ public class DaoLibro {
 	 */
 	public Libro delete(int id) {
 		
-		int position = libros.indexOf(new Libro(id));
+		EventoDao evento = EventoDao.empezar();
+		CargaInstantanea carga = cargaPendiente;
+		Libro l = carga != null ? carga.borrar(id) : borrar(id);
+		evento.terminar("delete", id, 1, l != null ? 1 : 0);
+		return l;
+	}
+	
+	private Libro borrar(int id) {
+		
+		ParticionLibros particion = particion(id);
+		particion.getCerrojo().writeLock().lock();
+		try {
+			Libro l = indicePorId.get(id);
+			if (l == null) {
+				return null;
+			}
+			particion.remove(l);
+			desindexar(l);
+			return l;
+		} finally {
+			particion.getCerrojo().writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Metodo que borra un lote de libros de una sola vez, pensado para los
+	 * borrados masivos. Los cerrojos de las particiones se cogen una sola vez
+	 * para todo el lote y cada particion se compacta de una pasada
+	 * @param ids los ids de los libros a borrar, los que no existen se ignoran
+	 * @return el numero de libros borrados
+	 */
+	public int deleteAll(Collection<Integer> ids) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		int borrados = borrarLote(ids);
+		evento.terminar("deleteAll", EventoDao.SIN_ID, ids.size(), borrados);
+		return borrados;
+	}
+	
+	private int borrarLote(Collection<Integer> ids) {
+		
+		for (ParticionLibros particion : particiones) {
+			particion.getCerrojo().writeLock().lock();
+		}
 		try {
-			return libros.remove(position);
-		} catch (IndexOutOfBoundsException e) {
-			return null;
+			List<Set<Libro>> porParticion = new ArrayList<Set<Libro>>(particiones.length);
+			for (int i = 0; i < particiones.length; i++) {
+				porParticion.add(Collections.newSetFromMap(new IdentityHashMap<Libro, Boolean>()));
+			}
+			List<Libro> borrados = new ArrayList<Libro>(ids.size());
+			for (Integer id : ids) {
+				Libro l = id == null ? null : indicePorId.get(id);
+				if (l != null && porParticion.get(indiceParticion(id)).add(l)) {
+					borrados.add(l);
+				}
+			}
+			for (int i = 0; i < particiones.length; i++) {
+				if (!porParticion.get(i).isEmpty()) {
+					particiones[i].quitar(porParticion.get(i));
+				}
+			}
+			borrados.forEach(this::desindexar);
+			return borrados.size();
+		} finally {
+			for (int i = particiones.length - 1; i >= 0; i--) {
+				particiones[i].getCerrojo().writeLock().unlock();
+			}
 		}
 	}
 	
@@ -117,15 +653,38 @@ public class DaoLibro {
 	 */
 	public Libro update(Libro l) {
 		
+		EventoDao evento = EventoDao.empezar();
+		CargaInstantanea carga = cargaPendiente;
+		Libro lAux = carga != null ? carga.modificar(l) : modificar(l);
+		evento.terminar("update", l.getId(), 1, lAux != null ? 1 : 0);
+		return lAux;
+	}
+	
+	private Libro modificar(Libro l) {
+		
+		ParticionLibros particion = particion(l.getId());
+		particion.getCerrojo().writeLock().lock();
 		try {
-			int position = libros.indexOf(new Libro(l.getId()));
-			Libro lAux = libros.get(position);
-			lAux.setTitulo(l.getTitulo());
-			lAux.setEditorial(l.getEditorial());
-			lAux.setNota(l.getNota());
-			return lAux;
-		} catch (IndexOutOfBoundsException iobe) {
-			return null;
+			Libro lAux = indicePorId.get(l.getId());
+			if (lAux == null) {
+				return null;
+			}
+			//El libro que ya esta en el catalogo no se toca, porque otras
+			//peticiones pueden estar leyendolo: se sustituye por uno nuevo con
+			//un solo put, asi nunca falta del indice por id ni se ve a medias
+			Libro nuevo = new Libro(lAux.getId(), l.getTitulo(), l.getEditorial(), l.getNota());
+			particion.reemplazar(lAux, nuevo);
+			indicePorId.put(nuevo.getId(), nuevo);
+			if (!claveTitulo(lAux.getTitulo()).equals(claveTitulo(nuevo.getTitulo()))) {
+				//Al modificar no se comprueba que el titulo nuevo este libre,
+				//por eso se cuentan
+				titulos.merge(claveTitulo(nuevo.getTitulo()), 1, Integer::sum);
+				restarTitulo(lAux.getTitulo());
+			}
+			reindexarSecundarios(lAux, nuevo);
+			return nuevo;
+		} finally {
+			particion.getCerrojo().writeLock().unlock();
 		}
 		/*
 		int position = libros.indexOf(l);
@@ -155,27 +714,527 @@ public class DaoLibro {
 	 */
 	public List<Libro> listByTitulo(String titulo){
 		
+		return listFiltrado(titulo, null);
+	}
+	
+	/**
+	 * Metodo que devuelve todos los libros cuya editorial contiene el texto
+	 * buscado, sin distinguir mayusculas
+	 * @param editorial el texto a buscar en la editorial
+	 * @return una lista con los libros coincidentes en orden de insercion
+	 */
+	public List<Libro> listByEditorial(String editorial){
+		
+		return listFiltrado(null, editorial);
+	}
+	
+	/**
+	 * Metodo que devuelve los libros que contienen los textos buscados en el
+	 * titulo y en la editorial. Se recorren todas las particiones en paralelo
+	 * y los resultados se devuelven en orden de insercion
+	 * @param titulo el texto a buscar en el titulo, null para no filtrar
+	 * @param editorial el texto a buscar en la editorial, null para no filtrar
+	 * @return una lista con los libros coincidentes
+	 */
+	public List<Libro> listFiltrado(String titulo, String editorial){
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		List<Libro> librosAux = ParticionLibros.recorrer(particiones, filtroTexto(titulo, editorial), hilosRecorrido);
+		evento.terminar("listFiltrado", EventoDao.SIN_ID, contadores.getTotal(), librosAux.size());
+		return librosAux;
+	}
+	
+	/**
+	 * Metodo que devuelve los libros cuyo titulo se parece al texto buscado,
+	 * tolerando errores de escritura. Se resuelve con el trie de palabras de los titulos,
+	 * sin comparar el texto con todos los titulos del catalogo.
+	 * @param titulo las palabras buscadas, por ejemplo "Jva Saga"
+	 * @param distanciaMaxima numero maximo de letras cambiadas, añadidas o
+	 * quitadas que se toleran en cada palabra
+	 * @param limite numero maximo de libros a devolver
+	 * @return una lista con los libros coincidentes, los mas parecidos primero.
+	 * La lista estará vacia en caso de que no hay coincidencias
+	 */
+	public List<Libro> listByTituloAproximado(String titulo, int distanciaMaxima, int limite) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
 		List<Libro> librosAux = new ArrayList<Libro>();
-		for(Libro l : libros) {
-			if(l.getTitulo().toLowerCase().contains(titulo.toLowerCase())) {//contains()
+		List<Integer> ids = trieTitulos.buscarAproximado(titulo, distanciaMaxima, limite);
+		for (Integer id : ids) {
+			Libro l = indicePorId.get(id);
+			if (l != null) {
 				librosAux.add(l);
 			}
 		}
+		evento.terminar("listByTituloAproximado", EventoDao.SIN_ID, ids.size(), librosAux.size());
 		return librosAux;
 	}
 	
+	/**
+	 * Metodo que devuelve sugerencias de titulos para autocompletar lo que
+	 * el usuario lleva escrito. Se resuelve bajando por el prefijo en el trie
+	 * de palabras de los titulos, sin recorrer el catalogo.
+	 * @param prefijo lo que el usuario lleva escrito, la ultima palabra
+	 * puede estar incompleta
+	 * @param limite numero maximo de sugerencias
+	 * @return una lista con el id y el titulo de los libros sugeridos
+	 */
+	public List<Sugerencia> sugerencias(String prefijo, int limite) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		List<Sugerencia> sugerencias = new ArrayList<Sugerencia>();
+		List<Integer> ids = trieTitulos.buscarPorPrefijo(prefijo, limite);
+		for (Integer id : ids) {
+			Libro l = indicePorId.get(id);
+			if (l != null) {
+				sugerencias.add(new Sugerencia(l.getId(), l.getTitulo()));
+			}
+		}
+		evento.terminar("sugerencias", EventoDao.SIN_ID, ids.size(), sugerencias.size());
+		return sugerencias;
+	}
+	
+	/**
+	 * Metodo que hace una busqueda de texto completo por relevancia en el
+	 * titulo, la editorial y la nota de los libros. Se resuelve con el indice
+	 * invertido, sin puntuar todos los libros del catalogo.
+	 * @param texto las palabras buscadas, da igual mayusculas y acentos
+	 * @param limite numero maximo de resultados
+	 * @return los libros mas relevantes con su puntuacion, de mayor a menor
+	 */
+	public List<ResultadoBusqueda> buscar(String texto, int limite) {
+		
+		EventoDao evento = EventoDao.empezar();
+		asegurarCargado();
+		List<ResultadoBusqueda> resultados = new ArrayList<ResultadoBusqueda>();
+		List<IndiceTextoCompleto.Puntuacion> puntuaciones = indiceTextoCompleto.buscar(texto, limite);
+		for (IndiceTextoCompleto.Puntuacion p : puntuaciones) {
+			Libro l = indicePorId.get(p.getId());
+			if (l != null) {
+				resultados.add(new ResultadoBusqueda(l, p.getValor()));
+			}
+		}
+		evento.terminar("buscar", EventoDao.SIN_ID, puntuaciones.size(), resultados.size());
+		return resultados;
+	}
+	
     /**
-     * Verifica si el libro ya existe en la lista por título
+     * Si todavia se esta cargando la instantanea, espera a que esten
+     * construidos la lista y los indices. Se espera a la carga, no a un
+     * cerrojo del DAO, asi que las consultas por id y las escrituras siguen
+     * mientras tanto
+     */
+    private void asegurarCargado() {
+    	CargaInstantanea carga = cargaPendiente;
+    	if (carga == null) {
+    		return;
+    	}
+    	iniciarCarga(carga);
+    	carga.cargada.join();
+    }
+    
+    private void iniciarCarga(CargaInstantanea carga) {
+    	if (carga.iniciada.compareAndSet(false, true)) {
+    		Thread hilo = new Thread(() -> cargar(carga), "carga-instantanea");
+    		hilo.setDaemon(true);
+    		hilo.start();
+    	}
+    }
+    
+    /**
+     * Construye la lista y los indices a partir de la instantanea. Primero se
+     * cuentan los titulos, que es lo unico que necesitan las escrituras para
+     * ir guardandose en los cambios pendientes; luego se cargan los libros
+     * por lotes y al final se aplican los cambios que se han hecho mientras
+     * tanto, con las escrituras paradas solo durante ese ultimo paso
+     */
+    private void cargar(CargaInstantanea carga) {
+    	try {
+    		long inicio = System.nanoTime();
+    		carga.instantanea.recorrer(l -> titulos.merge(claveTitulo(l.getTitulo()), 1, Integer::sum));
+    		carga.titulosContados.complete(null);
+    		
+    		List<Libro> lote = new ArrayList<Libro>(TAMANO_LOTE_INSTANTANEA);
+    		carga.instantanea.recorrer(l -> {
+    			lote.add(l);
+    			if (lote.size() == TAMANO_LOTE_INSTANTANEA) {
+    				cargarLote(lote, carga);
+    				lote.clear();
+    			}
+    		});
+    		cargarLote(lote, carga);
+    		
+    		int cambios;
+    		carga.cerrojo.writeLock().lock();
+    		try {
+    			List<Map.Entry<Integer, Cambio>> pendientes = new ArrayList<Map.Entry<Integer, Cambio>>(carga.cambios.entrySet());
+    			pendientes.sort((a, b) -> Long.compare(a.getValue().orden, b.getValue().orden));
+    			for (Map.Entry<Integer, Cambio> cambio : pendientes) {
+    				aplicarCambio(cambio.getKey(), cambio.getValue().libro);
+    			}
+    			cambios = pendientes.size();
+    			cargaPendiente = null;
+    		} finally {
+    			carga.cerrojo.writeLock().unlock();
+    		}
+    		carga.cargada.complete(null);
+    		System.out.println("DaoLibro -> Indices construidos desde la instantanea con " + indicePorId.size()
+    				+ " libros y " + cambios + " cambios pendientes en " + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+    	} catch (RuntimeException e) {
+    		System.out.println("DaoLibro -> No se ha podido cargar la instantanea: " + e.getMessage());
+    		carga.titulosContados.completeExceptionally(e);
+    		carga.cargada.completeExceptionally(e);
+    	}
+    }
+    
+    /**
+     * Deja el libro con ese id como quedo en los cambios pendientes, haya
+     * llegado a cargarse o no. Los titulos ya se contaron al hacer el cambio
+     * @param libro el libro como esta ahora, null si se ha borrado
+     */
+    private void aplicarCambio(int id, Libro libro) {
+    	ParticionLibros particion = particion(id);
+    	particion.getCerrojo().writeLock().lock();
+    	try {
+    		Libro cargado = indicePorId.get(id);
+    		if (cargado == libro) {
+    			return;
+    		}
+    		if (libro == null) {
+    			particion.remove(cargado);
+    			indicePorId.remove(id);
+    			desindexarSecundarios(cargado);
+    		} else if (cargado == null) {
+    			particion.add(secuencia.incrementAndGet(), libro);
+    			indicePorId.put(id, libro);
+    			indexarSecundarios(libro);
+    		} else {
+    			particion.reemplazar(cargado, libro);
+    			indicePorId.put(id, libro);
+    			reindexarSecundarios(cargado, libro);
+    		}
+    	} finally {
+    		particion.getCerrojo().writeLock().unlock();
+    	}
+    }
+    
+    /**
+     * Reserva el titulo y el id del libro de forma atomica, de manera que de
+     * dos altas simultaneas con el mismo titulo o id solo prospere una
      * @param libro el libro a verificar
-     * @return true si el libro ya existe, false en caso contrario
+     * @return true si se ha reservado, false si el titulo o el id ya existian
      */
-    private boolean tituloLibroExiste(Libro libro) {
-        for (Libro l : libros) {
-            if (l.getTitulo().equals(libro.getTitulo())) {
-                return true;
-            }
-        }
-        return false;
+    private boolean reservar(Libro libro) {
+    	String titulo = claveTitulo(libro.getTitulo());
+    	if (titulos.putIfAbsent(titulo, 1) != null) {
+    		return false;
+    	}
+    	if (indicePorId.putIfAbsent(libro.getId(), libro) != null) {
+    		restarTitulo(libro.getTitulo());
+    		return false;
+    	}
+    	return true;
+    }
+    
+    //El mapa concurrente no admite claves null
+    private static String claveTitulo(String titulo) {
+    	return titulo == null ? "" : titulo;
+    }
+    
+    private ParticionLibros particion(int id) {
+    	return particiones[indiceParticion(id)];
+    }
+    
+    private int indiceParticion(int id) {
+    	//Los ids suelen ser consecutivos, asi que el hash del id los reparte
+    	//por igual entre las particiones
+    	return Math.floorMod(Integer.hashCode(id), particiones.length);
+    }
+    
+    //Filtro de "contiene" sin distinguir mayusculas, null si no hay que filtrar
+    private static Predicate<Libro> filtroTexto(String titulo, String editorial) {
+    	if (titulo == null && editorial == null) {
+    		return null;
+    	}
+    	String tituloMinusculas = titulo == null ? null : titulo.toLowerCase();
+    	String editorialMinusculas = editorial == null ? null : editorial.toLowerCase();
+    	return l -> (tituloMinusculas == null
+    				|| l.getTitulo() != null && l.getTitulo().toLowerCase().contains(tituloMinusculas))
+    			&& (editorialMinusculas == null
+    				|| l.getEditorial() != null && l.getEditorial().toLowerCase().contains(editorialMinusculas));
+    }
+    
+    private NavigableMap<Integer, Libro> rangoPorId(Integer desde, Integer hasta) {
+    	NavigableMap<Integer, Libro> rango = indicePorId;
+    	if (desde != null) {
+    		rango = rango.tailMap(desde, true);
+    	}
+    	if (hasta != null) {
+    		rango = rango.headMap(hasta, true);
+    	}
+    	return rango;
+    }
+    
+    private void indexarSecundarios(Libro l) {
+    	indexarOrden(l);
+    	trieTitulos.insertar(l.getTitulo(), l.getId());
+    	indiceTextoCompleto.insertar(l.getId(), l.getTitulo(), l.getEditorial(), l.getNota());
+    }
+    
+    private void indexarOrden(Libro l) {
+    	indicePorTitulo.put(new ClaveOrden(l.getTitulo(), l.getId()), l);
+    	indicePorEditorial.put(new ClaveOrden(l.getEditorial(), l.getId()), l);
+    	contadores.sumar(l.getTitulo(), l.getEditorial());
+    }
+    
+    /**
+     * Quita el libro de todos los indices
+     */
+    private void desindexar(Libro l) {
+    	indicePorId.remove(l.getId());
+    	restarTitulo(l.getTitulo());
+    	desindexarSecundarios(l);
+    }
+    
+    private void restarTitulo(String titulo) {
+    	titulos.computeIfPresent(claveTitulo(titulo), (t, n) -> n > 1 ? n - 1 : null);
+    }
+    
+    /**
+     * Pasa los indices secundarios del libro viejo al nuevo, que tiene el
+     * mismo id. Las claves que no cambian solo cambian de valor, y las que
+     * cambian se ponen antes de quitar las viejas, para que un recorrido
+     * del indice no se salte el libro
+     */
+    private void reindexarSecundarios(Libro viejo, Libro nuevo) {
+    	int id = nuevo.getId();
+    	ClaveOrden tituloViejo = new ClaveOrden(viejo.getTitulo(), id);
+    	ClaveOrden tituloNuevo = new ClaveOrden(nuevo.getTitulo(), id);
+    	indicePorTitulo.put(tituloNuevo, nuevo);
+    	if (!tituloNuevo.equals(tituloViejo)) {
+    		indicePorTitulo.remove(tituloViejo);
+    	}
+    	ClaveOrden editorialVieja = new ClaveOrden(viejo.getEditorial(), id);
+    	ClaveOrden editorialNueva = new ClaveOrden(nuevo.getEditorial(), id);
+    	indicePorEditorial.put(editorialNueva, nuevo);
+    	if (!editorialNueva.equals(editorialVieja)) {
+    		indicePorEditorial.remove(editorialVieja);
+    	}
+    	boolean mismoTitulo = Objects.equals(viejo.getTitulo(), nuevo.getTitulo());
+    	boolean mismaEditorial = Objects.equals(viejo.getEditorial(), nuevo.getEditorial());
+    	if (!mismoTitulo || !mismaEditorial) {
+    		contadores.sumar(nuevo.getTitulo(), nuevo.getEditorial());
+    		contadores.restar(viejo.getTitulo(), viejo.getEditorial());
+    	}
+    	if (!mismoTitulo) {
+    		trieTitulos.eliminar(viejo.getTitulo(), id);
+    		trieTitulos.insertar(nuevo.getTitulo(), id);
+    	}
+    	if (!mismoTitulo || !mismaEditorial || !Objects.equals(viejo.getNota(), nuevo.getNota())) {
+    		indiceTextoCompleto.eliminar(id, viejo.getTitulo(), viejo.getEditorial(), viejo.getNota());
+    		indiceTextoCompleto.insertar(id, nuevo.getTitulo(), nuevo.getEditorial(), nuevo.getNota());
+    	}
+    }
+    
+    private void desindexarSecundarios(Libro l) {
+    	indicePorTitulo.remove(new ClaveOrden(l.getTitulo(), l.getId()));
+    	indicePorEditorial.remove(new ClaveOrden(l.getEditorial(), l.getId()));
+    	contadores.restar(l.getTitulo(), l.getEditorial());
+    	trieTitulos.eliminar(l.getTitulo(), l.getId());
+    	indiceTextoCompleto.eliminar(l.getId(), l.getTitulo(), l.getEditorial(), l.getNota());
+    }
+    
+    /**
+     * Iterador de iterarPorTrozos. Guarda la particion por la que va y la
+     * secuencia del ultimo libro copiado, para seguir desde ahi aunque entre
+     * un trozo y otro se hayan borrado libros
+     */
+    private final class IteradorPorTrozos implements Iterator<Libro> {
+    	
+    	private final List<Libro> trozo = new ArrayList<Libro>(TAMANO_TROZO);
+    	private int posicion;
+    	private int particion;
+    	private long ultimaSecuencia;
+    	
+    	@Override
+    	public boolean hasNext() {
+    		while (posicion == trozo.size() && particion < particiones.length) {
+    			trozo.clear();
+    			posicion = 0;
+    			ultimaSecuencia = particiones[particion].copiarDesde(ultimaSecuencia, TAMANO_TROZO, trozo);
+    			if (trozo.size() < TAMANO_TROZO) {
+    				particion++;
+    				ultimaSecuencia = 0;
+    			}
+    		}
+    		return posicion < trozo.size();
+    	}
+    	
+    	@Override
+    	public Libro next() {
+    		if (!hasNext()) {
+    			throw new NoSuchElementException();
+    		}
+    		return trozo.get(posicion++);
+    	}
+    }
+    
+    /**
+     * La instantanea mientras se esta cargando, con los cambios por id que se
+     * hacen entretanto. Las escrituras se comprueban contra la instantanea y
+     * los cambios ya hechos, y se cuentan los titulos igual que si se
+     * hicieran en el DAO, para detectar titulos repetidos
+     */
+    private final class CargaInstantanea {
+    	
+    	private final InstantaneaCatalogo instantanea;
+    	private final ConcurrentHashMap<Integer, Cambio> cambios = new ConcurrentHashMap<Integer, Cambio>();
+    	private final AtomicLong orden = new AtomicLong();
+    	//Las escrituras lo cogen para leer y el final de la carga para escribir,
+    	//asi ningun cambio se queda sin aplicar
+    	private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+    	private final AtomicBoolean iniciada = new AtomicBoolean();
+    	private final CompletableFuture<Void> titulosContados = new CompletableFuture<Void>();
+    	private final CompletableFuture<Void> cargada = new CompletableFuture<Void>();
+    	
+    	CargaInstantanea(InstantaneaCatalogo instantanea) {
+    		this.instantanea = instantanea;
+    	}
+    	
+    	Libro leer(int id) {
+    		Cambio cambio = cambios.get(id);
+    		return cambio != null ? cambio.libro : instantanea.leer(id);
+    	}
+    	
+    	int anadir(Libro l) {
+    		if (!empezarEscritura()) {
+    			return DaoLibro.this.anadir(l);
+    		}
+    		try {
+    			int[] resultado = { -1 };
+    			cambios.compute(l.getId(), (id, cambio) -> {
+    				Libro actual = cambio != null ? cambio.libro : instantanea.leer(id);
+    				if (actual != null || titulos.putIfAbsent(claveTitulo(l.getTitulo()), 1) != null) {
+    					return cambio;
+    				}
+    				resultado[0] = 1;
+    				return new Cambio(cambio != null ? cambio.orden : orden.incrementAndGet(), l);
+    			});
+    			return resultado[0];
+    		} finally {
+    			cerrojo.readLock().unlock();
+    		}
+    	}
+    	
+    	Libro borrar(int id) {
+    		if (!empezarEscritura()) {
+    			return DaoLibro.this.borrar(id);
+    		}
+    		try {
+    			Libro[] borrado = { null };
+    			cambios.compute(id, (k, cambio) -> {
+    				Libro actual = cambio != null ? cambio.libro : instantanea.leer(k);
+    				if (actual == null) {
+    					return cambio;
+    				}
+    				restarTitulo(actual.getTitulo());
+    				borrado[0] = actual;
+    				return new Cambio(cambio != null ? cambio.orden : orden.incrementAndGet(), null);
+    			});
+    			return borrado[0];
+    		} finally {
+    			cerrojo.readLock().unlock();
+    		}
+    	}
+    	
+    	Libro modificar(Libro l) {
+    		if (!empezarEscritura()) {
+    			return DaoLibro.this.modificar(l);
+    		}
+    		try {
+    			Libro[] modificado = { null };
+    			cambios.compute(l.getId(), (id, cambio) -> {
+    				Libro actual = cambio != null ? cambio.libro : instantanea.leer(id);
+    				if (actual == null) {
+    					return cambio;
+    				}
+    				restarTitulo(actual.getTitulo());
+    				titulos.merge(claveTitulo(l.getTitulo()), 1, Integer::sum);
+    				modificado[0] = new Libro(id, l.getTitulo(), l.getEditorial(), l.getNota());
+    				return new Cambio(cambio != null ? cambio.orden : orden.incrementAndGet(), modificado[0]);
+    			});
+    			return modificado[0];
+    		} finally {
+    			cerrojo.readLock().unlock();
+    		}
+    	}
+    	
+    	/**
+    	 * Espera a que esten contados los titulos y coge el cerrojo de lectura
+    	 * @return true si hay que guardar la escritura en los cambios, con el
+    	 * cerrojo cogido; false si la carga ya ha terminado y hay que hacerla
+    	 * directamente en el DAO
+    	 */
+    	private boolean empezarEscritura() {
+    		iniciarCarga(this);
+    		titulosContados.join();
+    		cerrojo.readLock().lock();
+    		if (cargaPendiente == this) {
+    			return true;
+    		}
+    		cerrojo.readLock().unlock();
+    		return false;
+    	}
+    }
+    
+    /**
+     * Un cambio pendiente sobre un id: como queda el libro (null si se ha
+     * borrado) y el orden del primer cambio, para dar de alta los libros
+     * nuevos en el mismo orden en que llegaron
+     */
+    private static final class Cambio {
+    	
+    	private final long orden;
+    	private final Libro libro;
+    	
+    	Cambio(long orden, Libro libro) {
+    		this.orden = orden;
+    		this.libro = libro;
+    	}
+    }
+    
+    /**
+     * Clave de los indices ordenados por texto. Se ordena por el texto sin
+     * distinguir mayusculas y, a igualdad de texto, por id, de manera que dos
+     * libros con la misma editorial no se pisen en el indice.
+     */
+    private static final class ClaveOrden implements Comparable<ClaveOrden> {
+    	
+    	private final String texto;
+    	private final int id;
+    	
+    	ClaveOrden(String texto, int id) {
+    		this.texto = texto == null ? "" : texto.toLowerCase();
+    		this.id = id;
+    	}
+    	
+    	@Override
+    	public int compareTo(ClaveOrden otra) {
+    		int c = texto.compareTo(otra.texto);
+    		return c != 0 ? c : Integer.compare(id, otra.id);
+    	}
+    	
+    	@Override
+    	public boolean equals(Object obj) {
+    		return obj instanceof ClaveOrden && compareTo((ClaveOrden) obj) == 0;
+    	}
+    	
+    	@Override
+    	public int hashCode() {
+    		return 31 * texto.hashCode() + id;
+    	}
     }
 }
-
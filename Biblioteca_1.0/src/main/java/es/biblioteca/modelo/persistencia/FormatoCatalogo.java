@@ -0,0 +1,49 @@
+package es.biblioteca.modelo.persistencia;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Formatos de fichero admitidos en la importacion y exportacion masiva del
+ * catalogo. En ambos casos hay un libro por linea, lo que permite trocear
+ * el fichero y procesar los trozos en paralelo.
+ */
+public enum FormatoCatalogo {
+	
+	/** id,titulo,editorial,nota con comillas dobles si hace falta */
+	CSV("text/csv"),
+	/** Un objeto JSON por linea (JSON Lines) */
+	NDJSON("application/x-ndjson");
+	
+	private final MediaType tipo;
+	
+	private FormatoCatalogo(String tipo) {
+		this.tipo = MediaType.parseMediaType(tipo);
+	}
+	
+	public MediaType getTipo() {
+		return tipo;
+	}
+	
+	/**
+	 * @param nombre "csv" o "ndjson", sin distinguir mayusculas
+	 * @return el formato correspondiente
+	 * @throws IllegalArgumentException si el formato no existe
+	 */
+	public static FormatoCatalogo desdeNombre(String nombre) {
+		return valueOf(nombre.trim().toUpperCase());
+	}
+	
+	/**
+	 * @param tipo el Content-Type de la peticion
+	 * @return el formato correspondiente
+	 * @throws IllegalArgumentException si el tipo no es de ningun formato
+	 */
+	public static FormatoCatalogo desdeTipo(MediaType tipo) {
+		for (FormatoCatalogo f : values()) {
+			if (f.tipo.isCompatibleWith(tipo)) {
+				return f;
+			}
+		}
+		throw new IllegalArgumentException("tipo no soportado " + tipo);
+	}
+}
@@ -0,0 +1,216 @@
+package es.biblioteca.modelo.persistencia;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import es.biblioteca.modelo.entidad.Libro;
+
+/**
+ * Instantanea del catalogo en un fichero binario de solo lectura pensado para
+ * abrirse con memoria mapeada. Abrirla no lee los libros: el sistema operativo
+ * va trayendo a memoria las paginas del fichero segun se consultan, por lo que
+ * el tiempo de apertura no depende del tamaño del catalogo.
+ *
+ * Formato del fichero (enteros en big endian):
+ * <pre>
+ * cabecera:  "BIBL" | version (int) | numero de libros (int) | posicion de la tabla de ids (long)
+ * registros: id (int) | titulo | editorial | nota, en orden de insercion
+ *            (cada texto es su longitud en bytes UTF-8, -1 si es null, y los bytes)
+ * tabla:     id (int) | posicion del registro (long), ordenada por id
+ * </pre>
+ *
+ * Buscar un libro por id es una busqueda binaria en la tabla y leer un solo
+ * registro. Las lecturas usan posiciones absolutas sobre el buffer, sin
+ * cambiar su estado, asi que se pueden hacer desde varios hilos a la vez.
+ * Como un MappedByteBuffer no puede pasar de 2GB, tampoco la instantanea.
+ */
+public class InstantaneaCatalogo {
+
+	private static final int MAGICO = 0x4249424C;
+	private static final int VERSION = 1;
+	private static final int TAMANO_CABECERA = 20;
+	private static final int TAMANO_ENTRADA_TABLA = 12;
+
+	private final Path fichero;
+	private final ByteBuffer datos;
+	private final int numeroLibros;
+	private final int posicionTabla;
+
+	private InstantaneaCatalogo(Path fichero, ByteBuffer datos) throws IOException {
+		this.fichero = fichero;
+		this.datos = datos;
+		if (datos.capacity() < TAMANO_CABECERA || datos.getInt(0) != MAGICO) {
+			throw new IOException(fichero + " no es una instantanea del catalogo");
+		}
+		if (datos.getInt(4) != VERSION) {
+			throw new IOException(fichero + " tiene una version de instantanea no soportada: " + datos.getInt(4));
+		}
+		this.numeroLibros = datos.getInt(8);
+		long tabla = datos.getLong(12);
+		if (tabla + (long) numeroLibros * TAMANO_ENTRADA_TABLA != datos.capacity()) {
+			throw new IOException(fichero + " esta truncado o corrupto");
+		}
+		this.posicionTabla = (int) tabla;
+	}
+
+	/**
+	 * Mapea el fichero en memoria sin leer su contenido
+	 * @param fichero la instantanea a abrir
+	 * @return la instantanea lista para consultar
+	 */
+	public static InstantaneaCatalogo abrir(Path fichero) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+			if (canal.size() > Integer.MAX_VALUE) {
+				throw new IOException(fichero + " ocupa mas de 2GB y no se puede mapear");
+			}
+			//El mapeo sigue siendo valido despues de cerrar el canal
+			MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+			return new InstantaneaCatalogo(fichero, datos);
+		}
+	}
+
+	/**
+	 * Escribe una instantanea con los libros dados. Se escribe primero en un
+	 * fichero temporal que luego se renombra, de manera que nunca queda una
+	 * instantanea a medias, ni siquiera si hay otra abierta sobre el mismo fichero
+	 * @param fichero donde escribir la instantanea, se sobrescribe
+	 * @param libros los libros, en orden de insercion y con ids distintos
+	 * @return el tamaño del fichero en bytes
+	 */
+	public static long escribir(Path fichero, List<Libro> libros) throws IOException {
+
+		int n = libros.size();
+		long[] entradas = new long[n];
+		//Un temporal distinto en cada escritura, en el mismo directorio para
+		//que el renombrado sea atomico
+		Path temporal = fichero.resolveSibling(fichero.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			long posicion;
+			try (DataOutputStream salida = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+				salida.writeInt(MAGICO);
+				salida.writeInt(VERSION);
+				salida.writeInt(n);
+				salida.writeLong(0);
+				for (int i = 0; i < n; i++) {
+					Libro l = libros.get(i);
+					//id en los 32 bits altos y posicion del registro en los bajos,
+					//asi ordenar los long es ordenar por id
+					entradas[i] = ((long) l.getId() << 32) | salida.size();
+					salida.writeInt(l.getId());
+					escribirTexto(salida, l.getTitulo());
+					escribirTexto(salida, l.getEditorial());
+					escribirTexto(salida, l.getNota());
+				}
+				//DataOutputStream cuenta los bytes en un int, que se queda en
+				//Integer.MAX_VALUE al pasar de 2GB
+				posicion = salida.size();
+				if (posicion + (long) n * TAMANO_ENTRADA_TABLA > Integer.MAX_VALUE) {
+					throw new IOException("el catalogo no cabe en una instantanea de 2GB");
+				}
+				Arrays.sort(entradas);
+				for (long entrada : entradas) {
+					salida.writeInt((int) (entrada >> 32));
+					salida.writeLong(entrada & 0xFFFFFFFFL);
+				}
+			}
+			try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+				ByteBuffer tabla = ByteBuffer.allocate(8).putLong(0, posicion);
+				canal.write(tabla, 12);
+				canal.force(true);
+			}
+			Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return Files.size(fichero);
+		} finally {
+			//Si algo ha fallado no se deja el temporal; si no, ya se ha renombrado
+			Files.deleteIfExists(temporal);
+		}
+	}
+
+	/**
+	 * @param id el id del libro
+	 * @return un libro nuevo leido de la instantanea, null si no esta
+	 */
+	public Libro leer(int id) {
+		int inicio = 0;
+		int fin = numeroLibros - 1;
+		while (inicio <= fin) {
+			int medio = (inicio + fin) >>> 1;
+			int entrada = posicionTabla + medio * TAMANO_ENTRADA_TABLA;
+			int idMedio = datos.getInt(entrada);
+			if (idMedio < id) {
+				inicio = medio + 1;
+			} else if (idMedio > id) {
+				fin = medio - 1;
+			} else {
+				return leerRegistro((int) datos.getLong(entrada + 4), null);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Recorre todos los libros en el orden en que se guardaron
+	 * @param accion lo que hacer con cada libro
+	 */
+	public void recorrer(Consumer<Libro> accion) {
+		int[] posicion = { TAMANO_CABECERA };
+		for (int i = 0; i < numeroLibros; i++) {
+			accion.accept(leerRegistro(posicion[0], posicion));
+		}
+	}
+
+	public int getNumeroLibros() {
+		return numeroLibros;
+	}
+
+	public Path getFichero() {
+		return fichero;
+	}
+
+	//Lee el registro que empieza en la posicion dada. Si se pasa siguiente,
+	//se deja en siguiente[0] la posicion del registro que va detras
+	private Libro leerRegistro(int posicion, int[] siguiente) {
+		int[] cursor = { posicion + 4 };
+		Libro l = new Libro(datos.getInt(posicion), leerTexto(cursor), leerTexto(cursor), leerTexto(cursor));
+		if (siguiente != null) {
+			siguiente[0] = cursor[0];
+		}
+		return l;
+	}
+
+	private String leerTexto(int[] cursor) {
+		int longitud = datos.getInt(cursor[0]);
+		cursor[0] += 4;
+		if (longitud < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[longitud];
+		datos.get(cursor[0], bytes);
+		cursor[0] += longitud;
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void escribirTexto(DataOutputStream salida, String texto) throws IOException {
+		if (texto == null) {
+			salida.writeInt(-1);
+			return;
+		}
+		byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+		salida.writeInt(bytes.length);
+		salida.write(bytes);
+	}
+}
@@ -0,0 +1,79 @@
+package es.biblioteca.modelo.persistencia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Lee un CSV registro a registro. Un campo entre comillas puede contener
+ * saltos de linea, asi que si una linea deja unas comillas abiertas se le
+ * juntan las siguientes hasta cerrarlas.
+ *
+ * Para que una comilla suelta no acabe juntando el resto del fichero en un
+ * solo String, un registro puede ocupar como mucho MAXIMO_LINEAS lineas y
+ * MAXIMO_CARACTERES caracteres. Si se pasa, se devuelve solo su primera
+ * linea (que se rechazara por tener las comillas sin cerrar) y las lineas
+ * que se habian juntado se vuelven a leer como registros nuevos, de manera
+ * que solo se pierde el registro roto.
+ */
+class LectorRegistrosCsv {
+
+	static final int MAXIMO_LINEAS = 100;
+	static final int MAXIMO_CARACTERES = 1 << 20;
+
+	private final BufferedReader lector;
+	//Lineas leidas de mas que hay que devolver antes de seguir leyendo
+	private final Deque<String> devueltas = new ArrayDeque<String>();
+
+	LectorRegistrosCsv(BufferedReader lector) {
+		this.lector = lector;
+	}
+
+	/**
+	 * @return el siguiente registro, con sus saltos de linea si tiene campos
+	 * de varias lineas, o null al llegar al final
+	 */
+	String siguiente() throws IOException {
+
+		String linea = leerLinea();
+		if (linea == null || !comillasImpares(linea)) {
+			return linea;
+		}
+		List<String> juntadas = new ArrayList<String>();
+		StringBuilder registro = new StringBuilder(linea);
+		boolean abiertas = true;
+		String siguiente;
+		while (abiertas && juntadas.size() < MAXIMO_LINEAS - 1 && registro.length() <= MAXIMO_CARACTERES
+				&& (siguiente = leerLinea()) != null) {
+			juntadas.add(siguiente);
+			registro.append('\n').append(siguiente);
+			abiertas ^= comillasImpares(siguiente);
+		}
+		if (!abiertas) {
+			return registro.toString();
+		}
+		for (int i = juntadas.size() - 1; i >= 0; i--) {
+			devueltas.push(juntadas.get(i));
+		}
+		return linea;
+	}
+
+	private String leerLinea() throws IOException {
+		return devueltas.isEmpty() ? lector.readLine() : devueltas.pop();
+	}
+
+	//Las comillas escapadas ("") cuentan dos, asi que con un numero impar
+	//de comillas hay un campo abierto que sigue en la linea siguiente
+	private static boolean comillasImpares(String linea) {
+		int comillas = 0;
+		for (int i = 0; i < linea.length(); i++) {
+			if (linea.charAt(i) == '"') {
+				comillas++;
+			}
+		}
+		return comillas % 2 != 0;
+	}
+}
@@ -0,0 +1,12 @@
+package es.biblioteca.modelo.persistencia;
+
+/**
+ * Campos por los que se pueden pedir ordenados los listados de libros.
+ * Cada uno se corresponde con un indice ordenado de DaoLibro.
+ */
+public enum OrdenLibro {
+	
+	ID,
+	TITULO,
+	EDITORIAL
+}
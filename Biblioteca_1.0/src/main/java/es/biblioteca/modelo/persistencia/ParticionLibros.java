@@ -0,0 +1,328 @@
+package es.biblioteca.modelo.persistencia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import es.biblioteca.modelo.entidad.Libro;
+
+/**
+ * Una de las particiones en las que el DAO reparte los libros segun su id.
+ * Cada particion tiene su propio cerrojo, de manera que las escrituras en
+ * particiones distintas no se esperan entre si y los recorridos se pueden
+ * hacer en paralelo, una particion por hilo.
+ *
+ * Junto a cada libro se guarda el numero de secuencia global con el que se
+ * inserto. El DAO lo asigna con el cerrojo de la particion cogido, asi que
+ * dentro de cada particion los libros estan ordenados por secuencia y basta
+ * mezclar las particiones por ese numero para recuperar el orden de insercion
+ * de todo el catalogo.
+ */
+class ParticionLibros {
+
+	private final List<Libro> libros = new ArrayList<Libro>();
+	private long[] secuencias = new long[16];
+	private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+	ReentrantReadWriteLock getCerrojo() {
+		return cerrojo;
+	}
+
+	/**
+	 * Añade el libro al final. Hay que tener cogido el cerrojo de escritura
+	 * @param secuencia el numero de secuencia global del alta, mayor que el
+	 * de todos los libros de la particion
+	 */
+	void add(long secuencia, Libro l) {
+		int n = libros.size();
+		if (n == secuencias.length) {
+			secuencias = Arrays.copyOf(secuencias, n + (n >> 1) + 1);
+		}
+		secuencias[n] = secuencia;
+		libros.add(l);
+	}
+
+	/**
+	 * Quita el libro (el mismo objeto, no uno igual). Hay que tener cogido
+	 * el cerrojo de escritura
+	 * @return true si estaba en la particion
+	 */
+	boolean remove(Libro l) {
+		for (int i = libros.size() - 1; i >= 0; i--) {
+			if (libros.get(i) == l) {
+				libros.remove(i);
+				System.arraycopy(secuencias, i + 1, secuencias, i, libros.size() - i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copia en destino, en orden de insercion, hasta maximo libros de los
+	 * insertados despues de la secuencia indicada. Sirve para recorrer la
+	 * particion por trozos sin tener cogido el cerrojo entre uno y otro
+	 * @param despues la secuencia del ultimo libro ya copiado, 0 para empezar
+	 * @param maximo numero maximo de libros a copiar
+	 * @param destino donde añadir los libros
+	 * @return la secuencia del ultimo libro copiado, o despues si no habia mas
+	 */
+	long copiarDesde(long despues, int maximo, List<Libro> destino) {
+		cerrojo.readLock().lock();
+		try {
+			int n = libros.size();
+			int i = Arrays.binarySearch(secuencias, 0, n, despues);
+			i = i >= 0 ? i + 1 : -i - 1;
+			long ultima = despues;
+			for (int copiados = 0; i < n && copiados < maximo; i++, copiados++) {
+				destino.add(libros.get(i));
+				ultima = secuencias[i];
+			}
+			return ultima;
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Quita de una pasada todos los libros del conjunto (los mismos objetos,
+	 * no otros iguales), sin mover el resto de la lista una vez por libro.
+	 * Hay que tener cogido el cerrojo de escritura
+	 * @return cuantos libros se han quitado
+	 */
+	int quitar(Set<Libro> quitados) {
+		int n = libros.size();
+		int quedan = 0;
+		for (int i = 0; i < n; i++) {
+			Libro l = libros.get(i);
+			if (!quitados.contains(l)) {
+				libros.set(quedan, l);
+				secuencias[quedan++] = secuencias[i];
+			}
+		}
+		libros.subList(quedan, n).clear();
+		return n - quedan;
+	}
+
+	/**
+	 * Cambia un libro por otro en el mismo sitio y con la misma secuencia.
+	 * Hay que tener cogido el cerrojo de escritura
+	 * @return true si el libro viejo estaba en la particion
+	 */
+	boolean reemplazar(Libro viejo, Libro nuevo) {
+		for (int i = libros.size() - 1; i >= 0; i--) {
+			if (libros.get(i) == viejo) {
+				libros.set(i, nuevo);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//Los primeros maximo libros de esta particion que cumplen el filtro,
+	//con su secuencia
+	private Tramo filtrar(Predicate<Libro> filtro, int maximo) {
+		cerrojo.readLock().lock();
+		try {
+			int n = libros.size();
+			Tramo tramo = new Tramo(Math.min(maximo, filtro == null ? n : Math.min(n, 16)));
+			for (int i = 0; i < n && tramo.tamano < maximo; i++) {
+				Libro l = libros.get(i);
+				if (filtro == null || filtro.test(l)) {
+					tramo.add(secuencias[i], l);
+				}
+			}
+			return tramo;
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Recorre todas las particiones en paralelo con el pool indicado y
+	 * devuelve los libros que cumplen el filtro en orden de insercion. Si el
+	 * pool solo tiene un hilo (maquinas de un nucleo) se recorren en el hilo
+	 * que llama, ya que esperar al otro hilo cuesta mas que lo que se gana.
+	 *
+	 * Las tareas del recorrido se quedan esperando al cerrojo de lectura
+	 * mientras dura una carga masiva, asi que el pool tiene que ser solo para
+	 * recorridos: si fuera el comun podria llenarse de tareas esperando y
+	 * dejar sin hilos a quien tiene los cerrojos
+	 * @param particiones las particiones a recorrer
+	 * @param filtro el filtro a aplicar, null para devolver todos
+	 * @param hilos el pool de los recorridos, null para recorrer en el hilo
+	 * que llama
+	 * @return los libros en orden de insercion
+	 */
+	static List<Libro> recorrer(ParticionLibros[] particiones, Predicate<Libro> filtro, ForkJoinPool hilos) {
+		return recorrer(particiones, filtro, Integer.MAX_VALUE, hilos);
+	}
+
+	/**
+	 * Como recorrer, pero devuelve solo los primeros maximo libros en orden
+	 * de insercion. Cada particion deja de recorrerse en cuanto tiene maximo
+	 * libros que cumplen el filtro, y las mezclas tampoco pasan de maximo,
+	 * asi que el coste depende del maximo y no del tamaño del catalogo
+	 * @param particiones las particiones a recorrer
+	 * @param filtro el filtro a aplicar, null para devolver todos
+	 * @param maximo numero maximo de libros a devolver
+	 * @param hilos el pool de los recorridos, null para recorrer en el hilo
+	 * que llama
+	 * @return los primeros libros en orden de insercion
+	 */
+	static List<Libro> recorrer(ParticionLibros[] particiones, Predicate<Libro> filtro, int maximo,
+			ForkJoinPool hilos) {
+		boolean paralelo = enParalelo(particiones, hilos);
+		Recorrido recorrido = new Recorrido(particiones, 0, particiones.length, filtro, maximo, paralelo);
+		Tramo tramo = paralelo ? hilos.invoke(recorrido) : recorrido.compute();
+		return tramo.comoLista();
+	}
+
+	/**
+	 * Cuenta los libros de todas las particiones que cumplen el filtro, sin
+	 * copiarlos a ninguna lista. Se reparte igual que recorrer
+	 * @param particiones las particiones a recorrer
+	 * @param filtro el filtro a aplicar
+	 * @param hilos el pool de los recorridos, null para contar en el hilo
+	 * que llama
+	 * @return cuantos libros lo cumplen
+	 */
+	static long contar(ParticionLibros[] particiones, Predicate<Libro> filtro, ForkJoinPool hilos) {
+		if (!enParalelo(particiones, hilos)) {
+			long cuenta = 0;
+			for (ParticionLibros p : particiones) {
+				cuenta += p.contar(filtro);
+			}
+			return cuenta;
+		}
+		List<ForkJoinTask<Long>> cuentas = new ArrayList<ForkJoinTask<Long>>(particiones.length);
+		for (ParticionLibros p : particiones) {
+			cuentas.add(hilos.submit(() -> p.contar(filtro)));
+		}
+		long cuenta = 0;
+		for (ForkJoinTask<Long> c : cuentas) {
+			cuenta += c.join();
+		}
+		return cuenta;
+	}
+
+	private static boolean enParalelo(ParticionLibros[] particiones, ForkJoinPool hilos) {
+		return particiones.length > 1 && hilos != null && hilos.getParallelism() > 1;
+	}
+
+	//Libros de esta particion que cumplen el filtro
+	private long contar(Predicate<Libro> filtro) {
+		cerrojo.readLock().lock();
+		try {
+			long cuenta = 0;
+			for (Libro l : libros) {
+				if (filtro.test(l)) {
+					cuenta++;
+				}
+			}
+			return cuenta;
+		} finally {
+			cerrojo.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Tarea fork-join que divide el rango de particiones en dos mitades, las
+	 * recorre por separado y mezcla los dos resultados por secuencia
+	 */
+	private static final class Recorrido extends RecursiveTask<Tramo> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ParticionLibros[] particiones;
+		private final int desde;
+		private final int hasta;
+		private final Predicate<Libro> filtro;
+		private final int maximo;
+		private final boolean paralelo;
+
+		Recorrido(ParticionLibros[] particiones, int desde, int hasta, Predicate<Libro> filtro, int maximo,
+				boolean paralelo) {
+			this.particiones = particiones;
+			this.desde = desde;
+			this.hasta = hasta;
+			this.filtro = filtro;
+			this.maximo = maximo;
+			this.paralelo = paralelo;
+		}
+
+		@Override
+		protected Tramo compute() {
+			if (hasta - desde == 1) {
+				return particiones[desde].filtrar(filtro, maximo);
+			}
+			int medio = (desde + hasta) >>> 1;
+			Recorrido derecha = new Recorrido(particiones, medio, hasta, filtro, maximo, paralelo);
+			Recorrido izquierda = new Recorrido(particiones, desde, medio, filtro, maximo, paralelo);
+			if (!paralelo) {
+				return Tramo.mezclar(izquierda.compute(), derecha.compute(), maximo);
+			}
+			derecha.fork();
+			Tramo tramoIzquierda = izquierda.compute();
+			return Tramo.mezclar(tramoIzquierda, derecha.join(), maximo);
+		}
+	}
+
+	/**
+	 * Libros con su secuencia, ordenados por secuencia
+	 */
+	private static final class Tramo {
+
+		private Libro[] libros;
+		private long[] secuencias;
+		private int tamano;
+
+		Tramo(int capacidad) {
+			libros = new Libro[capacidad];
+			secuencias = new long[capacidad];
+		}
+
+		void add(long secuencia, Libro l) {
+			if (tamano == libros.length) {
+				int capacidad = tamano + (tamano >> 1) + 1;
+				libros = Arrays.copyOf(libros, capacidad);
+				secuencias = Arrays.copyOf(secuencias, capacidad);
+			}
+			secuencias[tamano] = secuencia;
+			libros[tamano++] = l;
+		}
+
+		//Mezcla dos tramos por secuencia quedandose con los primeros maximo.
+		//Los dos tramos ya tienen como mucho maximo libros cada uno
+		static Tramo mezclar(Tramo a, Tramo b, int maximo) {
+			if (b.tamano == 0) {
+				return a;
+			}
+			if (a.tamano == 0) {
+				return b;
+			}
+			int tamano = (int) Math.min(maximo, (long) a.tamano + b.tamano);
+			Tramo mezcla = new Tramo(tamano);
+			int i = 0;
+			int j = 0;
+			while (mezcla.tamano < tamano) {
+				if (j == b.tamano || (i < a.tamano && a.secuencias[i] < b.secuencias[j])) {
+					mezcla.add(a.secuencias[i], a.libros[i++]);
+				} else {
+					mezcla.add(b.secuencias[j], b.libros[j++]);
+				}
+			}
+			return mezcla;
+		}
+
+		List<Libro> comoLista() {
+			return new ArrayList<Libro>(Arrays.asList(libros).subList(0, tamano));
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package es.biblioteca.tiempos;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Mide cuanto se tarda en convertir el JSON de entrada en objetos (lo que
+ * pasa entre beforeBodyRead y afterBodyRead) y marca el momento en que se
+ * empieza a escribir el JSON de salida, que FiltroTiempos usa para saber
+ * cuanto ha tardado la escritura.
+ *
+ * Si el JSON de entrada no se puede convertir no se llama a afterBodyRead y
+ * la marca de la entrada se queda puesta. Como cada marca lleva su fase,
+ * FiltroTiempos no la cuenta como escritura de la salida.
+ */
+@ControllerAdvice
+public class AdviceTiempos implements RequestBodyAdvice, ResponseBodyAdvice<Object> {
+
+	static final String JSON_ENTRADA = "json-entrada";
+	static final String JSON_SALIDA = "json-salida";
+
+	@Override
+	public boolean supports(MethodParameter methodParameter, Type targetType,
+			Class<? extends HttpMessageConverter<?>> converterType) {
+		return TiemposPeticion.actual() != null;
+	}
+
+	@Override
+	public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+			Class<? extends HttpMessageConverter<?>> converterType) throws IOException {
+		TiemposPeticion.actual().marcar(JSON_ENTRADA);
+		return inputMessage;
+	}
+
+	@Override
+	public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+			Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+		TiemposPeticion.actual().sumarDesdeMarca(JSON_ENTRADA);
+		return body;
+	}
+
+	@Override
+	public Object handleEmptyBody(Object body, HttpInputMessage inputMessage, MethodParameter parameter,
+			Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+		TiemposPeticion.actual().sumarDesdeMarca(JSON_ENTRADA);
+		return body;
+	}
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return TiemposPeticion.actual() != null;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+			Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+			ServerHttpResponse response) {
+		TiemposPeticion.actual().marcar(JSON_SALIDA);
+		return body;
+	}
+}
@@ -0,0 +1,87 @@
+package es.biblioteca.tiempos;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Filtro que mide cada peticion y devuelve el desglose de tiempos en la
+ * cabecera Server-Timing, junto con la cabecera traceparent.
+ *
+ * Las cabeceras tienen que ir antes que el cuerpo, y el tiempo de escribir
+ * el JSON de salida no se sabe hasta haberlo escrito. Por eso el cuerpo se
+ * guarda en memoria (RespuestaAcotada), se ponen las cabeceras y al final
+ * se copia a la respuesta real. Solo se guardan los cuerpos pequeños: si
+ * pasa de "biblioteca.tiempos.maximo-en-memoria" bytes (un listado grande,
+ * por ejemplo) se pone Server-Timing con lo medido hasta ese momento, sin
+ * json-salida, y el resto del cuerpo se manda segun se escribe. La
+ * exportacion del catalogo se escribe en otro hilo cuando este filtro ya ha
+ * terminado, asi que no se toca: solo lleva traceparent.
+ *
+ * Se ejecuta antes que el control de admision, para que el desglose incluya
+ * tambien la espera en su cola.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class FiltroTiempos extends OncePerRequestFilter {
+
+	public static final String SERVER_TIMING = "Server-Timing";
+	public static final String TRACEPARENT = "traceparent";
+
+	private final boolean activo;
+	private final int maximoEnMemoria;
+
+	public FiltroTiempos(@Value("${biblioteca.tiempos.activo:true}") boolean activo,
+			@Value("${biblioteca.tiempos.maximo-en-memoria:65536}") int maximoEnMemoria) {
+		this.activo = activo;
+		this.maximoEnMemoria = maximoEnMemoria;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !activo;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+			FilterChain filterChain) throws ServletException, IOException {
+
+		TiemposPeticion tiempos = TiemposPeticion.iniciar(request.getHeader(TRACEPARENT));
+		response.setHeader(TRACEPARENT, tiempos.getTraceparent());
+		try {
+			if (request.getServletPath().startsWith("/libros/exportacion")) {
+				filterChain.doFilter(request, response);
+				return;
+			}
+			RespuestaAcotada respuesta = new RespuestaAcotada(response, maximoEnMemoria, () -> {
+				if (!response.isCommitted()) {
+					response.setHeader(SERVER_TIMING, tiempos.getServerTiming());
+				}
+			});
+			try {
+				filterChain.doFilter(request, respuesta);
+			} finally {
+				//Si se ha escrito un cuerpo JSON, la marca la ha puesto
+				//AdviceTiempos justo antes de empezar a escribirlo. Si ya se
+				//esta mandando, Server-Timing ha salido sin esta fase. Una
+				//peticion asincrona escribe el cuerpo despues, en otro hilo:
+				//se manda lo que haya y el resto va directo a la respuesta
+				if (!respuesta.isMandando() && !isAsyncStarted(request)) {
+					tiempos.sumarDesdeMarca(AdviceTiempos.JSON_SALIDA);
+				}
+				respuesta.terminar();
+			}
+		} finally {
+			TiemposPeticion.terminar();
+		}
+	}
+}
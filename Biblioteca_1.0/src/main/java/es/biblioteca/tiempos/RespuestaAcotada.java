@@ -0,0 +1,182 @@
+package es.biblioteca.tiempos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Respuesta que guarda el cuerpo en memoria mientras no pase de un tamaño
+ * maximo, para poder poner cabeceras despues de haberlo escrito. Si el
+ * cuerpo pasa del maximo se llama a antesDeMandar (todavia no se ha mandado
+ * nada, asi que se pueden poner cabeceras), se manda lo guardado y el resto
+ * se escribe directamente en la respuesta real, sin guardar nada mas. Asi un
+ * listado grande no ocupa su tamaño entero en memoria.
+ *
+ * La escritura no bloqueante (setWriteListener) tambien se pasa a la
+ * respuesta real, mandando antes lo que hubiera guardado.
+ */
+class RespuestaAcotada extends HttpServletResponseWrapper {
+
+	private final int maximo;
+	private final Runnable antesDeMandar;
+	private ByteArrayOutputStream guardado = new ByteArrayOutputStream();
+	private boolean mandando;
+	private ServletOutputStream salida;
+	private PrintWriter escritor;
+
+	/**
+	 * @param respuesta la respuesta real
+	 * @param maximo cuantos bytes del cuerpo se guardan como mucho
+	 * @param antesDeMandar se llama una vez, justo antes de mandar el primer
+	 * byte del cuerpo o al terminar si no hay cuerpo
+	 */
+	RespuestaAcotada(HttpServletResponse respuesta, int maximo, Runnable antesDeMandar) {
+		super(respuesta);
+		this.maximo = maximo;
+		this.antesDeMandar = antesDeMandar;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (escritor != null) {
+			throw new IllegalStateException("Ya se ha pedido getWriter() en esta respuesta");
+		}
+		if (salida == null) {
+			salida = new Salida();
+		}
+		return salida;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (escritor == null) {
+			if (salida != null) {
+				throw new IllegalStateException("Ya se ha pedido getOutputStream() en esta respuesta");
+			}
+			salida = new Salida();
+			escritor = new PrintWriter(new OutputStreamWriter(salida, getCharacterEncoding()));
+		}
+		return escritor;
+	}
+
+	//Mientras se guarda en memoria no hay nada que mandar
+	@Override
+	public void flushBuffer() throws IOException {
+		if (mandando) {
+			super.flushBuffer();
+		}
+	}
+
+	@Override
+	public void resetBuffer() {
+		if (mandando) {
+			super.resetBuffer();
+		} else {
+			guardado.reset();
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		if (!mandando) {
+			guardado.reset();
+		}
+	}
+
+	/**
+	 * @return true si el cuerpo ha pasado del maximo y ya se esta mandando
+	 */
+	boolean isMandando() {
+		return mandando;
+	}
+
+	/**
+	 * Manda lo que quede guardado. Hay que llamarlo al acabar la peticion
+	 */
+	void terminar() throws IOException {
+		if (escritor != null) {
+			escritor.flush();
+		}
+		if (!mandando) {
+			empezarAMandar();
+		}
+	}
+
+	private void empezarAMandar() throws IOException {
+		mandando = true;
+		antesDeMandar.run();
+		if (guardado.size() > 0) {
+			guardado.writeTo(getResponse().getOutputStream());
+		}
+		guardado = null;
+	}
+
+	private final class Salida extends ServletOutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!mandando && guardado.size() + 1 > maximo) {
+				empezarAMandar();
+			}
+			if (mandando) {
+				getResponse().getOutputStream().write(b);
+			} else {
+				guardado.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int desde, int longitud) throws IOException {
+			if (!mandando && guardado.size() + longitud > maximo) {
+				empezarAMandar();
+			}
+			if (mandando) {
+				getResponse().getOutputStream().write(b, desde, longitud);
+			} else {
+				guardado.write(b, desde, longitud);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (mandando) {
+				getResponse().getOutputStream().flush();
+			}
+		}
+
+		//Mientras se guarda en memoria siempre se puede escribir. Despues
+		//manda la respuesta real
+		@Override
+		public boolean isReady() {
+			if (!mandando) {
+				return true;
+			}
+			try {
+				return getResponse().getOutputStream().isReady();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		//La escritura no bloqueante va directa a la respuesta real: se manda
+		//lo guardado (todavia en modo bloqueante) y se le pasa el listener
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			try {
+				if (!mandando) {
+					empezarAMandar();
+				}
+				getResponse().getOutputStream().setWriteListener(listener);
+			} catch (IOException e) {
+				listener.onError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package es.biblioteca.tiempos;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Tiempos de cada fase de la peticion que se esta atendiendo (esperar en el
+ * control de admision, leer el JSON de entrada, cada llamada al DAO, escribir
+ * el JSON de salida...). FiltroTiempos crea uno al empezar la peticion y al
+ * terminar lo manda al cliente en la cabecera Server-Timing, por ejemplo:
+ *
+ * Server-Timing: admision;dur=0.01, dao-get;dur=0.05, json-salida;dur=0.12, total;dur=0.60
+ *
+ * Se guarda en un ThreadLocal porque Tomcat atiende cada peticion en un hilo.
+ * Si no hay peticion en curso (hilos propios, tests...) medir() simplemente
+ * ejecuta la operacion.
+ *
+ * Tambien lleva el contexto de traza W3C (cabecera "traceparent"): si el
+ * cliente manda un id de traza se mantiene, y si no se crea uno, para poder
+ * juntar lo que ha visto el cliente con lo que ha pasado en el servidor.
+ */
+public class TiemposPeticion {
+
+	private static final ThreadLocal<TiemposPeticion> ACTUAL = new ThreadLocal<TiemposPeticion>();
+	private static final Pattern TRACEPARENT = Pattern.compile("00-[0-9a-f]{32}-[0-9a-f]{16}-[0-9a-f]{2}");
+
+	private final long inicio = System.nanoTime();
+	private final String idTraza;
+	private final String idSpan;
+	//Nanosegundos y numero de veces de cada fase, en el orden en que aparecen
+	private final Map<String, long[]> fases = new LinkedHashMap<String, long[]>();
+	private long marca;
+	private String faseMarca;
+
+	private TiemposPeticion(String idTraza) {
+		this.idTraza = idTraza;
+		this.idSpan = hex(16);
+	}
+
+	/**
+	 * Empieza a medir la peticion del hilo actual
+	 * @param traceparent la cabecera traceparent recibida, o null
+	 */
+	public static TiemposPeticion iniciar(String traceparent) {
+		String idTraza = traceparent != null && TRACEPARENT.matcher(traceparent).matches()
+				? traceparent.substring(3, 35) : hex(32);
+		TiemposPeticion tiempos = new TiemposPeticion(idTraza);
+		ACTUAL.set(tiempos);
+		return tiempos;
+	}
+
+	public static void terminar() {
+		ACTUAL.remove();
+	}
+
+	/**
+	 * @return los tiempos de la peticion en curso, null si no hay ninguna
+	 */
+	public static TiemposPeticion actual() {
+		return ACTUAL.get();
+	}
+
+	/**
+	 * Ejecuta la operacion y suma lo que tarda a la fase indicada
+	 */
+	public static <T> T medir(String fase, Supplier<T> operacion) {
+		TiemposPeticion tiempos = ACTUAL.get();
+		if (tiempos == null) {
+			return operacion.get();
+		}
+		long inicio = System.nanoTime();
+		try {
+			return operacion.get();
+		} finally {
+			tiempos.sumar(fase, System.nanoTime() - inicio);
+		}
+	}
+
+	/**
+	 * Suma el tiempo a la fase indicada de la peticion en curso, si la hay
+	 */
+	public static void registrar(String fase, long nanos) {
+		TiemposPeticion tiempos = ACTUAL.get();
+		if (tiempos != null) {
+			tiempos.sumar(fase, nanos);
+		}
+	}
+
+	public void sumar(String fase, long nanos) {
+		long[] acumulado = fases.computeIfAbsent(fase, f -> new long[2]);
+		acumulado[0] += nanos;
+		acumulado[1]++;
+	}
+
+	/**
+	 * Apunta el instante actual, para medir despues una fase que empieza y
+	 * acaba en sitios distintos (como la lectura o escritura del JSON)
+	 * @param fase la fase que empieza
+	 */
+	public void marcar(String fase) {
+		marca = System.nanoTime();
+		faseMarca = fase;
+	}
+
+	/**
+	 * Suma a la fase el tiempo desde la ultima marca, si la marca era de esa
+	 * fase. Una marca de otra fase que no se llego a cerrar (la lectura de
+	 * un JSON que no se ha podido convertir, por ejemplo) se descarta
+	 */
+	public void sumarDesdeMarca(String fase) {
+		if (marca != 0 && fase.equals(faseMarca)) {
+			sumar(fase, System.nanoTime() - marca);
+		}
+		marca = 0;
+		faseMarca = null;
+	}
+
+	public String getIdTraza() {
+		return idTraza;
+	}
+
+	/**
+	 * @return la cabecera traceparent a devolver, con el span de este servidor
+	 */
+	public String getTraceparent() {
+		return "00-" + idTraza + "-" + idSpan + "-01";
+	}
+
+	/**
+	 * @return el valor de la cabecera Server-Timing con todas las fases y el
+	 * total, en milisegundos
+	 */
+	public String getServerTiming() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, long[]> fase : fases.entrySet()) {
+			sb.append(fase.getKey()).append(";dur=").append(ms(fase.getValue()[0]));
+			if (fase.getValue()[1] > 1) {
+				sb.append(";desc=\"").append(fase.getValue()[1]).append(" llamadas\"");
+			}
+			sb.append(", ");
+		}
+		return sb.append("total;dur=").append(ms(System.nanoTime() - inicio)).toString();
+	}
+
+	private static String ms(long nanos) {
+		return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000.0);
+	}
+
+	private static String hex(int digitos) {
+		StringBuilder sb = new StringBuilder(digitos);
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		while (sb.length() < digitos) {
+			sb.append(Character.forDigit(r.nextInt(16), 16));
+		}
+		return sb.toString();
+	}
+}
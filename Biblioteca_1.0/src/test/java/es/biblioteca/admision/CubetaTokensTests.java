@@ -0,0 +1,36 @@
+package es.biblioteca.admision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CubetaTokensTests {
+
+	//La rafaga se gasta de golpe, y despues hay que esperar lo que tarda en
+	//entrar un token nuevo
+	@Test
+	void seGastaLaRafagaYSeRellenaConElTiempo() throws InterruptedException {
+		CubetaTokens cubeta = new CubetaTokens(3, 100);
+		assertEquals(0, cubeta.consumir());
+		assertEquals(0, cubeta.consumir());
+		assertEquals(0, cubeta.consumir());
+		long espera = cubeta.consumir();
+		assertTrue(espera > 0 && espera <= 10_000_000L, "espera " + espera);
+
+		Thread.sleep(25);
+		assertEquals(0, cubeta.consumir());
+		assertEquals(0, cubeta.consumir());
+	}
+
+	//Por mucho que pase el tiempo no se acumulan mas tokens que la capacidad
+	@Test
+	void noSeLlenaPorEncimaDeLaCapacidad() throws InterruptedException {
+		//En 100 ms entrarian 10 tokens
+		CubetaTokens cubeta = new CubetaTokens(2, 100);
+		Thread.sleep(100);
+		assertEquals(0, cubeta.consumir());
+		assertEquals(0, cubeta.consumir());
+		assertTrue(cubeta.consumir() > 0);
+	}
+}
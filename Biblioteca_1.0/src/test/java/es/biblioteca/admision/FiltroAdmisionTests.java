@@ -0,0 +1,96 @@
+package es.biblioteca.admision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class FiltroAdmisionTests {
+
+	//Concurrencia 1 y sin cola para las consultas por id, y una rafaga de
+	//dos peticiones por cliente que casi no se rellena
+	private static FiltroAdmision filtro(int maximoClientes) {
+		return new FiltroAdmision(1, 16, 4, 16, 16, 0, 50, 0.01, 2, 7, maximoClientes);
+	}
+
+	private static MockHttpServletResponse peticion(FiltroAdmision filtro, String cliente, FilterChain cadena)
+			throws IOException, ServletException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/libros/1");
+		request.setServletPath("/libros/1");
+		request.setRemoteAddr(cliente);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filtro.doFilter(request, response, cadena);
+		return response;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> metricas(FiltroAdmision filtro, ClaseEndpoint clase) {
+		return (Map<String, Object>) filtro.getMetricas().get(clase.name());
+	}
+
+	@Test
+	void sinTokensResponde429ConRetryAfter() throws Exception {
+		FiltroAdmision filtro = filtro(100);
+		assertEquals(200, peticion(filtro, "10.0.0.1", new MockFilterChain()).getStatus());
+		assertEquals(200, peticion(filtro, "10.0.0.1", new MockFilterChain()).getStatus());
+		MockHttpServletResponse rechazada = peticion(filtro, "10.0.0.1", new MockFilterChain());
+		assertEquals(429, rechazada.getStatus());
+		//Un token a 0.01 por segundo tarda 100 segundos
+		assertEquals("100", rechazada.getHeader("Retry-After"));
+		//Otro cliente tiene su propia cubeta
+		assertEquals(200, peticion(filtro, "10.0.0.2", new MockFilterChain()).getStatus());
+
+		Map<String, Object> consultas = metricas(filtro, ClaseEndpoint.CONSULTA_ID);
+		assertEquals(3L, consultas.get("admitidas"));
+		assertEquals(1L, consultas.get("descartadasTasa"));
+		assertEquals(0L, consultas.get("descartadasSaturacion"));
+	}
+
+	//Mientras una consulta ocupa el unico hueco, otra del mismo tipo se
+	//descarta en el momento con 503
+	@Test
+	void sinHuecoResponde503ConRetryAfter() throws Exception {
+		FiltroAdmision filtro = filtro(100);
+		MockHttpServletResponse[] dentro = new MockHttpServletResponse[1];
+		MockHttpServletResponse respuesta = peticion(filtro, "10.0.0.1",
+				(req, res) -> dentro[0] = peticion(filtro, "10.0.0.2", new MockFilterChain()));
+		assertEquals(200, respuesta.getStatus());
+		assertNull(respuesta.getHeader("Retry-After"));
+		assertEquals(503, dentro[0].getStatus());
+		assertEquals("7", dentro[0].getHeader("Retry-After"));
+
+		Map<String, Object> consultas = metricas(filtro, ClaseEndpoint.CONSULTA_ID);
+		assertEquals(1L, consultas.get("admitidas"));
+		assertEquals(1L, consultas.get("descartadasSaturacion"));
+		assertEquals(0, consultas.get("enCurso"));
+	}
+
+	//Con mas clientes que el maximo se olvida el que lleva mas tiempo sin
+	//pedir nada, que vuelve con la cubeta llena
+	@Test
+	void lasCubetasNoPasanDelMaximoDeClientes() throws Exception {
+		FiltroAdmision filtro = filtro(2);
+		for (String cliente : new String[] { "10.0.0.1", "10.0.0.2" }) {
+			peticion(filtro, cliente, new MockFilterChain());
+			peticion(filtro, cliente, new MockFilterChain());
+		}
+		assertEquals(429, peticion(filtro, "10.0.0.1", new MockFilterChain()).getStatus());
+		assertEquals(200, peticion(filtro, "10.0.0.3", new MockFilterChain()).getStatus());
+		assertEquals(2, filtro.getMetricas().get("clientesConCubeta"));
+		//El 2 era el que llevaba mas tiempo sin pedir y vuelve con la cubeta
+		//llena, y al volver se olvida el 1. El 3 conserva la suya
+		assertEquals(200, peticion(filtro, "10.0.0.2", new MockFilterChain()).getStatus());
+		assertEquals(200, peticion(filtro, "10.0.0.3", new MockFilterChain()).getStatus());
+		assertEquals(429, peticion(filtro, "10.0.0.3", new MockFilterChain()).getStatus());
+		assertEquals(2, filtro.getMetricas().get("clientesConCubeta"));
+	}
+}
@@ -0,0 +1,78 @@
+package es.biblioteca.admision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class LimiteEndpointTests {
+
+	private static void esperarCola(LimiteEndpoint limite, int enCola) throws InterruptedException {
+		while ((Integer) limite.getMetricas().get("enCola") < enCola) {
+			Thread.sleep(1);
+		}
+	}
+
+	//Con la cola llena se descarta sin esperar, y si no llega hueco antes
+	//del objetivo tambien
+	@Test
+	void descartaConLaColaLlenaOAlPasarElObjetivo() throws InterruptedException {
+		LimiteEndpoint limite = new LimiteEndpoint(1, 1, 200);
+		assertTrue(limite.entrar());
+		Thread enCola = new Thread(() -> {
+			try {
+				assertFalse(limite.entrar());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		enCola.start();
+		esperarCola(limite, 1);
+		long inicio = System.nanoTime();
+		assertFalse(limite.entrar());
+		assertTrue(System.nanoTime() - inicio < 100_000_000L);
+		enCola.join();
+		limite.registrarDescarteTasa();
+
+		Map<String, Object> metricas = limite.getMetricas();
+		assertEquals(1L, metricas.get("admitidas"));
+		assertEquals(2L, metricas.get("descartadasSaturacion"));
+		assertEquals(1L, metricas.get("descartadasTasa"));
+		assertEquals(1, metricas.get("enCurso"));
+		assertTrue((Long) metricas.get("esperaTotalMs") >= 190, metricas.toString());
+		limite.salir();
+		assertEquals(0, limite.getMetricas().get("enCurso"));
+	}
+
+	//Quien llega cuando ya hay alguien en cola no se le cuela aunque justo
+	//se haya quedado un hueco libre
+	@Test
+	void laColaEsPorOrdenDeLlegada() throws InterruptedException {
+		LimiteEndpoint limite = new LimiteEndpoint(1, 10, 2000);
+		List<String> orden = new CopyOnWriteArrayList<String>();
+		assertTrue(limite.entrar());
+		Thread primero = new Thread(() -> {
+			try {
+				if (limite.entrar()) {
+					orden.add("primero");
+					limite.salir();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		primero.start();
+		esperarCola(limite, 1);
+		limite.salir();
+		assertTrue(limite.entrar());
+		orden.add("segundo");
+		limite.salir();
+		primero.join();
+		assertEquals(List.of("primero", "segundo"), orden);
+	}
+}
@@ -0,0 +1,242 @@
+package es.biblioteca.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Prueba de carga con una grabacion de Java Flight Recorder.
+ *
+ * Arranca el servidor en un puerto libre, importa un catalogo, lanza una
+ * mezcla de peticiones (consultas por id, paginas, listados filtrados,
+ * busquedas, modificaciones...) desde varios hilos y mientras tanto graba
+ * los eventos de la biblioteca sin umbral y muestras de CPU. La grabacion
+ * queda en target/jfr/carga.jfr para abrirla con JDK Mission Control o con
+ * "jfr print", y por consola sale un resumen con las operaciones que mas
+ * tiempo se llevan.
+ *
+ * Tarda y escribe una grabacion en disco, asi que no se lanza con el resto
+ * de tests. Para lanzarla:
+ *
+ * mvn test -Dtest=CargaJfrTests -Dbiblioteca.jfr.carga=true
+ *
+ * El tamaño de la carga se cambia con -Dbiblioteca.jfr.libros=... y
+ * -Dbiblioteca.jfr.peticiones=...
+ */
+@EnabledIfSystemProperty(named = "biblioteca.jfr.carga", matches = "true")
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"biblioteca.instantanea.fichero=",
+		"biblioteca.admision.tasa-por-cliente=1000000",
+		"biblioteca.admision.rafaga-por-cliente=1000000" })
+class CargaJfrTests {
+
+	private static final Path GRABACION = Paths.get("target", "jfr", "carga.jfr");
+	private static final int LIBROS = Integer.getInteger("biblioteca.jfr.libros", 10_000);
+	private static final int PETICIONES = Integer.getInteger("biblioteca.jfr.peticiones", 1_000);
+	private static final int HILOS = 8;
+	private static final int MAS_CALIENTES = 10;
+	private static final String[] PALABRAS = { "java", "codigo", "datos", "saga", "lluvia", "servidor", "rest",
+			"indice", "libro", "cronica", "magia", "red", "nube", "hilo", "cola", "mapa" };
+
+	@LocalServerPort
+	private int puerto;
+
+	//En HTTP/1.1: Tomcat no acepta el paso a h2c en una peticion con cuerpo
+	//como la importacion
+	private final HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	@Test
+	void cargaConGrabacionJfr() throws Exception {
+
+		String base = "http://localhost:" + puerto + "/libros";
+		try (Recording grabacion = new Recording()) {
+			//Aqui se graban todos los eventos, sin umbral, para ver el reparto
+			//completo del tiempo y no solo las operaciones lentas
+			grabacion.enable(EventoDao.class).withThreshold(Duration.ZERO);
+			grabacion.enable(EventoPeticion.class).withThreshold(Duration.ZERO);
+			grabacion.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(10));
+			grabacion.start();
+
+			importar(base);
+			lanzarCarga(base);
+
+			grabacion.stop();
+			Files.createDirectories(GRABACION.getParent());
+			grabacion.dump(GRABACION);
+		}
+
+		List<RecordedEvent> eventos = RecordingFile.readAllEvents(GRABACION);
+		Map<String, Acumulado> operaciones = new HashMap<String, Acumulado>();
+		Map<String, Integer> muestras = new HashMap<String, Integer>();
+		for (RecordedEvent e : eventos) {
+			String tipo = e.getEventType().getName();
+			if ("es.biblioteca.Dao".equals(tipo)) {
+				operaciones.computeIfAbsent("dao " + e.getString("operacion"), k -> new Acumulado())
+						.sumar(e.getDuration(), e.getLong("librosRecorridos"));
+			} else if ("es.biblioteca.Peticion".equals(tipo)) {
+				operaciones.computeIfAbsent("http " + e.getString("metodo") + " " + e.getString("ruta"),
+						k -> new Acumulado()).sumar(e.getDuration(), 0);
+			} else if ("jdk.ExecutionSample".equals(tipo) && e.getStackTrace() != null
+					&& !e.getStackTrace().getFrames().isEmpty()) {
+				RecordedFrame cima = e.getStackTrace().getFrames().get(0);
+				String metodo = cima.getMethod().getType().getName() + "." + cima.getMethod().getName();
+				muestras.merge(metodo, 1, Integer::sum);
+			}
+		}
+		imprimirResumen(operaciones, muestras);
+
+		assertTrue(operaciones.containsKey("dao get"), "No hay eventos de DaoLibro.get");
+		assertTrue(operaciones.containsKey("dao addAll"), "No hay eventos de DaoLibro.addAll");
+		assertTrue(operaciones.containsKey("http GET /libros/{id}"), "No hay eventos de GET /libros/{id}");
+	}
+
+	private void importar(String base) throws IOException, InterruptedException {
+
+		StringBuilder csv = new StringBuilder("id,titulo,editorial,nota\n");
+		Random r = new Random(1);
+		for (int id = 1; id <= LIBROS; id++) {
+			csv.append(id).append(',').append(palabra(r)).append(' ').append(palabra(r)).append(' ').append(id)
+					.append(',').append("Editorial ").append(r.nextInt(50))
+					.append(',').append(palabra(r)).append(' ').append(palabra(r)).append('\n');
+		}
+		HttpResponse<String> respuesta = cliente.send(HttpRequest.newBuilder(URI.create(base + "/importacion"))
+				.header("Content-Type", "text/csv")
+				.POST(HttpRequest.BodyPublishers.ofString(csv.toString())).build(),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, respuesta.statusCode(), respuesta.body());
+	}
+
+	private void lanzarCarga(String base) throws Exception {
+
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+		try {
+			List<Future<?>> tareas = new ArrayList<Future<?>>();
+			for (int h = 0; h < HILOS; h++) {
+				Random r = new Random(100 + h);
+				tareas.add(hilos.submit(() -> {
+					for (int i = 0; i < PETICIONES / HILOS; i++) {
+						enviar(peticion(base, r));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> tarea : tareas) {
+				tarea.get();
+			}
+		} finally {
+			hilos.shutdown();
+		}
+	}
+
+	//Mezcla de peticiones, con mas peso en las consultas por id como en un
+	//cliente normal
+	private static HttpRequest peticion(String base, Random r) {
+
+		int tipo = r.nextInt(100);
+		int id = 1 + r.nextInt(LIBROS);
+		String url;
+		if (tipo < 45) {
+			url = base + "/" + id;
+		} else if (tipo < 55) {
+			StringBuilder ids = new StringBuilder();
+			for (int i = 0; i < 20; i++) {
+				ids.append(i > 0 ? "," : "").append(1 + r.nextInt(LIBROS));
+			}
+			url = base + "?ids=" + ids;
+		} else if (tipo < 65) {
+			url = base + "?sort=id&limite=20&desde=" + id;
+		} else if (tipo < 72) {
+			url = base + "?filtroTitulo=" + palabra(r);
+		} else if (tipo < 80) {
+			url = base + "/busqueda?q=" + palabra(r) + "+" + palabra(r);
+		} else if (tipo < 86) {
+			url = base + "/sugerencias?prefijo=" + palabra(r).substring(0, 2);
+		} else if (tipo < 90) {
+			url = base + "/aproximados?titulo=" + palabra(r);
+		} else if (tipo < 95) {
+			url = base + "/estadisticas";
+		} else {
+			String cuerpo = "{\"titulo\":\"modificado " + id + "\",\"editorial\":\"Editorial 0\",\"nota\":\"" + palabra(r)
+					+ "\"}";
+			return HttpRequest.newBuilder(URI.create(base + "/" + id)).header("Content-Type", "application/json")
+					.PUT(HttpRequest.BodyPublishers.ofString(cuerpo)).build();
+		}
+		return HttpRequest.newBuilder(URI.create(url)).GET().build();
+	}
+
+	private void enviar(HttpRequest peticion) throws IOException, InterruptedException {
+		HttpResponse<Void> respuesta = cliente.send(peticion, HttpResponse.BodyHandlers.discarding());
+		assertTrue(respuesta.statusCode() < 500, peticion.uri() + " -> " + respuesta.statusCode());
+	}
+
+	private static String palabra(Random r) {
+		return PALABRAS[r.nextInt(PALABRAS.length)];
+	}
+
+	private static void imprimirResumen(Map<String, Acumulado> operaciones, Map<String, Integer> muestras) {
+
+		List<Map.Entry<String, Acumulado>> porTiempo = new ArrayList<Map.Entry<String, Acumulado>>(operaciones.entrySet());
+		porTiempo.sort((a, b) -> Long.compare(b.getValue().nanos, a.getValue().nanos));
+		System.out.println("");
+		System.out.println("CargaJfrTests -> Grabacion en " + GRABACION.toAbsolutePath());
+		System.out.println("CargaJfrTests -> Operaciones que mas tiempo se llevan:");
+		System.out.println(String.format(Locale.ROOT, "  %-36s %8s %12s %10s %10s %14s", "operacion", "veces",
+				"total ms", "media ms", "max ms", "recorridos/op"));
+		for (Map.Entry<String, Acumulado> e : porTiempo.subList(0, Math.min(MAS_CALIENTES, porTiempo.size()))) {
+			Acumulado a = e.getValue();
+			System.out.println(String.format(Locale.ROOT, "  %-36s %8d %12.1f %10.3f %10.3f %14d", e.getKey(), a.veces,
+					a.nanos / 1e6, a.nanos / 1e6 / a.veces, a.maximo / 1e6, a.recorridos / a.veces));
+		}
+
+		List<Map.Entry<String, Integer>> porMuestras = new ArrayList<Map.Entry<String, Integer>>(muestras.entrySet());
+		porMuestras.sort((a, b) -> b.getValue() - a.getValue());
+		System.out.println("CargaJfrTests -> Metodos con mas muestras de CPU:");
+		for (Map.Entry<String, Integer> e : porMuestras.subList(0, Math.min(MAS_CALIENTES, porMuestras.size()))) {
+			System.out.println(String.format(Locale.ROOT, "  %6d  %s", e.getValue(), e.getKey()));
+		}
+	}
+
+	private static final class Acumulado {
+
+		private long veces;
+		private long nanos;
+		private long maximo;
+		private long recorridos;
+
+		void sumar(Duration duracion, long librosRecorridos) {
+			veces++;
+			nanos += duracion.toNanos();
+			maximo = Math.max(maximo, duracion.toNanos());
+			recorridos += librosRecorridos;
+		}
+	}
+}
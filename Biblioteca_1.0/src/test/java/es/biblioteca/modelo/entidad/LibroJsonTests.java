@@ -0,0 +1,38 @@
+package es.biblioteca.modelo.entidad;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+class LibroJsonTests {
+
+	private static final List<Libro> LIBROS = List.of(
+			new Libro(1, "The Java Saga", "Planeta", "Una nota muy larga"),
+			new Libro(2, "Código \"limpio\"", null, null));
+
+	//Los campos salen en el orden pedido, con los null y el texto escapado
+	//igual que con el serializador completo
+	@Test
+	void laProyeccionEscribeSoloLosCamposPedidos() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		assertEquals("[{\"titulo\":\"The Java Saga\",\"id\":1},{\"titulo\":\"Código \\\"limpio\\\"\",\"id\":2}]",
+				mapper.writeValueAsString(new LibroJson.Proyeccion(LIBROS, List.of("titulo", "id"))));
+		assertEquals("[{\"editorial\":\"Planeta\"},{\"editorial\":null}]",
+				mapper.writeValueAsString(new LibroJson.Proyeccion(LIBROS, List.of("editorial"))));
+		assertEquals("[]", mapper.writeValueAsString(new LibroJson.Proyeccion(List.of(), List.of("id"))));
+	}
+
+	@Test
+	void laProyeccionConTodosLosCamposEsComoElSerializador() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		String completo = mapper.writeValueAsString(new LibroJson.Proyeccion(LIBROS,
+				List.of("id", "titulo", "editorial", "nota")));
+		mapper.registerModule(new SimpleModule().addSerializer(Libro.class, new LibroJson.Serializador()));
+		assertEquals(mapper.writeValueAsString(LIBROS), completo);
+	}
+}
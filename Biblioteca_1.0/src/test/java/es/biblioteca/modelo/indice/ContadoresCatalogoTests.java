@@ -0,0 +1,45 @@
+package es.biblioteca.modelo.indice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import es.biblioteca.modelo.entidad.EstadisticasCatalogo;
+
+class ContadoresCatalogoTests {
+
+	@Test
+	void sumaYRestaCadaContador() {
+		ContadoresCatalogo contadores = new ContadoresCatalogo();
+		contadores.sumar("Java", "Anaya");
+		contadores.sumar("Programacion concurrente", "Anaya");
+		contadores.sumar(null, null);
+		contadores.sumar("x".repeat(250), "Otra");
+		contadores.restar("Programacion concurrente", "Anaya");
+
+		EstadisticasCatalogo e = contadores.getEstadisticas();
+		assertEquals(3, e.getTotal());
+		assertEquals(3, contadores.getTotal());
+		assertEquals(254 / 3.0, e.getLongitudMediaTitulo(), 1e-9);
+		assertEquals(Map.of("Anaya", 1L, "", 1L, "Otra", 1L), e.getPorEditorial());
+		assertEquals(11, e.getLongitudTitulo().size());
+		assertEquals(2L, e.getLongitudTitulo().get("0-9"));
+		assertEquals(0L, e.getLongitudTitulo().get("20-29"));
+		assertEquals(1L, e.getLongitudTitulo().get("100+"));
+	}
+
+	//Una editorial que se queda sin libros deja de salir
+	@Test
+	void lasEditorialesVaciasNoSalen() {
+		ContadoresCatalogo contadores = new ContadoresCatalogo();
+		contadores.sumar("Uno", "Anaya");
+		contadores.restar("Uno", "Anaya");
+		EstadisticasCatalogo e = contadores.getEstadisticas();
+		assertEquals(0, e.getTotal());
+		assertEquals(0, e.getLongitudMediaTitulo());
+		assertFalse(e.getPorEditorial().containsKey("Anaya"));
+	}
+}
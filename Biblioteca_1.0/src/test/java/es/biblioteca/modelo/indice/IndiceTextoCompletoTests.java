@@ -0,0 +1,110 @@
+package es.biblioteca.modelo.indice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IndiceTextoCompletoTests {
+
+	private static List<Integer> ids(List<IndiceTextoCompleto.Puntuacion> puntuaciones) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (IndiceTextoCompleto.Puntuacion p : puntuaciones) {
+			ids.add(p.getId());
+		}
+		return ids;
+	}
+
+	@Test
+	void elTituloPesaMasQueLaEditorialYEstaMasQueLaNota() {
+		IndiceTextoCompleto indice = new IndiceTextoCompleto();
+		indice.insertar(1, "Otro libro", "Otra editorial", "Habla de java");
+		indice.insertar(2, "Java", "Otra editorial", "Otra nota");
+		indice.insertar(3, "Otro libro", "Java Press", "Otra nota");
+		indice.insertar(4, "Sin relacion", "Nada", "Nada");
+		assertEquals(List.of(2, 3, 1), ids(indice.buscar("java", 10)));
+	}
+
+	@Test
+	void losTerminosRarosPesanMasQueLosComunes() {
+		IndiceTextoCompleto indice = new IndiceTextoCompleto();
+		for (int id = 1; id <= 20; id++) {
+			indice.insertar(id, "programacion basica " + id, "Editorial", "");
+		}
+		indice.insertar(100, "programacion avanzada", "Editorial", "");
+		indice.insertar(101, "cocina avanzada", "Editorial", "");
+		List<Integer> resultado = ids(indice.buscar("programacion avanzada", 3));
+		assertEquals(100, resultado.get(0));
+		assertEquals(101, resultado.get(1));
+	}
+
+	@Test
+	void ignoraAcentosMayusculasYPalabrasVacias() {
+		IndiceTextoCompleto indice = new IndiceTextoCompleto();
+		indice.insertar(1, "La canción del verano", "Música", "");
+		indice.insertar(2, "El verano", "Otra", "");
+		assertEquals(List.of(1), ids(indice.buscar("CANCION", 10)));
+		assertTrue(indice.buscar("de la el", 10).isEmpty());
+	}
+
+	@Test
+	void noDevuelveLibrosEliminados() {
+		IndiceTextoCompleto indice = new IndiceTextoCompleto();
+		indice.insertar(1, "Java", "Editorial", "");
+		indice.insertar(2, "Java avanzado", "Editorial", "");
+		indice.eliminar(1, "Java", "Editorial", "");
+		assertEquals(List.of(2), ids(indice.buscar("java", 10)));
+	}
+
+	//La poda de MaxScore no puede cambiar los k primeros: tienen que salir
+	//los mismos libros y puntuaciones que puntuando todos los candidatos
+	@Test
+	void maxScoreDaLosMismosResultadosQueSinPodar() {
+		Random r = new Random(3);
+		String[] vocabulario = new String[60];
+		for (int i = 0; i < vocabulario.length; i++) {
+			vocabulario[i] = "termino" + i;
+		}
+		IndiceTextoCompleto indice = new IndiceTextoCompleto();
+		int libros = 3000;
+		int[] ids = new int[libros];
+		String[] titulos = new String[libros];
+		String[] editoriales = new String[libros];
+		String[] notas = new String[libros];
+		for (int i = 0; i < libros; i++) {
+			ids[i] = i + 1;
+			titulos[i] = texto(r, vocabulario, 1 + r.nextInt(4));
+			editoriales[i] = texto(r, vocabulario, 1);
+			notas[i] = texto(r, vocabulario, r.nextInt(8));
+		}
+		indice.insertarLote(ids, titulos, editoriales, notas);
+
+		for (int consulta = 0; consulta < 100; consulta++) {
+			String texto = texto(r, vocabulario, 1 + r.nextInt(4));
+			List<IndiceTextoCompleto.Puntuacion> todos = indice.buscar(texto, libros);
+			for (int k : new int[] { 1, 5, 20 }) {
+				List<IndiceTextoCompleto.Puntuacion> mejores = indice.buscar(texto, k);
+				List<IndiceTextoCompleto.Puntuacion> esperados = todos.subList(0, Math.min(k, todos.size()));
+				assertEquals(ids(esperados), ids(mejores), texto + " con k=" + k);
+				for (int i = 0; i < mejores.size(); i++) {
+					assertEquals(esperados.get(i).getValor(), mejores.get(i).getValor(), 1e-9);
+				}
+			}
+		}
+	}
+
+	//Palabras con una distribucion sesgada, para que haya listas muy largas
+	//y muy cortas como en un catalogo real
+	private static String texto(Random r, String[] vocabulario, int palabras) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < palabras; i++) {
+			int j = (int) (vocabulario.length * Math.pow(r.nextDouble(), 3));
+			sb.append(i > 0 ? " " : "").append(vocabulario[j]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,230 @@
+package es.biblioteca.modelo.indice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class TrieTitulosTests {
+
+	private static TrieTitulos trieEjemplo() {
+		TrieTitulos trie = new TrieTitulos();
+		trie.insertar("The Adventures of Java", 1);
+		trie.insertar("Programming in the Rain", 2);
+		trie.insertar("Code Chronicles", 3);
+		trie.insertar("The Java Saga", 4);
+		trie.insertar("Mastering SQL", 5);
+		return trie;
+	}
+
+	@Test
+	void aproximadoEncuentraConErroresDeEscritura() {
+		TrieTitulos trie = trieEjemplo();
+		assertEquals(List.of(4), trie.buscarAproximado("Jva Saga", 1, 10));
+		assertEquals(List.of(1, 4), trie.buscarAproximado("jaba", 1, 10));
+		assertEquals(List.of(), trie.buscarAproximado("jaba", 0, 10));
+	}
+
+	@Test
+	void aproximadoOrdenaPorDistanciaYRespetaElLimite() {
+		TrieTitulos trie = new TrieTitulos();
+		trie.insertar("sagas", 1);
+		trie.insertar("saga", 2);
+		trie.insertar("sage", 3);
+		assertEquals(List.of(2, 1, 3), trie.buscarAproximado("saga", 1, 10));
+		assertEquals(List.of(2, 1), trie.buscarAproximado("saga", 1, 2));
+		assertEquals(List.of(), trie.buscarAproximado("saga", 1, 0));
+	}
+
+	@Test
+	void aproximadoNoDevuelveLibrosEliminados() {
+		TrieTitulos trie = trieEjemplo();
+		trie.eliminar("The Java Saga", 4);
+		assertEquals(List.of(1), trie.buscarAproximado("java", 1, 10));
+	}
+
+	//Compara la poda del trie con la distancia de Levenshtein calculada a
+	//mano palabra por palabra
+	@Test
+	void aproximadoCoincideConLevenshteinDirecto() {
+		Random r = new Random(7);
+		TrieTitulos trie = new TrieTitulos();
+		List<String> palabras = new ArrayList<String>();
+		for (int id = 0; id < 500; id++) {
+			String palabra = palabraAleatoria(r);
+			palabras.add(palabra);
+			trie.insertar(palabra, id);
+		}
+		for (int i = 0; i < 50; i++) {
+			String buscada = palabraAleatoria(r);
+			for (int distancia = 0; distancia <= 2; distancia++) {
+				Set<Integer> esperados = new HashSet<Integer>();
+				for (int id = 0; id < palabras.size(); id++) {
+					if (levenshtein(buscada, palabras.get(id)) <= distancia) {
+						esperados.add(id);
+					}
+				}
+				assertEquals(esperados, new HashSet<Integer>(trie.buscarAproximado(buscada, distancia, 1000)),
+						buscada + " a distancia " + distancia);
+			}
+		}
+	}
+
+	//Varias palabras por titulo y por busqueda, con limite: el orden tiene
+	//que ser el mismo que sumando a mano la mejor distancia de cada palabra
+	@Test
+	void aproximadoConVariasPalabrasYLimiteCoincideConLevenshteinDirecto() {
+		Random r = new Random(11);
+		TrieTitulos trie = new TrieTitulos();
+		List<List<String>> titulos = new ArrayList<List<String>>();
+		for (int id = 0; id < 2000; id++) {
+			List<String> palabras = List.of(palabraAleatoria(r), palabraAleatoria(r), palabraAleatoria(r));
+			titulos.add(palabras);
+			trie.insertar(String.join(" ", palabras), id);
+		}
+		for (int i = 0; i < 30; i++) {
+			List<String> buscadas = List.of(palabraAleatoria(r), palabraAleatoria(r));
+			for (int distancia = 0; distancia <= 2; distancia++) {
+				List<int[]> esperados = new ArrayList<int[]>();
+				for (int id = 0; id < titulos.size(); id++) {
+					int total = 0;
+					for (String buscada : buscadas) {
+						int mejor = Integer.MAX_VALUE;
+						for (String palabra : titulos.get(id)) {
+							mejor = Math.min(mejor, levenshtein(buscada, palabra));
+						}
+						total = mejor > distancia || total < 0 ? -1 : total + mejor;
+					}
+					if (total >= 0) {
+						esperados.add(new int[] { total, id });
+					}
+				}
+				esperados.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+				List<Integer> ids = new ArrayList<Integer>();
+				for (int[] e : esperados.subList(0, Math.min(15, esperados.size()))) {
+					ids.add(e[1]);
+				}
+				assertEquals(ids, trie.buscarAproximado(String.join(" ", buscadas), distancia, 15),
+						buscadas + " a distancia " + distancia);
+			}
+		}
+	}
+
+	//En un catalogo grande donde casi todos los titulos llevan "the" y
+	//"de", esas palabras no se buscan y la busqueda va por la palabra rara
+	@Test
+	void aproximadoConPalabrasComunesEnUnCatalogoGrande() {
+		TrieTitulos trie = new TrieTitulos();
+		for (int id = 0; id < 300_000; id++) {
+			trie.insertar("The libro x" + id + " de la saga", id);
+		}
+		trie.insertar("The Java Saga", 300_000);
+		trie.insertar("Crónica de Java", 300_001);
+
+		assertEquals(List.of(300_000, 300_001), trie.buscarAproximado("the jova", 2, 10));
+		assertEquals(List.of(300_000, 300_001), trie.buscarAproximado("jova", 2, 10));
+		assertEquals(List.of(300_000), trie.buscarAproximado("the jova saga", 1, 10));
+		//Solo palabras comunes: se buscan tal cual y salen los primeros ids
+		assertEquals(List.of(0, 1, 2, 3, 4), trie.buscarAproximado("the", 2, 5));
+		assertEquals(List.of(0, 1, 2), trie.buscarAproximado("the de", 3, 3));
+	}
+
+	@Test
+	void prefijoCasaLasPalabrasCompletasYLaUltimaPorPrefijo() {
+		TrieTitulos trie = trieEjemplo();
+		assertEquals(List.of(4), trie.buscarPorPrefijo("java sa", 10));
+		assertEquals(List.of(1, 2, 4), trie.buscarPorPrefijo("the", 10));
+		assertEquals(List.of(2), trie.buscarPorPrefijo("PRO", 10));
+		assertTrue(trie.buscarPorPrefijo("xyz sa", 10).isEmpty());
+		assertTrue(trie.buscarPorPrefijo("", 10).isEmpty());
+	}
+
+	@Test
+	void prefijoDevuelvePrimeroLasPalabrasCortasYSeParaEnElLimite() {
+		TrieTitulos trie = new TrieTitulos();
+		trie.insertar("sage", 1);
+		trie.insertar("sagas", 5);
+		trie.insertar("saga", 10);
+		assertEquals(List.of(10, 1, 5), trie.buscarPorPrefijo("sag", 10));
+		assertEquals(List.of(10, 1), trie.buscarPorPrefijo("sag", 2));
+		trie.eliminar("saga", 10);
+		assertEquals(List.of(1, 5), trie.buscarPorPrefijo("sag", 10));
+	}
+
+	//Las palabras se separan justo despues del prefijo: "sal" va antes que
+	//"sabotajes" aunque alfabeticamente vaya despues
+	@Test
+	void prefijoDevuelvePrimeroLasPalabrasCortasDeOtraRama() {
+		TrieTitulos trie = new TrieTitulos();
+		trie.insertar("sabotajes", 1);
+		trie.insertar("sabor", 2);
+		trie.insertar("sal", 3);
+		trie.insertar("sapo", 4);
+		trie.insertar("sa", 5);
+		assertEquals(List.of(5, 3, 4, 2, 1), trie.buscarPorPrefijo("sa", 10));
+		assertEquals(List.of(5, 3), trie.buscarPorPrefijo("sa", 2));
+	}
+
+	//Compara con ordenar a mano las palabras por longitud y alfabeticamente
+	@Test
+	void prefijoCoincideConOrdenarPorLongitud() {
+		Random r = new Random(13);
+		TrieTitulos trie = new TrieTitulos();
+		Map<String, Integer> palabras = new TreeMap<String, Integer>();
+		for (int id = 0; id < 500; id++) {
+			String palabra = palabraAleatoria(r);
+			if (palabras.putIfAbsent(palabra, id) == null) {
+				trie.insertar(palabra, id);
+			}
+		}
+		for (String prefijo : List.of("a", "b", "ab", "dc", "cab")) {
+			List<String> esperadas = new ArrayList<String>();
+			for (String palabra : palabras.keySet()) {
+				if (palabra.startsWith(prefijo)) {
+					esperadas.add(palabra);
+				}
+			}
+			esperadas.sort(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+			List<Integer> ids = new ArrayList<Integer>();
+			for (String palabra : esperadas.subList(0, Math.min(20, esperadas.size()))) {
+				ids.add(palabras.get(palabra));
+			}
+			assertEquals(ids, trie.buscarPorPrefijo(prefijo, 20), prefijo);
+		}
+	}
+
+	private static String palabraAleatoria(Random r) {
+		int longitud = 2 + r.nextInt(5);
+		StringBuilder sb = new StringBuilder(longitud);
+		for (int i = 0; i < longitud; i++) {
+			sb.append((char) ('a' + r.nextInt(4)));
+		}
+		return sb.toString();
+	}
+
+	private static int levenshtein(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= b.length(); j++) {
+			d[0][j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int coste = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + coste);
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+}
@@ -0,0 +1,163 @@
+package es.biblioteca.modelo.persistencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.biblioteca.modelo.entidad.Libro;
+import es.biblioteca.modelo.entidad.ResumenBorrado;
+import es.biblioteca.modelo.entidad.ResumenImportacion;
+
+class CargaMasivaCatalogoTests {
+
+	private static CargaMasivaCatalogo carga(DaoLibro dao) {
+		CargaMasivaCatalogo carga = new CargaMasivaCatalogo(new ObjectMapper());
+		ReflectionTestUtils.setField(carga, "daoLibro", dao);
+		return carga;
+	}
+
+	private static ResumenImportacion importar(CargaMasivaCatalogo carga, String texto, FormatoCatalogo formato)
+			throws IOException {
+		return carga.importar(new ByteArrayInputStream(texto.getBytes(StandardCharsets.UTF_8)), formato);
+	}
+
+	@Test
+	void csvConComillasComasYSaltosDeLinea() throws IOException {
+		DaoLibro dao = new DaoLibro(2, false);
+		ResumenImportacion resumen = importar(carga(dao),
+				"id,titulo,editorial,nota\n"
+				+ "1,\"Uno, dos\",Editorial,\"Dice \"\"hola\"\"\"\n"
+				+ "2,Dos,\"Otra\",\"Primera linea\nsegunda linea\"\n"
+				+ "3,Tres\n",
+				FormatoCatalogo.CSV);
+		assertEquals(3, resumen.getLeidas());
+		assertEquals(3, resumen.getImportados());
+		assertEquals(0, resumen.getRechazados());
+		assertEquals("Uno, dos", dao.get(1).getTitulo());
+		assertEquals("Dice \"hola\"", dao.get(1).getNota());
+		assertEquals("Primera linea\nsegunda linea", dao.get(2).getNota());
+		assertNull(dao.get(3).getEditorial());
+	}
+
+	@Test
+	void csvRechazaLasLineasInvalidasYSigue() throws IOException {
+		DaoLibro dao = new DaoLibro(2, false);
+		ResumenImportacion resumen = importar(carga(dao),
+				"1,Uno\n"
+				+ "x,Sin id\n"
+				+ "2\n"
+				+ "3,Tres,a,b,c\n"
+				+ "4,Uno\n"
+				+ "5,Cinco\n",
+				FormatoCatalogo.CSV);
+		assertEquals(6, resumen.getLeidas());
+		assertEquals(2, resumen.getImportados());
+		assertEquals(1, resumen.getDuplicados());
+		assertEquals(3, resumen.getRechazados());
+		assertEquals(3, resumen.getErrores().size());
+		assertTrue(resumen.getErrores().get(0).startsWith("linea 2:"), resumen.getErrores().get(0));
+	}
+
+	//Una comilla suelta no puede tragarse el resto del fichero: se rechaza
+	//ese registro y las lineas siguientes se importan normalmente
+	@Test
+	void csvConUnaComillaSinCerrarSoloPierdeEseRegistro() throws IOException {
+		DaoLibro dao = new DaoLibro(2, false);
+		StringBuilder csv = new StringBuilder("1,\"Comilla suelta,Editorial\n");
+		int siguientes = LectorRegistrosCsv.MAXIMO_LINEAS + 50;
+		for (int id = 2; id <= siguientes + 1; id++) {
+			csv.append(id).append(",Libro ").append(id).append('\n');
+		}
+		ResumenImportacion resumen = importar(carga(dao), csv.toString(), FormatoCatalogo.CSV);
+		assertEquals(siguientes + 1, resumen.getLeidas());
+		assertEquals(siguientes, resumen.getImportados());
+		assertEquals(1, resumen.getRechazados());
+		assertTrue(resumen.getErrores().get(0).contains("comillas sin cerrar"), resumen.getErrores().get(0));
+		assertNull(dao.get(1));
+		assertEquals("Libro 2", dao.get(2).getTitulo());
+	}
+
+	@Test
+	void borrarLeeUnIdPorLinea() throws IOException {
+		DaoLibro dao = new DaoLibro(2, true);
+		ResumenBorrado resumen = carga(dao).borrar(new ByteArrayInputStream(
+				"1\n 3 \n\nx\n3\n99\n".getBytes(StandardCharsets.UTF_8)));
+		assertEquals(4, resumen.getLeidos());
+		assertEquals(2, resumen.getBorrados());
+		assertEquals(2, resumen.getNoEncontrados());
+		assertEquals(1, resumen.getRechazados());
+		assertNull(dao.get(1));
+		assertNull(dao.get(3));
+		assertEquals(3, dao.list().size());
+	}
+
+	//Exporta un catalogo de dos particiones de mas de un trozo cada una, y al
+	//volver a importarlo salen los mismos libros
+	@Test
+	void exportarEImportarDaElMismoCatalogo() throws IOException {
+		DaoLibro origen = new DaoLibro(2, false);
+		StringBuilder csv = new StringBuilder();
+		for (int id = 1; id <= 25_000; id++) {
+			csv.append(id).append(",\"Titulo ").append(id).append(", con coma\",Editorial ").append(id % 7)
+					.append(id % 5 == 0 ? ",\"nota\nen dos lineas\"" : ",nota").append('\n');
+		}
+		assertEquals(25_000, importar(carga(origen), csv.toString(), FormatoCatalogo.CSV).getImportados());
+
+		for (FormatoCatalogo formato : FormatoCatalogo.values()) {
+			ByteArrayOutputStream salida = new ByteArrayOutputStream();
+			carga(origen).exportar(salida, formato);
+			DaoLibro destino = new DaoLibro(3, false);
+			ResumenImportacion resumen = importar(carga(destino), salida.toString(StandardCharsets.UTF_8), formato);
+			assertEquals(25_000, resumen.getImportados(), formato.toString());
+			assertEquals(0, resumen.getRechazados(), formato.toString());
+			assertEquals(porId(origen), porId(destino), formato.toString());
+		}
+	}
+
+	//Una editorial o nota null y una vacia salen distintas al exportar en
+	//CSV ("" frente a nada) y se vuelven a importar igual que estaban
+	@Test
+	void exportarEImportarDistingueNullDeVacio() throws IOException {
+		DaoLibro origen = new DaoLibro(2, false);
+		origen.add(new Libro(1, "Sin editorial ni nota", null, null));
+		origen.add(new Libro(2, "Editorial y nota vacias", "", ""));
+		origen.add(new Libro(3, "Solo nota vacia", "Anaya", ""));
+		origen.add(new Libro(4, "Solo editorial vacia", "", "nota"));
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		carga(origen).exportar(salida, FormatoCatalogo.CSV);
+		String csv = salida.toString(StandardCharsets.UTF_8);
+		assertTrue(csv.contains("\n1,Sin editorial ni nota,,\n"), csv);
+		assertTrue(csv.contains("\n2,Editorial y nota vacias,\"\",\"\"\n"), csv);
+
+		for (FormatoCatalogo formato : FormatoCatalogo.values()) {
+			salida = new ByteArrayOutputStream();
+			carga(origen).exportar(salida, formato);
+			DaoLibro destino = new DaoLibro(3, false);
+			importar(carga(destino), salida.toString(StandardCharsets.UTF_8), formato);
+			assertEquals(porId(origen), porId(destino), formato.toString());
+			assertNull(destino.get(1).getEditorial(), formato.toString());
+			assertEquals("", destino.get(2).getNota(), formato.toString());
+		}
+	}
+
+	private static Map<Integer, String> porId(DaoLibro dao) {
+		Map<Integer, String> libros = new HashMap<Integer, String>();
+		for (Libro l : dao.list()) {
+			libros.put(l.getId(), l.getTitulo() + "|" + l.getEditorial() + "|" + l.getNota());
+		}
+		return libros;
+	}
+}
@@ -0,0 +1,226 @@
+package es.biblioteca.modelo.persistencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import es.biblioteca.modelo.entidad.EstadisticasCatalogo;
+import es.biblioteca.modelo.entidad.Libro;
+import es.biblioteca.modelo.entidad.ResultadoMultiple;
+
+class DaoLibroTests {
+
+	private static List<Integer> ids(List<Libro> libros) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Libro l : libros) {
+			ids.add(l.getId());
+		}
+		return ids;
+	}
+
+	//Modificar no toca el libro que ya se ha devuelto a otras peticiones,
+	//y los indices quedan apuntando al nuevo
+	@Test
+	void modificarSustituyeElLibroSinTocarElViejo() {
+		DaoLibro dao = new DaoLibro(2, true);
+		Libro viejo = dao.get(4);
+		Libro nuevo = dao.update(new Libro(4, "Java Saga II", "Code Masters", "Segunda parte"));
+
+		assertEquals("The Java Saga", viejo.getTitulo());
+		assertEquals("A thrilling tale of software development", viejo.getNota());
+		assertTrue(dao.get(4) == nuevo);
+		assertEquals("Java Saga II", nuevo.getTitulo());
+		assertEquals(List.of(1, 2, 3, 4, 5), ids(dao.list()));
+		assertTrue(dao.list().get(3) == nuevo);
+		assertEquals(List.of(4), ids(dao.listByTitulo("saga ii")));
+		assertTrue(dao.listByTitulo("the java saga").isEmpty());
+		assertEquals(List.of(4), ids(dao.listByEditorial("code masters")));
+		assertEquals(4, dao.buscar("segunda", 10).get(0).getLibro().getId());
+		assertTrue(dao.buscar("thrilling", 10).isEmpty());
+		assertEquals(List.of(4), ids(dao.listByTituloAproximado("jova saga", 1, 10)));
+		assertEquals(5, dao.estadisticas().getTotal());
+
+		//El titulo viejo queda libre y el nuevo ocupado
+		assertEquals(1, dao.add(new Libro(6, "The Java Saga", "Otra", "")));
+		assertEquals(-1, dao.add(new Libro(7, "Java Saga II", "Otra", "")));
+		assertNull(dao.update(new Libro(99, "No existe", "", "")));
+	}
+
+	@Test
+	void modificarSoloLaNotaDejaElOrdenPorTitulo() {
+		DaoLibro dao = new DaoLibro(2, true);
+		List<Integer> antes = ids(dao.listOrdenado(OrdenLibro.TITULO, null, null, null, null, null));
+		dao.update(new Libro(3, "Code Chronicles", "Geeky Publications", "Otra nota"));
+		List<Libro> despues = dao.listOrdenado(OrdenLibro.TITULO, null, null, null, null, null);
+		assertEquals(antes, ids(despues));
+		assertEquals("Otra nota", despues.get(antes.indexOf(3)).getNota());
+		assertEquals(5, dao.estadisticas().getTotal());
+	}
+
+	@Test
+	void borrarVariosQuitaLosLibrosDeLasParticionesYLosIndices() {
+		DaoLibro dao = new DaoLibro(3, false);
+		List<Libro> lote = new ArrayList<Libro>();
+		for (int id = 1; id <= 1000; id++) {
+			lote.add(new Libro(id, "Libro " + id, "Editorial " + (id % 10), "nota " + id));
+		}
+		dao.addAll(lote);
+		List<Integer> borrar = new ArrayList<Integer>();
+		List<Integer> quedan = new ArrayList<Integer>();
+		for (int id = 1; id <= 1000; id++) {
+			(id % 3 == 0 ? borrar : quedan).add(id);
+		}
+		borrar.add(3);
+		borrar.add(5000);
+		borrar.add(null);
+
+		assertEquals(333, dao.deleteAll(borrar));
+		assertEquals(quedan, ids(dao.list()));
+		assertEquals(667, dao.estadisticas().getTotal());
+		assertNull(dao.get(3));
+		assertTrue(dao.listByTitulo("libro 3").stream().allMatch(l -> l.getId() % 3 != 0));
+		assertTrue(dao.buscar("nota 999", 10).stream().noneMatch(r -> r.getLibro().getId() == 999));
+		assertEquals(1, dao.add(new Libro(3, "Libro 3", "Otra", "")));
+	}
+	
+	//Los libros salen en el orden pedido, sin repetidos, y los que no
+	//existen van aparte
+	@Test
+	void getVariosDevuelveEnOrdenYSinRepetidos() {
+		DaoLibro dao = new DaoLibro(3, true);
+		dao.delete(2);
+		ResultadoMultiple resultado = dao.getVarios(Arrays.asList(5, 2, 1, 99, 5, null, 3, 99));
+		assertEquals(List.of(5, 1, 3), ids(resultado.getLibros()));
+		assertEquals(List.of(2, 99), resultado.getIdsNoEncontrados());
+		assertTrue(dao.getVarios(new ArrayList<Integer>()).getLibros().isEmpty());
+	}
+	
+	//Con solo limite se sigue el orden de insercion y se para en el limite,
+	//y contar con filtros da lo mismo que filtrar la lista
+	@Test
+	void listarConLimiteRespetaElOrdenDeInsercionYContarUsaElFiltro() {
+		DaoLibro dao = new DaoLibro(3, true);
+		dao.add(new Libro(100, "Cien", "Anaya", ""));
+		dao.add(new Libro(0, "Cero", "Anaya", ""));
+		//Sin orden se respeta el orden de insercion, con limite o sin el
+		assertEquals(List.of(1, 2, 3), ids(dao.listOrdenado(null, null, null, null, null, 3)));
+		assertEquals(List.of(100, 0), ids(dao.listOrdenado(null, null, null, null, "anaya", 5)));
+		assertEquals(List.of(0, 1, 2), ids(dao.listOrdenado(OrdenLibro.ID, null, null, null, null, 3)));
+		assertEquals(List.of(1, 2, 3, 4, 5, 100, 0), ids(dao.listOrdenado(null, null, null, null, null, null)));
+
+		assertEquals(7, dao.contar(null, null));
+		assertEquals(2, dao.contar(null, "ANAYA"));
+		assertEquals(dao.listFiltrado("java", null).size(), dao.contar("java", null));
+		assertEquals(1, dao.contar("cien", "anaya"));
+		assertEquals(0, dao.contar("no existe", null));
+	}
+	
+	//Despues de altas, modificaciones, bajas y una carga masiva, los
+	//contadores dan lo mismo que contar recorriendo el catalogo
+	@Test
+	void lasEstadisticasCoincidenConElCatalogo() {
+		DaoLibro dao = new DaoLibro(3, true);
+		List<Libro> lote = new ArrayList<Libro>();
+		for (int id = 10; id < 2000; id++) {
+			lote.add(new Libro(id, "Libro numero " + id + "x".repeat(id % 120), id % 4 == 0 ? null : "Editorial " + (id % 13), ""));
+		}
+		dao.addAll(lote);
+		dao.update(new Libro(1, "Otro titulo para el primero", "Editorial 5", ""));
+		dao.update(new Libro(20, "Corto", "Nueva", ""));
+		dao.delete(2);
+		dao.deleteAll(List.of(30, 31, 32));
+
+		Map<String, Long> porEditorial = new HashMap<String, Long>();
+		long sumaLongitudes = 0;
+		List<Libro> todos = dao.list();
+		for (Libro l : todos) {
+			porEditorial.merge(l.getEditorial() == null ? "" : l.getEditorial(), 1L, Long::sum);
+			sumaLongitudes += l.getTitulo().length();
+		}
+		EstadisticasCatalogo e = dao.estadisticas();
+		assertEquals(todos.size(), e.getTotal());
+		assertEquals(porEditorial, e.getPorEditorial());
+		assertEquals((double) sumaLongitudes / todos.size(), e.getLongitudMediaTitulo(), 1e-9);
+		assertEquals(todos.size(), e.getLongitudTitulo().values().stream().mapToLong(Long::longValue).sum());
+	}
+	
+	//Con varios hilos de recorrido, las cargas masivas (que esperan a la
+	//indexacion con todos los cerrojos cogidos) y los listados en paralelo
+	//(que esperan a esos cerrojos) no se pueden bloquear entre si
+	@Test
+	void cargasMasivasYListadosEnParaleloNoSeBloquean() {
+		DaoLibro dao = new DaoLibro(4, false, 4);
+		try {
+			assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+				AtomicBoolean seguir = new AtomicBoolean(true);
+				List<Thread> lectores = new ArrayList<Thread>();
+				for (int i = 0; i < 4; i++) {
+					Thread lector = new Thread(() -> {
+						while (seguir.get()) {
+							dao.listFiltrado("libro", null);
+							dao.contar(null, "editorial 3");
+						}
+					});
+					lector.setDaemon(true);
+					lector.start();
+					lectores.add(lector);
+				}
+				for (int lote = 0; lote < 50; lote++) {
+					List<Libro> libros = new ArrayList<Libro>();
+					for (int i = 0; i < 2000; i++) {
+						int id = lote * 2000 + i;
+						libros.add(new Libro(id, "Libro " + id, "Editorial " + (id % 7), ""));
+					}
+					assertEquals(2000, dao.addAll(libros));
+				}
+				seguir.set(false);
+				for (Thread lector : lectores) {
+					lector.join();
+				}
+			});
+			assertEquals(100_000, dao.contar("libro", null));
+		} finally {
+			dao.cerrar();
+		}
+	}
+	
+	//Mientras se modifica un libro una y otra vez, las lecturas por id
+	//siempre lo encuentran y nunca ven un libro con los campos mezclados
+	@Test
+	void lasLecturasNoVenModificacionesAMedias() throws InterruptedException {
+		DaoLibro dao = new DaoLibro(2, true);
+		AtomicBoolean seguir = new AtomicBoolean(true);
+		AtomicReference<String> error = new AtomicReference<String>();
+		Thread lector = new Thread(() -> {
+			while (seguir.get() && error.get() == null) {
+				Libro l = dao.get(2);
+				if (l == null) {
+					error.set("404 durante la modificacion");
+				} else if (!l.getEditorial().equals("Editorial de " + l.getTitulo())) {
+					error.set("libro a medias: " + l.getTitulo() + " / " + l.getEditorial());
+				}
+			}
+		});
+		dao.update(new Libro(2, "Titulo 0", "Editorial de Titulo 0", ""));
+		lector.start();
+		for (int i = 1; i <= 20_000 && error.get() == null; i++) {
+			assertNotNull(dao.update(new Libro(2, "Titulo " + i, "Editorial de Titulo " + i, "")));
+		}
+		seguir.set(false);
+		lector.join();
+		assertNull(error.get());
+	}
+}
@@ -0,0 +1,134 @@
+package es.biblioteca.modelo.persistencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import es.biblioteca.modelo.entidad.Libro;
+
+class InstantaneaCatalogoTests {
+
+	@TempDir
+	Path directorio;
+
+	private static List<Libro> libros(int n) {
+		List<Libro> libros = new ArrayList<Libro>(n);
+		for (int id = n; id >= 1; id--) {
+			libros.add(new Libro(id, "Titulo " + id, id % 3 == 0 ? null : "Editorial " + (id % 7),
+					id % 5 == 0 ? "nota con acentos: canción" : "nota " + id));
+		}
+		return libros;
+	}
+
+	@Test
+	void loQueSeEscribeSeLeeIgual() throws IOException {
+		Path fichero = directorio.resolve("catalogo.bin");
+		List<Libro> escritos = libros(1000);
+		InstantaneaCatalogo.escribir(fichero, escritos);
+
+		InstantaneaCatalogo instantanea = InstantaneaCatalogo.abrir(fichero);
+		assertEquals(1000, instantanea.getNumeroLibros());
+		List<Libro> leidos = new ArrayList<Libro>();
+		instantanea.recorrer(leidos::add);
+		assertEquals(texto(escritos), texto(leidos));
+		assertEquals("Titulo 15", instantanea.leer(15).getTitulo());
+		assertNull(instantanea.leer(15).getEditorial());
+		assertNull(instantanea.leer(0));
+		assertNull(instantanea.leer(1001));
+	}
+
+	//Cada escritura usa su propio temporal, asi que varias a la vez no fallan
+	//y el fichero que queda es una instantanea completa de una de ellas
+	@Test
+	void escriturasALaVezNoSePisan() throws Exception {
+		Path fichero = directorio.resolve("catalogo.bin");
+		ExecutorService hilos = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Long>> escrituras = new ArrayList<Future<Long>>();
+			for (int i = 0; i < 8; i++) {
+				int n = 5000 + i;
+				escrituras.add(hilos.submit(() -> InstantaneaCatalogo.escribir(fichero, libros(n))));
+			}
+			for (Future<Long> escritura : escrituras) {
+				escritura.get();
+			}
+		} finally {
+			hilos.shutdown();
+		}
+		InstantaneaCatalogo instantanea = InstantaneaCatalogo.abrir(fichero);
+		assertEquals(texto(libros(instantanea.getNumeroLibros())), texto(leerTodos(instantanea)));
+		try (Stream<Path> ficheros = Files.list(directorio)) {
+			assertEquals(1, ficheros.count());
+		}
+	}
+
+	//Las escrituras hechas mientras se construyen los indices se ven al
+	//momento por id y quedan aplicadas cuando termina la carga
+	@Test
+	void lasEscriturasDuranteLaCargaSeAplicanAlTerminar() throws IOException {
+		Path fichero = directorio.resolve("catalogo.bin");
+		int n = 100_000;
+		InstantaneaCatalogo.escribir(fichero, libros(n));
+		DaoLibro dao = new DaoLibro(2, false);
+		ReflectionTestUtils.setField(dao, "ficheroInstantanea", fichero.toString());
+		dao.abrirInstantanea();
+
+		assertEquals(1, dao.add(new Libro(n + 1, "Nuevo", "Editorial", "")));
+		assertEquals(-1, dao.add(new Libro(n + 2, "Titulo 7", "Editorial", "")));
+		assertEquals(-1, dao.add(new Libro(7, "Otro titulo", "Editorial", "")));
+		assertEquals("Titulo 10", dao.delete(10).getTitulo());
+		assertNull(dao.delete(10));
+		assertEquals("Modificado", dao.update(new Libro(20, "Modificado", "Otra", "")).getTitulo());
+		assertEquals(1, dao.add(new Libro(n + 3, "Titulo 10", "Editorial", "")));
+		assertNull(dao.get(10));
+		assertEquals("Modificado", dao.get(20).getTitulo());
+		assertEquals("Nuevo", dao.get(n + 1).getTitulo());
+		assertEquals(List.of(20, n + 1), ids(dao.getVarios(List.of(10, 20, n + 1)).getLibros()));
+
+		List<Libro> todos = dao.list();
+		assertEquals(n + 1, todos.size());
+		assertEquals(n + 1, dao.estadisticas().getTotal());
+		assertNull(dao.get(10));
+		assertEquals("Modificado", dao.get(20).getTitulo());
+		assertEquals(List.of(20), ids(dao.listByTitulo("modificado")));
+		assertEquals(List.of(n + 3), ids(todos.stream().filter(l -> "Titulo 10".equals(l.getTitulo())).toList()));
+		assertEquals(n + 3, todos.get(todos.size() - 1).getId());
+		assertEquals(-1, dao.add(new Libro(n + 4, "Titulo 8", "Editorial", "")));
+		assertEquals(1, dao.add(new Libro(n + 4, "Titulo 20", "Editorial", "")));
+	}
+
+	private static List<Libro> leerTodos(InstantaneaCatalogo instantanea) {
+		List<Libro> libros = new ArrayList<Libro>();
+		instantanea.recorrer(libros::add);
+		return libros;
+	}
+
+	private static List<String> texto(List<Libro> libros) {
+		List<String> texto = new ArrayList<String>(libros.size());
+		for (Libro l : libros) {
+			texto.add(l.getId() + "|" + l.getTitulo() + "|" + l.getEditorial() + "|" + l.getNota());
+		}
+		return texto;
+	}
+
+	private static List<Integer> ids(List<Libro> libros) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Libro l : libros) {
+			ids.add(l.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,114 @@
+package es.biblioteca.modelo.persistencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import es.biblioteca.modelo.entidad.Libro;
+
+class ParticionLibrosTests {
+
+	private static ParticionLibros[] particiones(int n) {
+		ParticionLibros[] particiones = new ParticionLibros[n];
+		for (int i = 0; i < n; i++) {
+			particiones[i] = new ParticionLibros();
+		}
+		return particiones;
+	}
+
+	private static List<Integer> ids(List<Libro> libros) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Libro l : libros) {
+			ids.add(l.getId());
+		}
+		return ids;
+	}
+
+	//Los libros se reparten al azar entre un numero impar de particiones,
+	//para que la mezcla tenga mitades de distinto tamaño, y al recorrerlas
+	//tienen que salir en el orden en que se insertaron
+	@Test
+	void recorrerMezclaLasParticionesEnOrdenDeInsercion() {
+		Random r = new Random(5);
+		ParticionLibros[] particiones = particiones(7);
+		List<Integer> esperados = new ArrayList<Integer>();
+		for (int secuencia = 1; secuencia <= 5000; secuencia++) {
+			int id = r.nextInt(1_000_000);
+			particiones[r.nextInt(particiones.length)].add(secuencia, new Libro(id, "Libro " + id, null, null));
+			esperados.add(id);
+		}
+		List<Integer> pares = new ArrayList<Integer>();
+		for (Integer id : esperados) {
+			if (id % 2 == 0) {
+				pares.add(id);
+			}
+		}
+		//En el hilo que llama y repartido entre varios hilos
+		ForkJoinPool hilos = new ForkJoinPool(3);
+		try {
+			for (ForkJoinPool pool : new ForkJoinPool[] { null, hilos }) {
+				assertEquals(esperados, ids(ParticionLibros.recorrer(particiones, null, pool)));
+				assertEquals(pares, ids(ParticionLibros.recorrer(particiones, l -> l.getId() % 2 == 0, pool)));
+				assertEquals(pares.size(), ParticionLibros.contar(particiones, l -> l.getId() % 2 == 0, pool));
+			}
+		} finally {
+			hilos.shutdown();
+		}
+	}
+
+	@Test
+	void recorrerConParticionesVacias() {
+		ParticionLibros[] particiones = particiones(4);
+		assertTrue(ParticionLibros.recorrer(particiones, null, null).isEmpty());
+		particiones[2].add(1, new Libro(10));
+		particiones[2].add(2, new Libro(20));
+		assertEquals(List.of(10, 20), ids(ParticionLibros.recorrer(particiones, null, null)));
+	}
+
+	@Test
+	void quitarYReemplazarMantienenElOrden() {
+		ParticionLibros[] particiones = particiones(2);
+		Libro[] libros = new Libro[6];
+		for (int i = 0; i < libros.length; i++) {
+			libros[i] = new Libro(i + 1);
+			particiones[i % 2].add(i + 1, libros[i]);
+		}
+		assertTrue(particiones[0].remove(libros[2]));
+		assertTrue(!particiones[0].remove(new Libro(1)));
+		Libro nuevo = new Libro(4, "Nuevo", null, null);
+		assertTrue(particiones[1].reemplazar(libros[3], nuevo));
+		List<Libro> recorridos = ParticionLibros.recorrer(particiones, null, null);
+		assertEquals(List.of(1, 2, 4, 5, 6), ids(recorridos));
+		assertTrue(recorridos.get(2) == nuevo);
+	}
+
+	//Copiando por trozos desde la ultima secuencia se recorre la particion
+	//entera aunque entre un trozo y otro se borren libros
+	@Test
+	void copiarDesdeSigueDondeSeQuedo() {
+		ParticionLibros particion = new ParticionLibros();
+		Libro[] libros = new Libro[10];
+		for (int i = 0; i < libros.length; i++) {
+			libros[i] = new Libro(i + 1);
+			particion.add(10L * (i + 1), libros[i]);
+		}
+		List<Libro> copiados = new ArrayList<Libro>();
+		long ultima = particion.copiarDesde(0, 4, copiados);
+		assertEquals(40, ultima);
+		particion.remove(libros[3]);
+		particion.remove(libros[4]);
+		ultima = particion.copiarDesde(ultima, 4, copiados);
+		assertEquals(90, ultima);
+		ultima = particion.copiarDesde(ultima, 4, copiados);
+		assertEquals(List.of(1, 2, 3, 4, 6, 7, 8, 9, 10), ids(copiados));
+		assertEquals(100, ultima);
+		assertEquals(100, particion.copiarDesde(ultima, 4, copiados));
+		assertEquals(9, copiados.size());
+	}
+}
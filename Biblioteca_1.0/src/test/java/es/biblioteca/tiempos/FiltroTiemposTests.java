@@ -0,0 +1,186 @@
+package es.biblioteca.tiempos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class FiltroTiemposTests {
+
+	private static final int MAXIMO = 1024;
+
+	//Escribe un cuerpo de n bytes en trozos de 100, como haria Jackson, y
+	//apunta cuanto habia llegado a la respuesta real antes de acabar
+	private static final class Servlet extends HttpServlet {
+
+		private final byte[] cuerpo;
+		private final MockHttpServletResponse real;
+		private int mandadosAntesDeAcabar = -1;
+
+		Servlet(int n, MockHttpServletResponse real) {
+			this.cuerpo = new byte[n];
+			Arrays.fill(cuerpo, (byte) 'x');
+			this.real = real;
+		}
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			TiemposPeticion.actual().marcar(AdviceTiempos.JSON_SALIDA);
+			resp.setContentType("application/json");
+			for (int i = 0; i < cuerpo.length; i += 100) {
+				resp.getOutputStream().write(cuerpo, i, Math.min(100, cuerpo.length - i));
+			}
+			mandadosAntesDeAcabar = real.getContentAsByteArray().length;
+		}
+	}
+
+	private static MockHttpServletResponse peticion(Servlet servlet, MockHttpServletResponse real)
+			throws IOException, ServletException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/libros/");
+		request.setServletPath("/libros/");
+		new MockFilterChain(servlet, new FiltroTiempos(true, MAXIMO)).doFilter(request, real);
+		return real;
+	}
+
+	@Test
+	void unCuerpoPequenoSeGuardaYLlevaElJsonDeSalida() throws Exception {
+		MockHttpServletResponse real = new MockHttpServletResponse();
+		Servlet servlet = new Servlet(500, real);
+		peticion(servlet, real);
+		assertEquals(0, servlet.mandadosAntesDeAcabar);
+		assertEquals(500, real.getContentAsByteArray().length);
+		String serverTiming = real.getHeader(FiltroTiempos.SERVER_TIMING);
+		assertTrue(serverTiming.contains("json-salida;dur="), serverTiming);
+		assertTrue(serverTiming.contains("total;dur="), serverTiming);
+		assertNotNull(real.getHeader(FiltroTiempos.TRACEPARENT));
+	}
+
+	//Un cuerpo grande se empieza a mandar al pasar del maximo, con
+	//Server-Timing pero sin el JSON de salida, y llega entero
+	@Test
+	void unCuerpoGrandeSeMandaSinGuardarlo() throws Exception {
+		MockHttpServletResponse real = new MockHttpServletResponse();
+		Servlet servlet = new Servlet(50_000, real);
+		peticion(servlet, real);
+		assertTrue(servlet.mandadosAntesDeAcabar > 50_000 - MAXIMO, "mandados " + servlet.mandadosAntesDeAcabar);
+		assertArrayEquals(servlet.cuerpo, real.getContentAsByteArray());
+		String serverTiming = real.getHeader(FiltroTiempos.SERVER_TIMING);
+		assertTrue(serverTiming.contains("total;dur="), serverTiming);
+		assertFalse(serverTiming.contains("json-salida"), serverTiming);
+	}
+
+	@Test
+	void sinCuerpoTambienLlevaServerTiming() throws Exception {
+		MockHttpServletResponse real = new MockHttpServletResponse();
+		MockHttpServletRequest request = new MockHttpServletRequest("DELETE", "/libros/1");
+		new MockFilterChain(new HttpServlet() {
+			@Override
+			protected void doDelete(HttpServletRequest req, HttpServletResponse resp) {
+				resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			}
+		}, new FiltroTiempos(true, MAXIMO)).doFilter(request, real);
+		assertEquals(204, real.getStatus());
+		assertEquals(0, real.getContentAsByteArray().length);
+		assertNotNull(real.getHeader(FiltroTiempos.SERVER_TIMING));
+	}
+
+	//Si el JSON de entrada no se puede convertir la marca de la entrada se
+	//queda puesta, y la respuesta de error no la cuenta como salida
+	@Test
+	void unaEntradaQueNoSePuedeLeerNoCuentaComoSalida() throws Exception {
+		MockHttpServletResponse real = new MockHttpServletResponse();
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/libros/consulta");
+		new MockFilterChain(new HttpServlet() {
+			@Override
+			protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+				TiemposPeticion.actual().marcar(AdviceTiempos.JSON_ENTRADA);
+				resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			}
+		}, new FiltroTiempos(true, MAXIMO)).doFilter(request, real);
+		assertEquals(400, real.getStatus());
+		String serverTiming = real.getHeader(FiltroTiempos.SERVER_TIMING);
+		assertFalse(serverTiming.contains("json-salida"), serverTiming);
+		assertFalse(serverTiming.contains("json-entrada"), serverTiming);
+	}
+
+	//Con setWriteListener se manda lo guardado y el listener y isReady son
+	//los de la salida real
+	@Test
+	void laEscrituraNoBloqueanteVaALaRespuestaReal() throws Exception {
+		MockHttpServletResponse mock = new MockHttpServletResponse();
+		SalidaNoBloqueante salidaReal = new SalidaNoBloqueante(mock.getOutputStream());
+		HttpServletResponse real = new HttpServletResponseWrapper(mock) {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				return salidaReal;
+			}
+		};
+		boolean[] avisado = new boolean[1];
+		RespuestaAcotada respuesta = new RespuestaAcotada(real, MAXIMO, () -> avisado[0] = true);
+		ServletOutputStream salida = respuesta.getOutputStream();
+		salida.write(new byte[] { 'a', 'b', 'c' });
+		assertTrue(salida.isReady());
+		assertEquals(0, mock.getContentAsByteArray().length);
+
+		WriteListener listener = new WriteListener() {
+			@Override
+			public void onWritePossible() {
+			}
+
+			@Override
+			public void onError(Throwable t) {
+			}
+		};
+		salida.setWriteListener(listener);
+		assertTrue(avisado[0]);
+		assertTrue(respuesta.isMandando());
+		assertEquals("abc", mock.getContentAsString());
+		assertTrue(salidaReal.listener == listener);
+		assertFalse(salida.isReady());
+		salida.write('d');
+		assertEquals("abcd", mock.getContentAsString());
+	}
+
+	//Salida real que admite un WriteListener y dice que no esta lista
+	private static final class SalidaNoBloqueante extends ServletOutputStream {
+
+		private final ServletOutputStream destino;
+		private WriteListener listener;
+
+		SalidaNoBloqueante(ServletOutputStream destino) {
+			this.destino = destino;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			destino.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return listener == null;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			this.listener = listener;
+		}
+	}
+}